@@ -47,6 +47,14 @@ android {
     testOptions {
         unitTests {
             isIncludeAndroidResources = true
+            // Timing benchmarks only run with -Pbenchmarks, and then show their output
+            all {
+                if (!project.hasProperty("benchmarks")) {
+                    it.exclude("**/*Benchmark.class")
+                } else {
+                    it.testLogging.showStandardStreams = true
+                }
+            }
         }
     }
 
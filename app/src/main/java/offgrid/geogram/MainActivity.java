@@ -46,8 +46,7 @@ import offgrid.geogram.devices.ConnectionType;
 import offgrid.geogram.devices.DeviceManager;
 import offgrid.geogram.devices.DeviceType;
 import offgrid.geogram.devices.EventDeviceUpdated;
-import offgrid.geogram.events.EventControl;
-import offgrid.geogram.events.EventType;
+import offgrid.geogram.events.EventBus;
 import offgrid.geogram.fragments.AboutFragment;
 import offgrid.geogram.fragments.AiChatFragment;
 import offgrid.geogram.fragments.BackupFragment;
@@ -379,9 +378,9 @@ public class MainActivity extends AppCompatActivity {
 
     private void setupEvents() {
         // add the action to the event
-        EventControl.addEvent(EventType.DEVICE_UPDATED,
-                new EventDeviceUpdated(TAG + "-device_updated")
-        );
+        // updates the device list, so it runs on the main thread
+        EventBus.getInstance().subscribe(DeviceManager.DEVICE_UPDATED, TAG + "-device_updated",
+                EventBus.Dispatch.MAIN, new EventDeviceUpdated());
     }
 
     private void addDummyConnection() {
@@ -601,12 +600,7 @@ public class MainActivity extends AppCompatActivity {
 
         try {
             // Count unread messages that were NOT written by me
-            int unreadCount = 0;
-            for (offgrid.geogram.apps.chat.ChatMessage message : offgrid.geogram.database.DatabaseMessages.getInstance().getMessages()) {
-                if (!message.isWrittenByMe() && !message.isRead()) {
-                    unreadCount++;
-                }
-            }
+            int unreadCount = offgrid.geogram.database.DatabaseMessages.getInstance().getUnreadCount();
 
             if (unreadCount > 0) {
                 chatCountBadge.setText(String.valueOf(unreadCount));
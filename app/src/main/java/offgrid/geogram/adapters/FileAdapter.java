@@ -20,9 +20,11 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import offgrid.geogram.R;
 import offgrid.geogram.models.CollectionFile;
+import offgrid.geogram.util.ThumbnailCache;
 
 public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
 
@@ -113,6 +115,12 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
         notifyDataSetChanged();
     }
 
+    public void appendFiles(List<CollectionFile> moreFiles) {
+        int start = files.size();
+        files.addAll(moreFiles);
+        notifyItemRangeInserted(start, moreFiles.size());
+    }
+
     static class ViewHolder extends RecyclerView.ViewHolder {
         private final ImageView fileIcon;
         private final TextView fileName;
@@ -123,6 +131,8 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
         private final ImageView downloadIcon;
         private final TextView downloadProgress;
         private final ImageView downloadFolderButton;
+        // Thumbnail still loading for this row, if any
+        private Future<?> thumbnailRequest;
 
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -148,6 +158,10 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
             android.util.Log.d("FileAdapter", "  deviceId=" + deviceId);
             android.util.Log.d("FileAdapter", "  collectionNpub=" + collectionNpub);
             fileName.setText(file.getName());
+            // Drop any thumbnail still loading for the file this row showed before
+            fileIcon.setTag(null);
+            ThumbnailCache.getInstance().cancel(thumbnailRequest);
+            thumbnailRequest = null;
 
             // Set icon based on type
             if (file.isDirectory()) {
@@ -457,38 +471,29 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
                 return;
             }
 
-            android.util.Log.d("FileAdapter", "  → File exists, decoding...");
-            try {
-                // Load image with downsampling to save memory
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
-
-                // Calculate inSampleSize to create thumbnail
-                int targetSize = 200; // Target thumbnail size in pixels
-                options.inSampleSize = calculateInSampleSize(options, targetSize, targetSize);
-                options.inJustDecodeBounds = false;
+            // Placeholder until the cached thumbnail is ready
+            fileIcon.setImageResource(R.drawable.ic_file);
+            fileIcon.setImageTintList(android.content.res.ColorStateList.valueOf(0xFFFFFFFF));
+            fileIcon.setScaleType(ImageView.ScaleType.FIT_CENTER);
 
-                Bitmap thumbnail = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+            // Rows are recycled while thumbnails load, only show it if the row still wants it
+            fileIcon.setTag(fullPath);
+            android.util.Log.d("FileAdapter", "  → File exists, loading cached thumbnail...");
+            thumbnailRequest = ThumbnailCache.getInstance().load(new File(storagePath), filePath, thumbnail -> {
                 android.util.Log.d("FileAdapter", "  thumbnail=" + (thumbnail != null ? (thumbnail.getWidth() + "x" + thumbnail.getHeight()) : "null"));
-
-                if (thumbnail != null) {
-                    android.util.Log.d("FileAdapter", "  ✓ Thumbnail decoded successfully, displaying...");
-                    fileIcon.setImageTintList(null); // Remove tint for actual images
-                    fileIcon.setImageBitmap(thumbnail);
-                    fileIcon.setScaleType(ImageView.ScaleType.CENTER_CROP);
-                } else {
-                    android.util.Log.w("FileAdapter", "  ✗ Thumbnail decode returned null");
-                    fileIcon.setImageResource(R.drawable.ic_file);
-                    fileIcon.setImageTintList(android.content.res.ColorStateList.valueOf(0xFFFFFFFF));
-                    fileIcon.setScaleType(ImageView.ScaleType.FIT_CENTER);
-                }
-            } catch (Exception e) {
-                android.util.Log.e("FileAdapter", "  ✗ Exception loading thumbnail: " + e.getMessage(), e);
-                fileIcon.setImageResource(R.drawable.ic_file);
-                fileIcon.setImageTintList(android.content.res.ColorStateList.valueOf(0xFFFFFFFF));
-                fileIcon.setScaleType(ImageView.ScaleType.FIT_CENTER);
-            }
+                fileIcon.post(() -> {
+                    if (!fullPath.equals(fileIcon.getTag())) {
+                        return;
+                    }
+                    if (thumbnail != null) {
+                        fileIcon.setImageTintList(null); // Remove tint for actual images
+                        fileIcon.setImageBitmap(thumbnail);
+                        fileIcon.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                    } else {
+                        android.util.Log.w("FileAdapter", "  ✗ Thumbnail decode returned null");
+                    }
+                });
+            });
             android.util.Log.d("FileAdapter", "loadThumbnail() END");
         }
 
@@ -498,8 +503,10 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
             fileIcon.setImageTintList(android.content.res.ColorStateList.valueOf(0xFFFFFFFF));
             fileIcon.setScaleType(ImageView.ScaleType.FIT_CENTER);
 
-            // Load thumbnail in background thread
-            new Thread(() -> {
+            // Load thumbnail on the shared thumbnail threads
+            String tag = "remote:" + collectionNpub + "/" + filePath;
+            fileIcon.setTag(tag);
+            thumbnailRequest = ThumbnailCache.getInstance().execute(() -> {
                 try {
                     String path = "/api/collections/" + collectionNpub + "/thumbnail/" + filePath;
                     android.util.Log.d("FileAdapter", "Loading remote thumbnail: " + path + " (deviceId=" + deviceId + ", remoteIp=" + remoteIp + ")");
@@ -522,6 +529,9 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
                                 android.util.Log.d("FileAdapter", "Thumbnail decoded successfully: " + thumbnail.getWidth() + "x" + thumbnail.getHeight());
                                 // Update UI on main thread
                                 fileIcon.post(() -> {
+                                    if (!tag.equals(fileIcon.getTag())) {
+                                        return;
+                                    }
                                     fileIcon.setImageTintList(null); // Remove tint for actual images
                                     fileIcon.setImageBitmap(thumbnail);
                                     fileIcon.setScaleType(ImageView.ScaleType.CENTER_CROP);
@@ -540,24 +550,7 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
                     android.util.Log.e("FileAdapter", "Error loading remote thumbnail: " + e.getMessage(), e);
                     // Keep default file icon on error
                 }
-            }).start();
-        }
-
-        private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-            final int height = options.outHeight;
-            final int width = options.outWidth;
-            int inSampleSize = 1;
-
-            if (height > reqHeight || width > reqWidth) {
-                final int halfHeight = height / 2;
-                final int halfWidth = width / 2;
-
-                while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
-                    inSampleSize *= 2;
-                }
-            }
-
-            return inSampleSize;
+            });
         }
 
         /**
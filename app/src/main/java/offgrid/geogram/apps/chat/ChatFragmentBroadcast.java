@@ -334,6 +334,7 @@ public class ChatFragmentBroadcast extends Fragment {
                     ChatMessage savedMessage = findRecentMessage(message, 5000);
                     if (savedMessage != null) {
                         savedMessage.addChannel(ChatMessageType.INTERNET);
+                        DatabaseMessages.getInstance().update(savedMessage);
                         DatabaseMessages.getInstance().flushNow();
                         Log.i(TAG, "Added INTERNET channel to BLE message");
                     } else {
@@ -823,18 +824,9 @@ public class ChatFragmentBroadcast extends Fragment {
      */
     private void markAllMessagesAsRead() {
         try {
-            boolean hasChanges = false;
-            for (ChatMessage message : DatabaseMessages.getInstance().getMessages()) {
-                // Only mark messages we received (not written by us) as read
-                if (!message.isWrittenByMe() && !message.isRead()) {
-                    message.setRead(true);
-                    hasChanges = true;
-                }
-            }
-
-            // Save changes to database if any messages were marked as read
-            if (hasChanges) {
-                DatabaseMessages.getInstance().flushNow();
+            // Only messages we received (not written by us) count as unread
+            int marked = DatabaseMessages.getInstance().markAllAsRead();
+            if (marked > 0) {
                 Log.d(TAG, "Marked all received messages as read");
             }
         } catch (Exception e) {
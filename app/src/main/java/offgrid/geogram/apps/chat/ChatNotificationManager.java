@@ -10,9 +10,7 @@ import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeSet;
 
 import offgrid.geogram.MainActivity;
 import offgrid.geogram.R;
@@ -167,19 +165,8 @@ public class ChatNotificationManager {
      * Get list of unread messages (most recent first)
      */
     private List<ChatMessage> getUnreadMessages() {
-        List<ChatMessage> unreadMessages = new ArrayList<>();
-
-        TreeSet<ChatMessage> allMessages = DatabaseMessages.getInstance().getMessages();
-        for (ChatMessage message : allMessages) {
-            if (!message.isWrittenByMe() && !message.isRead()) {
-                unreadMessages.add(message);
-            }
-        }
-
-        // Sort by timestamp descending (most recent first)
-        unreadMessages.sort((m1, m2) -> Long.compare(m2.timestamp, m1.timestamp));
-
-        return unreadMessages;
+        // Already sorted most recent first
+        return DatabaseMessages.getInstance().getUnreadMessages();
     }
 
     /**
@@ -6,6 +6,7 @@ import offgrid.geogram.ble.events.EventBleBroadcastMessageReceived;
 import offgrid.geogram.ble.events.EventBleBroadcastMessageSent;
 import offgrid.geogram.ble.events.EventBleMessageReceived;
 import offgrid.geogram.core.Log;
+import offgrid.geogram.events.EventBus;
 import offgrid.geogram.events.EventControl;
 import offgrid.geogram.events.EventType;
 // Removed (legacy Google Play Services code) - import offgrid.geogram.old.EddystoneBeacon_unused;
@@ -81,9 +82,11 @@ public class BluetoothCentral {
     }
 
     private void setupEvents() {
-        // handle the case a new package being received as complete
+        // handle the case a new package being received as complete, off the
+        // GATT callback thread since handling can write to the database
         EventControl.addEvent(EventType.BLUETOOTH_MESSAGE_RECEIVED,
-                new EventBleMessageReceived(TAG + "-packageReceived")
+                new EventBleMessageReceived(TAG + "-packageReceived"),
+                EventBus.Dispatch.IO
         );
 
         EventControl.addEvent(EventType.BLE_BROADCAST_RECEIVED,
@@ -0,0 +1,325 @@
+package offgrid.geogram.ble;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing for GATT parcels.
+ *
+ * Text parcels carry their routing as ASCII ("AB03:payload", header
+ * "AB00:SENDER:DEST:CHKS") and are limited to 99 parcels by the two-digit
+ * index. Peers that negotiate binary framing on the CONTROL characteristic
+ * ("CAP:BIN1") exchange frames instead:
+ *
+ * <pre>
+ * [magic 0xB1][flags:1][message id:2][sequence:varint]
+ *   header (sequence 0): [parcel count:varint][sender len:varint][sender]
+ *                        [destination len:varint][destination][checksum:4]
+ *                        [message crc32c:4] (when FLAG_CRC32C)
+ *   data (sequence 1..n): [payload bytes...]
+ *   [frame crc32c:4] (when FLAG_CRC32C, over every byte before it)
+ * </pre>
+ *
+ * A frame failing its CRC decodes to null and is not acknowledged, so the
+ * sender's ACK timeout retransmits just that frame.
+ *
+ * The magic byte is never the first byte of a text parcel (those start with
+ * '>' or ASCII), so both formats can arrive on the same characteristic.
+ * Single-parcel commands (pings, /repeat, ...) stay in text form since they
+ * carry no framing overhead to save.
+ */
+public class BluetoothFrame {
+
+    public static final byte MAGIC = (byte) 0xB1;
+    public static final String CAPABILITY = "BIN1";
+
+    public static final int FLAG_HEADER = 0x01;
+    public static final int FLAG_CRC32C = 0x02;
+
+    // Never use frames smaller than a text parcel would have been
+    public static final int MIN_FRAME_SIZE = 48;
+
+    private static final int FIXED_SIZE = 4; // magic + flags + 2-byte message id
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int CRC_SIZE = 4;
+
+    private final String messageId;
+    private final int sequence;
+    private final int flags;
+
+    // Header fields
+    private final int parcelCount;
+    private final String sender;
+    private final String destination;
+    private final String checksum;
+    private final int messageCrc;
+
+    // Data payload (view into the received frame, not a copy)
+    private final ByteBuffer payload;
+
+    private BluetoothFrame(String messageId, int sequence, int flags, int parcelCount,
+                           String sender, String destination, String checksum, int messageCrc,
+                           ByteBuffer payload) {
+        this.messageId = messageId;
+        this.sequence = sequence;
+        this.flags = flags;
+        this.parcelCount = parcelCount;
+        this.sender = sender;
+        this.destination = destination;
+        this.checksum = checksum;
+        this.messageCrc = messageCrc;
+        this.payload = payload;
+    }
+
+    /**
+     * Create the header frame (sequence 0) of a message.
+     *
+     * @param parcelCount Number of data frames that follow
+     */
+    public static BluetoothFrame header(String messageId, int parcelCount,
+                                        String sender, String destination, String checksum) {
+        return new BluetoothFrame(messageId, 0, FLAG_HEADER, parcelCount, sender, destination, checksum, 0, null);
+    }
+
+    /**
+     * Create a CRC-protected header frame (sequence 0) of a message.
+     *
+     * @param parcelCount Number of data frames that follow
+     * @param messageCrc CRC32C of the complete message bytes
+     */
+    public static BluetoothFrame header(String messageId, int parcelCount, String sender,
+                                        String destination, String checksum, int messageCrc) {
+        return new BluetoothFrame(messageId, 0, FLAG_HEADER | FLAG_CRC32C, parcelCount,
+                sender, destination, checksum, messageCrc, null);
+    }
+
+    /**
+     * Create a data frame carrying part of a message.
+     *
+     * @param sequence Frame index, starting at 1
+     */
+    public static BluetoothFrame data(String messageId, int sequence, byte[] data, int offset, int length) {
+        return new BluetoothFrame(messageId, sequence, FLAG_CRC32C, 0, null, null, null, 0,
+                ByteBuffer.wrap(data, offset, length).slice());
+    }
+
+    /**
+     * Quick check whether raw characteristic data is a binary frame.
+     */
+    public static boolean isFrame(byte[] data) {
+        return data != null && data.length > FIXED_SIZE && data[0] == MAGIC;
+    }
+
+    /**
+     * Bytes taken by everything but the payload in a data frame.
+     */
+    public static int dataOverhead(int sequence) {
+        return FIXED_SIZE + varintSize(sequence) + CRC_SIZE;
+    }
+
+    /**
+     * Serialize the frame for a GATT write.
+     */
+    public byte[] encode() {
+        int size = FIXED_SIZE + varintSize(sequence);
+        byte[] senderBytes = null;
+        byte[] destinationBytes = null;
+        if (isHeader()) {
+            senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+            destinationBytes = destination.getBytes(StandardCharsets.UTF_8);
+            size += varintSize(parcelCount)
+                    + varintSize(senderBytes.length) + senderBytes.length
+                    + varintSize(destinationBytes.length) + destinationBytes.length
+                    + CHECKSUM_SIZE;
+            if (hasCrc()) {
+                size += CRC_SIZE;
+            }
+        } else {
+            size += payload.remaining();
+        }
+        if (hasCrc()) {
+            size += CRC_SIZE;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC);
+        buffer.put((byte) flags);
+        buffer.put((byte) messageId.charAt(0));
+        buffer.put((byte) messageId.charAt(1));
+        putVarint(buffer, sequence);
+
+        if (isHeader()) {
+            putVarint(buffer, parcelCount);
+            putVarint(buffer, senderBytes.length);
+            buffer.put(senderBytes);
+            putVarint(buffer, destinationBytes.length);
+            buffer.put(destinationBytes);
+            buffer.put(checksum.getBytes(StandardCharsets.US_ASCII), 0, CHECKSUM_SIZE);
+            if (hasCrc()) {
+                buffer.putInt(messageCrc);
+            }
+        } else {
+            buffer.put(payload.duplicate());
+        }
+        if (hasCrc()) {
+            buffer.putInt(crc32c(buffer.array(), 0, buffer.position()));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Parse a frame received from a peer.
+     *
+     * @return The frame, or null if the data is not a well-formed frame
+     *         or fails its CRC
+     */
+    public static BluetoothFrame decode(byte[] data) {
+        if (!isFrame(data)) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.get(); // magic
+            int flags = buffer.get() & 0xFF;
+            if ((flags & FLAG_CRC32C) != 0) {
+                int end = data.length - CRC_SIZE;
+                if (end < FIXED_SIZE
+                        || ByteBuffer.wrap(data, end, CRC_SIZE).getInt() != crc32c(data, 0, end)) {
+                    return null;
+                }
+                buffer.limit(end);
+            }
+            String messageId = "" + (char) (buffer.get() & 0xFF) + (char) (buffer.get() & 0xFF);
+            int sequence = getVarint(buffer);
+
+            if ((flags & FLAG_HEADER) != 0) {
+                int parcelCount = getVarint(buffer);
+                String sender = getString(buffer, getVarint(buffer));
+                String destination = getString(buffer, getVarint(buffer));
+                String checksum = getString(buffer, CHECKSUM_SIZE);
+                int messageCrc = (flags & FLAG_CRC32C) != 0 ? buffer.getInt() : 0;
+                return new BluetoothFrame(messageId, sequence, flags, parcelCount,
+                        sender, destination, checksum, messageCrc, null);
+            }
+
+            if (sequence < 1) {
+                return null;
+            }
+            return new BluetoothFrame(messageId, sequence, flags, 0, null, null, null, 0, buffer.slice());
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public boolean isHeader() {
+        return (flags & FLAG_HEADER) != 0;
+    }
+
+    /**
+     * Whether the frame carries a CRC32C (and, for headers, the message CRC).
+     */
+    public boolean hasCrc() {
+        return (flags & FLAG_CRC32C) != 0;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public int getParcelCount() {
+        return parcelCount;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * CRC32C of the whole message, only meaningful on headers with {@link #hasCrc()}.
+     */
+    public int getMessageCrc() {
+        return messageCrc;
+    }
+
+    /**
+     * Read-only view of the data payload (null for header frames).
+     */
+    public ByteBuffer getPayload() {
+        return payload == null ? null : payload.asReadOnlyBuffer();
+    }
+
+    /**
+     * Parcel ID in the same form as text parcels (e.g. "AB03"), used for
+     * /repeat requests and logging.
+     */
+    public String getParcelKey() {
+        return messageId + String.format("%02d", sequence);
+    }
+
+    /**
+     * Key used in ACK:/NACK: control messages for this frame.
+     */
+    public String getAckKey() {
+        return ">" + getParcelKey();
+    }
+
+    static int crc32c(byte[] data, int offset, int length) {
+        return Crc32c.compute(data, offset, length);
+    }
+
+    // ========== VARINT ==========
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative varint");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+    private static String getString(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length: " + length);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -22,6 +22,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import offgrid.geogram.core.Log;
 import offgrid.geogram.events.EventControl;
 import offgrid.geogram.events.EventType;
+import offgrid.geogram.relay.RelayMessageSync;
 
 /**
  * GATT-enabled Bluetooth listener with dual capabilities:
@@ -46,6 +47,10 @@ public class BluetoothListener {
 
     private final Map<String, Long> recentMessages = new ConcurrentHashMap<>();
 
+    // Messages being assembled from binary GATT frames
+    // Key: deviceAddress + message ID, Value: message under assembly
+    private final Map<String, BluetoothMessage> pendingFrameMessages = new ConcurrentHashMap<>();
+
     // Track discovered devices for GATT connection
     private final Map<String, DiscoveredDevice> discoveredDevices = new ConcurrentHashMap<>();
 
@@ -287,9 +292,7 @@ public class BluetoothListener {
 
         // Check for system commands: /, INV:, REQ:, MSG:, etc.
         if (content.startsWith("/") ||
-            content.startsWith("INV:") ||
-            content.startsWith("REQ:") ||
-            content.startsWith("MSG:")) {
+            RelayMessageSync.isRelayCommand(content)) {
             return true;
         }
 
@@ -307,7 +310,7 @@ public class BluetoothListener {
 
     /**
      * Handle parcel received via GATT (called by BluetoothSender)
-     * This is called from a Binder thread, so we must post to main thread for UI events
+     * This is called from a Binder thread; receivers of the event run on the I/O pool
      */
     public void handleGattParcel(String parcel, String deviceAddress) {
         long now = System.currentTimeMillis();
@@ -326,19 +329,56 @@ public class BluetoothListener {
                 parcel
         ));
 
-        // Post event to main thread (GATT callbacks run on Binder thread)
-        final String finalParcel = parcel;
-        handler.post(() -> {
-            EventControl.startEvent(EventType.BLUETOOTH_MESSAGE_RECEIVED, finalParcel);
-        });
+        // The receiver is dispatched off this Binder thread by the event bus
+        EventControl.startEvent(EventType.BLUETOOTH_MESSAGE_RECEIVED, parcel);
 
         // Mark as seen
         recentMessages.put(parcel, now);
     }
 
+    /**
+     * Handle a binary frame received via GATT (called by BluetoothSender).
+     * Frames are assembled here; the completed message is routed to
+     * HTTP-over-GATT or posted as a BLUETOOTH_MESSAGE_RECEIVED event.
+     */
+    public void handleGattFrame(BluetoothFrame frame, String deviceAddress) {
+        String key = deviceAddress + ":" + frame.getMessageId();
+        BluetoothMessage message = pendingFrameMessages.get(key);
+        if (message == null) {
+            message = new BluetoothMessage();
+            pendingFrameMessages.put(key, message);
+        }
+
+        message.addFrame(frame);
+        Log.d("BluetoothListener", "[Bluetooth] Frame " + frame.getParcelKey() + " from " + deviceAddress
+                + " (" + message.getFramesReceived() + " frames so far)");
+        if (!message.isMessageCompleted()) {
+            return;
+        }
+        pendingFrameMessages.remove(key);
+
+        String content = message.getMessage();
+        Log.i(TAG, String.format(Locale.US,
+                "[Bluetooth] %s (GATT, binary): %s",
+                deviceAddress,
+                content.substring(0, Math.min(40, content.length()))
+        ));
+
+        if (BluetoothSender.getInstance(context).handleFramedHttpMessage(content, deviceAddress)) {
+            return;
+        }
+
+        // The receiver is dispatched off this Binder thread by the event bus
+        EventControl.startEvent(EventType.BLUETOOTH_MESSAGE_RECEIVED, message);
+    }
+
     private void cleanupExpiredEntries() {
         long now = System.currentTimeMillis();
 
+        // Drop frame assemblies that stalled
+        pendingFrameMessages.entrySet().removeIf(entry ->
+                now - entry.getValue().getTimeStamp() > MESSAGE_EXPIRY_MS);
+
         // Clean up old messages
         Iterator<Map.Entry<String, Long>> messageIter = recentMessages.entrySet().iterator();
         while (messageIter.hasNext()) {
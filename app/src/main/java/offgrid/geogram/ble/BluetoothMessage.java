@@ -13,7 +13,10 @@ package offgrid.geogram.ble;
 
 import static offgrid.geogram.ble.BluetoothCentral.maxSizeOfMessages;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.TreeMap;
 
@@ -32,6 +35,40 @@ public class BluetoothMessage {
             checksum = null;
     private final TreeMap<String, String> messageBox = new TreeMap<>();
 
+    // Integrity mode: CRC32C of the whole message and a 16-bit CRC per parcel,
+    // carried as an extra header field that older receivers ignore:
+    // AB00:SENDER:DEST:CHKS:K<parcels>.<message crc, 8 hex><parcel crc, 4 hex each>
+    // The header is a parcel too, so when the parcel CRCs don't fit in
+    // TEXT_LENGTH_PER_PARCEL only the message CRC is sent (K<parcels>.<crc>),
+    // and when even that doesn't fit the field is left out.
+    private static final String INTEGRITY_PREFIX = "K";
+
+    // Parcel CRCs that don't fit in the header travel in CRC list parcels,
+    // sent between the header and the data parcels:
+    // ABK05=<parcel crc for 05, 06, ...><crc of the list itself>
+    // They have no ':' so older receivers ignore them instead of taking them
+    // for data, and they are not part of the message box (parcel numbers and
+    // repeat requests stay the same).
+    private static final String CRC_LIST_SEPARATOR = "=";
+    private static final int CRCS_PER_LIST = Math.max(1, (TEXT_LENGTH_PER_PARCEL - 5) / 4);
+    private final ArrayList<String> parcelCrcLists = new ArrayList<>();
+
+    // Parcels covered by one selective repeat request (a long of bits, fits in an advertisement)
+    public static final int REPEAT_BITMAP_WINDOW = 56;
+    private String messageCrc = null;
+    // Known parcel CRCs (parcel number -> 4 hex), from the header or CRC lists
+    private final TreeMap<Integer, String> parcelCrcs = new TreeMap<>();
+    // Data parcels announced by the integrity field, -1 when unknown
+    private int parcelCount = -1;
+    // Data parcels were dropped after a message CRC mismatch without their parcel CRCs
+    private boolean dataParcelsDropped = false;
+    // Parcels dropped because they failed their CRC (so they can be requested again)
+    private final ArrayList<String> rejectedParcels = new ArrayList<>();
+
+    // Binary frames received so far (sequence -> payload), see BluetoothFrame
+    private final TreeMap<Integer, ByteBuffer> frameBox = new TreeMap<>();
+    private int frameCount = -1;
+
     private final long timeStamp = System.currentTimeMillis();
 
     public BluetoothMessage(String idFromSender, String idDestination,
@@ -41,6 +78,7 @@ public class BluetoothMessage {
         this.idDestination = idDestination;
         this.message = messageToSend;
         this.checksum = calculateChecksum(message);
+        this.messageCrc = calculateCrc32c(message);
         if(singleMessage){
             messageBox.put("000", message);
         }else{
@@ -76,6 +114,27 @@ public class BluetoothMessage {
         return new String(checksum);
     }
 
+    /**
+     * Calculates the CRC32C of the given text (UTF-8).
+     *
+     * @param data The input data for which to calculate the CRC.
+     * @return CRC32C as 8 uppercase hex characters.
+     */
+    public static String calculateCrc32c(String data) {
+        return String.format("%08X", crc32c(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 16-bit parcel CRC (low half of the CRC32C) as 4 uppercase hex characters.
+     */
+    static String calculateParcelCrc(String text) {
+        return String.format("%04X", crc32c(text.getBytes(StandardCharsets.UTF_8)) & 0xFFFF);
+    }
+
+    static int crc32c(byte[] data) {
+        return Crc32c.compute(data);
+    }
+
     /**
      * Splits the data into smaller parcels based on TEXT_LENGTH_PER_PARCEL.
      * Each parcel will contain at most {@code TEXT_LENGTH_PER_PARCEL} characters.
@@ -85,23 +144,15 @@ public class BluetoothMessage {
         int dataLength = message.length();
         int messageParcelsTotal = (int) Math.ceil((double) message.length() / TEXT_LENGTH_PER_PARCEL);
 
-        // add the header (use zero-padded 2-digit format for proper sorting)
-        String uidHeader = id + "00";
-        String header =
-                uidHeader
-                + ":"
-                + idFromSender
-                + ":"
-                + idDestination
-                + ":"
-                + checksum
-                ;
-        messageBox.put(uidHeader, header);
+        StringBuilder parcelCrcField = new StringBuilder();
+        ArrayList<String> crcs = new ArrayList<>();
 
         for (int i = 0; i < messageParcelsTotal; i++) {
             int start = i * TEXT_LENGTH_PER_PARCEL;
             int end = Math.min(start + TEXT_LENGTH_PER_PARCEL, dataLength);
             String text = message.substring(start, end);
+            crcs.add(calculateParcelCrc(text));
+            parcelCrcField.append(crcs.get(i));
             // Zero-pad parcel numbers to 2 digits for proper lexicographic sorting in TreeMap
             // This ensures XX01 < XX02 < ... < XX09 < XX10 < ... < XX99 (not XX1 < XX10 < XX2)
             String uid = id + String.format("%02d", i + 1);
@@ -111,6 +162,42 @@ public class BluetoothMessage {
                     + text
             );
         }
+
+        // add the header (use zero-padded 2-digit format for proper sorting)
+        String uidHeader = id + "00";
+        String header =
+                uidHeader
+                + ":"
+                + idFromSender
+                + ":"
+                + idDestination
+                + ":"
+                + checksum;
+        int budget = uidHeader.length() + 1 + TEXT_LENGTH_PER_PARCEL;
+        String integrity = INTEGRITY_PREFIX + messageParcelsTotal + "." + messageCrc;
+        if(header.length() + 1 + integrity.length() + parcelCrcField.length() <= budget){
+            header += ":" + integrity + parcelCrcField;
+        } else if(header.length() + 1 + integrity.length() <= budget){
+            header += ":" + integrity;
+            // the parcel CRCs go in their own parcels
+            for(int first = 0; first < crcs.size(); first += CRCS_PER_LIST){
+                StringBuilder list = new StringBuilder();
+                for(int i = first; i < Math.min(first + CRCS_PER_LIST, crcs.size()); i++){
+                    list.append(crcs.get(i));
+                }
+                parcelCrcLists.add(id + INTEGRITY_PREFIX + String.format("%02d", first + 1)
+                        + CRC_LIST_SEPARATOR + list + calculateParcelCrc(list.toString()));
+            }
+        }
+        messageBox.put(uidHeader, header);
+    }
+
+    /**
+     * Is this a CRC list parcel (ABK05=...)?
+     */
+    public static boolean isParcelCrcList(String parcel) {
+        return parcel != null && parcel.matches("[A-Z]{2}" + INTEGRITY_PREFIX + "\\d{2,}"
+                + CRC_LIST_SEPARATOR + "([0-9A-F]{4}){2,}");
     }
     /**
      * Generates a unique random ID using two bytes for each data transmission.
@@ -133,6 +220,32 @@ public class BluetoothMessage {
         return getMessageBox().values().toArray(new String[0]);
     }
 
+    /**
+     * Text parcels in the order they are sent: the header, the CRC lists
+     * (so that data parcels can be checked as they arrive), then the data.
+     */
+    public List<String> getParcelsToSend() {
+        List<String> parcels = new ArrayList<>();
+        String headerId = id + "00";
+        if (messageBox.containsKey(headerId)) {
+            parcels.add(messageBox.get(headerId));
+        }
+        parcels.addAll(parcelCrcLists);
+        for (String key : messageBox.keySet()) {
+            if (!key.equals(headerId)) {
+                parcels.add(messageBox.get(key));
+            }
+        }
+        return parcels;
+    }
+
+    /**
+     * CRC list parcels of this message, empty when the header holds every parcel CRC.
+     */
+    public List<String> getParcelCrcLists() {
+        return parcelCrcLists;
+    }
+
     public String getChecksum() {
         return checksum;
     }
@@ -192,6 +305,12 @@ public class BluetoothMessage {
             return;
         }
 
+        // parcel CRCs that didn't fit in the header
+        if(isParcelCrcList(messageParcel)){
+            addParcelCrcList(messageParcel);
+            return;
+        }
+
         // needs to be a parcel
         if(messageParcel.contains(":") == false){
             return;
@@ -232,6 +351,14 @@ public class BluetoothMessage {
             this.idDestination = parcel[2];
             this.id = parcelId.substring(0,2);
             this.checksum = parcel[3];
+            if(parcel.length > 4){
+                parseIntegrity(parcel[4]);
+            }
+        } else if(isParcelCorrupted(parcelId, messageParcel)){
+            // bad parcel, drop it so that it shows up as missing again
+            messageBox.remove(parcelId);
+            rejectedParcels.add(parcelId);
+            Log.i(TAG, "Parcel CRC mismatch, dropped: " + parcelId);
             return;
         }
 
@@ -272,17 +399,289 @@ public class BluetoothMessage {
 
         // compute the checksum
         String messageText = result.toString();
-        String currentChecksum = calculateChecksum(messageText);
-        // needs to match
-        if(currentChecksum.equals(this.checksum) == false){
-            Log.i(TAG, "Checksum mismatch: expected " + this.checksum + ", got " + currentChecksum);
-            return;
+        if(messageCrc != null){
+            String currentCrc = calculateCrc32c(messageText);
+            if(currentCrc.equals(messageCrc) == false){
+                Log.i(TAG, "Message CRC mismatch: expected " + messageCrc + ", got " + currentCrc);
+                if(dataParcelsDropped == false && dropUncheckedDataParcels()){
+                    // no way to tell which of the unchecked parcels is bad, ask for them again
+                    return;
+                }
+                // every parcel passed its own check (or was sent again), so the header is the suspect
+                dropHeader();
+                return;
+            }
+        } else {
+            String currentChecksum = calculateChecksum(messageText);
+            // needs to match
+            if(currentChecksum.equals(this.checksum) == false){
+                Log.i(TAG, "Checksum mismatch: expected " + this.checksum + ", got " + currentChecksum);
+                return;
+            }
         }
         // this message is concluded
         this.message = messageText;
         this.messageCompleted = true;
     }
 
+    /**
+     * Split the message into binary frames of at most {@code maxFrameSize} bytes.
+     * The first frame is the header; data frames carry UTF-8 bytes and may
+     * split a multi-byte character, which is fine since reassembly works on bytes.
+     *
+     * @param maxFrameSize Largest frame the link accepts (MTU - 3)
+     * @return Encoded frames, header first
+     */
+    public List<byte[]> toFrames(int maxFrameSize) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(null); // header, filled in once the count is known
+
+        int offset = 0;
+        int sequence = 1;
+        while (offset < data.length) {
+            int room = Math.max(1, maxFrameSize - BluetoothFrame.dataOverhead(sequence));
+            int length = Math.min(room, data.length - offset);
+            frames.add(BluetoothFrame.data(id, sequence, data, offset, length).encode());
+            offset += length;
+            sequence++;
+        }
+
+        frames.set(0, BluetoothFrame.header(id, frames.size() - 1,
+                idFromSender, idDestination, checksum, crc32c(data)).encode());
+        return frames;
+    }
+
+    /**
+     * Add a binary frame to this message. Completes the message once the
+     * header and every data frame are present and the checksum matches.
+     */
+    public void addFrame(BluetoothFrame frame) {
+        if (this.messageCompleted || frame == null) {
+            return;
+        }
+        if (id == null) {
+            this.id = frame.getMessageId();
+        }
+
+        if (frame.isHeader()) {
+            this.idFromSender = frame.getSender();
+            this.idDestination = frame.getDestination();
+            this.checksum = frame.getChecksum();
+            this.frameCount = frame.getParcelCount();
+            this.messageCrc = frame.hasCrc() ? String.format("%08X", frame.getMessageCrc()) : null;
+        } else if (!frameBox.containsKey(frame.getSequence())) {
+            frameBox.put(frame.getSequence(), frame.getPayload());
+        }
+
+        // Wait for the header and all data frames
+        if (checksum == null || frameBox.size() < frameCount) {
+            return;
+        }
+
+        int total = 0;
+        for (ByteBuffer payload : frameBox.values()) {
+            total += payload.remaining();
+        }
+        ByteBuffer assembled = ByteBuffer.allocate(total);
+        for (ByteBuffer payload : frameBox.values()) {
+            assembled.put(payload.duplicate());
+        }
+        String messageText = new String(assembled.array(), StandardCharsets.UTF_8);
+
+        if (messageCrc != null) {
+            String currentCrc = String.format("%08X", crc32c(assembled.array()));
+            if (!currentCrc.equals(messageCrc)) {
+                // Every frame passed its own CRC, so the header is the suspect
+                Log.i(TAG, "Message CRC mismatch: expected " + messageCrc + ", got " + currentCrc);
+                this.checksum = null;
+                this.messageCrc = null;
+                this.frameCount = -1;
+                rejectedParcels.add(id + "00");
+                return;
+            }
+        } else {
+            String currentChecksum = calculateChecksum(messageText);
+            if (!currentChecksum.equals(this.checksum)) {
+                Log.i(TAG, "Checksum mismatch: expected " + this.checksum + ", got " + currentChecksum);
+                return;
+            }
+        }
+        this.message = messageText;
+        this.messageCompleted = true;
+    }
+
+    /**
+     * Number of binary frames received, including the header.
+     */
+    public int getFramesReceived() {
+        return frameBox.size() + (frameCount >= 0 ? 1 : 0);
+    }
+
+    /**
+     * Read the integrity field of a header parcel. A field that doesn't
+     * describe itself correctly (e.g. truncated) is ignored and the message
+     * falls back to the 4-letter checksum.
+     */
+    private void parseIntegrity(String field) {
+        if(field.startsWith(INTEGRITY_PREFIX) == false){
+            return;
+        }
+        int dot = field.indexOf('.');
+        if(dot < 0){
+            return;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(field.substring(INTEGRITY_PREFIX.length(), dot));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String crcs = field.substring(dot + 1);
+        if(count < 1 || (crcs.length() != 8 && crcs.length() != 8 + 4 * count)){
+            Log.i(TAG, "Ignoring malformed integrity field: " + field);
+            return;
+        }
+        this.messageCrc = crcs.substring(0, 8);
+        this.parcelCount = count;
+        // without parcel CRCs here they come in CRC list parcels (or not at all)
+        for(int i = 0; 8 + i * 4 < crcs.length(); i++){
+            parcelCrcs.put(i + 1, crcs.substring(8 + i * 4, 12 + i * 4));
+        }
+
+        // check the parcels that arrived before the header
+        dropCorruptedParcels();
+    }
+
+    /**
+     * Read a CRC list parcel (ABK05=...). A list failing its own CRC is ignored,
+     * its parcels are then checked by the message CRC only.
+     */
+    private void addParcelCrcList(String parcel) {
+        if(id == null){
+            this.id = parcel.substring(0, 2);
+        }
+        int separator = parcel.indexOf(CRC_LIST_SEPARATOR);
+        int first;
+        try {
+            first = Integer.parseInt(parcel.substring(2 + INTEGRITY_PREFIX.length(), separator));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String crcs = parcel.substring(separator + 1, parcel.length() - 4);
+        if(calculateParcelCrc(crcs).equals(parcel.substring(parcel.length() - 4)) == false){
+            Log.i(TAG, "Ignoring corrupted CRC list: " + parcel);
+            return;
+        }
+        for(int i = 0; i * 4 < crcs.length(); i++){
+            parcelCrcs.put(first + i, crcs.substring(i * 4, i * 4 + 4));
+        }
+        dropCorruptedParcels();
+    }
+
+    /**
+     * Drop the data parcels received so far that fail their known CRC.
+     */
+    private void dropCorruptedParcels() {
+        String headerId = id + "00";
+        for(String key : new ArrayList<>(messageBox.keySet())){
+            if(key.equals(headerId)){
+                continue;
+            }
+            if(isParcelCorrupted(key, messageBox.get(key))){
+                messageBox.remove(key);
+                rejectedParcels.add(key);
+                Log.i(TAG, "Parcel CRC mismatch, dropped: " + key);
+            }
+        }
+    }
+
+    /**
+     * Check a data parcel against its CRC. Parcels whose CRC isn't known
+     * (yet) pass, the message CRC covers them.
+     */
+    private boolean isParcelCorrupted(String parcelId, String parcelText) {
+        int index;
+        try {
+            index = Integer.parseInt(parcelId.substring(2));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return !parcelCrcs.isEmpty();
+        }
+        if(index < 1 || (parcelCount > 0 && index > parcelCount && !parcelCrcs.isEmpty())){
+            return true;
+        }
+        String crc = parcelCrcs.get(index);
+        if(crc == null){
+            return false;
+        }
+        String text = parcelText.substring(parcelText.indexOf(':') + 1);
+        return calculateParcelCrc(text).equals(crc) == false;
+    }
+
+    /**
+     * Forget the data parcels that have no known CRC so that they get
+     * requested again.
+     *
+     * @return true when any parcel was dropped
+     */
+    private boolean dropUncheckedDataParcels() {
+        String headerId = id + "00";
+        boolean dropped = false;
+        for(String key : new ArrayList<>(messageBox.keySet())){
+            if(key.equals(headerId)){
+                continue;
+            }
+            int index;
+            try {
+                index = Integer.parseInt(key.substring(2));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                index = -1;
+            }
+            if(parcelCrcs.containsKey(index) == false){
+                messageBox.remove(key);
+                rejectedParcels.add(key);
+                dropped = true;
+            }
+        }
+        dataParcelsDropped = true;
+        return dropped;
+    }
+
+    /**
+     * Forget the header so that it gets requested again.
+     */
+    private void dropHeader() {
+        String headerId = id + "00";
+        messageBox.remove(headerId);
+        rejectedParcels.add(headerId);
+        this.checksum = null;
+        this.messageCrc = null;
+        this.parcelCrcs.clear();
+        this.parcelCount = -1;
+        this.dataParcelsDropped = false;
+    }
+
+    /**
+     * Parcels dropped for failing their CRC since the last call.
+     * Callers that throttle repeat requests use this to allow asking again.
+     */
+    public ArrayList<String> takeRejectedParcels() {
+        ArrayList<String> result = new ArrayList<>(rejectedParcels);
+        rejectedParcels.clear();
+        return result;
+    }
+
+    /**
+     * Number of data parcels announced by the header, or -1 when unknown.
+     */
+    public int getExpectedParcels() {
+        return parcelCount;
+    }
+
+    public String getMessageCrc() {
+        return messageCrc;
+    }
+
     public boolean isMessageCompleted() {
         return messageCompleted;
     }
@@ -340,6 +739,11 @@ public class BluetoothMessage {
             } catch (NumberFormatException ignore) { }
         }
 
+        // The header tells how many parcels there are, so trailing gaps count too
+        if (parcelCount > 0) {
+            maxSeen = Math.max(maxSeen, parcelCount);
+        }
+
         // Check all indices from 0 to maxSeen for gaps
         for(int i = 0; i <= maxSeen; i++){
             String key = id + String.format("%02d", i);  // Zero-padded format
@@ -375,6 +779,11 @@ public class BluetoothMessage {
             } catch (NumberFormatException ignore) { /* skip malformed */ }
         }
 
+        // The header tells how many parcels there are, so trailing gaps count too
+        if (parcelCount > 0) {
+            maxSeen = Math.max(maxSeen, parcelCount + 1);
+        }
+
         // Only header (idx==0) or nothing parsable → no past gaps
         if (maxSeen <= 0) return missing;
 
@@ -388,5 +797,71 @@ public class BluetoothMessage {
         return missing;
     }
 
+    /**
+     * Build a single selective repeat request covering every missing parcel,
+     * instead of one /repeat per parcel.
+     * Syntax: /rs AB03 1F  (message AB, window starts at parcel 03, bit n means
+     * parcel 03+n is missing). Parcels past the window are asked in a later round.
+     *
+     * @return the command to send, or null when nothing is missing
+     */
+    public String getMissingParcelsBitmap() {
+        ArrayList<String> missing = getMissingParcels();
+        if (missing.isEmpty()) {
+            return null;
+        }
+        int base = -1;
+        long bitmap = 0;
+        for (String parcelId : missing) {
+            int index;
+            try {
+                index = Integer.parseInt(parcelId.substring(2));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (base < 0) {
+                base = index;
+            }
+            if (index - base >= REPEAT_BITMAP_WINDOW) {
+                break;
+            }
+            bitmap |= 1L << (index - base);
+        }
+        if (base < 0) {
+            return null;
+        }
+        return ValidCommands.PARCEL_REPEAT_SET + " "
+                + missing.get(0).substring(0, 2)
+                + String.format("%02d", base)
+                + " " + Long.toHexString(bitmap).toUpperCase();
+    }
+
+    /**
+     * Read the parcel numbers from a selective repeat request.
+     *
+     * @param command /rs AB03 1F
+     * @return the parcel numbers requested, or null when the command is malformed
+     */
+    public static ArrayList<Integer> parseMissingParcelsBitmap(String command) {
+        String[] data = command.split(" ");
+        if (data.length != 3 || data[1].length() < 3) {
+            return null;
+        }
+        int base;
+        long bitmap;
+        try {
+            base = Integer.parseInt(data[1].substring(2));
+            bitmap = Long.parseUnsignedLong(data[2], 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        ArrayList<Integer> parcels = new ArrayList<>();
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if ((bitmap & (1L << bit)) != 0) {
+                parcels.add(base + bit);
+            }
+        }
+        return parcels;
+    }
 
 }
@@ -45,6 +45,7 @@ import offgrid.geogram.core.Central;
 import offgrid.geogram.core.Log;
 import offgrid.geogram.events.EventControl;
 import offgrid.geogram.events.EventType;
+import offgrid.geogram.relay.RelayMessageSync;
 
 /**
  * GATT-based Bluetooth sender with dual-role capability:
@@ -86,7 +87,11 @@ public class BluetoothSender {
     // GATT connection management
     private final Map<String, BluetoothGatt> activeConnections = new ConcurrentHashMap<>();
     private final Map<String, BluetoothGatt> connectingDevices = new ConcurrentHashMap<>();  // Devices in process of connecting
-    private final Map<String, PendingAck> pendingAcks = new ConcurrentHashMap<>();
+
+    // Per-connection send pipelines, one for each MAC in activeConnections.
+    // Parcels are copied from messageQueue into every link, and each link keeps its
+    // own queue, in-flight parcels and backoff so a busy peer doesn't hold back the others.
+    private final Map<String, GattLink> links = new ConcurrentHashMap<>();
 
     // Callsign-to-MAC address mapping for relay sync lookup
     // Key: callsign (e.g., "X1ADK0"), Value: MAC address (e.g., "6C:12:48:4A:72:C7")
@@ -99,6 +104,29 @@ public class BluetoothSender {
     private static final String HTTP_RESP_PREFIX = "HTTP_RESP:";
     private static final int HTTP_TIMEOUT_MS = 30000; // 30 seconds
 
+    // Streamed HTTP-over-GATT: the body travels as numbered chunks and the reader
+    // acknowledges each chunk it consumes, so at most HTTP_STREAM_WINDOW chunks are
+    // buffered on either side (see GattHttpStream)
+    // HTTP_STREAM:REQ:{requestId}:{method}:{path}:{senderCallsign}
+    // HTTP_STREAM:HDR:{requestId}:{statusCode}:{encoding}   (text, base64, or gzip: Base64 of the gzipped body)
+    // HTTP_STREAM:DAT:{requestId}:{sequence}:{chunk}
+    // HTTP_STREAM:END:{requestId}:{chunkCount}
+    // HTTP_STREAM:ERR:{requestId}:{message}
+    // HTTP_STREAM:ACK:{requestId}:{sequence}   (chunk consumed by the reader)
+    // HTTP_STREAM:CAN:{requestId}              (reader closed the stream)
+    private static final String HTTP_STREAM_PREFIX = "HTTP_STREAM:";
+    private static final int HTTP_STREAM_CHUNK_SIZE = 1536; // Bytes (or chars for text), multiple of 3 for Base64
+    private static final int HTTP_STREAM_WINDOW = 4;
+    // Requesting side, key: requestId
+    private final Map<String, GattHttpStream> pendingHttpStreams = new ConcurrentHashMap<>();
+    private final Map<String, java.util.concurrent.CompletableFuture<GattHttpStream>> pendingHttpStreamHeaders = new ConcurrentHashMap<>();
+    // Serving side, key: requestId
+    private final Map<String, OutgoingHttpStream> outgoingHttpStreams = new ConcurrentHashMap<>();
+    // Peers that never answered a streamed request (they predate it), with the time
+    // it happened, so they get buffered requests right away for a while
+    private final Map<String, Long> peersWithoutHttpStream = new ConcurrentHashMap<>();
+    private static final long HTTP_STREAM_RETRY_MS = 10 * 60 * 1000; // Ask again after 10 minutes
+
     // Prepared write buffers for handling long writes (messages > MTU)
     // Key: deviceAddress, Value: accumulated byte buffer
     private final Map<String, java.io.ByteArrayOutputStream> preparedWriteBuffers = new ConcurrentHashMap<>();
@@ -107,19 +135,20 @@ public class BluetoothSender {
     // Key: message ID (2-letter code from parcel header like "AB"), Value: BluetoothMessage for assembly
     private final Map<String, BluetoothMessage> pendingMultiParcelHttpResponses = new ConcurrentHashMap<>();
 
-    // Flow control for GATT writes
-    // Key: deviceAddress, Value: true if write is pending (waiting for onCharacteristicWrite callback)
-    private final Map<String, Boolean> pendingWrites = new ConcurrentHashMap<>();
-    // Key: deviceAddress, Value: timestamp of last successful write
-    private final Map<String, Long> lastWriteTimestamp = new ConcurrentHashMap<>();
-    // Key: deviceAddress, Value: consecutive failure count (for exponential backoff)
-    private final Map<String, Integer> writeFailureCount = new ConcurrentHashMap<>();
+    // Write-without-response credits we owe to peers writing to our RX characteristic
+    private final CreditLedger creditsOwed = new CreditLedger();
+
+    // Binary framing (see BluetoothFrame), negotiated per peer on the CONTROL characteristic
+    private static final String CONTROL_CAPABILITIES = "CAP:";
+    private static final int DEFAULT_ATT_MTU = 23;
+    private final java.util.Set<String> binaryPeers = ConcurrentHashMap.newKeySet();
+    // Key: deviceAddress, Value: negotiated ATT MTU
+    private final Map<String, Integer> negotiatedMtu = new ConcurrentHashMap<>();
 
-    // Flow control constants
-    private static final long MIN_WRITE_INTERVAL_MS = 100;  // Minimum 100ms between writes to same device
-    private static final long BASE_BACKOFF_MS = 200;        // Base delay for exponential backoff
-    private static final int MAX_BACKOFF_FAILURES = 5;      // Max failures before capping backoff
-    private static final long MAX_BACKOFF_MS = 3200;        // Max backoff delay (200ms * 2^4 = 3.2s)
+    // Write-without-response: the receiver grants credits on the CONTROL characteristic ("CRD:n"),
+    // one credit per parcel. Flow control itself lives in GattLink and CreditLedger.
+    private static final String CAPABILITY_CREDITS = "WNR";
+    private static final String CONTROL_CREDITS = "CRD:";
 
     // Self-advertising for presence announcement
     private String selfMessage = null;
@@ -194,12 +223,12 @@ public class BluetoothSender {
         }
         activeConnections.clear();
         connectingDevices.clear();
-        pendingAcks.clear();
 
         // Clear flow control tracking
-        pendingWrites.clear();
-        lastWriteTimestamp.clear();
-        writeFailureCount.clear();
+        links.clear();
+        creditsOwed.clear();
+        binaryPeers.clear();
+        negotiatedMtu.clear();
 
         // Stop GATT server
         if (gattServer != null) {
@@ -258,47 +287,38 @@ public class BluetoothSender {
         EventControl.startEvent(EventType.BLE_BROADCAST_SENT, msg);
         Log.i(TAG, "[Bluetooth] Queued message: " + msg.getOutput());
 
+        // Multi-parcel messages go out as binary frames when every connected peer understands them
+        int frameSize = getBinaryFrameSize();
+        if (frameSize > 0 && msg.getMessageParcelsTotal() > 1) {
+            queueFrames(msg, frameSize);
+            return;
+        }
+
+        queueTextParcels(msg);
+    }
+
+    /**
+     * Queue the text parcels of a message (advertising and legacy GATT peers).
+     */
+    private void queueTextParcels(BluetoothMessage msg) {
         int addedCount = 0;
         int duplicateCount = 0;
 
-        for (String parcel : msg.getMessageBox().values()) {
+        for (String parcel : msg.getParcelsToSend()) {
             if (!parcel.startsWith(">")) {
                 parcel = ">" + parcel;
             }
 
             // Detect message priority based on content
-            int priority = PRIORITY_HIGH;  // Default: user chat messages
-            String content = parcel.substring(1); // Remove ">" prefix
-
-            if (content.startsWith("+")) {
-                // Ping/location message -> low priority
-                priority = PRIORITY_LOW;
-            } else if (content.startsWith("/R ") || content.startsWith("/read ")) {
-                // Read receipt -> low priority
-                priority = PRIORITY_LOW;
-            } else if (content.startsWith("/repeat")) {
-                // Parcel retransmission request -> normal priority
-                priority = PRIORITY_NORMAL;
-            } else if (content.startsWith("INV:") || content.startsWith("REQ:") || content.startsWith("MSG:")) {
-                // Relay protocol messages -> normal priority
-                priority = PRIORITY_NORMAL;
-            }
-            // Everything else (user chat messages) keeps PRIORITY_HIGH
+            int priority = getPriority(parcel.substring(1)); // Remove ">" prefix
 
             // Create queued message with priority
             QueuedMessage queuedMsg = new QueuedMessage(parcel, msg.getIdFromSender(), priority);
 
             // Prevent duplicates
-            boolean isDuplicate = false;
-            for (QueuedMessage existing : messageQueue) {
-                if (existing.parcel.equals(parcel)) {
-                    isDuplicate = true;
-                    duplicateCount++;
-                    break;
-                }
-            }
-
-            if (!isDuplicate) {
+            if (isQueued(parcel)) {
+                duplicateCount++;
+            } else {
                 messageQueue.offer(queuedMsg);
                 addedCount++;
                 Log.d(TAG, "[Bluetooth] → Queued parcel #" + addedCount + ": " + parcel.substring(0, Math.min(30, parcel.length())) + "... Queue size: " + messageQueue.size());
@@ -314,24 +334,117 @@ public class BluetoothSender {
         }
     }
 
+    /**
+     * Queue a message as binary frames sized for the connected peers.
+     */
+    private void queueFrames(BluetoothMessage msg, int frameSize) {
+        int priority = getPriority(msg.getMessage());
+        java.util.List<byte[]> frames = msg.toFrames(frameSize);
+        for (int i = 0; i < frames.size(); i++) {
+            String ackKey = ">" + msg.getId() + String.format("%02d", i);
+            messageQueue.offer(new QueuedMessage(frames.get(i), ackKey, msg, priority));
+        }
+        Log.i(TAG, "[Bluetooth] Queued " + frames.size() + " binary frames (max " + frameSize
+                + " bytes) instead of " + msg.getMessageParcelsTotal() + " text parcels. Queue size: " + messageQueue.size());
+
+        if (isRunning && !isPaused) {
+            tryToSendNext();
+        }
+    }
+
+    /**
+     * Detect message priority based on content.
+     */
+    private int getPriority(String content) {
+        if (content.startsWith("+")) {
+            // Ping/location message -> low priority
+            return PRIORITY_LOW;
+        } else if (content.startsWith("/R ") || content.startsWith("/read ")) {
+            // Read receipt -> low priority
+            return PRIORITY_LOW;
+        } else if (content.startsWith("/repeat") || content.startsWith(ValidCommands.PARCEL_REPEAT_SET + " ")) {
+            // Parcel retransmission request -> normal priority
+            return PRIORITY_NORMAL;
+        } else if (RelayMessageSync.isRelayCommand(content)) {
+            // Relay protocol messages -> normal priority
+            return PRIORITY_NORMAL;
+        }
+        // Everything else (user chat messages) keeps PRIORITY_HIGH
+        return PRIORITY_HIGH;
+    }
+
+    /**
+     * Frame size to use for binary framing, or 0 when any connected peer
+     * still needs text parcels.
+     */
+    private int getBinaryFrameSize() {
+        if (activeConnections.isEmpty()) {
+            return 0;
+        }
+        int frameSize = GATT_MTU_SIZE - 3;
+        for (String address : activeConnections.keySet()) {
+            if (!binaryPeers.contains(address)) {
+                return 0;
+            }
+            int mtu = negotiatedMtu.getOrDefault(address, DEFAULT_ATT_MTU);
+            frameSize = Math.min(frameSize, mtu - 3);
+        }
+        return Math.max(frameSize, BluetoothFrame.MIN_FRAME_SIZE);
+    }
+
+    /**
+     * Binary frames can't be advertised and legacy peers can't read them.
+     * Drop the queued frames of this message and queue it again as text parcels.
+     */
+    private void requeueAsText(QueuedMessage queuedMsg) {
+        BluetoothMessage msg = queuedMsg.message;
+        messageQueue.removeIf(q -> q.message == msg && q.frame != null);
+        Log.i(TAG, "[Bluetooth] No binary-capable peer for message " + msg.getId() + ", falling back to text parcels");
+        isSending = false;
+        queueTextParcels(msg);
+    }
+
+    /**
+     * Whether a text parcel is still waiting to be sent, either in the main
+     * queue or in the queue of any link.
+     */
+    private boolean isQueued(String parcel) {
+        for (QueuedMessage existing : messageQueue) {
+            if (existing.parcel.equals(parcel)) {
+                return true;
+            }
+        }
+        for (GattLink link : links.values()) {
+            if (link.isQueued(parcel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void tryToSendNext() {
         if (!isRunning || isPaused || isSending || messageQueue.isEmpty()) {
             return;
         }
 
-        final QueuedMessage queuedMsg = messageQueue.peek();
-        if (queuedMsg == null) return;
-
-        Log.d(TAG, "[Bluetooth] ← Sending parcel (queue size: " + messageQueue.size() + ", isSending: " + isSending + "): " + queuedMsg.parcel.substring(0, Math.min(30, queuedMsg.parcel.length())));
-
         if (!hasAdvertisePermission()) {
             Log.i(TAG, "[Bluetooth] Missing BLUETOOTH permissions. Cannot send.");
             return;
         }
 
-        // Try to send via GATT to connected peers first
+        // Hand everything to the connected peers first
         if (!activeConnections.isEmpty()) {
-            sendViaGatt(queuedMsg);
+            dispatchToLinks();
+            return;
+        }
+
+        final QueuedMessage queuedMsg = messageQueue.peek();
+        if (queuedMsg == null) return;
+
+        Log.d(TAG, "[Bluetooth] ← Sending parcel (queue size: " + messageQueue.size() + ", isSending: " + isSending + "): " + queuedMsg.parcel.substring(0, Math.min(30, queuedMsg.parcel.length())));
+
+        if (queuedMsg.frame != null) {
+            requeueAsText(queuedMsg);
         } else {
             // No GATT connections - fallback to advertising for discovery
             Log.d(TAG, "[Bluetooth] No GATT connections, advertising parcel for discovery");
@@ -339,142 +452,162 @@ public class BluetoothSender {
         }
     }
 
-    private void sendViaGatt(QueuedMessage queuedMsg) {
-        isSending = true;
-        boolean sent = false;
-        boolean anyDeviceReady = false;
-
-        long now = System.currentTimeMillis();
-
-        // Send to all connected peers (with flow control)
-        for (Map.Entry<String, BluetoothGatt> entry : activeConnections.entrySet()) {
-            String deviceAddress = entry.getKey();
-            BluetoothGatt gatt = entry.getValue();
-
-            try {
-                // Flow control check 1: Skip if there's already a pending write for this device
-                Boolean hasPendingWrite = pendingWrites.get(deviceAddress);
-                if (Boolean.TRUE.equals(hasPendingWrite)) {
-                    Log.d(TAG, "[Bluetooth] ⏸ Skipping write to " + deviceAddress + " - write already pending");
-                    anyDeviceReady = true; // Device exists, just busy
+    /**
+     * Move the queued parcels into the queue of every connected peer that can
+     * read them, then let each link send at its own pace.
+     */
+    private void dispatchToLinks() {
+        QueuedMessage queuedMsg;
+        while ((queuedMsg = messageQueue.poll()) != null) {
+            boolean queued = false;
+            for (String address : activeConnections.keySet()) {
+                // Binary frames only go to peers that negotiated them
+                if (queuedMsg.frame != null && !binaryPeers.contains(address)) {
                     continue;
                 }
-
-                // Flow control check 2: Rate limiting - ensure minimum interval between writes
-                Long lastWrite = lastWriteTimestamp.get(deviceAddress);
-                if (lastWrite != null) {
-                    long timeSinceLastWrite = now - lastWrite;
-                    if (timeSinceLastWrite < MIN_WRITE_INTERVAL_MS) {
-                        long waitTime = MIN_WRITE_INTERVAL_MS - timeSinceLastWrite;
-                        Log.d(TAG, "[Bluetooth] ⏸ Rate limiting - will retry in " + waitTime + "ms");
-                        // Schedule retry after minimum interval
-                        handler.postDelayed(() -> {
-                            isSending = false;
-                            tryToSendNext();
-                        }, waitTime);
-                        anyDeviceReady = true;
-                        continue;
-                    }
+                GattLink link = getLink(address);
+                if (link == null) {
+                    continue;
                 }
+                link.offer(queuedMsg);
+                queued = true;
+            }
 
-                // Flow control check 3: Exponential backoff for devices with recent failures
-                Integer failures = writeFailureCount.get(deviceAddress);
-                if (failures != null && failures > 0) {
-                    // Calculate backoff delay: BASE_BACKOFF_MS * 2^failures, capped at MAX_BACKOFF_MS
-                    long backoffDelay = Math.min(BASE_BACKOFF_MS * (1L << Math.min(failures, MAX_BACKOFF_FAILURES)), MAX_BACKOFF_MS);
-
-                    Long lastFailTime = lastWriteTimestamp.get(deviceAddress);
-                    if (lastFailTime != null && (now - lastFailTime) < backoffDelay) {
-                        long waitTime = backoffDelay - (now - lastFailTime);
-                        Log.d(TAG, "[Bluetooth] ⏸ Backing off " + deviceAddress + " (failures: " + failures + ", wait: " + waitTime + "ms)");
-                        // Schedule retry after backoff
-                        handler.postDelayed(() -> {
-                            isSending = false;
-                            tryToSendNext();
-                        }, waitTime);
-                        anyDeviceReady = true;
-                        continue;
-                    }
-                }
+            if (!queued && queuedMsg.frame != null) {
+                // Only legacy peers left for this binary frame
+                requeueAsText(queuedMsg);
+            } else if (!queued) {
+                Log.w(TAG, "[Bluetooth] No link available for parcel, dropping: " + queuedMsg.parcel);
+            }
+        }
 
-                BluetoothGattService service = gatt.getService(UUID.fromString(GATT_SERVICE_UUID));
-                if (service == null) {
-                    Log.w(TAG, "[Bluetooth] GATT service not found on device " + deviceAddress);
-                    continue;
-                }
+        for (GattLink link : links.values()) {
+            pumpLink(link);
+        }
+    }
 
-                BluetoothGattCharacteristic rxChar = service.getCharacteristic(UUID.fromString(GATT_CHARACTERISTIC_RX_UUID));
-                if (rxChar == null) {
-                    Log.w(TAG, "[Bluetooth] RX characteristic not found on device " + deviceAddress);
-                    continue;
-                }
+    private GattLink getLink(String address) {
+        BluetoothGatt gatt = activeConnections.get(address);
+        if (gatt == null) {
+            return null;
+        }
+        return links.computeIfAbsent(address, key -> new GattLink(key, gatt));
+    }
 
-                // Write parcel to RX characteristic
-                rxChar.setValue(queuedMsg.parcel.getBytes(StandardCharsets.UTF_8));
-                Log.d(TAG, "[Bluetooth] ⚡ Attempting GATT write to " + deviceAddress + " (" + queuedMsg.parcel.length() + " bytes): " + queuedMsg.parcel.substring(0, Math.min(20, queuedMsg.parcel.length())));
+    private void dropLink(String address) {
+        GattLink link = links.remove(address);
+        creditsOwed.remove(address);
+        if (link != null) {
+            int dropped = link.clear();
+            if (dropped > 0) {
+                Log.i(TAG, "[Bluetooth] Dropping " + dropped + " unsent parcels for " + address);
+            }
+        }
+    }
 
-                // Mark write as pending BEFORE attempting write
-                pendingWrites.put(deviceAddress, true);
-                boolean writeResult = gatt.writeCharacteristic(rxChar);
+    /**
+     * Send the next parcel on a link when the link allows it. Called again
+     * from the write callback, ACKs, credit grants and timeouts.
+     */
+    private void pumpLink(GattLink link) {
+        if (!isRunning || isPaused || links.get(link.address) != link) {
+            return;
+        }
 
-                if (writeResult) {
-                    sent = true;
-                    anyDeviceReady = true;
+        long now = System.currentTimeMillis();
+        long delay = link.delayBeforeWrite(now);
+        if (delay == GattLink.BLOCKED) {
+            // The write callback, an ACK or a credit grant will pump again
+            return;
+        }
+        if (delay > 0) {
+            if (link.failures > 0) {
+                Log.d(TAG, "[Bluetooth] ⏸ Backing off " + link.address + " (failures: " + link.failures + ", wait: " + delay + "ms)");
+            }
+            scheduleLinkPump(link, delay);
+            return;
+        }
 
-                    // Update timestamp for rate limiting
-                    lastWriteTimestamp.put(deviceAddress, now);
+        int mtu = negotiatedMtu.getOrDefault(link.address, DEFAULT_ATT_MTU);
+        PendingAck pendingAck = link.startWrite(now, mtu - 3);
+        if (pendingAck != null) {
+            writeToLink(link, pendingAck);
+        }
+    }
 
-                    // Set up ACK timeout
-                    String ackKey = deviceAddress + ":" + queuedMsg.parcel.substring(0, Math.min(5, queuedMsg.parcel.length()));
-                    PendingAck pendingAck = new PendingAck(queuedMsg, System.currentTimeMillis());
-                    pendingAcks.put(ackKey, pendingAck);
-                    Log.d(TAG, "[Bluetooth] ⏱ Waiting for ACK: " + ackKey + " (pending ACKs: " + pendingAcks.size() + ")");
+    private void scheduleLinkPump(GattLink link, long delayMs) {
+        synchronized (link) {
+            if (link.pumpScheduled) {
+                return;
+            }
+            link.pumpScheduled = true;
+        }
+        handler.postDelayed(() -> {
+            synchronized (link) {
+                link.pumpScheduled = false;
+            }
+            pumpLink(link);
+        }, delayMs);
+    }
 
-                    // Schedule ACK timeout
-                    handler.postDelayed(() -> {
-                        if (pendingAcks.containsKey(ackKey)) {
-                            Log.w(TAG, "[Bluetooth] ⏰ ACK TIMEOUT for " + ackKey + " after " + GATT_ACK_TIMEOUT_MS + "ms - will retry (queue size: " + messageQueue.size() + ")");
-                            pendingAcks.remove(ackKey);
-                            // Clear pending write flag so we can retry
-                            pendingWrites.remove(deviceAddress);
-                            isSending = false;
-                            tryToSendNext(); // Retry
-                        }
-                    }, GATT_ACK_TIMEOUT_MS);
+    private void writeToLink(GattLink link, PendingAck pendingAck) {
+        QueuedMessage queuedMsg = pendingAck.message;
+        boolean noResponse = pendingAck.noResponse;
+        String deviceAddress = link.address;
+        try {
+            BluetoothGattService service = link.gatt.getService(UUID.fromString(GATT_SERVICE_UUID));
+            if (service == null) {
+                Log.w(TAG, "[Bluetooth] GATT service not found on device " + deviceAddress);
+                onLinkWriteFailed(link, pendingAck);
+                return;
+            }
 
-                    Log.i(TAG, "[Bluetooth] ✓ GATT write queued to " + deviceAddress + ": " + queuedMsg.parcel.substring(0, Math.min(20, queuedMsg.parcel.length())) + "...");
-                } else {
-                    // Write failed to queue - clear pending flag and increment failure counter
-                    pendingWrites.remove(deviceAddress);
-                    int failCount = writeFailureCount.getOrDefault(deviceAddress, 0) + 1;
-                    writeFailureCount.put(deviceAddress, failCount);
-                    lastWriteTimestamp.put(deviceAddress, now);  // Record failure time for backoff
-                    Log.w(TAG, "[Bluetooth] ✗ GATT write FAILED to " + deviceAddress + " (failures: " + failCount + ")");
-                }
+            BluetoothGattCharacteristic rxChar = service.getCharacteristic(UUID.fromString(GATT_CHARACTERISTIC_RX_UUID));
+            if (rxChar == null) {
+                Log.w(TAG, "[Bluetooth] RX characteristic not found on device " + deviceAddress);
+                onLinkWriteFailed(link, pendingAck);
+                return;
+            }
 
-            } catch (Exception e) {
-                // Exception during write - clear pending flag
-                pendingWrites.remove(deviceAddress);
-                int failCount = writeFailureCount.getOrDefault(deviceAddress, 0) + 1;
-                writeFailureCount.put(deviceAddress, failCount);
-                Log.e(TAG, "[Bluetooth] Error sending via GATT to " + deviceAddress + ": " + e.getMessage());
+            // Write parcel to RX characteristic
+            byte[] value = queuedMsg.getBytes();
+            rxChar.setWriteType(noResponse
+                    ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                    : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            rxChar.setValue(value);
+            Log.d(TAG, "[Bluetooth] ⚡ Attempting GATT write to " + deviceAddress + " (" + value.length + " bytes" + (noResponse ? ", no response" : "") + "): " + queuedMsg.parcel.substring(0, Math.min(20, queuedMsg.parcel.length())));
+
+            if (!link.gatt.writeCharacteristic(rxChar)) {
+                Log.w(TAG, "[Bluetooth] ✗ GATT write FAILED to " + deviceAddress + " (failures: " + (link.failures + 1) + ")");
+                onLinkWriteFailed(link, pendingAck);
+                return;
             }
-        }
 
-        if (sent) {
-            // Wait for ACK before removing from queue
-            // ACK will be handled in onCharacteristicWrite callback
-        } else if (anyDeviceReady) {
-            // Devices exist but are rate-limited or have pending writes
-            // Retry will be scheduled by the flow control checks above
-            isSending = false;
-        } else {
-            // No successful GATT writes and no devices ready, fallback to advertising
-            isSending = false;
-            sendViaAdvertising(queuedMsg.parcel);
+            // Set up ACK timeout
+            Log.d(TAG, "[Bluetooth] ⏱ Waiting for ACK: " + deviceAddress + ":" + queuedMsg.ackKey + " (in flight: " + link.inFlight.size() + ")");
+            handler.postDelayed(() -> {
+                if (link.onAckTimeout(pendingAck)) {
+                    Log.w(TAG, "[Bluetooth] ⏰ ACK TIMEOUT for " + deviceAddress + ":" + queuedMsg.ackKey + " after " + GATT_ACK_TIMEOUT_MS + "ms - will retry (link queue size: " + link.queue.size() + ")");
+                    pumpLink(link);
+                }
+            }, GATT_ACK_TIMEOUT_MS);
+
+            Log.i(TAG, "[Bluetooth] ✓ GATT write queued to " + deviceAddress + ": " + queuedMsg.parcel.substring(0, Math.min(20, queuedMsg.parcel.length())) + "...");
+        } catch (Exception e) {
+            Log.e(TAG, "[Bluetooth] Error sending via GATT to " + deviceAddress + ": " + e.getMessage());
+            onLinkWriteFailed(link, pendingAck);
         }
     }
 
+    /**
+     * A write could not be handed to the stack: put the parcel back in the
+     * link queue and back off this link only.
+     */
+    private void onLinkWriteFailed(GattLink link, PendingAck pendingAck) {
+        link.onWriteFailed(pendingAck, System.currentTimeMillis());
+        pumpLink(link);
+    }
+
     private void sendViaAdvertising(String parcel) {
         // Fallback to advertising (backward compatibility)
         AdvertiseData data = buildAdvertiseData(parcel);
@@ -652,7 +785,8 @@ public class BluetoothSender {
             // RX Characteristic (they write, we read/notify)
             BluetoothGattCharacteristic rxChar = new BluetoothGattCharacteristic(
                     UUID.fromString(GATT_CHARACTERISTIC_RX_UUID),
-                    BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                    BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE
+                            | BluetoothGattCharacteristic.PROPERTY_NOTIFY,
                     BluetoothGattCharacteristic.PERMISSION_WRITE
             );
 
@@ -708,6 +842,8 @@ public class BluetoothSender {
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 Log.i(TAG, "[Bluetooth] GATT client disconnected: " + device.getAddress());
                 activeConnections.remove(device.getAddress());
+                dropLink(device.getAddress());
+                binaryPeers.remove(device.getAddress());
             }
         }
 
@@ -748,6 +884,20 @@ public class BluetoothSender {
                     return; // Wait for onExecuteWrite()
                 }
 
+                // Binary frame from a peer that negotiated binary framing
+                if (BluetoothFrame.isFrame(value)) {
+                    if (responseNeeded) {
+                        try {
+                            gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
+                        } catch (SecurityException e) {
+                            Log.e(TAG, "[Bluetooth] SecurityException sending GATT response: " + e.getMessage());
+                        }
+                    }
+                    handleIncomingFrame(value, device.getAddress());
+                    returnCredit(device.getAddress(), responseNeeded);
+                    return;
+                }
+
                 // Regular single write (not prepared) - process immediately
                 String parcel = new String(value, StandardCharsets.UTF_8);
                 Log.i(TAG, "[Bluetooth] 📥 Received parcel via GATT from " + device.getAddress() + " (" + parcel.length() + " bytes): " + parcel.substring(0, Math.min(20, parcel.length())));
@@ -768,13 +918,18 @@ public class BluetoothSender {
                     // Handle HTTP response over GATT (may be single or start of multi-parcel)
                     Log.d(TAG, "[Bluetooth] 📥 Routing to HTTP response handler: " + content.substring(0, Math.min(50, content.length())));
                     handleIncomingHttpResponse(content);
+                } else if (content.startsWith(HTTP_STREAM_PREFIX)) {
+                    handleIncomingHttpStream(content, device.getAddress());
+                } else if (BluetoothMessage.isParcelCrcList(content)) {
+                    // Parcel CRCs of a multi-parcel message that didn't fit in its header
+                    handleMultiParcelMessage(content, content.substring(0, 2), device.getAddress());
                 } else if (content.contains(":") && content.length() >= 4) {
                     // Check if this is a multi-parcel message (format: XX00:... or XX01:... with zero-padded 2-digit parcel numbers)
                     String parcelId = content.substring(0, Math.min(4, content.length()));
                     if (parcelId.matches("[A-Z]{2}\\d{2}")) {
                         // This is a multi-parcel message - check if it's for an HTTP response
                         String messageId = parcelId.substring(0, 2);
-                        handleMultiParcelMessage(content, messageId);
+                        handleMultiParcelMessage(content, messageId, device.getAddress());
                     } else {
                         // Regular message parcel - process through BluetoothListener
                         Log.d(TAG, "[Bluetooth] 📥 Routing to regular message handler");
@@ -799,12 +954,25 @@ public class BluetoothSender {
                 // Send application-level ACK via CONTROL characteristic
                 Log.d(TAG, "[Bluetooth] 📤 Sending ACK for parcel: " + parcel.substring(0, Math.min(10, parcel.length())));
                 sendAckToDevice(device.getAddress(), parcel);
+                returnCredit(device.getAddress(), responseNeeded);
 
             } else if (uuid.equalsIgnoreCase(GATT_CHARACTERISTIC_CONTROL_UUID)) {
                 // Received ACK/NACK
                 String control = new String(value, StandardCharsets.UTF_8);
                 handleControlMessage(device.getAddress(), control);
 
+                // Answer a capability offer so the client knows it can send binary frames.
+                // Clients that offer write-without-response get an initial credit window.
+                if (control.startsWith(CONTROL_CAPABILITIES)) {
+                    String reply = CONTROL_CAPABILITIES + BluetoothFrame.CAPABILITY;
+                    if (java.util.Arrays.asList(control.substring(CONTROL_CAPABILITIES.length()).split(","))
+                            .contains(CAPABILITY_CREDITS)) {
+                        reply += "," + CAPABILITY_CREDITS;
+                        creditsOwed.open(device.getAddress());
+                    }
+                    sendControlToDevice(device.getAddress(), reply);
+                }
+
                 if (responseNeeded) {
                     try {
                         gattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
@@ -848,7 +1016,9 @@ public class BluetoothSender {
             if (execute) {
                 // Commit the prepared write - process accumulated buffer
                 java.io.ByteArrayOutputStream buffer = preparedWriteBuffers.remove(deviceKey);
-                if (buffer != null) {
+                if (buffer != null && BluetoothFrame.isFrame(buffer.toByteArray())) {
+                    handleIncomingFrame(buffer.toByteArray(), deviceKey);
+                } else if (buffer != null) {
                     byte[] completeData = buffer.toByteArray();
                     String parcel = new String(completeData, StandardCharsets.UTF_8);
                     Log.i(TAG, "[Bluetooth] 📥 Completed prepared write from " + deviceKey + " (" + parcel.length() + " bytes total): " + parcel.substring(0, Math.min(20, parcel.length())));
@@ -868,13 +1038,18 @@ public class BluetoothSender {
                         // Handle HTTP response over GATT (may be single or start of multi-parcel)
                         Log.d(TAG, "[Bluetooth] 📥 Routing to HTTP response handler: " + content.substring(0, Math.min(50, content.length())));
                         handleIncomingHttpResponse(content);
+                    } else if (content.startsWith(HTTP_STREAM_PREFIX)) {
+                        handleIncomingHttpStream(content, deviceKey);
+                    } else if (BluetoothMessage.isParcelCrcList(content)) {
+                        // Parcel CRCs of a multi-parcel message that didn't fit in its header
+                        handleMultiParcelMessage(content, content.substring(0, 2), deviceKey);
                     } else if (content.contains(":") && content.length() >= 4) {
                         // Check if this is a multi-parcel message (format: XX00:... or XX01:... with zero-padded 2-digit parcel numbers)
                         String parcelId = content.substring(0, Math.min(4, content.length()));
                         if (parcelId.matches("[A-Z]{2}\\d{2}")) {
                             // This is a multi-parcel message - check if it's for an HTTP response
                             String messageId = parcelId.substring(0, 2);
-                            handleMultiParcelMessage(content, messageId);
+                            handleMultiParcelMessage(content, messageId, deviceKey);
                         } else {
                             // Regular message parcel - process through BluetoothListener
                             Log.d(TAG, "[Bluetooth] 📥 Routing to regular message handler");
@@ -908,44 +1083,99 @@ public class BluetoothSender {
 
     private void handleControlMessage(String deviceAddress, String control) {
         if (control.startsWith("ACK:")) {
-            String ackKey = deviceAddress + ":" + control.substring(4);
-            if (pendingAcks.containsKey(ackKey)) {
-                Log.i(TAG, "[Bluetooth] ✓ Received ACK from " + deviceAddress + " for " + ackKey + " (pending: " + pendingAcks.size() + ", queue: " + messageQueue.size() + ")");
-                pendingAcks.remove(ackKey);
-
-                // Extract parcel prefix from ackKey (e.g., ">ZA0:" from "7E:76:02:29:6B:B9:>ZA0:")
-                String parcelPrefix = control.substring(4); // e.g., ">ZA0:"
-
-                // Check if any other devices are still waiting for ACKs for this same parcel
-                boolean otherDevicesWaiting = false;
-                for (String key : pendingAcks.keySet()) {
-                    if (key.endsWith(parcelPrefix)) {
-                        otherDevicesWaiting = true;
-                        Log.d(TAG, "[Bluetooth] ⏳ Still waiting for ACK from other device: " + key);
-                        break;
-                    }
-                }
-
-                // Only remove from queue when ALL devices have ACKed this parcel
-                if (!otherDevicesWaiting) {
-                    QueuedMessage completed = messageQueue.poll();
-                    Log.d(TAG, "[Bluetooth] ← Completed parcel, removed from queue. New queue size: " + messageQueue.size());
-                    isSending = false;
-                    handler.post(() -> tryToSendNext());
-                } else {
-                    Log.d(TAG, "[Bluetooth] ← Parcel ACKed by " + deviceAddress + ", but waiting for other devices before removing from queue");
-                }
+            String ackKey = control.substring(4);
+            GattLink link = links.get(deviceAddress);
+            boolean acked = link != null && link.onAck(ackKey);
+            if (acked) {
+                Log.i(TAG, "[Bluetooth] ✓ Received ACK from " + deviceAddress + " for " + ackKey + " (in flight: " + link.inFlight.size() + ", link queue: " + link.queue.size() + ")");
+                handler.post(() -> pumpLink(link));
             } else {
-                Log.d(TAG, "[Bluetooth] ⚠ Received unexpected ACK (already processed?): " + ackKey);
+                Log.d(TAG, "[Bluetooth] ⚠ Received unexpected ACK (already processed?): " + deviceAddress + ":" + ackKey);
+            }
+        } else if (control.startsWith(CONTROL_CREDITS)) {
+            GattLink link = links.get(deviceAddress);
+            if (link == null) {
+                return;
+            }
+            try {
+                int granted = Integer.parseInt(control.substring(CONTROL_CREDITS.length()).trim());
+                link.grantCredits(granted);
+                Log.d(TAG, "[Bluetooth] " + deviceAddress + " granted " + granted + " credits (now " + link.credits + ")");
+                handler.post(() -> pumpLink(link));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "[Bluetooth] Invalid credit grant from " + deviceAddress + ": " + control);
             }
         } else if (control.startsWith("NACK:")) {
             String nackKey = deviceAddress + ":" + control.substring(5);
             Log.w(TAG, "[Bluetooth] ✗ Received NACK from " + deviceAddress + " for " + nackKey + ", will retry");
             // ACK timeout will handle retry
+        } else if (control.startsWith(CONTROL_CAPABILITIES)) {
+            // Peer offered (or confirmed) its capabilities; legacy peers never send this
+            java.util.List<String> capabilities = java.util.Arrays.asList(
+                    control.substring(CONTROL_CAPABILITIES.length()).split(","));
+            if (capabilities.contains(BluetoothFrame.CAPABILITY) && binaryPeers.add(deviceAddress)) {
+                Log.i(TAG, "[Bluetooth] " + deviceAddress + " supports binary framing");
+            }
+        }
+    }
+
+    /**
+     * Handle a binary frame written to our RX characteristic.
+     */
+    private void handleIncomingFrame(byte[] value, String deviceAddress) {
+        BluetoothFrame frame = BluetoothFrame.decode(value);
+        if (frame == null) {
+            // Malformed or failed its CRC: no ACK, so the sender retransmits it
+            Log.w(TAG, "[Bluetooth] ✗ Malformed or corrupted binary frame from " + deviceAddress + " (" + value.length + " bytes)");
+            return;
+        }
+
+        // Sender speaks binary, so we can answer in binary too
+        binaryPeers.add(deviceAddress);
+
+        BluetoothListener.getInstance(context).handleGattFrame(frame, deviceAddress);
+        sendControlToDevice(deviceAddress, "ACK:" + frame.getAckKey());
+    }
+
+    /**
+     * Route a message assembled from binary frames that belongs to HTTP-over-GATT.
+     *
+     * @return true if the message was an HTTP request or response
+     */
+    boolean handleFramedHttpMessage(String content, String deviceAddress) {
+        if (content.startsWith(HTTP_REQ_PREFIX)) {
+            handleIncomingHttpRequest(content, deviceAddress);
+            return true;
+        }
+        if (content.startsWith(HTTP_RESP_PREFIX)) {
+            handleIncomingHttpResponse(content);
+            return true;
+        }
+        if (content.startsWith(HTTP_STREAM_PREFIX)) {
+            handleIncomingHttpStream(content, deviceAddress);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Count a parcel written without response and grant the credits back to
+     * the peer once half of its window has been processed.
+     */
+    private void returnCredit(String deviceAddress, boolean responseNeeded) {
+        int granted = creditsOwed.received(deviceAddress, responseNeeded);
+        if (granted > 0) {
+            sendControlToDevice(deviceAddress, CONTROL_CREDITS + granted);
         }
     }
 
     private void sendAckToDevice(String deviceAddress, String parcel) {
+        // Create ACK message with parcel prefix
+        String parcelPrefix = parcel.substring(0, Math.min(5, parcel.length()));
+        sendControlToDevice(deviceAddress, "ACK:" + parcelPrefix);
+    }
+
+    private void sendControlToDevice(String deviceAddress, String controlMessage) {
         // When we receive data via GATT server, we need to send ACK back via the same server connection
         // using notifications instead of trying to write as a client
 
@@ -969,12 +1199,8 @@ public class BluetoothSender {
                 return;
             }
 
-            // Create ACK message with parcel prefix
-            String parcelPrefix = parcel.substring(0, Math.min(5, parcel.length()));
-            String ackMessage = "ACK:" + parcelPrefix;
-
             // Set the characteristic value
-            controlChar.setValue(ackMessage.getBytes(StandardCharsets.UTF_8));
+            controlChar.setValue(controlMessage.getBytes(StandardCharsets.UTF_8));
 
             // Get the BluetoothDevice object from the address
             BluetoothDevice device = bluetoothAdapter.getRemoteDevice(deviceAddress);
@@ -983,7 +1209,7 @@ public class BluetoothSender {
             boolean notifyResult = gattServer.notifyCharacteristicChanged(device, controlChar, false);
 
             if (notifyResult) {
-                Log.i(TAG, "[Bluetooth] ✓ Sent ACK notification to " + deviceAddress + " for parcel: " + parcelPrefix);
+                Log.i(TAG, "[Bluetooth] ✓ Sent control notification to " + deviceAddress + ": " + controlMessage);
             } else {
                 Log.w(TAG, "[Bluetooth] ✗ FAILED to send ACK notification to " + deviceAddress + " (client may not be subscribed or notification failed)");
             }
@@ -1043,6 +1269,9 @@ public class BluetoothSender {
                 Log.i(TAG, "[Bluetooth] Disconnected from GATT server: " + address);
                 activeConnections.remove(address);
                 connectingDevices.remove(address);  // Also remove from connecting list
+                dropLink(address);
+                binaryPeers.remove(address);
+                negotiatedMtu.remove(address);
 
                 // Clean up callsign-to-MAC mapping for this MAC address
                 // (Android randomizes MACs, so old mappings become stale)
@@ -1058,6 +1287,7 @@ public class BluetoothSender {
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Log.i(TAG, "[Bluetooth] MTU changed to " + mtu + " for " + gatt.getDevice().getAddress());
+                negotiatedMtu.put(gatt.getDevice().getAddress(), mtu);
             } else {
                 Log.w(TAG, "[Bluetooth] MTU change failed with status " + status + " for " + gatt.getDevice().getAddress());
             }
@@ -1107,6 +1337,7 @@ public class BluetoothSender {
                     // Move from connecting to active - connection is now ready!
                     connectingDevices.remove(address);
                     activeConnections.put(address, gatt);
+                    getLink(address);
 
                     // Ready to send messages
                     handler.post(() -> tryToSendNext());
@@ -1131,52 +1362,57 @@ public class BluetoothSender {
             }
         }
 
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, android.bluetooth.BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+
+            // Once ACK notifications are enabled, offer binary framing on the CONTROL characteristic.
+            // Legacy peers ignore the offer and keep receiving text parcels.
+            if (status != BluetoothGatt.GATT_SUCCESS
+                    || !descriptor.getCharacteristic().getUuid().toString().equalsIgnoreCase(GATT_CHARACTERISTIC_CONTROL_UUID)) {
+                return;
+            }
+            try {
+                BluetoothGattCharacteristic controlChar = descriptor.getCharacteristic();
+                controlChar.setValue((CONTROL_CAPABILITIES + BluetoothFrame.CAPABILITY + "," + CAPABILITY_CREDITS)
+                        .getBytes(StandardCharsets.UTF_8));
+                boolean offered = gatt.writeCharacteristic(controlChar);
+                Log.d(TAG, "[Bluetooth] Offered binary framing to " + gatt.getDevice().getAddress() + ": " + offered);
+            } catch (SecurityException e) {
+                Log.e(TAG, "[Bluetooth] SecurityException offering capabilities: " + e.getMessage());
+            }
+        }
+
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicWrite(gatt, characteristic, status);
 
             String deviceAddress = gatt.getDevice().getAddress();
+            GattLink link = links.get(deviceAddress);
+            if (link == null) {
+                return;
+            }
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "[Bluetooth] ✓ Characteristic write successful to " + deviceAddress);
-
-                // Clear pending write flag - this device can now send again
-                pendingWrites.remove(deviceAddress);
-
-                // Reset failure counter on success
-                writeFailureCount.remove(deviceAddress);
-
-                // Trigger next send attempt (respecting rate limits)
-                handler.postDelayed(() -> {
-                    if (isRunning && !isSending && !messageQueue.isEmpty()) {
-                        tryToSendNext();
-                    }
-                }, MIN_WRITE_INTERVAL_MS);
+            // Only parcels on the RX characteristic are tracked, other writes just free the connection
+            boolean parcelWrite = characteristic.getUuid().toString().equalsIgnoreCase(GATT_CHARACTERISTIC_RX_UUID);
 
+            if (status == BluetoothGatt.GATT_SUCCESS || !parcelWrite) {
+                Log.d(TAG, "[Bluetooth] ✓ Characteristic write successful to " + deviceAddress);
+                if (parcelWrite) {
+                    link.onWriteSucceeded();
+                }
             } else {
                 Log.w(TAG, "[Bluetooth] ✗ Characteristic write failed to " + deviceAddress + " with status " + status);
 
-                // Clear pending write flag so we can retry
-                pendingWrites.remove(deviceAddress);
-
-                // Increment failure counter for exponential backoff
-                int failCount = writeFailureCount.getOrDefault(deviceAddress, 0) + 1;
-                writeFailureCount.put(deviceAddress, failCount);
-
-                // Update timestamp for backoff calculation
-                lastWriteTimestamp.put(deviceAddress, System.currentTimeMillis());
-
-                // Calculate backoff delay
-                long backoffDelay = Math.min(BASE_BACKOFF_MS * (1L << Math.min(failCount, MAX_BACKOFF_FAILURES)), MAX_BACKOFF_MS);
-                Log.d(TAG, "[Bluetooth] Will retry after " + backoffDelay + "ms (failures: " + failCount + ")");
-
-                // Schedule retry with exponential backoff
-                handler.postDelayed(() -> {
-                    if (isRunning && !isSending && !messageQueue.isEmpty()) {
-                        tryToSendNext();
-                    }
-                }, backoffDelay);
+                // Put the parcel back and back off this link only
+                synchronized (link) {
+                    link.onWriteFailed(link.writing, System.currentTimeMillis());
+                }
+                Log.d(TAG, "[Bluetooth] Will retry " + deviceAddress + " with backoff (failures: " + link.failures + ")");
             }
+
+            // Send the next parcel on this link (respecting its rate limits)
+            handler.post(() -> pumpLink(link));
         }
 
         @Override
@@ -1190,6 +1426,13 @@ public class BluetoothSender {
                 String deviceAddress = gatt.getDevice().getAddress();
                 Log.i(TAG, "[Bluetooth] Received notification from " + deviceAddress + ": " + control);
                 handleControlMessage(deviceAddress, control);
+
+                // The server accepted write-without-response: start with a full credit window
+                if (control.startsWith(CONTROL_CAPABILITIES)
+                        && java.util.Arrays.asList(control.substring(CONTROL_CAPABILITIES.length()).split(","))
+                                .contains(CAPABILITY_CREDITS)) {
+                    handleControlMessage(deviceAddress, CONTROL_CREDITS + GattLink.CREDIT_WINDOW);
+                }
             }
         }
     };
@@ -1407,6 +1650,311 @@ public class BluetoothSender {
         return future;
     }
 
+    /**
+     * Send HTTP request over GATT and receive the body as a stream.
+     * The future completes as soon as the status line arrives; the body is
+     * read from the returned stream while the remaining chunks are still on
+     * their way. Peers that predate streaming never answer, so callers should
+     * fall back to {@link #sendHttpRequestOverGatt} when the future times out.
+     *
+     * @param deviceId Callsign or MAC address of target device
+     * @param timeoutMs Time to wait for the status line, and for each chunk afterwards
+     * @return CompletableFuture that completes with the response stream
+     */
+    public java.util.concurrent.CompletableFuture<GattHttpStream> sendHttpStreamRequestOverGatt(
+            String deviceId, String method, String path, int timeoutMs) {
+
+        java.util.concurrent.CompletableFuture<GattHttpStream> future = new java.util.concurrent.CompletableFuture<>();
+
+        String requestId = java.util.UUID.randomUUID().toString().substring(0, 8);
+
+        String callsign = Central.getInstance().getSettings().getCallsign();
+        if (callsign == null || callsign.isEmpty()) {
+            callsign = Central.getInstance().getSettings().getIdDevice();
+        }
+
+        GattHttpStream stream = new GattHttpStream(requestId, HTTP_STREAM_WINDOW, timeoutMs,
+                new GattHttpStream.FlowListener() {
+                    @Override
+                    public void onChunkConsumed(String id, int sequence) {
+                        sendMessageToDevice(HTTP_STREAM_PREFIX + "ACK:" + id + ":" + sequence, deviceId);
+                    }
+
+                    @Override
+                    public void onClosed(String id, boolean complete) {
+                        pendingHttpStreams.remove(id);
+                        if (!complete) {
+                            // Let the other side stop reading its local file
+                            sendMessageToDevice(HTTP_STREAM_PREFIX + "CAN:" + id, deviceId);
+                        }
+                    }
+                });
+        pendingHttpStreams.put(requestId, stream);
+        pendingHttpStreamHeaders.put(requestId, future);
+
+        // Format: HTTP_STREAM:REQ:{requestId}:{method}:{path}:{senderCallsign}
+        sendMessageToDevice(HTTP_STREAM_PREFIX + "REQ:" + requestId + ":" + method + ":" + path + ":" + callsign, deviceId);
+        Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Sent streamed " + method + " " + path + " to " + deviceId + " (requestId: " + requestId + ")");
+
+        handler.postDelayed(() -> {
+            if (pendingHttpStreamHeaders.remove(requestId) != null) {
+                pendingHttpStreams.remove(requestId);
+                peersWithoutHttpStream.put(deviceId, System.currentTimeMillis());
+                Log.w(TAG, "[Bluetooth] HTTP-over-GATT: Streamed request " + requestId + " got no status after " + timeoutMs + "ms");
+                future.completeExceptionally(new java.util.concurrent.TimeoutException(
+                    "HTTP-over-GATT stream timeout after " + timeoutMs + "ms"));
+            }
+        }, timeoutMs);
+
+        return future;
+    }
+
+    /**
+     * Whether a streamed request to this peer is worth trying. Peers that
+     * left one unanswered are sent buffered requests for HTTP_STREAM_RETRY_MS.
+     */
+    public boolean supportsHttpStream(String deviceId) {
+        Long failedAt = peersWithoutHttpStream.get(deviceId);
+        if (failedAt == null) {
+            return true;
+        }
+        if (System.currentTimeMillis() - failedAt > HTTP_STREAM_RETRY_MS) {
+            peersWithoutHttpStream.remove(deviceId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Handle a message of the streamed HTTP tunnel, on either side.
+     */
+    private void handleIncomingHttpStream(String content, String deviceAddress) {
+        try {
+            String[] message = content.substring(HTTP_STREAM_PREFIX.length()).split(":", 2);
+            if (message.length < 2) {
+                Log.e(TAG, "[Bluetooth] Invalid HTTP stream message: " + content);
+                return;
+            }
+            String type = message[0];
+
+            if ("REQ".equals(type)) {
+                handleIncomingHttpStreamRequest(message[1], deviceAddress);
+                return;
+            }
+
+            String[] parts = message[1].split(":", 3);
+            String requestId = parts[0];
+
+            switch (type) {
+                case "HDR": {
+                    GattHttpStream stream = pendingHttpStreams.get(requestId);
+                    java.util.concurrent.CompletableFuture<GattHttpStream> future = pendingHttpStreamHeaders.remove(requestId);
+                    if (stream == null || future == null || parts.length < 3) {
+                        Log.w(TAG, "[Bluetooth] HTTP-over-GATT: Status for unknown/expired stream: " + requestId);
+                        return;
+                    }
+                    stream.setHeader(Integer.parseInt(parts[1]), parts[2]);
+                    Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Stream " + requestId + " started with status " + parts[1] + " (" + parts[2] + ")");
+                    future.complete(stream);
+                    break;
+                }
+                case "DAT": {
+                    GattHttpStream stream = pendingHttpStreams.get(requestId);
+                    if (stream == null || parts.length < 3) {
+                        return;
+                    }
+                    // May come before HDR, the stream keeps it until the encoding is known
+                    if (!stream.offerEncoded(Integer.parseInt(parts[1]), parts[2])) {
+                        Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Ignored chunk " + parts[1] + " of stream " + requestId);
+                    }
+                    break;
+                }
+                case "END": {
+                    GattHttpStream stream = pendingHttpStreams.get(requestId);
+                    if (stream != null && parts.length >= 2) {
+                        stream.finish(Integer.parseInt(parts[1]));
+                    }
+                    break;
+                }
+                case "ERR": {
+                    String error = parts.length >= 2 ? message[1].substring(requestId.length() + 1) : "unknown error";
+                    java.util.concurrent.CompletableFuture<GattHttpStream> future = pendingHttpStreamHeaders.remove(requestId);
+                    GattHttpStream stream = pendingHttpStreams.remove(requestId);
+                    if (future != null) {
+                        future.completeExceptionally(new java.io.IOException(error));
+                    }
+                    if (stream != null) {
+                        stream.fail(new java.io.IOException(error));
+                    }
+                    break;
+                }
+                case "ACK": {
+                    OutgoingHttpStream outgoing = outgoingHttpStreams.get(requestId);
+                    if (outgoing != null && parts.length >= 2) {
+                        outgoing.acknowledge(Integer.parseInt(parts[1]));
+                    }
+                    break;
+                }
+                case "CAN": {
+                    OutgoingHttpStream outgoing = outgoingHttpStreams.get(requestId);
+                    if (outgoing != null) {
+                        outgoing.cancel();
+                    }
+                    break;
+                }
+                default:
+                    Log.w(TAG, "[Bluetooth] Unknown HTTP stream message: " + type);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "[Bluetooth] Error handling HTTP stream message: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Serve a streamed HTTP request: read the local response a chunk at a time,
+     * never more than HTTP_STREAM_WINDOW chunks ahead of the remote reader.
+     */
+    private void handleIncomingHttpStreamRequest(String content, String deviceAddress) {
+        // Format: {requestId}:{method}:{path}:{senderCallsign}
+        String[] parts = content.split(":", 4);
+        if (parts.length < 4) {
+            Log.e(TAG, "[Bluetooth] Invalid HTTP stream request format (expected 4 parts): " + content);
+            return;
+        }
+        String requestId = parts[0];
+        String method = parts[1];
+        String path = parts[2];
+        String senderCallsign = parts[3];
+
+        Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Received streamed " + method + " " + path + " from " + senderCallsign + " (" + deviceAddress + ") (requestId: " + requestId + ")");
+
+        OutgoingHttpStream outgoing = new OutgoingHttpStream();
+        if (outgoingHttpStreams.putIfAbsent(requestId, outgoing) != null) {
+            // Repeated request, already being served
+            return;
+        }
+
+        new Thread(() -> {
+            java.net.HttpURLConnection conn = null;
+            String prefix = HTTP_STREAM_PREFIX;
+            try {
+                offgrid.geogram.settings.ConfigManager configManager =
+                    offgrid.geogram.settings.ConfigManager.getInstance(context);
+                int port = configManager.getConfig().getHttpApiPort();
+
+                conn = (java.net.HttpURLConnection) new java.net.URL("http://localhost:" + port + path).openConnection();
+                conn.setRequestMethod(method);
+                conn.setConnectTimeout(5000);
+                conn.setReadTimeout(30000);
+                // Asking explicitly keeps HttpURLConnection from unzipping the body,
+                // so a gzipped response crosses the link compressed
+                conn.setRequestProperty("Accept-Encoding", "gzip");
+
+                int statusCode = conn.getResponseCode();
+                boolean gzipped = "gzip".equalsIgnoreCase(conn.getContentEncoding());
+                boolean isBinary = gzipped || isBinaryResponse(path, conn.getContentType());
+                String encoding = gzipped ? "gzip" : isBinary ? "base64" : "text";
+                sendMessageToDevice(prefix + "HDR:" + requestId + ":" + statusCode + ":" + encoding, senderCallsign);
+
+                int sequence = 0;
+                java.io.InputStream inputStream = statusCode < 400 ? conn.getInputStream() : conn.getErrorStream();
+                if (inputStream != null) {
+                    try (java.io.InputStream in = inputStream) {
+                        if (isBinary) {
+                            byte[] data = new byte[HTTP_STREAM_CHUNK_SIZE];
+                            int length;
+                            while ((length = readChunk(in, data)) > 0) {
+                                if (!outgoing.awaitWindow(sequence, HTTP_STREAM_WINDOW, HTTP_TIMEOUT_MS)) {
+                                    stopHttpStream(outgoing, requestId, sequence, senderCallsign);
+                                    return;
+                                }
+                                String chunk = android.util.Base64.encodeToString(data, 0, length, android.util.Base64.NO_WRAP);
+                                sendMessageToDevice(prefix + "DAT:" + requestId + ":" + sequence + ":" + chunk, senderCallsign);
+                                sequence++;
+                            }
+                        } else {
+                            java.io.Reader reader = new java.io.InputStreamReader(in, StandardCharsets.UTF_8);
+                            char[] data = new char[HTTP_STREAM_CHUNK_SIZE];
+                            int carry = 0;
+                            int length;
+                            while ((length = readChunk(reader, data, carry)) > 0) {
+                                // Keep surrogate pairs together, each chunk is decoded on its own
+                                carry = Character.isHighSurrogate(data[length - 1]) && length > 1 ? 1 : 0;
+                                if (!outgoing.awaitWindow(sequence, HTTP_STREAM_WINDOW, HTTP_TIMEOUT_MS)) {
+                                    stopHttpStream(outgoing, requestId, sequence, senderCallsign);
+                                    return;
+                                }
+                                String chunk = new String(data, 0, length - carry);
+                                sendMessageToDevice(prefix + "DAT:" + requestId + ":" + sequence + ":" + chunk, senderCallsign);
+                                sequence++;
+                                if (carry > 0) {
+                                    data[0] = data[length - 1];
+                                }
+                            }
+                        }
+                    }
+                }
+
+                sendMessageToDevice(prefix + "END:" + requestId + ":" + sequence, senderCallsign);
+                Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Streamed response " + statusCode + " in " + sequence + " chunks to " + senderCallsign + " (requestId: " + requestId + ")");
+
+            } catch (Exception e) {
+                Log.e(TAG, "[Bluetooth] HTTP-over-GATT: Error streaming response", e);
+                sendMessageToDevice(prefix + "ERR:" + requestId + ":" + e.getMessage(), senderCallsign);
+            } finally {
+                outgoingHttpStreams.remove(requestId);
+                if (conn != null) {
+                    conn.disconnect();
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * The window did not open: either the reader cancelled, or it stopped
+     * acknowledging and is told that the stream is given up.
+     */
+    private void stopHttpStream(OutgoingHttpStream outgoing, String requestId, int sequence, String senderCallsign) {
+        if (outgoing.isCancelled()) {
+            Log.i(TAG, "[Bluetooth] HTTP-over-GATT: Stream " + requestId + " stopped by the reader after " + sequence + " chunks");
+            return;
+        }
+        Log.w(TAG, "[Bluetooth] HTTP-over-GATT: Stream " + requestId + " not acknowledged for " + HTTP_TIMEOUT_MS + "ms after " + sequence + " chunks, giving up");
+        sendMessageToDevice(HTTP_STREAM_PREFIX + "ERR:" + requestId + ":No acknowledgement for " + HTTP_TIMEOUT_MS + "ms", senderCallsign);
+    }
+
+    /**
+     * Fill the buffer as far as the stream allows, so chunks stay full size.
+     */
+    private static int readChunk(java.io.InputStream in, byte[] buffer) throws java.io.IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int count = in.read(buffer, total, buffer.length - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Fill the buffer after the first {@code offset} chars already in it.
+     *
+     * @return chars in the buffer, 0 at the end of the stream
+     */
+    private static int readChunk(java.io.Reader reader, char[] buffer, int offset) throws java.io.IOException {
+        int total = offset;
+        while (total < buffer.length) {
+            int count = reader.read(buffer, total, buffer.length - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total == offset && offset == 0 ? 0 : total;
+    }
+
     /**
      * Handle incoming HTTP request from remote device
      */
@@ -1451,63 +1999,7 @@ public class BluetoothSender {
 
                     Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Content-Type for " + path + ": " + contentType);
 
-                    // Check if response is binary (image, video, etc.)
-                    // IMPORTANT: JavaScript, JSON, HTML, CSS, and other text files should NEVER be base64 encoded
-                    // ALWAYS check file extension FIRST, regardless of content-type
-                    boolean isBinary = false;
-
-                    // Priority 1: Check file extension (most reliable for static files)
-                    String lowerPath = path.toLowerCase();
-                    if (lowerPath.endsWith(".js") || lowerPath.endsWith(".json") ||
-                        lowerPath.endsWith(".html") || lowerPath.endsWith(".htm") ||
-                        lowerPath.endsWith(".css") || lowerPath.endsWith(".txt") ||
-                        lowerPath.endsWith(".xml") || lowerPath.endsWith(".svg") ||
-                        lowerPath.endsWith(".csv")) {
-                        // Text file extensions - always send as text
-                        isBinary = false;
-                        Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Text file detected by extension: " + path);
-                    }
-                    else if (lowerPath.endsWith(".jpg") || lowerPath.endsWith(".jpeg") ||
-                             lowerPath.endsWith(".png") || lowerPath.endsWith(".gif") ||
-                             lowerPath.endsWith(".webp") || lowerPath.endsWith(".bmp") ||
-                             lowerPath.endsWith(".ico") ||
-                             lowerPath.endsWith(".mp4") || lowerPath.endsWith(".webm") ||
-                             lowerPath.endsWith(".mp3") || lowerPath.endsWith(".wav") ||
-                             lowerPath.endsWith(".pdf") || lowerPath.endsWith(".zip")) {
-                        // Binary file extensions - always send as base64
-                        isBinary = true;
-                        Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Binary file detected by extension: " + path);
-                    }
-                    // Priority 2: Check content-type (if extension didn't match)
-                    else if (contentType != null) {
-                        // Explicitly check for text types first (always send as text)
-                        if (contentType.startsWith("text/") ||
-                            contentType.startsWith("application/javascript") ||
-                            contentType.startsWith("application/json") ||
-                            contentType.startsWith("application/xml")) {
-                            isBinary = false;
-                            Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Text file detected by content-type: " + contentType);
-                        }
-                        // Only encode as base64 for actual binary types
-                        else if (contentType.startsWith("image/") ||
-                                 contentType.startsWith("video/") ||
-                                 contentType.startsWith("audio/") ||
-                                 contentType.startsWith("application/octet-stream") ||
-                                 contentType.startsWith("application/pdf")) {
-                            isBinary = true;
-                            Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Binary file detected by content-type: " + contentType);
-                        }
-                        // Unknown content-type - default to text for safety
-                        else {
-                            isBinary = false;
-                            Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Unknown content-type, defaulting to text: " + contentType);
-                        }
-                    }
-                    // Priority 3: No extension match and no content-type - default to text
-                    else {
-                        isBinary = false;
-                        Log.d(TAG, "[Bluetooth] HTTP-over-GATT: No content-type, defaulting to text");
-                    }
+                    boolean isBinary = isBinaryResponse(path, contentType);
 
                     Log.d(TAG, "[Bluetooth] HTTP-over-GATT: FINAL isBinary=" + isBinary + " for path=" + path);
 
@@ -1560,6 +2052,71 @@ public class BluetoothSender {
         }
     }
 
+    /**
+     * Decide whether a local HTTP response must be Base64 encoded to travel over GATT.
+     */
+    private boolean isBinaryResponse(String path, String contentType) {
+        // Check if response is binary (image, video, etc.)
+        // IMPORTANT: JavaScript, JSON, HTML, CSS, and other text files should NEVER be base64 encoded
+        // ALWAYS check file extension FIRST, regardless of content-type
+        boolean isBinary = false;
+
+        // Priority 1: Check file extension (most reliable for static files)
+        String lowerPath = path.toLowerCase();
+        if (lowerPath.endsWith(".js") || lowerPath.endsWith(".json") ||
+            lowerPath.endsWith(".html") || lowerPath.endsWith(".htm") ||
+            lowerPath.endsWith(".css") || lowerPath.endsWith(".txt") ||
+            lowerPath.endsWith(".xml") || lowerPath.endsWith(".svg") ||
+            lowerPath.endsWith(".csv")) {
+            // Text file extensions - always send as text
+            isBinary = false;
+            Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Text file detected by extension: " + path);
+        }
+        else if (lowerPath.endsWith(".jpg") || lowerPath.endsWith(".jpeg") ||
+                 lowerPath.endsWith(".png") || lowerPath.endsWith(".gif") ||
+                 lowerPath.endsWith(".webp") || lowerPath.endsWith(".bmp") ||
+                 lowerPath.endsWith(".ico") ||
+                 lowerPath.endsWith(".mp4") || lowerPath.endsWith(".webm") ||
+                 lowerPath.endsWith(".mp3") || lowerPath.endsWith(".wav") ||
+                 lowerPath.endsWith(".pdf") || lowerPath.endsWith(".zip")) {
+            // Binary file extensions - always send as base64
+            isBinary = true;
+            Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Binary file detected by extension: " + path);
+        }
+        // Priority 2: Check content-type (if extension didn't match)
+        else if (contentType != null) {
+            // Explicitly check for text types first (always send as text)
+            if (contentType.startsWith("text/") ||
+                contentType.startsWith("application/javascript") ||
+                contentType.startsWith("application/json") ||
+                contentType.startsWith("application/xml")) {
+                isBinary = false;
+                Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Text file detected by content-type: " + contentType);
+            }
+            // Only encode as base64 for actual binary types
+            else if (contentType.startsWith("image/") ||
+                     contentType.startsWith("video/") ||
+                     contentType.startsWith("audio/") ||
+                     contentType.startsWith("application/octet-stream") ||
+                     contentType.startsWith("application/pdf")) {
+                isBinary = true;
+                Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Binary file detected by content-type: " + contentType);
+            }
+            // Unknown content-type - default to text for safety
+            else {
+                isBinary = false;
+                Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Unknown content-type, defaulting to text: " + contentType);
+            }
+        }
+        // Priority 3: No extension match and no content-type - default to text
+        else {
+            isBinary = false;
+            Log.d(TAG, "[Bluetooth] HTTP-over-GATT: No content-type, defaulting to text");
+        }
+
+        return isBinary;
+    }
+
     /**
      * Handle incoming HTTP response from remote device
      */
@@ -1614,7 +2171,7 @@ public class BluetoothSender {
     /**
      * Handle incoming multi-parcel message (for large HTTP responses split across multiple parcels)
      */
-    private void handleMultiParcelMessage(String parcel, String messageId) {
+    private void handleMultiParcelMessage(String parcel, String messageId, String deviceAddress) {
         try {
             // Get or create BluetoothMessage for this message ID
             BluetoothMessage message = pendingMultiParcelHttpResponses.get(messageId);
@@ -1638,6 +2195,8 @@ public class BluetoothSender {
                 if (completeMessage.startsWith(HTTP_RESP_PREFIX)) {
                     Log.d(TAG, "[Bluetooth] HTTP-over-GATT: Multi-parcel HTTP response assembled (" + completeMessage.length() + " bytes)");
                     handleIncomingHttpResponse(completeMessage);
+                } else if (completeMessage.startsWith(HTTP_STREAM_PREFIX)) {
+                    handleIncomingHttpStream(completeMessage, deviceAddress);
                 } else {
                     Log.w(TAG, "[Bluetooth] HTTP-over-GATT: Multi-parcel message was not an HTTP response, ignoring");
                 }
@@ -1649,32 +2208,45 @@ public class BluetoothSender {
         }
     }
 
-    // Helper classes
-    private static class QueuedMessage implements Comparable<QueuedMessage> {
-        final String parcel;
-        final String senderId;
-        final int priority;
-
-        QueuedMessage(String parcel, String senderId, int priority) {
-            this.parcel = parcel;
-            this.senderId = senderId;
-            this.priority = priority;
+    // Helper classes (QueuedMessage, PendingAck and GattLink have their own files)
+    /**
+     * Serving side of a streamed HTTP response: how far the remote reader got.
+     */
+    private static class OutgoingHttpStream {
+        private int consumed = 0;   // Chunks the reader has consumed
+        private boolean cancelled = false;
+
+        synchronized void acknowledge(int sequence) {
+            if (sequence + 1 > consumed) {
+                consumed = sequence + 1;
+                notifyAll();
+            }
         }
 
-        @Override
-        public int compareTo(QueuedMessage other) {
-            // Lower priority number = higher priority (sent first)
-            return Integer.compare(this.priority, other.priority);
+        synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
         }
-    }
 
-    private static class PendingAck {
-        final QueuedMessage message;
-        final long timestamp;
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
 
-        PendingAck(QueuedMessage message, long timestamp) {
-            this.message = message;
-            this.timestamp = timestamp;
+        /**
+         * Wait until chunk {@code sequence} fits in the window.
+         *
+         * @return false when the reader cancelled or stopped acknowledging
+         */
+        synchronized boolean awaitWindow(int sequence, int window, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (!cancelled && sequence >= consumed + window) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                wait(wait);
+            }
+            return !cancelled;
         }
     }
 }
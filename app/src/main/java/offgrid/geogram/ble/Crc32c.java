@@ -0,0 +1,40 @@
+package offgrid.geogram.ble;
+
+/**
+ * CRC32C (Castagnoli), as used by iSCSI and ext4: reflected polynomial
+ * 0x82F63B78, initial value and final XOR 0xFFFFFFFF.
+ *
+ * java.util.zip.CRC32C only exists from API 34, so the BLE code computes it
+ * here with a 256-entry table, one byte per step.
+ */
+final class Crc32c {
+
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private Crc32c() {
+    }
+
+    static int compute(byte[] data) {
+        return compute(data, 0, data.length);
+    }
+
+    static int compute(byte[] data, int offset, int length) {
+        int crc = 0xFFFFFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return ~crc;
+    }
+}
@@ -0,0 +1,51 @@
+package offgrid.geogram.ble;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-without-response credits we owe to the peers writing to our RX
+ * characteristic. Each parcel written without response uses one credit of
+ * the client; they are given back ("CRD:n") once half the window was used,
+ * so the client gets them before it runs out.
+ */
+class CreditLedger {
+    // Key: deviceAddress, Value: parcels processed since the last credit grant
+    private final Map<String, Integer> owed = new ConcurrentHashMap<>();
+
+    /**
+     * The peer agreed on credits; start counting its parcels.
+     */
+    void open(String deviceAddress) {
+        owed.put(deviceAddress, 0);
+    }
+
+    void remove(String deviceAddress) {
+        owed.remove(deviceAddress);
+    }
+
+    void clear() {
+        owed.clear();
+    }
+
+    /**
+     * Count a parcel received from a peer.
+     *
+     * @param responseNeeded whether the parcel came as a write with response (no credit used)
+     * @return credits to grant now, or 0 to keep counting
+     */
+    synchronized int received(String deviceAddress, boolean responseNeeded) {
+        Integer count = owed.get(deviceAddress);
+        if (responseNeeded || count == null) {
+            // No credit used, or the peer never agreed on credits
+            return 0;
+        }
+        count++;
+        if (count >= GattLink.CREDIT_WINDOW / 2) {
+            owed.put(deviceAddress, 0);
+            return count;
+        }
+        owed.put(deviceAddress, count);
+        return 0;
+    }
+}
@@ -0,0 +1,251 @@
+package offgrid.geogram.ble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Body of an HTTP response streamed over GATT.
+ *
+ * The remote side sends the body as numbered chunks (each one a BLE message,
+ * so they may arrive out of order). Chunks are kept here until read, and only
+ * a window of them may be outstanding: the sender waits for a consumed
+ * notification before sending past the window. That keeps memory bounded on
+ * both sides and lets the reader start before the last parcel lands.
+ *
+ * A body sent with the "gzip" encoding is read back still compressed; the
+ * caller unzips it (see {@link #isGzipped()}).
+ */
+public class GattHttpStream extends InputStream {
+
+    /**
+     * Notified from the reading thread as chunks are consumed, so the
+     * remote side can be told to send more (or to stop).
+     */
+    public interface FlowListener {
+        void onChunkConsumed(String requestId, int sequence);
+
+        void onClosed(String requestId, boolean complete);
+    }
+
+    private final String requestId;
+    private final int window;
+    private final long readTimeoutMs;
+    private final FlowListener listener;
+
+    private int statusCode;
+    private String encoding;
+
+    // Chunks received but not yet read, by sequence (starting at 0)
+    private final TreeMap<Integer, byte[]> chunks = new TreeMap<>();
+    // Chunks that overtook the status line, still encoded since the encoding comes with it
+    private final TreeMap<Integer, String> early = new TreeMap<>();
+    private int nextSequence = 0;
+    private int totalChunks = -1;
+    private IOException failure = null;
+    private boolean closed = false;
+
+    private byte[] current = null;
+    private int position = 0;
+
+    public GattHttpStream(String requestId, int window, long readTimeoutMs, FlowListener listener) {
+        this.requestId = requestId;
+        this.window = window;
+        this.readTimeoutMs = readTimeoutMs;
+        this.listener = listener;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Whether the body is gzipped, i.e. came with the "gzip" encoding.
+     */
+    public boolean isGzipped() {
+        return "gzip".equals(encoding);
+    }
+
+    synchronized void setHeader(int statusCode, String encoding) {
+        this.statusCode = statusCode;
+        this.encoding = encoding;
+        for (Map.Entry<Integer, String> chunk : early.entrySet()) {
+            try {
+                offer(chunk.getKey(), decode(chunk.getValue(), encoding));
+            } catch (IllegalArgumentException e) {
+                // Not valid Base64, left out like any lost chunk
+            }
+        }
+        early.clear();
+    }
+
+    /**
+     * Add a chunk as it came over GATT ("base64", "gzip" or "text" encoding,
+     * as announced with the status line). Chunks that arrive before the status
+     * line are kept until it comes.
+     *
+     * @return false when the chunk is a duplicate or outside the window
+     * @throws IllegalArgumentException if a base64 chunk can't be decoded
+     */
+    public synchronized boolean offerEncoded(int sequence, String chunk) {
+        if (encoding == null) {
+            if (closed || sequence < 0 || sequence >= window || early.containsKey(sequence)) {
+                return false;
+            }
+            early.put(sequence, chunk);
+            return true;
+        }
+        return offer(sequence, decode(chunk, encoding));
+    }
+
+    private static byte[] decode(String chunk, String encoding) {
+        return "base64".equals(encoding) || "gzip".equals(encoding)
+                ? Base64.getDecoder().decode(chunk)
+                : chunk.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Add a chunk received from the remote side.
+     *
+     * @return false when the chunk is a duplicate or outside the window
+     */
+    public synchronized boolean offer(int sequence, byte[] data) {
+        if (closed || sequence < nextSequence || sequence >= nextSequence + window
+                || chunks.containsKey(sequence)) {
+            return false;
+        }
+        chunks.put(sequence, data);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * The remote side sent everything, {@code count} chunks in total.
+     */
+    public synchronized void finish(int count) {
+        totalChunks = count;
+        notifyAll();
+    }
+
+    /**
+     * The transfer broke; readers get the error once buffered data is consumed.
+     */
+    public synchronized void fail(IOException error) {
+        if (failure == null) {
+            failure = error;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Number of chunks received but not read yet.
+     */
+    public synchronized int getBufferedChunks() {
+        return chunks.size();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int count = read(single, 0, 1);
+        return count < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (current == null || position >= current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public synchronized int available() {
+        int count = current == null ? 0 : current.length - position;
+        byte[] next = chunks.get(nextSequence);
+        return next == null ? count : count + next.length;
+    }
+
+    /**
+     * Wait for the next chunk in order.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean nextChunk() throws IOException {
+        int consumed;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + readTimeoutMs;
+            while (true) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                byte[] next = chunks.remove(nextSequence);
+                if (next != null) {
+                    current = next;
+                    position = 0;
+                    consumed = nextSequence;
+                    nextSequence++;
+                    break;
+                }
+                if (totalChunks >= 0 && nextSequence >= totalChunks) {
+                    return false;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new InterruptedIOException("No data from " + requestId + " for " + readTimeoutMs + "ms");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + requestId);
+                }
+            }
+        }
+        if (listener != null) {
+            listener.onChunkConsumed(requestId, consumed);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        boolean complete;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            complete = totalChunks >= 0 && nextSequence >= totalChunks;
+            chunks.clear();
+            early.clear();
+            notifyAll();
+        }
+        if (listener != null) {
+            listener.onClosed(requestId, complete);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package offgrid.geogram.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * Send pipeline of one GATT connection: its own queue, the parcels waiting
+ * for an ACK, write pacing, backoff after failures and the
+ * write-without-response credits granted by the peer ("CRD:n").
+ *
+ * The link only decides what to write and when; BluetoothSender does the
+ * writes and schedules the pumps. Guarded by its own monitor.
+ */
+class GattLink {
+
+    // Flow control constants
+    static final long MIN_WRITE_INTERVAL_MS = 100;  // Minimum 100ms between writes to same legacy device
+    static final long BASE_BACKOFF_MS = 200;        // Base delay for exponential backoff
+    static final int MAX_BACKOFF_FAILURES = 5;      // Max failures before capping backoff
+    static final long MAX_BACKOFF_MS = 3200;        // Max backoff delay (200ms * 2^4 = 3.2s)
+    static final int MAX_IN_FLIGHT = 4;             // Unacknowledged parcels per link
+    // Peers that agreed on write-without-response start with a full window
+    static final int CREDIT_WINDOW = 8;
+
+    // Returned by delayBeforeWrite() when the write callback, an ACK or a credit grant will pump again
+    static final long BLOCKED = -1;
+
+    final String address;
+    final BluetoothGatt gatt;
+    final Queue<QueuedMessage> queue = new PriorityQueue<>();
+    // Key: ACK key (e.g. ">AB03"), Value: parcel waiting for its ACK
+    final Map<String, PendingAck> inFlight = new HashMap<>();
+    boolean writePending = false;   // Waiting for onCharacteristicWrite
+    PendingAck writing = null;      // Parcel of the pending write
+    long lastWrite = 0;             // Last write or failure, for pacing and backoff
+    int failures = 0;               // Consecutive failures (for exponential backoff)
+    boolean creditMode = false;     // Peer grants write-without-response credits
+    int credits = 0;
+    boolean pumpScheduled = false;
+
+    GattLink(String address, BluetoothGatt gatt) {
+        this.address = address;
+        this.gatt = gatt;
+    }
+
+    synchronized void offer(QueuedMessage message) {
+        queue.offer(message);
+    }
+
+    synchronized boolean isQueued(String parcel) {
+        for (QueuedMessage existing : queue) {
+            if (existing.parcel.equals(parcel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How long to wait before the next write.
+     *
+     * @return 0 to write now, the delay in ms, or {@link #BLOCKED}
+     */
+    synchronized long delayBeforeWrite(long now) {
+        if (writePending || queue.isEmpty()) {
+            return BLOCKED;
+        }
+
+        // Exponential backoff for this link only
+        if (failures > 0) {
+            long backoffDelay = Math.min(BASE_BACKOFF_MS * (1L << Math.min(failures, MAX_BACKOFF_FAILURES)), MAX_BACKOFF_MS);
+            long waitTime = lastWrite + backoffDelay - now;
+            if (waitTime > 0) {
+                return waitTime;
+            }
+        }
+
+        if (credits == 0) {
+            if (inFlight.size() >= MAX_IN_FLIGHT) {
+                return BLOCKED;
+            }
+            // Peers without credit flow control keep the old pacing
+            long waitTime = lastWrite + MIN_WRITE_INTERVAL_MS - now;
+            if (!creditMode && waitTime > 0) {
+                return waitTime;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Start the next write: take the first queued parcel, spend a credit
+     * when it can go without response, and keep the link busy until the
+     * write callback.
+     *
+     * @param maxNoResponseBytes largest value a write-without-response can carry
+     * @return the parcel to write, or null when none can be sent
+     */
+    synchronized PendingAck startWrite(long now, int maxNoResponseBytes) {
+        QueuedMessage next = pollSendable();
+        if (next == null) {
+            return null;
+        }
+        // Write-without-response can't be split in a long write
+        boolean noResponse = credits > 0 && next.getBytes().length <= maxNoResponseBytes;
+        if (noResponse) {
+            credits--;
+        }
+        PendingAck pendingAck = new PendingAck(next, now, noResponse);
+        inFlight.put(next.ackKey, pendingAck);
+        writing = pendingAck;
+        writePending = true;
+        lastWrite = now;
+        return pendingAck;
+    }
+
+    /**
+     * Take the first parcel whose ACK key isn't already in flight
+     * (ACKs only carry the first characters of a parcel).
+     */
+    private QueuedMessage pollSendable() {
+        java.util.List<QueuedMessage> skipped = new java.util.ArrayList<>();
+        QueuedMessage next = null;
+        QueuedMessage candidate;
+        while ((candidate = queue.poll()) != null) {
+            if (!inFlight.containsKey(candidate.ackKey)) {
+                next = candidate;
+                break;
+            }
+            skipped.add(candidate);
+        }
+        queue.addAll(skipped);
+        return next;
+    }
+
+    synchronized void onWriteSucceeded() {
+        writePending = false;
+        writing = null;
+        failures = 0;
+    }
+
+    /**
+     * A write failed or could not be handed to the stack: put the parcel
+     * back in the queue and back off this link only.
+     */
+    synchronized void onWriteFailed(PendingAck failed, long now) {
+        if (failed != null && inFlight.remove(failed.message.ackKey, failed)) {
+            queue.offer(failed.message);
+        }
+        writePending = false;
+        writing = null;
+        failures++;
+        lastWrite = now;
+    }
+
+    /**
+     * @return whether the ACK was for a parcel in flight
+     */
+    synchronized boolean onAck(String ackKey) {
+        boolean acked = inFlight.remove(ackKey) != null;
+        if (acked) {
+            failures = 0;
+        }
+        return acked;
+    }
+
+    /**
+     * No ACK came in time: queue the parcel again.
+     *
+     * @return false when it was acknowledged or failed in the meantime
+     */
+    synchronized boolean onAckTimeout(PendingAck pendingAck) {
+        boolean expired = inFlight.remove(pendingAck.message.ackKey, pendingAck);
+        if (expired) {
+            queue.offer(pendingAck.message);
+        }
+        if (writing == pendingAck) {
+            // The write callback never came, don't keep the link blocked
+            writePending = false;
+            writing = null;
+        }
+        return expired;
+    }
+
+    /**
+     * The peer granted credits, never more than a full window.
+     */
+    synchronized void grantCredits(int granted) {
+        creditMode = true;
+        credits = Math.min(credits + granted, CREDIT_WINDOW);
+    }
+
+    /**
+     * Drop everything still to send.
+     *
+     * @return the number of parcels dropped
+     */
+    synchronized int clear() {
+        int dropped = queue.size() + inFlight.size();
+        queue.clear();
+        inFlight.clear();
+        return dropped;
+    }
+}
@@ -0,0 +1,16 @@
+package offgrid.geogram.ble;
+
+/**
+ * A parcel written to a peer and waiting for its ACK.
+ */
+class PendingAck {
+    final QueuedMessage message;
+    final long timestamp;
+    final boolean noResponse;  // Written without response, spending a credit
+
+    PendingAck(QueuedMessage message, long timestamp, boolean noResponse) {
+        this.message = message;
+        this.timestamp = timestamp;
+        this.noResponse = noResponse;
+    }
+}
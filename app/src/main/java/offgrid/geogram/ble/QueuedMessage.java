@@ -0,0 +1,49 @@
+package offgrid.geogram.ble;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A text parcel or binary frame waiting to be sent, ordered by priority
+ * (lower number = sent first) and then by the order it was queued in.
+ */
+class QueuedMessage implements Comparable<QueuedMessage> {
+    private static final AtomicLong counter = new AtomicLong();
+
+    final String parcel;
+    final String senderId;
+    final int priority;
+    final String ackKey;
+    final byte[] frame;              // Binary frame, or null for a text parcel
+    final BluetoothMessage message;  // Source message of a binary frame
+    final long order = counter.incrementAndGet();  // Keeps parcels of the same priority in order
+
+    QueuedMessage(String parcel, String senderId, int priority) {
+        this.parcel = parcel;
+        this.senderId = senderId;
+        this.priority = priority;
+        this.ackKey = parcel.substring(0, Math.min(5, parcel.length()));
+        this.frame = null;
+        this.message = null;
+    }
+
+    QueuedMessage(byte[] frame, String ackKey, BluetoothMessage message, int priority) {
+        this.parcel = ackKey; // For logging
+        this.senderId = message.getIdFromSender();
+        this.priority = priority;
+        this.ackKey = ackKey;
+        this.frame = frame;
+        this.message = message;
+    }
+
+    byte[] getBytes() {
+        return frame != null ? frame : parcel.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int compareTo(QueuedMessage other) {
+        // Lower priority number = higher priority (sent first), then first queued
+        int result = Integer.compare(this.priority, other.priority);
+        return result != 0 ? result : Long.compare(this.order, other.order);
+    }
+}
@@ -10,6 +10,9 @@ public class ValidCommands {
     // syntax: /repeat AV83
     public static final String PARCEL_REPEAT = "/repeat";
 
+    // syntax: /rs AV03 1F (parcel 03 onwards, one bit per parcel to send again)
+    public static final String PARCEL_REPEAT_SET = "/rs";
+
     // syntax: /read 1234567890 CALLSIGN (timestamp and author of the message being read)
     public static final String READ_RECEIPT = "/read";
     // syntax: /R 949441328 CALLSIGN (compact format - last 9 digits of timestamp + callsign)
@@ -37,6 +40,9 @@ public class ValidCommands {
         if(command.startsWith(PARCEL_REPEAT + " ")){
             return true;
         }
+        if(command.startsWith(PARCEL_REPEAT_SET + " ")){
+            return true;
+        }
         if(command.startsWith(READ_RECEIPT + " ")){
             return true;
         }
@@ -21,7 +21,7 @@ public class EventBleBroadcastMessageReceived extends EventAction {
 
         // Check if this is a relay protocol message or system command
         String content = messageBluetooth.getMessage();
-        if (content != null && (content.startsWith("INV:") || content.startsWith("REQ:") || content.startsWith("MSG:"))) {
+        if (RelayMessageSync.isRelayCommand(content)) {
             // This is a relay protocol message - handle it through RelayMessageSync
             try {
                 RelayMessageSync relaySync = RelayMessageSync.getInstance(Central.getInstance().broadcastChatFragment.getContext());
@@ -35,9 +35,7 @@ public class EventBleBroadcastMessageReceived extends EventAction {
 
         // Filter out all system commands - don't save to database or show in UI
         if (content != null && (
-            content.startsWith("INV:") ||
-            content.startsWith("REQ:") ||
-            content.startsWith("MSG:") ||
+            RelayMessageSync.isRelayCommand(content) ||
             content.startsWith("/repeat") ||
             content.startsWith("/"))) {
             Log.d(TAG, "Filtered system command from geochat: " + content.substring(0, Math.min(20, content.length())));
@@ -6,6 +6,7 @@ import offgrid.geogram.core.Central;
 import offgrid.geogram.core.Log;
 import offgrid.geogram.database.DatabaseMessages;
 import offgrid.geogram.events.EventAction;
+import offgrid.geogram.relay.RelayMessageSync;
 
 public class EventBleBroadcastMessageSent extends EventAction {
     private static final String TAG = "EventBleMessageSent";
@@ -21,9 +22,7 @@ public class EventBleBroadcastMessageSent extends EventAction {
         // Filter out all system/relay commands - don't save to database or show in UI
         String content = message.getMessage();
         if (content != null && (
-            content.startsWith("INV:") ||
-            content.startsWith("REQ:") ||
-            content.startsWith("MSG:") ||
+            RelayMessageSync.isRelayCommand(content) ||
             content.startsWith("/repeat") ||
             content.startsWith("/"))) {
             Log.d(TAG, "Filtered system command from geochat (sent): " + content.substring(0, Math.min(20, content.length())));
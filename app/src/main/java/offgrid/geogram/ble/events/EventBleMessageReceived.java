@@ -1,5 +1,8 @@
 package offgrid.geogram.ble.events;
 
+import android.os.Handler;
+import android.os.Looper;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -30,14 +33,31 @@ public class EventBleMessageReceived extends EventAction {
     // Throttling for missing parcel requests
     private static final long PARCEL_REQUEST_THROTTLE_MS = 3000; // Wait 3 seconds before requesting
     private HashMap<String, Long> lastRequestTime = new HashMap<>(); // messageId -> timestamp
-    private HashMap<String, HashSet<String>> requestedParcels = new HashMap<>(); // messageId -> Set<parcelId>
+    // Parcels asked for in the last selective repeat bitmap (/rs), if the last round was one
+    private HashMap<String, HashSet<String>> bitmapRequestedParcels = new HashMap<>(); // messageId -> Set<parcelId>
+    // Whether the sender ever answered a bitmap. Senders that predate it ignore the
+    // bitmap, so they get asked with one /repeat per parcel instead
+    private HashMap<String, Boolean> bitmapAnswered = new HashMap<>(); // messageId -> answered
+    // Messages with a gap check scheduled. Lost trailing parcels or lost answers leave
+    // nothing to trigger the next round, so each round schedules the one after it
+    private HashSet<String> scheduledChecks = new HashSet<>();
+    // Request rounds so far, to give up on a sender that went away
+    private HashMap<String, Integer> requestRounds = new HashMap<>(); // messageId -> rounds
+    private static final int MAX_REQUEST_ROUNDS = 20;
+    private Handler handler;
 
     public EventBleMessageReceived(String id) {
         super(id);
     }
 
     @Override
-    public void action(Object... data) {
+    public synchronized void action(Object... data) {
+        // Already assembled from binary GATT frames
+        if (data[0] instanceof BluetoothMessage) {
+            handleCompletedMessage((BluetoothMessage) data[0]);
+            return;
+        }
+
         String message = (String) data[0];
 
         // remove the > from the beginning
@@ -57,8 +77,8 @@ public class EventBleMessageReceived extends EventAction {
         }
 
 
-        // need to have the separator for multiple parcels
-        if(message.contains(":") == false){
+        // need to have the separator for multiple parcels (or be their CRC list)
+        if(message.contains(":") == false && BluetoothMessage.isParcelCrcList(message) == false){
             return;
         }
 
@@ -88,6 +108,13 @@ public class EventBleMessageReceived extends EventAction {
             return;
         }
 
+        handleCompletedMessage(msg);
+    }
+
+    /**
+     * Dispatch a completed multi-parcel message (relay command or broadcast).
+     */
+    private void handleCompletedMessage(BluetoothMessage msg) {
         // needs to have a destination
         String destination = msg.getIdDestination();
         if(destination == null){
@@ -106,9 +133,9 @@ public class EventBleMessageReceived extends EventAction {
             Log.w(TAG, "Could not get local device ID: " + e.getMessage());
         }
 
-        // Check if this is a relay command (INV:, REQ:, MSG:)
+        // Check if this is a relay command (INV:, REQ:, MSG:, VER:, BLM:)
         String content = msg.getMessage();
-        if (content != null && (content.startsWith("INV:") || content.startsWith("REQ:") || content.startsWith("MSG:"))) {
+        if (RelayMessageSync.isRelayCommand(content)) {
             // Process relay messages sent via broadcast OR targeted to this device via GATT
             if (msg.getIdDestination().equalsIgnoreCase("ANY") ||
                 (localId != null && msg.getIdDestination().equalsIgnoreCase(localId))) {
@@ -139,53 +166,156 @@ public class EventBleMessageReceived extends EventAction {
 
     /**
      * Long messages will lose packages. This is the place to ask for missing packages.
-     * Uses throttling and deduplication to avoid flooding the BLE channel with duplicate requests.
+     * Uses throttling to avoid flooding the BLE channel: at most one round of requests
+     * per message every PARCEL_REQUEST_THROTTLE_MS. Parcels still missing after a round,
+     * because the request or the repeated parcel got lost too, are asked for again in
+     * the next one. Each round also schedules a check for the next, so the
+     * message doesn't depend on another parcel arriving to move on.
      */
     private void shouldWeAskForMissingPackages(BluetoothMessage msg) {
+        String messageId = msg.getId();
+        long now = currentTimeMillis();
+
+        // Parcels that failed their CRC were dropped after we may already have
+        // asked for them, so ask again without waiting
+        if(!msg.takeRejectedParcels().isEmpty()){
+            lastRequestTime.put(messageId, now - PARCEL_REQUEST_THROTTLE_MS);
+        }
+
         ArrayList<String> missingParcels = msg.getMissingParcels();
         if(missingParcels.isEmpty()){
             // Message complete - cleanup tracking
-            lastRequestTime.remove(msg.getId());
-            requestedParcels.remove(msg.getId());
+            forgetRequests(messageId);
             return;
         }
 
-        String messageId = msg.getId();
-        long now = System.currentTimeMillis();
-
         // Throttle: Check if we requested recently for this message
         Long lastRequest = lastRequestTime.get(messageId);
-        if(lastRequest != null && (now - lastRequest) < PARCEL_REQUEST_THROTTLE_MS){
+        if(lastRequest == null){
+            // First gap seen, give the sender time to finish sending the message
+            lastRequestTime.put(messageId, now);
+            scheduleMissingParcelCheck(msg, PARCEL_REQUEST_THROTTLE_MS);
+            return;
+        }
+        if((now - lastRequest) < PARCEL_REQUEST_THROTTLE_MS){
             // Too soon, wait for throttle period to elapse
+            scheduleMissingParcelCheck(msg, PARCEL_REQUEST_THROTTLE_MS - (now - lastRequest));
             return;
         }
 
-        // Get or create the set of already-requested parcels for this message
-        HashSet<String> alreadyRequested = requestedParcels.get(messageId);
-        if(alreadyRequested == null){
-            alreadyRequested = new HashSet<>();
-            requestedParcels.put(messageId, alreadyRequested);
+        int rounds = requestRounds.getOrDefault(messageId, 0);
+        if(rounds >= MAX_REQUEST_ROUNDS){
+            Log.w(TAG, messageId + " still missing " + missingParcels.size() + " parcels after "
+                    + rounds + " request rounds, giving up");
+            forgetRequests(messageId);
+            return;
+        }
+        requestRounds.put(messageId, rounds + 1);
+        scheduleMissingParcelCheck(msg, PARCEL_REQUEST_THROTTLE_MS);
+
+        HashSet<String> lastBitmap = bitmapRequestedParcels.get(messageId);
+        Boolean answered = bitmapAnswered.get(messageId);
+        boolean useBitmap;
+        if(answered == null){
+            // First round: ask for every missing parcel at once with a bitmap
+            useBitmap = true;
+        } else if(lastBitmap != null){
+            // Keep using bitmaps as long as the sender answers them
+            useBitmap = false;
+            for(String parcelId : lastBitmap){
+                if(!missingParcels.contains(parcelId)){
+                    useBitmap = true;
+                    bitmapAnswered.put(messageId, true);
+                    break;
+                }
+            }
+        } else {
+            useBitmap = answered;
         }
 
-        // Only request parcels we haven't requested yet
-        int newRequestCount = 0;
-        for(String missingParcelId : missingParcels) {
-            if(!alreadyRequested.contains(missingParcelId)){
-                String nackMessage = "/repeat " + missingParcelId;
-                BluetoothSender.getInstance(null).sendMessage(nackMessage);
-                alreadyRequested.add(missingParcelId);
-                newRequestCount++;
-                Log.i(TAG, "Requesting missing parcel: " + missingParcelId);
+        if(useBitmap){
+            String bitmapRequest = msg.getMissingParcelsBitmap();
+            if(bitmapRequest != null){
+                sendRequest(bitmapRequest);
+                ArrayList<Integer> covered = BluetoothMessage.parseMissingParcelsBitmap(bitmapRequest);
+                HashSet<String> bitmapRequested = new HashSet<>();
+                for(String missingParcelId : missingParcels){
+                    try {
+                        if(covered != null && covered.contains(Integer.parseInt(missingParcelId.substring(2)))){
+                            bitmapRequested.add(missingParcelId);
+                        }
+                    } catch (NumberFormatException ignore) { }
+                }
+                bitmapRequestedParcels.put(messageId, bitmapRequested);
+                bitmapAnswered.putIfAbsent(messageId, false);
+                lastRequestTime.put(messageId, now);
+                Log.i(TAG, messageId + " requested missing parcels: " + bitmapRequest);
+                return;
             }
         }
 
-        if(newRequestCount > 0){
-            // Update last request time only if we actually sent requests
-            lastRequestTime.put(messageId, now);
-            Log.i(TAG, msg.getId() + " requested " + newRequestCount + " new missing parcels (total missing: " + missingParcels.size() + ")");
+        // Nothing came back from the bitmap: older senders only understand /repeat, ask one by one
+        bitmapRequestedParcels.remove(messageId);
+        for(String missingParcelId : missingParcels) {
+            sendRequest("/repeat " + missingParcelId);
+            Log.i(TAG, "Requesting missing parcel: " + missingParcelId);
+        }
+        lastRequestTime.put(messageId, now);
+        Log.i(TAG, messageId + " requested " + missingParcels.size() + " missing parcels one by one");
+    }
+
+    private void forgetRequests(String messageId) {
+        lastRequestTime.remove(messageId);
+        bitmapRequestedParcels.remove(messageId);
+        bitmapAnswered.remove(messageId);
+        requestRounds.remove(messageId);
+    }
+
+    /**
+     * Look for gaps in a message again after a delay, unless a check is
+     * already scheduled or the message completes in the meantime.
+     */
+    private void scheduleMissingParcelCheck(BluetoothMessage msg, long delayMs) {
+        String messageId = msg.getId();
+        if(!scheduledChecks.add(messageId)){
+            return;
         }
+        schedule(() -> {
+            synchronized (this) {
+                scheduledChecks.remove(messageId);
+                if(msg.isMessageCompleted()){
+                    forgetRequests(messageId);
+                    return;
+                }
+                shouldWeAskForMissingPackages(msg);
+            }
+        }, delayMs);
     }
 
+    /**
+     * Run a task later on the main thread (overridden in tests to play the clock).
+     */
+    protected void schedule(Runnable task, long delayMs) {
+        if(handler == null){
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.postDelayed(task, delayMs);
+    }
+
+    /**
+     * Send a repeat request (/rs or /repeat) to the sender of a message.
+     * Overridden in tests to play the sender.
+     */
+    protected void sendRequest(String request) {
+        BluetoothSender.getInstance(null).sendMessage(request);
+    }
+
+    /**
+     * Clock used to throttle repeat requests (overridden in tests).
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
 
     private void handleSingleMessage(BluetoothMessage msg) {
         String text = msg.getMessage();
@@ -215,6 +345,10 @@ public class EventBleMessageReceived extends EventAction {
             android.util.Log.w("ReadReceipts", "Command NOT valid request: " + text);
             return;
         }
+        if(text.startsWith(ValidCommands.PARCEL_REPEAT_SET + " ")){
+            handleParcelRepeatSet(text);
+            return;
+        }
         if(text.startsWith(ValidCommands.PARCEL_REPEAT)){
             handleParcelRepeat(text);
             return;
@@ -244,6 +378,20 @@ public class EventBleMessageReceived extends EventAction {
         MissingMessagesBLE.addToQueue(ConnectionType.BLE, messageId, parcelNumber);
     }
 
+    /**
+     * Send again, in one burst, every parcel flagged in a selective repeat bitmap
+     * @param text /rs AF03 1F
+     */
+    private void handleParcelRepeatSet(String text) {
+        ArrayList<Integer> parcels = BluetoothMessage.parseMissingParcelsBitmap(text);
+        if(parcels == null || parcels.isEmpty()){
+            Log.i(TAG, "Invalid selective repeat request: " + text);
+            return;
+        }
+        String messageId = text.split(" ")[1].substring(0, 2);
+        MissingMessagesBLE.addAllToQueue(ConnectionType.BLE, messageId, parcels);
+    }
+
     /**
      * Handle a read receipt notification from another device
      * @param text /read 1234567890 AUTHOR_ID OR /R 949441328 AUTHOR_ID (compact format)
@@ -325,9 +473,7 @@ public class EventBleMessageReceived extends EventAction {
 
         // Filter out system/relay commands - don't save to database or show in UI
         if (content != null && (
-            content.startsWith("INV:") ||
-            content.startsWith("REQ:") ||
-            content.startsWith("MSG:") ||
+            RelayMessageSync.isRelayCommand(content) ||
             content.startsWith("/repeat") ||
             content.startsWith("/"))) {
             Log.d(TAG, "Filtered system command from geochat: " + content.substring(0, Math.min(20, content.length())));
@@ -385,6 +531,7 @@ public class EventBleMessageReceived extends EventAction {
             // Chat is visible in foreground - mark message as read immediately
             Log.i(TAG, "Chat is visible in foreground, marking BLE message as read immediately");
             chatMessage.setRead(true);
+            DatabaseMessages.getInstance().update(chatMessage);
             DatabaseMessages.getInstance().flushNow();
         } else {
             // App in background or chat not visible - update counter and show notification
@@ -135,4 +135,37 @@ public class MissingMessagesBLE {
         Log.i(TAG, "Repeated parcel request for: " + messageId + parcelNumberText);
     }
 
+    /**
+     * Send back several parcels of the same message in one burst,
+     * as asked by a selective repeat request (/rs).
+     */
+    public static void addAllToQueue(
+            ConnectionType connectionType,
+            String messageId,
+            ArrayList<Integer> parcelNumbers){
+
+        // get the message itself
+        ArchivedMessageBLE messageArchived = messagesArchived.get(messageId);
+        if(messageArchived == null){
+            Log.i(TAG, "Unable to find archived message with ID: " + messageId);
+            return;
+        }
+        String[] parcelData = messageArchived.message.getMessageParcels();
+
+        int sent = 0;
+        for(int parcelNumber : parcelNumbers){
+            if(parcelNumber < 0 || parcelNumber >= parcelData.length){
+                Log.i(TAG, "Parcel number " + parcelNumber + " out of bounds (0-" + (parcelData.length - 1) + ")");
+                continue;
+            }
+            String parcelText = parcelData[parcelNumber];
+            if(parcelText == null){
+                continue;
+            }
+            BluetoothSender.getInstance(null).sendMessage(parcelText);
+            sent++;
+        }
+        Log.i(TAG, "Repeated " + sent + " parcels in one burst for: " + messageId);
+    }
+
 }
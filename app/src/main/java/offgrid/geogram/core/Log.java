@@ -1,27 +1,139 @@
 package offgrid.geogram.core;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Application log: logcat, an in-memory view for the UI and the API, and
+ * the app_debug.log file.
+ *
+ * Logging a line only builds an Entry and puts it in a ring buffer, without
+ * locks. Formatting for display is done when someone reads the entry, and a
+ * background thread writes new entries to the file in batches through one
+ * open channel, rotating the file when it gets too large. As it writes, it
+ * keeps a LogIndex of the file, so LogQuery can read back only the lines
+ * asked for.
+ *
+ * Errors are written to the file at once, and so is everything pending
+ * when the app dies of an uncaught exception, so the lines that explain a
+ * crash are not lost with the process.
+ *
+ * Lines below the level set for their tag are dropped before anything is
+ * built. Use the format overloads, or isLoggable() around expensive
+ * messages, so that dropped lines cost no string building either.
+ */
 public class Log {
 
+    // Same values as android.util.Log
+    public static final int VERBOSE = android.util.Log.VERBOSE;
+    public static final int DEBUG = android.util.Log.DEBUG;
+    public static final int INFO = android.util.Log.INFO;
+    public static final int WARN = android.util.Log.WARN;
+    public static final int ERROR = android.util.Log.ERROR;
+
+    // Number of entries kept in memory
     private static final int sizeOfLog = 5000;
 
     // File logging configuration
     private static final String LOG_FILENAME = "app_debug.log";
+    private static final String OLD_LOG_SUFFIX = ".old";
     private static final long MAX_LOG_SIZE = 5 * 1024 * 1024; // 5 MB
-    private static final long TRIM_TO_SIZE = 1 * 1024 * 1024; // 1 MB
-    private static File logFile = null;
-    private static SimpleDateFormat fileLogDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    private static final long WRITE_INTERVAL_MS = 500;
+    // Wake the writer early when this many entries are waiting
+    private static final int WRITE_BATCH = sizeOfLog / 4;
+
+    /**
+     * One line of the log.
+     */
+    public static final class Entry {
+        public final long sequence;
+        public final long time;     // Milliseconds since the epoch
+        public final int level;     // VERBOSE to ERROR
+        public final String tag;
+        public final String message;
+
+        private String display;
+
+        Entry(long sequence, long time, int level, String tag, String message) {
+            this.sequence = sequence;
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+        }
 
-    // List of messages received
-    public static final CopyOnWriteArrayList<String> logMessages = new CopyOnWriteArrayList<>();
+        /**
+         * Level as written in the log file: V, D, I, W or E.
+         */
+        public char getLevelLetter() {
+            return levelLetter(level);
+        }
+
+        /**
+         * Case-insensitive search in the tag and message.
+         */
+        public boolean matches(String text) {
+            return text == null || text.isEmpty()
+                    || containsIgnoreCase(tag, text) || containsIgnoreCase(message, text);
+        }
+
+        /**
+         * The line as shown on screen: "HH:mm:ss [tag] message".
+         */
+        @Override
+        public String toString() {
+            if (display == null) {
+                String timestamp = displayDateFormat.get().format(new Date(time));
+                display = tag.length() == 1
+                        ? timestamp + " " + tag + " " + message
+                        : timestamp + " [" + tag + "] " + message;
+            }
+            return display;
+        }
+    }
+
+    private static final ThreadLocal<SimpleDateFormat> displayDateFormat =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("HH:mm:ss", Locale.getDefault()));
+
+    // Ring buffer: the entry with sequence s is in slot s % sizeOfLog
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(sizeOfLog);
+    private static final AtomicLong nextSequence = new AtomicLong();
+    // Entries before this one were cleared from view
+    private static volatile long firstVisible = 0;
+
+    // Level filtering
+    private static volatile int minLevel = VERBOSE;
+    private static final Map<String, Integer> tagLevels = new ConcurrentHashMap<>();
+
+    // File writer state, guarded by writerLock
+    private static final Object writerLock = new Object();
+    private static volatile File logFile = null;
+    private static volatile long nextToWrite = 0;
+    private static long maxLogSize = MAX_LOG_SIZE;
+    private static FileChannel channel;
+    private static long fileSize;
+    // Index of the log file and of the rotated one, built when first needed
+    private static LogIndex index;
+    private static LogIndex oldIndex;
+    private static long droppedLines;
+    private static final SimpleDateFormat fileLogDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    private static Thread writerThread;
 
     // Callback interface
     public interface LogListener {
@@ -35,182 +147,461 @@ public class Log {
         logListener = listener;
     }
 
+    /**
+     * Clear the in-memory log. The log file is kept.
+     */
     public static void clear() {
-        logMessages.clear();
+        firstVisible = nextSequence.get();
         if (logListener != null) {
             logListener.onLogUpdated(null); // Notify of cleared logs
         }
     }
 
+    /**
+     * Set the lowest level logged for tags without a level of their own.
+     */
+    public static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    /**
+     * Set the lowest level logged for one tag, e.g. WARN for a chatty one.
+     */
+    public static void setTagLevel(String tag, int level) {
+        tagLevels.put(tag, level);
+    }
+
+    /**
+     * Remove the levels set per tag.
+     */
+    public static void clearTagLevels() {
+        tagLevels.clear();
+    }
+
+    /**
+     * Whether a line of this level and tag would be logged.
+     */
+    public static boolean isLoggable(int priority, String tag) {
+        Integer level = tagLevels.isEmpty() ? null : tagLevels.get(tag);
+        return priority >= (level != null ? level : minLevel);
+    }
+
+    /**
+     * The most recent entries in memory, oldest first.
+     */
+    public static List<Entry> getEntries(int limit) {
+        long end = nextSequence.get();
+        long start = Math.max(Math.max(firstVisible, end - sizeOfLog), end - limit);
+        List<Entry> entries = new ArrayList<>((int) Math.max(0, end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = ring.get(slot(sequence));
+            // Skip slots not written yet or already reused
+            if (entry != null && entry.sequence == sequence) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
     /**
      * Initialize file logging. Should be called once from Application or MainActivity.
      */
     public static void initFileLogging(android.content.Context context) {
         if (logFile == null && context != null) {
-            logFile = new File(context.getFilesDir(), LOG_FILENAME);
-            writeToFile("=== File logging initialized ===");
+            setLogFile(new File(context.getFilesDir(), LOG_FILENAME));
         }
     }
 
     /**
-     * Write a message to the log file.
+     * Start writing to a log file. Entries still in memory from before are
+     * written first.
      */
-    private static void writeToFile(String message) {
-        if (logFile == null) {
-            // Try to initialize using MainActivity if available
-            offgrid.geogram.MainActivity mainActivity = offgrid.geogram.MainActivity.getInstance();
-            if (mainActivity != null) {
-                logFile = new File(mainActivity.getFilesDir(), LOG_FILENAME);
-            } else {
-                // Can't write to file yet - context not available
-                return;
+    static void setLogFile(File file) {
+        synchronized (writerLock) {
+            closeChannel();
+            logFile = file;
+            index = null;
+            oldIndex = null;
+            nextToWrite = Math.max(nextToWrite, nextSequence.get() - sizeOfLog);
+            if (writerThread == null) {
+                writerThread = new Thread(Log::runWriter, "LogWriter");
+                writerThread.setDaemon(true);
+                writerThread.start();
+                installCrashHandler();
             }
         }
+        i("Log", "=== File logging initialized ===");
+    }
 
-        try {
-            // Check file size and trim if needed
-            if (logFile.exists() && logFile.length() > MAX_LOG_SIZE) {
-                trimLogFile();
-            }
+    /**
+     * Make the default uncaught exception handler log the exception and
+     * write the pending entries before handing over to the previous one.
+     */
+    static void installCrashHandler() {
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        if (!(previous instanceof FlushingHandler)) {
+            Thread.setDefaultUncaughtExceptionHandler(new FlushingHandler(previous));
+        }
+    }
 
-            // Append to log file
-            FileWriter writer = new FileWriter(logFile, true);
-            writer.write(message + "\n");
-            writer.close();
+    private static final class FlushingHandler implements Thread.UncaughtExceptionHandler {
+        private final Thread.UncaughtExceptionHandler previous;
 
-        } catch (IOException e) {
-            // Silently fail - don't spam logs with log errors
-            android.util.Log.e("Log", "Failed to write to log file: " + e.getMessage());
+        FlushingHandler(Thread.UncaughtExceptionHandler previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void uncaughtException(Thread thread, Throwable throwable) {
+            try {
+                e("Log", "Uncaught exception in thread " + thread.getName(), throwable);
+                flush();
+            } catch (Throwable ignored) {
+                // Never get in the way of the crash itself
+            }
+            if (previous != null) {
+                previous.uncaughtException(thread, throwable);
+            }
         }
     }
 
     /**
-     * Trim log file to TRIM_TO_SIZE by keeping only the most recent logs.
+     * Set the size at which the log file is rotated (for testing).
      */
-    private static void trimLogFile() {
-        try {
-            if (!logFile.exists() || logFile.length() <= MAX_LOG_SIZE) {
-                return;
-            }
+    static void setMaxLogSize(long size) {
+        synchronized (writerLock) {
+            maxLogSize = size;
+        }
+    }
 
-            // Read last TRIM_TO_SIZE bytes
-            RandomAccessFile raf = new RandomAccessFile(logFile, "r");
-            long fileLength = raf.length();
-            long seekPosition = fileLength - TRIM_TO_SIZE;
+    /**
+     * Write pending entries to the log file now, e.g. before reading it.
+     */
+    public static void flush() {
+        writePending();
+    }
+
+    /**
+     * Open the log files for a query, oldest first, with the blocks that may
+     * hold matching lines. Entries still waiting for the writer are written
+     * first.
+     */
+    static List<LogIndex.Snapshot> openLogFiles(long since, long until, String tag, int level)
+            throws IOException {
+        writePending();
+        List<LogIndex.Snapshot> files = new ArrayList<>();
+        synchronized (writerLock) {
+            if (logFile == null || !loadIndex()) {
+                return files;
+            }
+            try {
+                if (oldIndex != null) {
+                    files.add(oldIndex.open(since, until, tag, level));
+                }
+                files.add(index.open(since, until, tag, level));
+            } catch (IOException e) {
+                for (LogIndex.Snapshot file : files) {
+                    file.close();
+                }
+                throw e;
+            }
+        }
+        return files;
+    }
 
-            // Seek to position
-            raf.seek(seekPosition);
+    /**
+     * Get the log file path.
+     */
+    public static String getLogFilePath() {
+        return logFile != null ? logFile.getAbsolutePath() : "Not initialized";
+    }
 
-            // Read from this position to end
-            byte[] buffer = new byte[(int) TRIM_TO_SIZE];
-            int bytesRead = raf.read(buffer);
-            raf.close();
+    private static void runWriter() {
+        while (true) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(WRITE_INTERVAL_MS));
+            writePending();
+        }
+    }
 
-            // Find first newline to avoid partial log line
-            int firstNewline = 0;
-            for (int i = 0; i < bytesRead; i++) {
-                if (buffer[i] == '\n') {
-                    firstNewline = i + 1;
+    /**
+     * Write the entries logged since the last call as one batch.
+     */
+    private static void writePending() {
+        synchronized (writerLock) {
+            if (logFile == null) {
+                return;
+            }
+            long end = nextSequence.get();
+            if (nextToWrite < end - sizeOfLog) {
+                // The writer fell a whole ring behind
+                droppedLines += end - sizeOfLog - nextToWrite;
+                nextToWrite = end - sizeOfLog;
+            }
+            List<Entry> batch = new ArrayList<>();
+            if (droppedLines > 0) {
+                batch.add(new Entry(-1, System.currentTimeMillis(), WARN, "Log",
+                        droppedLines + " lines dropped from the log file"));
+                droppedLines = 0;
+            }
+            long sequence = nextToWrite;
+            for (; sequence < end; sequence++) {
+                Entry entry = ring.get(slot(sequence));
+                if (entry == null || entry.sequence < sequence) {
+                    // Sequence taken but the entry not stored yet, next batch
                     break;
                 }
+                if (entry.sequence > sequence) {
+                    droppedLines++;
+                    continue;
+                }
+                batch.add(entry);
+            }
+            nextToWrite = sequence;
+            if (batch.isEmpty()) {
+                return;
             }
 
-            // Write trimmed content back
-            FileWriter writer = new FileWriter(logFile, false); // overwrite mode
-            writer.write("=== Log trimmed from " + (fileLength / 1024) + " KB to " + (TRIM_TO_SIZE / 1024) + " KB ===\n");
-            writer.write(new String(buffer, firstNewline, bytesRead - firstNewline));
-            writer.close();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int[] sizes = new int[batch.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                Entry entry = batch.get(i);
+                byte[] line = (fileLogDateFormat.format(new Date(entry.time))
+                        + " " + levelLetter(entry.level)
+                        + " [" + entry.tag + "] " + entry.message + "\n").getBytes(StandardCharsets.UTF_8);
+                bytes.write(line, 0, line.length);
+                sizes[i] = line.length;
+            }
 
-        } catch (IOException e) {
-            android.util.Log.e("Log", "Failed to trim log file: " + e.getMessage());
+            try {
+                if (channel == null) {
+                    openChannel();
+                }
+                // The first query indexes the file, until then there is nothing to extend
+                boolean indexed = index != null;
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    fileSize += channel.write(buffer);
+                }
+                if (indexed) {
+                    for (int i = 0; i < sizes.length; i++) {
+                        Entry entry = batch.get(i);
+                        index.add(entry.time, entry.level, entry.tag, sizes[i]);
+                    }
+                }
+                if (fileSize > maxLogSize) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                // Silently fail - don't spam logs with log errors
+                android.util.Log.e("Log", "Failed to write to log file: " + e.getMessage());
+                closeChannel();
+                // Part of the batch may be in the file, index it again
+                index = null;
+                oldIndex = null;
+            }
         }
     }
 
     /**
-     * Get the log file path.
+     * Index the log files if not done yet.
+     *
+     * @return false if they cannot be read
      */
-    public static String getLogFilePath() {
-        return logFile != null ? logFile.getAbsolutePath() : "Not initialized";
+    private static boolean loadIndex() {
+        if (index != null) {
+            return true;
+        }
+        try {
+            File oldLog = new File(logFile.getPath() + OLD_LOG_SUFFIX);
+            oldIndex = oldLog.exists() ? LogIndex.build(oldLog, 0) : null;
+            long base = oldIndex != null ? oldIndex.getLength() : 0;
+            index = logFile.exists() ? LogIndex.build(logFile, base) : new LogIndex(logFile, base, 0);
+            return true;
+        } catch (IOException e) {
+            android.util.Log.e("Log", "Failed to index log file: " + e.getMessage());
+            index = null;
+            oldIndex = null;
+            return false;
+        }
     }
 
-    public static void log(int priority, String tag, String message) {
-        // Get the current timestamp for display
-        String timestamp = new SimpleDateFormat("HH:mm:ss", Locale.getDefault())
-                .format(Calendar.getInstance().getTime());
+    private static void openChannel() throws IOException {
+        channel = new FileOutputStream(logFile, true).getChannel();
+        fileSize = channel.size();
+    }
 
-        // Format the message with the timestamp
-        String formattedMessage = timestamp + " [" + tag + "] " + message;
+    /**
+     * Move the full log file to app_debug.log.old, replacing the previous one,
+     * and start a new file.
+     */
+    private static void rotate() throws IOException {
+        closeChannel();
+        File oldLog = new File(logFile.getPath() + OLD_LOG_SUFFIX);
+        if (oldLog.exists() && !oldLog.delete()) {
+            android.util.Log.e("Log", "Failed to delete " + oldLog.getName());
+        }
+        if (!logFile.renameTo(oldLog)) {
+            android.util.Log.e("Log", "Failed to rotate log file");
+        }
+        openChannel();
+        if (index != null) {
+            index.moveTo(oldLog);
+            oldIndex = index;
+            index = new LogIndex(logFile, oldIndex.getBase() + oldIndex.getLength(), fileSize);
+        }
+    }
 
-        if(tag.length() == 1){
-            formattedMessage = timestamp + " " + tag + " " + message;
+    private static void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            android.util.Log.e("Log", "Failed to close log file: " + e.getMessage());
         }
+        channel = null;
+    }
 
-        // Write to the system log
+    public static void log(int priority, String tag, String message) {
+        if (!isLoggable(priority, tag)) {
+            return;
+        }
+
+        // Write to the system log, which has its own timestamps
         if(Central.debugForLocalTests == false) {
             try {
-                android.util.Log.println(priority, tag, formattedMessage);
+                android.util.Log.println(priority, tag, message);
             } catch (Exception e) {
                 // don't print messages
                 e.printStackTrace();
             }
         }
 
-        // Write to file with milliseconds timestamp
-        String fileTimestamp = fileLogDateFormat.format(Calendar.getInstance().getTime());
-        String priorityStr;
-        switch (priority) {
-            case android.util.Log.DEBUG: priorityStr = "D"; break;
-            case android.util.Log.INFO: priorityStr = "I"; break;
-            case android.util.Log.WARN: priorityStr = "W"; break;
-            case android.util.Log.ERROR: priorityStr = "E"; break;
-            default: priorityStr = "?"; break;
+        // Add the message, unless a thread a whole ring ahead already took the slot
+        long sequence = nextSequence.getAndIncrement();
+        Entry entry = new Entry(sequence, System.currentTimeMillis(), priority, tag, message);
+        int slot = slot(sequence);
+        Entry current = ring.get(slot);
+        while ((current == null || current.sequence < sequence)
+                && !ring.compareAndSet(slot, current, entry)) {
+            current = ring.get(slot);
         }
-        String fileLogMessage = fileTimestamp + " " + priorityStr + " [" + tag + "] " + message;
-        writeToFile(fileLogMessage);
 
-        // Add the message
-        logMessages.add(formattedMessage);
-
-        // Trim log size
-        if (logMessages.size() > sizeOfLog) {
-            logMessages.remove(0);
+        // Wake the writer for an error rather than wait for the interval; a
+        // crash is written by the crash handler
+        Thread writer = writerThread;
+        if (writer != null && (priority >= ERROR || sequence - nextToWrite >= WRITE_BATCH)) {
+            LockSupport.unpark(writer);
         }
 
         // Notify the listener
-        if (logListener != null) {
-            logListener.onLogUpdated(formattedMessage);
+        LogListener listener = logListener;
+        if (listener != null) {
+            listener.onLogUpdated(entry.toString());
         }
     }
 
     public static void d(String tag, String message) {
-        log(android.util.Log.DEBUG, tag, message);
+        log(DEBUG, tag, message);
+    }
+
+    public static void d(String tag, String format, Object... args) {
+        if (isLoggable(DEBUG, tag)) {
+            log(DEBUG, tag, String.format(Locale.US, format, args));
+        }
     }
 
     public static void d(String tag, String message, Throwable throwable) {
-        log(android.util.Log.DEBUG, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        if (isLoggable(DEBUG, tag)) {
+            log(DEBUG, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        }
     }
 
     public static void e(String tag, String message) {
-        log(android.util.Log.ERROR, tag, message);
+        log(ERROR, tag, message);
+    }
+
+    public static void e(String tag, String format, Object... args) {
+        if (isLoggable(ERROR, tag)) {
+            log(ERROR, tag, String.format(Locale.US, format, args));
+        }
     }
 
     public static void e(String tag, String message, Throwable throwable) {
-        log(android.util.Log.ERROR, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        if (isLoggable(ERROR, tag)) {
+            log(ERROR, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        }
     }
 
     public static void i(String tag, String message) {
-        log(android.util.Log.INFO, tag, message);
+        log(INFO, tag, message);
+    }
+
+    public static void i(String tag, String format, Object... args) {
+        if (isLoggable(INFO, tag)) {
+            log(INFO, tag, String.format(Locale.US, format, args));
+        }
     }
 
     public static void i(String tag, String message, Throwable throwable) {
-        log(android.util.Log.INFO, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        if (isLoggable(INFO, tag)) {
+            log(INFO, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        }
     }
 
     public static void w(String tag, String message) {
-        log(android.util.Log.WARN, tag, message);
+        log(WARN, tag, message);
+    }
+
+    public static void w(String tag, String format, Object... args) {
+        if (isLoggable(WARN, tag)) {
+            log(WARN, tag, String.format(Locale.US, format, args));
+        }
     }
 
     public static void w(String tag, String message, Throwable throwable) {
-        log(android.util.Log.WARN, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        if (isLoggable(WARN, tag)) {
+            log(WARN, tag, message + "\n" + android.util.Log.getStackTraceString(throwable));
+        }
+    }
+
+    private static int slot(long sequence) {
+        return (int) (sequence % sizeOfLog);
+    }
+
+    private static char levelLetter(int priority) {
+        switch (priority) {
+            case VERBOSE: return 'V';
+            case DEBUG: return 'D';
+            case INFO: return 'I';
+            case WARN: return 'W';
+            case ERROR: return 'E';
+            default: return '?';
+        }
+    }
+
+    static int levelOf(char letter) {
+        switch (letter) {
+            case 'V': return VERBOSE;
+            case 'D': return DEBUG;
+            case 'I': return INFO;
+            case 'W': return WARN;
+            case 'E': return ERROR;
+            default: return 0;
+        }
+    }
+
+    private static boolean containsIgnoreCase(String text, String search) {
+        if (text == null) {
+            return false;
+        }
+        int last = text.length() - search.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, search, 0, search.length())) {
+                return true;
+            }
+        }
+        return false;
     }
 }
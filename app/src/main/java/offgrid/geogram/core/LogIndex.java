@@ -0,0 +1,336 @@
+package offgrid.geogram.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sparse index of one log file, used by LogQuery.
+ *
+ * The file is cut into blocks of about BLOCK_SIZE bytes, always at the start
+ * of an entry. Each block records the time of its first and last entry and
+ * its highest level, and each tag records the blocks it appears in, so a
+ * query only reads the blocks that can hold the lines it asks for.
+ *
+ * The writer adds entries as it writes them. After a restart the index is
+ * rebuilt by reading the file once; log lines have no year, so it is taken
+ * from the file's modification time.
+ */
+final class LogIndex {
+
+    static final int BLOCK_SIZE = 16 * 1024;
+
+    private static final long HALF_YEAR_MS = 183L * 24 * 60 * 60 * 1000;
+
+    static final class Block {
+        final long offset;      // In this file
+        long end;               // Offset of the next block, or end of file
+        long firstTime;
+        long lastTime;
+        int maxLevel;
+
+        Block(long offset, long time) {
+            this.offset = offset;
+            this.firstTime = time;
+            this.lastTime = time;
+        }
+    }
+
+    private File file;
+    // Position of this file's first byte in the whole log, across rotations
+    private final long base;
+    private long length;
+    private final List<Block> blocks = new ArrayList<>();
+    // Tag -> blocks holding at least one line of that tag, in file order
+    private final Map<String, List<Block>> tagBlocks = new HashMap<>();
+
+    LogIndex(File file, long base, long length) {
+        this.file = file;
+        this.base = base;
+        this.length = length;
+    }
+
+    long getBase() {
+        return base;
+    }
+
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * The file was renamed (rotated); its content is unchanged.
+     */
+    synchronized void moveTo(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Record an entry appended to the end of the file.
+     *
+     * @param size Bytes written for the entry, newline included
+     */
+    synchronized void add(long time, int level, String tag, int size) {
+        Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (block == null || length - block.offset >= BLOCK_SIZE) {
+            block = new Block(length, time);
+            blocks.add(block);
+        }
+        block.lastTime = Math.max(block.lastTime, time);
+        block.maxLevel = Math.max(block.maxLevel, level);
+        List<Block> forTag = tagBlocks.get(tag);
+        if (forTag == null) {
+            forTag = new ArrayList<>();
+            tagBlocks.put(tag, forTag);
+        }
+        if (forTag.isEmpty() || forTag.get(forTag.size() - 1) != block) {
+            forTag.add(block);
+        }
+        length += size;
+        block.end = length;
+    }
+
+    /**
+     * Record bytes that are not the start of an entry.
+     */
+    private void skip(int size) {
+        length += size;
+        if (!blocks.isEmpty()) {
+            blocks.get(blocks.size() - 1).end = length;
+        }
+    }
+
+    /**
+     * Index an existing log file.
+     */
+    static LogIndex build(File file, long base) throws IOException {
+        LogIndex index = new LogIndex(file, base, 0);
+        long reference = file.lastModified();
+        LineParser parser = new LineParser();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ByteLine line = new ByteLine();
+            while (line.read(in)) {
+                Log.Entry entry = parser.parse(line.toString(), reference);
+                if (entry != null) {
+                    index.add(entry.time, entry.level, entry.tag, line.size);
+                } else {
+                    // Rest of a multi-line message, or a line we don't know
+                    index.skip(line.size);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Open the file for reading, with the blocks that may hold matching lines.
+     */
+    synchronized Snapshot open(long since, long until, String tag, int level) throws IOException {
+        List<Block> candidates = tag != null ? tagBlocks.get(tag) : blocks;
+        List<Block> selected = new ArrayList<>();
+        if (candidates != null) {
+            for (Block block : candidates) {
+                if (block.lastTime < since || block.maxLevel < level) {
+                    continue;
+                }
+                if (block.firstTime >= until) {
+                    break;
+                }
+                Block copy = new Block(block.offset, block.firstTime);
+                copy.lastTime = block.lastTime;
+                copy.maxLevel = block.maxLevel;
+                copy.end = block.end;
+                selected.add(copy);
+            }
+        }
+        return new Snapshot(new RandomAccessFile(file, "r"), base, length, selected);
+    }
+
+    /**
+     * A log file as it was when opened: later writes are not seen.
+     */
+    static final class Snapshot implements Closeable {
+        final long base;
+        final long length;
+        final List<Block> blocks;
+        private final RandomAccessFile raf;
+        private final LineParser parser = new LineParser();
+
+        Snapshot(RandomAccessFile raf, long base, long length, List<Block> blocks) {
+            this.raf = raf;
+            this.base = base;
+            this.length = length;
+            this.blocks = blocks;
+        }
+
+        /**
+         * Read the entries of a block from a file offset on.
+         *
+         * @param ends Receives the file offset where each entry ends
+         */
+        List<Log.Entry> read(Block block, long from, List<Long> ends) throws IOException {
+            long start = Math.max(block.offset, from);
+            byte[] bytes = new byte[(int) (block.end - start)];
+            raf.seek(start);
+            raf.readFully(bytes);
+
+            List<Log.Entry> entries = new ArrayList<>();
+            Log.Entry current = null;
+            StringBuilder continued = null;
+            int lineStart = 0;
+            while (lineStart < bytes.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                Log.Entry entry = parser.parse(line, block.firstTime);
+                if (entry != null) {
+                    if (current != null) {
+                        entries.add(withContinuation(current, continued));
+                        ends.add(start + lineStart);
+                    }
+                    current = entry;
+                    continued = null;
+                } else if (current != null) {
+                    if (continued == null) {
+                        continued = new StringBuilder(current.message);
+                    }
+                    continued.append('\n').append(line);
+                }
+                lineStart = lineEnd + 1;
+            }
+            if (current != null) {
+                entries.add(withContinuation(current, continued));
+                ends.add(block.end);
+            }
+            return entries;
+        }
+
+        private static Log.Entry withContinuation(Log.Entry entry, StringBuilder continued) {
+            if (continued == null) {
+                return entry;
+            }
+            return new Log.Entry(entry.sequence, entry.time, entry.level, entry.tag, continued.toString());
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    /**
+     * Parses "MM-dd HH:mm:ss.SSS L [tag] message" lines.
+     */
+    static final class LineParser {
+        private final Calendar calendar = Calendar.getInstance();
+        private int cachedYear = -1;
+        private int cachedMonthDay = -1;
+        private long cachedMidnight;
+
+        /**
+         * @param reference A time near the line's, to find its year
+         * @return The entry, or null if the line has no log header
+         */
+        Log.Entry parse(String line, long reference) {
+            if (line.length() < 23 || line.charAt(2) != '-' || line.charAt(5) != ' '
+                    || line.charAt(8) != ':' || line.charAt(11) != ':' || line.charAt(14) != '.'
+                    || line.charAt(18) != ' ' || line.charAt(20) != ' ' || line.charAt(21) != '[') {
+                return null;
+            }
+            int month = digits(line, 0, 2);
+            int day = digits(line, 3, 2);
+            int hour = digits(line, 6, 2);
+            int minute = digits(line, 9, 2);
+            int second = digits(line, 12, 2);
+            int millis = digits(line, 15, 3);
+            int tagEnd = line.indexOf("] ", 22);
+            if (month < 1 || day < 1 || hour < 0 || minute < 0 || second < 0 || millis < 0 || tagEnd < 0) {
+                return null;
+            }
+            long offset = ((hour * 60L + minute) * 60 + second) * 1000 + millis;
+
+            calendar.setTimeInMillis(reference);
+            int year = calendar.get(Calendar.YEAR);
+            long time = midnight(year, month, day) + offset;
+            // The line is from the year that puts it closest to the reference
+            if (time > reference + HALF_YEAR_MS) {
+                time = midnight(year - 1, month, day) + offset;
+            } else if (time < reference - HALF_YEAR_MS) {
+                time = midnight(year + 1, month, day) + offset;
+            }
+
+            // Not from the ring buffer, so it has no sequence
+            return new Log.Entry(-1, time, Log.levelOf(line.charAt(19)),
+                    line.substring(22, tagEnd), line.substring(tagEnd + 2));
+        }
+
+        private long midnight(int year, int month, int day) {
+            int monthDay = month * 100 + day;
+            if (year != cachedYear || monthDay != cachedMonthDay) {
+                calendar.clear();
+                calendar.set(year, month - 1, day);
+                cachedMidnight = calendar.getTimeInMillis();
+                cachedYear = year;
+                cachedMonthDay = monthDay;
+            }
+            return cachedMidnight;
+        }
+
+        private static int digits(String text, int start, int count) {
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+    }
+
+    /**
+     * One line of a file as bytes, to count its exact size.
+     */
+    private static final class ByteLine {
+        byte[] bytes = new byte[256];
+        int count;
+        int size;   // Bytes consumed, newline included
+
+        boolean read(InputStream in) throws IOException {
+            count = 0;
+            size = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                size++;
+                if (b == '\n') {
+                    return true;
+                }
+                if (count == bytes.length) {
+                    byte[] larger = new byte[bytes.length * 2];
+                    System.arraycopy(bytes, 0, larger, 0, count);
+                    bytes = larger;
+                }
+                bytes[count++] = (byte) b;
+            }
+            return size > 0;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+}
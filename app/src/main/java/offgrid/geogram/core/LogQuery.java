@@ -0,0 +1,177 @@
+package offgrid.geogram.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads lines back from the log files on disk (app_debug.log and the rotated
+ * app_debug.log.old), filtered by time, tag and minimum level, one page at a
+ * time.
+ *
+ * The LogIndex of each file tells which blocks can hold matching lines, so a
+ * query for one tag or a short time range reads a small part of the files.
+ *
+ * Each page comes with a cursor, a position in the log that stays valid
+ * across rotations while the app runs. Passing it back gives the next page;
+ * once a query is complete, its cursor gives the lines logged since.
+ * Over HTTP a page is NDJSON, one object per line, ending with a line that
+ * holds only the cursor and the complete flag, so that clients behind a
+ * proxy that drops the response headers can still page.
+ */
+public class LogQuery {
+
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    public static final int MAX_PAGE_SIZE = 5000;
+
+    private final long since;
+    private final long until;
+    private final String tag;
+    private final int level;
+
+    /**
+     * @param since First time included (ms since the epoch), 0 for no limit
+     * @param until First time excluded, Long.MAX_VALUE for no limit
+     * @param tag Exact tag, or null for all tags
+     * @param level Lowest level included (Log.VERBOSE for all)
+     */
+    public LogQuery(long since, long until, String tag, int level) {
+        this.since = since;
+        this.until = until;
+        this.tag = tag;
+        this.level = level;
+    }
+
+    /**
+     * One page of results.
+     */
+    public static class Page {
+        public final List<Log.Entry> entries;
+        // Where the next page starts
+        public final String cursor;
+        // True when no more lines match for now
+        public final boolean complete;
+        // Index blocks read from disk for this page
+        public final int blocksRead;
+
+        Page(List<Log.Entry> entries, long cursor, boolean complete, int blocksRead) {
+            this.entries = entries;
+            this.cursor = Long.toString(cursor);
+            this.complete = complete;
+            this.blocksRead = blocksRead;
+        }
+
+        /**
+         * Write the page as NDJSON: {"time","level","tag","message"} per
+         * line, then {"cursor","complete"}.
+         */
+        public void writeNdjson(Writer writer) throws IOException {
+            Gson gson = new Gson();
+            for (Log.Entry entry : entries) {
+                JsonObject line = new JsonObject();
+                line.addProperty("time", entry.time);
+                line.addProperty("level", String.valueOf(entry.getLevelLetter()));
+                line.addProperty("tag", entry.tag);
+                line.addProperty("message", entry.message);
+                writer.write(gson.toJson(line));
+                writer.write('\n');
+            }
+            JsonObject trailer = new JsonObject();
+            trailer.addProperty("cursor", cursor);
+            trailer.addProperty("complete", complete);
+            writer.write(gson.toJson(trailer));
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Get the next page of matching lines, oldest first.
+     *
+     * @param cursor Cursor of the previous page, or null to start
+     * @param limit Maximum number of lines
+     * @throws IllegalArgumentException if the cursor is not one we gave out
+     */
+    public Page run(String cursor, int limit) throws IOException {
+        long position = parseCursor(cursor);
+        List<Log.Entry> entries = new ArrayList<>();
+        int blocksRead = 0;
+
+        List<LogIndex.Snapshot> files = Log.openLogFiles(since, until, tag, level);
+        try {
+            for (LogIndex.Snapshot file : files) {
+                for (LogIndex.Block block : file.blocks) {
+                    if (file.base + block.end <= position) {
+                        continue;
+                    }
+                    List<Long> ends = new ArrayList<>();
+                    List<Log.Entry> read = file.read(block, position - file.base, ends);
+                    blocksRead++;
+                    for (int i = 0; i < read.size(); i++) {
+                        Log.Entry entry = read.get(i);
+                        if (entry.time >= until) {
+                            return new Page(entries, file.base + ends.get(i), true, blocksRead);
+                        }
+                        if (matches(entry)) {
+                            entries.add(entry);
+                            if (entries.size() >= limit) {
+                                return new Page(entries, file.base + ends.get(i), false, blocksRead);
+                            }
+                        }
+                    }
+                    position = file.base + block.end;
+                }
+                position = Math.max(position, file.base + file.length);
+            }
+        } finally {
+            for (LogIndex.Snapshot file : files) {
+                file.close();
+            }
+        }
+        return new Page(entries, position, true, blocksRead);
+    }
+
+    private boolean matches(Log.Entry entry) {
+        return entry.time >= since
+                && entry.level >= level
+                && (tag == null || tag.equals(entry.tag));
+    }
+
+    private static long parseCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            long position = Long.parseLong(cursor);
+            if (position < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return position;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    /**
+     * Parse a level given as a letter (V, D, I, W, E) or a name (debug, warn...).
+     *
+     * @return The level, Log.VERBOSE if none is given, or -1 if unknown
+     */
+    public static int parseLevel(String value) {
+        if (value == null || value.isEmpty()) {
+            return Log.VERBOSE;
+        }
+        switch (value.toLowerCase(Locale.US)) {
+            case "v": case "verbose": return Log.VERBOSE;
+            case "d": case "debug": return Log.DEBUG;
+            case "i": case "info": return Log.INFO;
+            case "w": case "warn": case "warning": return Log.WARN;
+            case "e": case "error": return Log.ERROR;
+            default: return -1;
+        }
+    }
+}
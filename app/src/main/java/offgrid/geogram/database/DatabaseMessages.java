@@ -4,24 +4,37 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Dao;
+import androidx.room.Database;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.PrimaryKey;
+import androidx.room.Query;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -39,19 +52,26 @@ import offgrid.geogram.apps.chat.ChatMessageType;
  * Behavior:
  * - Keeps messages in a TreeSet (newest-first via ChatMessage#compareTo).
  * - Capacity limited to MAX_MESSAGES (oldest trimmed automatically).
- * - Avoids duplicates (authorId + timestamp + message).
- * - On add, message is enqueued for disk persistence.
- * - A background task flushes the queue to disk once per minute (batched I/O).
- * - On init, loads messages from disk into the TreeSet.
+ * - Avoids duplicates (destinationId + authorId + message), looked up by key.
+ * - Indexes messages per conversation, with the unread ones of each, so
+ *   stats and pages of one conversation don't walk the whole set.
+ * - Added or changed messages are queued and written to a Room table in
+ *   batches by a background task; only the queued rows are written.
+ * - On init, loads the newest messages from the table. The old messages.json
+ *   file is imported once and then renamed.
  */
 public final class DatabaseMessages {
     private static final String TAG = "DatabaseMessages";
-    private static final int MAX_MESSAGES = 10_000;
-    private static final long FLUSH_PERIOD_SECONDS = 60L;
+    static final int MAX_MESSAGES = 10_000;
+    private static final long FLUSH_PERIOD_SECONDS = 10L;
     private static final String FILE_NAME = "messages.json";
+    private static final String DB_NAME = "messages.db";
+    // SQLite allows at most 999 bound parameters per statement
+    private static final int DELETE_BATCH = 500;
 
     // -------- Singleton --------
-    private DatabaseMessages() {}
+    // Package-private so tests get a fresh instance; the app uses getInstance()
+    DatabaseMessages() {}
 
     public TreeSet<ChatMessage> getMessages() {
         return this.messages;
@@ -65,50 +85,39 @@ public final class DatabaseMessages {
     public ConversationStats getConversationStats(String peerId) {
         synchronized (lock) {
             ensureInitialized();
-            int totalCount = 0;
-            int unreadCount = 0;
-            ChatMessage lastMessage = null;
-
-            Log.d(TAG, "Getting stats for conversation: " + peerId);
-
-            // Create snapshot to avoid concurrent modification issues
-            List<ChatMessage> snapshot = new ArrayList<>(messages);
-
-            for (ChatMessage msg : snapshot) {
-                // Check if message belongs to this conversation
-                // Match by destinationId (for groups and direct messages)
-                // Also match by authorId for direct conversations
-                boolean belongsToConversation = false;
+            ConversationIndex conversation = conversations.get(conversationKey(peerId));
+            if (conversation == null || conversation.messages.isEmpty()) {
+                return new ConversationStats(0, 0, null);
+            }
+            return new ConversationStats(conversation.messages.size(), conversation.unread.size(),
+                    conversation.messages.first());
+        }
+    }
 
-                // Try exact match first
-                if (peerId.equals(msg.destinationId) || peerId.equals(msg.authorId)) {
-                    belongsToConversation = true;
-                }
-                // Try with "group-" prefix for group messages
-                else if (msg.destinationId != null &&
-                         (msg.destinationId.equals("group-" + peerId) ||
-                          peerId.equals("group-" + msg.destinationId))) {
-                    belongsToConversation = true;
-                }
-                // Try without "group-" prefix
-                else if (peerId.startsWith("group-") && msg.destinationId != null &&
-                         msg.destinationId.equals(peerId.substring(6))) {
-                    belongsToConversation = true;
+    /**
+     * Get a page of a conversation, newest first.
+     * @param peerId The conversation identifier (group name or callsign)
+     * @param offset Number of newer messages to skip
+     * @param limit Maximum number of messages
+     */
+    public List<ChatMessage> getConversationMessages(String peerId, int offset, int limit) {
+        synchronized (lock) {
+            ensureInitialized();
+            List<ChatMessage> page = new ArrayList<>();
+            ConversationIndex conversation = conversations.get(conversationKey(peerId));
+            if (conversation == null) {
+                return page;
+            }
+            int index = 0;
+            for (ChatMessage msg : conversation.messages) {
+                if (page.size() >= limit) {
+                    break;
                 }
-
-                if (belongsToConversation) {
-                    totalCount++;
-                    if (!msg.read && !msg.isWrittenByMe) {
-                        unreadCount++;
-                    }
-                    if (lastMessage == null || msg.timestamp > lastMessage.timestamp) {
-                        lastMessage = msg;
-                    }
+                if (index++ >= offset) {
+                    page.add(msg);
                 }
             }
-
-            Log.d(TAG, "Conversation " + peerId + " has " + totalCount + " messages, " + unreadCount + " unread");
-            return new ConversationStats(totalCount, unreadCount, lastMessage);
+            return page;
         }
     }
 
@@ -119,36 +128,46 @@ public final class DatabaseMessages {
     public void markConversationAsRead(String peerId) {
         synchronized (lock) {
             ensureInitialized();
-            int markedCount = 0;
-
-            for (ChatMessage msg : messages) {
-                // Check if message belongs to this conversation
-                boolean belongsToConversation = false;
-
-                if (peerId.equals(msg.destinationId) || peerId.equals(msg.authorId)) {
-                    belongsToConversation = true;
-                } else if (msg.destinationId != null &&
-                           (msg.destinationId.equals("group-" + peerId) ||
-                            peerId.equals("group-" + msg.destinationId))) {
-                    belongsToConversation = true;
-                } else if (peerId.startsWith("group-") && msg.destinationId != null &&
-                           msg.destinationId.equals(peerId.substring(6))) {
-                    belongsToConversation = true;
-                }
-
-                // Mark as read if it belongs to this conversation and was not written by me
-                if (belongsToConversation && !msg.isWrittenByMe && !msg.read) {
-                    msg.read = true;
-                    markedCount++;
-                }
+            ConversationIndex conversation = conversations.get(conversationKey(peerId));
+            if (conversation == null || conversation.unread.isEmpty()) {
+                return;
             }
+            int markedCount = markAsReadLocked(new ArrayList<>(conversation.unread));
+            Log.d(TAG, "Marked " + markedCount + " messages as read for conversation: " + peerId);
+        }
+        // Persist the read status now rather than on the next periodic flush
+        flushNow();
+    }
 
-            if (markedCount > 0) {
-                Log.d(TAG, "Marked " + markedCount + " messages as read for conversation: " + peerId);
-                // Immediately flush to disk to persist the read status
-                // Don't wait for the 60-second periodic flush
-                writeAllToDisk(new ArrayList<>(messages));
-            }
+    /**
+     * Mark every received message as read.
+     * @return Number of messages that were unread
+     */
+    public int markAllAsRead() {
+        int markedCount;
+        synchronized (lock) {
+            ensureInitialized();
+            markedCount = markAsReadLocked(new ArrayList<>(unread));
+        }
+        if (markedCount > 0) {
+            flushNow();
+        }
+        return markedCount;
+    }
+
+    /** Number of received messages not read yet. */
+    public int getUnreadCount() {
+        synchronized (lock) {
+            ensureInitialized();
+            return unread.size();
+        }
+    }
+
+    /** Received messages not read yet (newest first). */
+    public ArrayList<ChatMessage> getUnreadMessages() {
+        synchronized (lock) {
+            ensureInitialized();
+            return new ArrayList<>(unread);
         }
     }
 
@@ -167,21 +186,36 @@ public final class DatabaseMessages {
         }
     }
 
+    /** Messages of one conversation and the unread ones among them (newest first). */
+    private static final class ConversationIndex {
+        final TreeSet<ChatMessage> messages = new TreeSet<>();
+        final TreeSet<ChatMessage> unread = new TreeSet<>();
+    }
+
     private static final class Holder { static final DatabaseMessages I = new DatabaseMessages(); }
     public static DatabaseMessages getInstance() { return Holder.I; }
 
     // -------- State --------
     private Context appCtx; // Application context
     private final Object lock = new Object();
+    private MessagesDb db;
+    private MessageDao messageDao;
 
     // In-memory store (newest first since ChatMessage.compareTo sorts DESC by timestamp)
     private final TreeSet<ChatMessage> messages = new TreeSet<>();
 
-    // Deduplicate key set (authorId|timestamp|message)
-    private final HashSet<String> dedupe = new HashSet<>();
+    // Dedupe key (destinationId|authorId|message) -> stored message
+    private final HashMap<String, ChatMessage> byKey = new HashMap<>();
+
+    // Conversation key -> its messages; each message is in its destination's and author's conversation
+    private final HashMap<String, ConversationIndex> conversations = new HashMap<>();
 
-    // Queue of items added since last flush (we batch I/O)
-    private final ArrayDeque<ChatMessage> pending = new ArrayDeque<>();
+    // Received messages not read yet, over all conversations
+    private final TreeSet<ChatMessage> unread = new TreeSet<>();
+
+    // Rows added or changed since last flush, and rows trimmed away (we batch I/O)
+    private final LinkedHashMap<String, ChatMessage> pending = new LinkedHashMap<>();
+    private final LinkedHashSet<String> removed = new LinkedHashSet<>();
 
     // Background flusher
     private final ScheduledExecutorService scheduler =
@@ -200,21 +234,34 @@ public final class DatabaseMessages {
 
     /** Initialize with any Context (Application context is retained). Safe to call multiple times. */
     public void init(@NonNull Context context) {
+        synchronized (lock) {
+            if (initialized) return;
+            init(context, Room.databaseBuilder(context.getApplicationContext(), MessagesDb.class, DB_NAME)
+                    .fallbackToDestructiveMigrationOnDowngrade()
+                    .build());
+        }
+    }
+
+    /** Initialize with a given database (in-memory for tests). */
+    void init(@NonNull Context context, @NonNull MessagesDb database) {
         synchronized (lock) {
             if (initialized) return;
             this.appCtx = context.getApplicationContext();
+            this.db = database;
+            this.messageDao = db.messageDao();
 
-            // Load existing messages from disk
+            // Load existing messages. Room refuses the main thread, so read on
+            // the flusher and wait, as the old file read did.
             try {
-                ArrayList<ChatMessage> loaded = readAllFromDisk();
-                for (ChatMessage m : loaded) {
-                    String key = keyOf(m);
-                    if (dedupe.add(key)) {
-                        messages.add(m);
+                List<MessageRow> rows = scheduler.submit(this::loadRows).get();
+                for (MessageRow row : rows) {
+                    ChatMessage m = fromRow(row);
+                    if (!byKey.containsKey(keyOf(m))) {
+                        addLocked(m);
                     }
                 }
                 trimToCapacityLocked();
-                Log.d(TAG, "Loaded " + messages.size() + " messages from disk");
+                Log.d(TAG, "Loaded " + messages.size() + " messages from database");
             } catch (Exception e) {
                 Log.w(TAG, "Failed to load messages: " + e.getMessage(), e);
             }
@@ -234,21 +281,19 @@ public final class DatabaseMessages {
         synchronized (lock) {
             ensureInitialized();
             String key = keyOf(msg);
-            boolean wasAdded = dedupe.add(key);
+            ChatMessage existing = byKey.get(key);
 
-            if (!wasAdded) {
+            if (existing != null) {
                 // Message already exists - check if we need to add a new channel
-                ChatMessage existing = findMessageByKey(key);
                 Log.d(TAG, "DUPLICATE DETECTED - Key: '" + key + "', New channel: " + msg.messageType +
-                      ", Existing found: " + (existing != null) +
                       ", TreeSet size: " + messages.size());
 
-                if (existing != null && msg.messageType != null && msg.messageType != ChatMessageType.DATA) {
+                if (msg.messageType != null && msg.messageType != ChatMessageType.DATA) {
                     if (!existing.hasChannel(msg.messageType)) {
                         existing.addChannel(msg.messageType);
                         Log.d(TAG, "CHANNEL ADDED - Key: '" + key + "', Added channel: " + msg.messageType +
                               ", Total channels: " + existing.channels + ", TreeSet size: " + messages.size());
-                        pending.addLast(existing); // queue for disk update
+                        pending.put(key, existing); // queue for disk update
                         return true; // Channel was added
                     } else {
                         Log.d(TAG, "CHANNEL ALREADY EXISTS - Key: '" + key + "', Channel: " + msg.messageType +
@@ -266,23 +311,14 @@ public final class DatabaseMessages {
                   (msg.message != null && msg.message.length() > 20 ? msg.message.substring(0, 20) + "..." : msg.message) +
                   "' from '" + msg.authorId + "', Channel: " + msg.messageType);
 
-            messages.add(msg);
+            addLocked(msg);
+            pending.put(key, msg); // queue for disk write
+            removed.remove(key);   // trimmed earlier and back before the flush
             trimToCapacityLocked();
-            pending.addLast(msg); // queue for disk write
             return true;
         }
     }
 
-    /** Find an existing message by its dedupe key */
-    private ChatMessage findMessageByKey(String key) {
-        for (ChatMessage m : messages) {
-            if (key.equals(keyOf(m))) {
-                return m;
-            }
-        }
-        return null;
-    }
-
     /** Add a batch of messages; returns number actually added (non-duplicates). */
     public int addAll(@NonNull Iterable<ChatMessage> batch) {
         int added = 0;
@@ -291,9 +327,10 @@ public final class DatabaseMessages {
             for (ChatMessage m : batch) {
                 if (m == null) continue;
                 String key = keyOf(m);
-                if (dedupe.add(key)) {
-                    messages.add(m);
-                    pending.addLast(m);
+                if (!byKey.containsKey(key)) {
+                    addLocked(m);
+                    pending.put(key, m);
+                    removed.remove(key);
                     added++;
                 }
             }
@@ -302,6 +339,22 @@ public final class DatabaseMessages {
         return added;
     }
 
+    /**
+     * Queue a stored message for writing after changing it in place
+     * (read, delivered, channels). Unknown messages are ignored.
+     */
+    public void update(@NonNull ChatMessage msg) {
+        synchronized (lock) {
+            ensureInitialized();
+            String key = keyOf(msg);
+            if (byKey.get(key) != msg) {
+                return;
+            }
+            refreshUnreadLocked(msg);
+            pending.put(key, msg);
+        }
+    }
+
     /** Snapshot copy (newest first). */
     public ArrayList<ChatMessage> snapshot() {
         synchronized (lock) {
@@ -317,9 +370,18 @@ public final class DatabaseMessages {
         }
     }
 
-    /** Force a synchronous flush (discouraged on UI thread). */
+    /** Write the queued changes now, on the flusher thread. */
     public void flushNow() {
-        flushIfNeededSafe();
+        try {
+            scheduler.execute(this::flushIfNeededSafe);
+        } catch (Exception e) {
+            // Shut down, the final flush already ran
+        }
+    }
+
+    /** Write the queued changes and wait until they are written (for testing). */
+    void flushAndWait() throws Exception {
+        scheduler.submit(this::flushIfNeededSafe).get();
     }
 
     /** Shut down background task (e.g., on process exit). */
@@ -330,9 +392,9 @@ public final class DatabaseMessages {
                 flushTask = null;
             }
         }
-        scheduler.shutdownNow();
-        // Best-effort final flush
-        flushIfNeededSafe();
+        // Best-effort final flush, after anything already queued
+        scheduler.execute(this::flushIfNeededSafe);
+        scheduler.shutdown();
     }
 
     // -------- Internals --------
@@ -343,17 +405,96 @@ public final class DatabaseMessages {
         }
     }
 
+    private void addLocked(ChatMessage m) {
+        messages.add(m);
+        byKey.put(keyOf(m), m);
+        for (String conversationKey : conversationsOf(m)) {
+            ConversationIndex conversation = conversations.get(conversationKey);
+            if (conversation == null) {
+                conversation = new ConversationIndex();
+                conversations.put(conversationKey, conversation);
+            }
+            conversation.messages.add(m);
+        }
+        refreshUnreadLocked(m);
+    }
+
+    private void removeLocked(ChatMessage m) {
+        byKey.remove(keyOf(m));
+        unread.remove(m);
+        for (String conversationKey : conversationsOf(m)) {
+            ConversationIndex conversation = conversations.get(conversationKey);
+            if (conversation == null) continue;
+            conversation.messages.remove(m);
+            conversation.unread.remove(m);
+            if (conversation.messages.isEmpty()) {
+                conversations.remove(conversationKey);
+            }
+        }
+    }
+
+    /** Put a message in or out of the unread sets after its read flag changed. */
+    private void refreshUnreadLocked(ChatMessage m) {
+        boolean isUnread = !m.read && !m.isWrittenByMe;
+        if (isUnread) {
+            unread.add(m);
+        } else {
+            unread.remove(m);
+        }
+        for (String conversationKey : conversationsOf(m)) {
+            ConversationIndex conversation = conversations.get(conversationKey);
+            if (conversation == null) continue;
+            if (isUnread) {
+                conversation.unread.add(m);
+            } else {
+                conversation.unread.remove(m);
+            }
+        }
+    }
+
+    private int markAsReadLocked(List<ChatMessage> toMark) {
+        for (ChatMessage msg : toMark) {
+            msg.read = true;
+            refreshUnreadLocked(msg);
+            pending.put(keyOf(msg), msg);
+        }
+        return toMark.size();
+    }
+
     /** Keep only the newest MAX_MESSAGES; remove from the bottom (oldest). */
     private void trimToCapacityLocked() {
         while (messages.size() > MAX_MESSAGES) {
             ChatMessage oldest = messages.pollLast(); // bottom = oldest due to DESC comparator
             if (oldest != null) {
-                dedupe.remove(keyOf(oldest));
+                String key = keyOf(oldest);
+                removeLocked(oldest);
+                // Deleting a row that was never written is a no-op
+                pending.remove(key);
+                removed.add(key);
             }
         }
     }
 
-    /** Build a dedupe key (authorId|timestamp|message). */
+    /**
+     * Conversations a message belongs to: its destination (groups with or
+     * without the "group-" prefix) and its author, for direct messages.
+     */
+    private static Set<String> conversationsOf(ChatMessage m) {
+        Set<String> keys = new HashSet<>(2);
+        String destination = conversationKey(m.destinationId);
+        if (!destination.isEmpty()) keys.add(destination);
+        String author = conversationKey(m.authorId);
+        if (!author.isEmpty()) keys.add(author);
+        return keys;
+    }
+
+    private static String conversationKey(String id) {
+        if (id == null) return "";
+        String key = id.trim();
+        return key.startsWith("group-") ? key.substring(6) : key;
+    }
+
+    /** Build a dedupe key (destinationId|authorId|message). */
     private static String keyOf(ChatMessage m) {
         // Normalize all parts to handle whitespace and casing differences
         String a = m.authorId == null ? "" : m.authorId.trim();
@@ -366,63 +507,82 @@ public final class DatabaseMessages {
 
     /** Thread-safe wrapper for flush; never throws. */
     private void flushIfNeededSafe() {
+        List<ChatMessage> written = null;
+        List<String> deleted = null;
         try {
-            ArrayList<ChatMessage> toPersist = null;
+            List<MessageRow> rows;
             synchronized (lock) {
-                if (pending.isEmpty() || appCtx == null) return;
-                // Drain the queue; we write a fresh snapshot (safer than appending)
+                if ((pending.isEmpty() && removed.isEmpty()) || messageDao == null) return;
+                written = new ArrayList<>(pending.values());
+                deleted = new ArrayList<>(removed);
                 pending.clear();
-                toPersist = new ArrayList<>(messages);
+                removed.clear();
+                // Copy the fields while holding the lock, the messages keep changing
+                rows = new ArrayList<>(written.size());
+                for (ChatMessage m : written) {
+                    rows.add(toRow(m));
+                }
             }
-            writeAllToDisk(toPersist);
+            final List<String> toDelete = deleted;
+            db.runInTransaction(() -> {
+                // Deletes first, so a key both trimmed and added again ends up written
+                for (int i = 0; i < toDelete.size(); i += DELETE_BATCH) {
+                    messageDao.deleteByKeys(toDelete.subList(i, Math.min(toDelete.size(), i + DELETE_BATCH)));
+                }
+                messageDao.insertAll(rows);
+            });
+            Log.d(TAG, "Wrote " + rows.size() + " messages, deleted " + toDelete.size());
         } catch (Throwable t) {
-            Log.e(TAG, "Flush failed", t);
+            Log.e(TAG, "Flush failed, re-queueing", t);
+            if (written != null) {
+                synchronized (lock) {
+                    for (ChatMessage m : written) {
+                        String key = keyOf(m);
+                        if (byKey.get(key) == m && !pending.containsKey(key)) {
+                            pending.put(key, m);
+                        }
+                    }
+                    removed.addAll(deleted);
+                }
+            }
         }
     }
 
     // ---- Disk I/O ----
 
-    private File dataFile() {
-        return new File(appCtx.getFilesDir(), FILE_NAME);
-    }
-
-    /** Write the full set to disk as JSON array. */
-    private void writeAllToDisk(@NonNull ArrayList<ChatMessage> all) {
-        JSONArray arr = new JSONArray();
-        for (ChatMessage m : all) {
-            arr.put(serialize(m));
+    /** Newest rows of the table, importing messages.json first when the table is new. */
+    private List<MessageRow> loadRows() {
+        if (messageDao.count() == 0) {
+            importLegacyFile();
         }
-        byte[] bytes = arr.toString().getBytes(StandardCharsets.UTF_8);
+        return messageDao.newest(MAX_MESSAGES);
+    }
 
-        File tmp = new File(appCtx.getFilesDir(), FILE_NAME + ".tmp");
-        File dst = dataFile();
+    /** One-time import of the JSON file written by earlier versions. */
+    private void importLegacyFile() {
+        File f = new File(appCtx.getFilesDir(), FILE_NAME);
+        if (!f.exists()) return;
 
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(tmp, false))) {
-            bos.write(bytes);
-            bos.flush();
+        Map<String, MessageRow> rows = new LinkedHashMap<>();
+        for (ChatMessage m : readAllFromDisk(f)) {
+            rows.put(keyOf(m), toRow(m));
+        }
+        try {
+            db.runInTransaction(() -> messageDao.insertAll(new ArrayList<>(rows.values())));
         } catch (Exception e) {
-            Log.e(TAG, "write tmp failed", e);
+            Log.e(TAG, "Import of " + FILE_NAME + " failed", e);
             return;
         }
-
-        // Atomic-ish replace
-        if (!tmp.renameTo(dst)) {
-            // Fallback: direct write
-            try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(dst, false))) {
-                bos.write(bytes);
-                bos.flush();
-            } catch (Exception e) {
-                Log.e(TAG, "write fallback failed", e);
-            }
+        File imported = new File(appCtx.getFilesDir(), FILE_NAME + ".imported");
+        if (!f.renameTo(imported) && !f.delete()) {
+            Log.w(TAG, "Could not retire " + FILE_NAME + " after import");
         }
-        Log.d(TAG, "Wrote " + all.size() + " messages to disk");
+        Log.i(TAG, "Imported " + rows.size() + " messages from " + FILE_NAME);
     }
 
-    /** Read all messages from disk; compatible with older Android (no readAllBytes). */
-    private ArrayList<ChatMessage> readAllFromDisk() {
-        File f = dataFile();
+    /** Read all messages from the JSON file; compatible with older Android (no readAllBytes). */
+    private static ArrayList<ChatMessage> readAllFromDisk(@NonNull File f) {
         ArrayList<ChatMessage> out = new ArrayList<>();
-        if (!f.exists()) return out;
 
         byte[] data;
         try {
@@ -462,38 +622,60 @@ public final class DatabaseMessages {
         }
     }
 
-    // ---- JSON (org.json) ----
-
-    private static JSONObject serialize(ChatMessage m) {
-        JSONObject o = new JSONObject();
-        try {
-            o.put("authorId", m.authorId);
-            o.put("destinationId", m.destinationId);
-            o.put("message", m.message);
-            o.put("timestamp", m.timestamp);
-            o.put("delivered", m.delivered);
-            o.put("read", m.read);
-            o.put("isWrittenByMe", m.isWrittenByMe);
-            o.put("messageType", m.messageType != null ? m.messageType.name() : ChatMessageType.DATA.name());
-
-            // Serialize channels
-            JSONArray channelsArray = new JSONArray();
-            if (m.channels != null) {
-                for (ChatMessageType channel : m.channels) {
-                    channelsArray.put(channel.name());
-                }
+    // ---- Rows ----
+
+    private static MessageRow toRow(ChatMessage m) {
+        MessageRow row = new MessageRow();
+        row.messageKey = keyOf(m);
+        row.authorId = m.authorId;
+        row.destinationId = m.destinationId;
+        row.message = m.message;
+        row.timestamp = m.timestamp;
+        row.delivered = m.delivered;
+        row.read = m.read;
+        row.isWrittenByMe = m.isWrittenByMe;
+        row.messageType = m.messageType != null ? m.messageType.name() : ChatMessageType.DATA.name();
+
+        StringBuilder channels = new StringBuilder();
+        if (m.channels != null) {
+            for (ChatMessageType channel : m.channels) {
+                if (channels.length() > 0) channels.append(',');
+                channels.append(channel.name());
             }
-            o.put("channels", channelsArray);
+        }
+        row.channels = channels.toString();
+        row.attachments = m.attachments == null ? "" : String.join(",", m.attachments);
+        return row;
+    }
 
-            JSONArray atts = new JSONArray();
-            if (m.attachments != null) {
-                for (String s : m.attachments) atts.put(s);
+    private static ChatMessage fromRow(MessageRow row) {
+        ChatMessage m = new ChatMessage(row.authorId, row.message);
+        m.destinationId = row.destinationId;
+        m.timestamp = row.timestamp;
+        m.delivered = row.delivered;
+        m.read = row.read;
+        m.isWrittenByMe = row.isWrittenByMe;
+
+        try { m.messageType = ChatMessageType.valueOf(row.messageType); }
+        catch (Exception ignored) { m.messageType = ChatMessageType.DATA; }
+
+        if (row.channels != null && !row.channels.isEmpty()) {
+            for (String channelName : row.channels.split(",")) {
+                try {
+                    m.channels.add(ChatMessageType.valueOf(channelName));
+                } catch (Exception ignored) { }
+            }
+        }
+        if (row.attachments != null && !row.attachments.isEmpty()) {
+            for (String s : row.attachments.split(",")) {
+                m.attachments.add(s);
             }
-            o.put("attachments", atts);
-        } catch (JSONException ignore) { }
-        return o;
+        }
+        return m;
     }
 
+    // ---- JSON (org.json), for the import ----
+
     private static ChatMessage deserialize(JSONObject o) {
         try {
             String authorId = o.optString("authorId", null);
@@ -542,4 +724,64 @@ public final class DatabaseMessages {
             return null;
         }
     }
+
+    // ------------------- Room Schema -------------------
+
+    /** Chat message entity, keyed like the in-memory dedupe. */
+    @Entity(tableName = "chat_messages",
+            indices = {
+                @Index(value = {"timestamp"})
+            })
+    public static class MessageRow {
+        @PrimaryKey
+        @NonNull
+        public String messageKey = "";   // destinationId|authorId|message
+
+        @Nullable
+        public String authorId;
+
+        @Nullable
+        public String destinationId;
+
+        @Nullable
+        public String message;
+
+        public long timestamp;           // Unix timestamp milliseconds
+        public boolean delivered;
+        public boolean read;
+        public boolean isWrittenByMe;
+
+        @Nullable
+        public String messageType;       // ChatMessageType name
+
+        @Nullable
+        public String channels;          // Comma-separated ChatMessageType names
+
+        @Nullable
+        public String attachments;       // Comma-separated attachment SHA1s
+    }
+
+    // ------------------- DAOs -------------------
+
+    @Dao
+    public interface MessageDao {
+        @Insert(onConflict = OnConflictStrategy.REPLACE)
+        void insertAll(List<MessageRow> rows);
+
+        @Query("SELECT * FROM chat_messages ORDER BY timestamp DESC LIMIT :limit")
+        List<MessageRow> newest(int limit);
+
+        @Query("DELETE FROM chat_messages WHERE messageKey IN (:keys)")
+        void deleteByKeys(List<String> keys);
+
+        @Query("SELECT COUNT(*) FROM chat_messages")
+        long count();
+    }
+
+    // ------------------- Database -------------------
+
+    @Database(entities = {MessageRow.class}, version = 1, exportSchema = false)
+    public abstract static class MessagesDb extends RoomDatabase {
+        public abstract MessageDao messageDao();
+    }
 }
@@ -9,8 +9,7 @@ import java.util.concurrent.Executors;
 
 import offgrid.geogram.database.DatabaseDevices;
 import offgrid.geogram.database.DatabaseLocations;
-import offgrid.geogram.events.EventControl;
-import offgrid.geogram.events.EventType;
+import offgrid.geogram.events.EventBus;
 import offgrid.geogram.relay.RelayMessageSync;
 
 /**
@@ -20,6 +19,9 @@ public class DeviceManager {
 
     private static final String TAG = "DeviceManager";
 
+    /** A device was added or updated; null means reload all of them. */
+    public static final EventBus.Topic<Device> DEVICE_UPDATED = new EventBus.Topic<>("DEVICE_UPDATED");
+
     // Singleton instance (eager initialization)
     private static final DeviceManager INSTANCE = new DeviceManager();
 
@@ -105,9 +107,9 @@ public class DeviceManager {
                 isLoadedFromDatabase = true;
                 Log.d(TAG, "Loaded " + devicesSpotted.size() + " devices from database");
 
-                // Notify UI to update - pass empty object array instead of null
-                // This is a general "reload all devices" signal, not for a specific device
-                EventControl.startEvent(EventType.DEVICE_UPDATED, new Object[0]);
+                // Notify UI to update - null is a general "reload all devices"
+                // signal, not for a specific device
+                EventBus.getInstance().post(DEVICE_UPDATED, null);
 
             } catch (Exception e) {
                 Log.e(TAG, "Error loading devices from database", e);
@@ -226,7 +228,7 @@ public class DeviceManager {
         );
 
         // a new event happened with the device
-        EventControl.startEvent(EventType.DEVICE_UPDATED, deviceFound);
+        EventBus.getInstance().post(DEVICE_UPDATED, deviceFound);
 
         // Trigger relay sync if this is an Internet Relay device
         if (context != null && deviceType == DeviceType.INTERNET_IGATE) {
@@ -8,30 +8,26 @@ import java.util.ArrayList;
 import offgrid.geogram.MainActivity;
 import offgrid.geogram.R;
 import offgrid.geogram.core.Log;
-import offgrid.geogram.events.EventAction;
+import offgrid.geogram.events.EventBus;
 
 /*
 
     This class is mainly responsible for updating the main screen
     and show which devices/Callsigns have been recently updated.
+    Subscribed to DeviceManager.DEVICE_UPDATED on the main thread.
 
  */
 
-public class EventDeviceUpdated extends EventAction {
+public class EventDeviceUpdated implements EventBus.Subscriber<Device> {
 
     private static final String TAG = "EventDeviceUpdated";
 
-    public EventDeviceUpdated(String id) {
-        super(id);
-    }
-
     @Override
-    public void action(Object... data) {
+    public void onEvent(Device device) {
         // Handle both specific device updates and general "reload all" signals
-        if (data == null || data.length == 0) {
+        if (device == null) {
             Log.d("DEVICE_UPDATED", "Reload all devices signal received");
         } else {
-            Device device = (Device) data[0];
             Log.d("DEVICE_UPDATED", "Device updated: " + device.ID);
         }
         // start updating the UI when possible
@@ -41,9 +37,7 @@ public class EventDeviceUpdated extends EventAction {
         }
 
         // Update device count badge
-        MainActivity.getInstance().runOnUiThread(() -> {
-            MainActivity.getInstance().updateDeviceCount();
-        });
+        MainActivity.getInstance().updateDeviceCount();
         // get the beacon list
         ListView beaconWindow = MainActivity.getInstance().beacons;
         if (beaconWindow == null) {
@@ -0,0 +1,325 @@
+package offgrid.geogram.events;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import offgrid.geogram.core.Log;
+
+/**
+ * Publish/subscribe between components, with typed payloads.
+ *
+ * Each subscriber picks where it runs: on the posting thread, the main
+ * thread, the I/O pool (database, files, network) or the computation pool.
+ * Off the posting thread, a subscriber has its own queue and gets its events
+ * one at a time in the order they were posted, so it needs no locking of its
+ * own, and a slow subscriber only delays itself, not the BLE callback that
+ * posted the event or the other subscribers.
+ *
+ * Subscriber lists are copy-on-write: posting never locks and registration
+ * from any thread is safe.
+ *
+ * EventControl is the older API on top of this bus, kept while its
+ * EventActions are moved over one at a time.
+ */
+public final class EventBus {
+
+    private static final String TAG = "EventBus";
+
+    // A subscriber running longer than this on the posting thread is logged
+    private static final long SLOW_SUBSCRIBER_MS = 50;
+
+    /** Where a subscriber runs. */
+    public enum Dispatch {
+        POSTING,        // Synchronously, on the thread that posted
+        MAIN,           // Main (UI) thread
+        IO,             // Pool for blocking work: database, files, network
+        COMPUTATION     // Pool sized to the CPU count, for CPU-bound work
+    }
+
+    /** Receives the payloads of a topic. */
+    public interface Subscriber<T> {
+        void onEvent(T payload);
+    }
+
+    /**
+     * A kind of event and the type of its payload.
+     */
+    public static final class Topic<T> {
+        private final String name;
+
+        public Topic(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final EventBus instance = new EventBus();
+
+    private final Map<Topic<?>, List<Subscription<?>>> subscriptions = new ConcurrentHashMap<>();
+
+    private final Executor ioExecutor =
+            newExecutor("EventBus-io", Math.max(4, Runtime.getRuntime().availableProcessors()));
+    private final Executor computationExecutor =
+            newExecutor("EventBus-cpu", Runtime.getRuntime().availableProcessors());
+    private Handler mainHandler;
+
+    private EventBus() {
+    }
+
+    public static EventBus getInstance() {
+        return instance;
+    }
+
+    /**
+     * Subscribe to a topic. A second subscription with the same ID on the
+     * same topic is ignored, so calling this again (e.g. from onResume) is safe.
+     *
+     * @param id Unique name of the subscriber, also used to unsubscribe
+     * @return false if a subscriber with this ID was already there
+     */
+    public <T> boolean subscribe(Topic<T> topic, String id, Dispatch dispatch, Subscriber<T> subscriber) {
+        List<Subscription<?>> list = subscriptions.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>());
+        synchronized (list) {
+            for (Subscription<?> existing : list) {
+                if (existing.id.equals(id)) {
+                    return false;
+                }
+            }
+            list.add(new Subscription<>(topic, id, dispatch, subscriber));
+        }
+        return true;
+    }
+
+    /**
+     * Remove a subscriber. Events already queued for it are still delivered.
+     *
+     * @return true if it was subscribed
+     */
+    public boolean unsubscribe(Topic<?> topic, String id) {
+        List<Subscription<?>> list = subscriptions.get(topic);
+        if (list == null) {
+            return false;
+        }
+        synchronized (list) {
+            for (Subscription<?> existing : list) {
+                if (existing.id.equals(id)) {
+                    return list.remove(existing);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deliver a payload to every subscriber of a topic. Returns once the
+     * POSTING subscribers have run; the others only get it queued.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void post(Topic<T> topic, T payload) {
+        List<Subscription<?>> list = subscriptions.get(topic);
+        if (list == null) {
+            return;
+        }
+        for (Subscription<?> subscription : list) {
+            ((Subscription<T>) subscription).post(payload);
+        }
+    }
+
+    /**
+     * Dispatch metrics of every subscriber.
+     */
+    public List<SubscriberStats> getStats() {
+        List<SubscriberStats> stats = new ArrayList<>();
+        for (List<Subscription<?>> list : subscriptions.values()) {
+            for (Subscription<?> subscription : list) {
+                stats.add(subscription.stats());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Remove every subscriber (for testing).
+     */
+    void clear() {
+        subscriptions.clear();
+    }
+
+    private Executor executorFor(Dispatch dispatch) {
+        switch (dispatch) {
+            case MAIN:
+                synchronized (this) {
+                    if (mainHandler == null) {
+                        mainHandler = new Handler(Looper.getMainLooper());
+                    }
+                }
+                return mainHandler::post;
+            case COMPUTATION:
+                return computationExecutor;
+            case IO:
+            default:
+                return ioExecutor;
+        }
+    }
+
+    /**
+     * One subscriber of one topic, with its own queue of pending payloads.
+     * At most one drain task runs at a time, so payloads are handled in order.
+     */
+    private final class Subscription<T> {
+        final Topic<T> topic;
+        final String id;
+        final Dispatch dispatch;
+        final Subscriber<T> subscriber;
+
+        // Payload and the time it was posted (nanoTime)
+        final Queue<Object[]> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean draining = new AtomicBoolean();
+        final AtomicInteger depth = new AtomicInteger();
+
+        // Metrics
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong totalLatencyNanos = new AtomicLong();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+        final AtomicInteger maxDepth = new AtomicInteger();
+
+        Subscription(Topic<T> topic, String id, Dispatch dispatch, Subscriber<T> subscriber) {
+            this.topic = topic;
+            this.id = id;
+            this.dispatch = dispatch;
+            this.subscriber = subscriber;
+        }
+
+        void post(T payload) {
+            long posted = System.nanoTime();
+            if (dispatch == Dispatch.POSTING) {
+                deliver(payload, posted);
+                long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - posted);
+                if (took > SLOW_SUBSCRIBER_MS) {
+                    Log.w(TAG, "Subscriber " + id + " took " + took + " ms on the posting thread ("
+                            + topic + "), consider another dispatch");
+                }
+                return;
+            }
+            queue.add(new Object[] {payload, posted});
+            maxDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    executorFor(dispatch).execute(this::drain);
+                } catch (RuntimeException e) {
+                    draining.set(false);
+                    Log.e(TAG, "Cannot dispatch to " + id + ": " + e.getMessage());
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            Object[] item;
+            while ((item = queue.poll()) != null) {
+                depth.decrementAndGet();
+                deliver((T) item[0], (Long) item[1]);
+            }
+            draining.set(false);
+            // Something may have been queued after the last poll
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void deliver(T payload, long posted) {
+            long latency = System.nanoTime() - posted;
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            try {
+                subscriber.onEvent(payload);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                Log.e(TAG, "Subscriber " + id + " failed on " + topic + ": " + e.getMessage());
+            }
+            delivered.incrementAndGet();
+        }
+
+        SubscriberStats stats() {
+            SubscriberStats stats = new SubscriberStats();
+            stats.topic = topic.getName();
+            stats.id = id;
+            stats.dispatch = dispatch;
+            stats.delivered = delivered.get();
+            stats.failed = failed.get();
+            stats.queueDepth = depth.get();
+            stats.maxQueueDepth = maxDepth.get();
+            stats.averageLatencyMs = stats.delivered > 0
+                    ? totalLatencyNanos.get() / 1e6 / stats.delivered : 0;
+            stats.maxLatencyMs = maxLatencyNanos.get() / 1e6;
+            return stats;
+        }
+    }
+
+    /**
+     * Dispatch metrics of one subscriber. Latency is the time from post to
+     * the start of the subscriber's handling.
+     */
+    public static class SubscriberStats {
+        public String topic;
+        public String id;
+        public Dispatch dispatch;
+        public long delivered;
+        public long failed;
+        public int queueDepth;
+        public int maxQueueDepth;
+        public double averageLatencyMs;
+        public double maxLatencyMs;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "SubscriberStats{%s/%s on %s, delivered=%d, failed=%d, queue=%d (max %d), latency avg=%.2f ms max=%.2f ms}",
+                    topic, id, dispatch, delivered, failed, queueDepth, maxQueueDepth,
+                    averageLatencyMs, maxLatencyMs);
+        }
+    }
+
+    private static Executor newExecutor(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,31 +1,43 @@
 package offgrid.geogram.events;
 
 
-import java.util.HashMap;
+import java.util.EnumMap;
 
+/**
+ * Older event API, now a thin layer over EventBus.
+ *
+ * Each EventType is a bus topic whose payload is the Object... of
+ * startEvent. Actions added without a dispatch still run on the thread that
+ * started the event, as they always did; pass a dispatch to move one off it.
+ * New code should use typed EventBus topics instead.
+ */
 public class EventControl {
 
-    private static final HashMap<EventType, Event> list = new HashMap<>();
+    private static final EnumMap<EventType, EventBus.Topic<Object[]>> topics = new EnumMap<>(EventType.class);
 
-    public static void addEvent(EventType eventType, EventAction action) {
-        Event event = null;
-        if (list.containsKey(eventType)) {
-            event = list.get(eventType);
-        }else{
-            event = new Event(eventType);
-            list.put(eventType, event);
-        }
-        if(event == null){
-            return;
+    static {
+        for (EventType eventType : EventType.values()) {
+            topics.put(eventType, new EventBus.Topic<>(eventType.name()));
         }
-        // avoid duplicates
-        for(EventAction actionAdded : event.list){
-            if(actionAdded.id.equals(action.id)){
-                return;
-            }
-        }
-        // can add the new action
-        event.list.add(action);
+    }
+
+    public static void addEvent(EventType eventType, EventAction action) {
+        addEvent(eventType, action, EventBus.Dispatch.POSTING);
+    }
+
+    /**
+     * Adds an action to an event, to be run where the dispatch says.
+     * Adding an action with the same id twice has no effect.
+     */
+    public static void addEvent(EventType eventType, EventAction action, EventBus.Dispatch dispatch) {
+        EventBus.getInstance().subscribe(topics.get(eventType), action.id, dispatch, action::action);
+    }
+
+    /**
+     * Removes the action with this id from an event.
+     */
+    public static void removeEvent(EventType eventType, String actionId) {
+        EventBus.getInstance().unsubscribe(topics.get(eventType), actionId);
     }
 
     /**
@@ -34,13 +46,7 @@ public class EventControl {
      * @param data the data we want to pass onto the actions
      */
     public static void startEvent(EventType eventType, Object... data){
-        Event event = list.get(eventType);
-        if(event == null){
-            return;
-        }
-        for(EventAction action : event.list){
-            action.action(data);
-        }
+        EventBus.getInstance().post(topics.get(eventType), data);
     }
 
 }
@@ -9,5 +9,4 @@ public enum EventType {
 
     BLUETOOTH_ACKNOWLEDGE_RECEIVED, // a message sent by bluetooth was acknowledged
     BLUETOOTH_MESSAGE_RECEIVED,  // a package was received from another bluetooth device
-    DEVICE_UPDATED, // a device was updated
 }
@@ -50,9 +50,12 @@ import offgrid.geogram.R;
 import offgrid.geogram.adapters.FileAdapter;
 import offgrid.geogram.models.Collection;
 import offgrid.geogram.models.CollectionFile;
-import offgrid.geogram.util.CollectionLoader;
+import offgrid.geogram.util.CollectionRegistry;
+import offgrid.geogram.util.ThumbnailCache;
+import offgrid.geogram.util.PieceHashes;
 import offgrid.geogram.util.DownloadProgress;
 import offgrid.geogram.util.TorrentGenerator;
+import offgrid.geogram.util.TreeData;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -64,6 +67,10 @@ public class CollectionBrowserFragment extends Fragment {
     private static final String ARG_REMOTE_MODE = "remote_mode";
     private static final String ARG_REMOTE_IP = "remote_ip";
     private static final String ARG_DEVICE_ID = "device_id";
+    private static final String REMOTE_TREE_FILE = "remote-tree-data.js";
+    private static final int REMOTE_PAGE_SIZE = 50;
+    // Fetch the next page when this close to the end of the list
+    private static final int REMOTE_PREFETCH_ITEMS = 10;
 
     private Collection collection;
     private boolean isRemoteMode = false;
@@ -75,6 +82,15 @@ public class CollectionBrowserFragment extends Fragment {
     private String searchQuery = "";
     private boolean isSettingSearchText = false;
 
+    // Remote folders are listed a page at a time until the whole tree is here
+    private boolean remoteTreeLoaded = false;
+    private volatile boolean remoteTreeRequested = false;
+    private String remoteNextCursor = null;
+    private boolean remotePageLoading = false;
+    private int remoteListingGeneration = 0;
+    // Folder download waiting for the whole tree
+    private volatile CollectionFile pendingFolderDownload = null;
+
     private RecyclerView recyclerView;
     private FileAdapter adapter;
     private LinearLayout emptyState;
@@ -223,8 +239,11 @@ public class CollectionBrowserFragment extends Fragment {
         if (collection.getStoragePath() != null && !isRemoteMode) {
             rescanCollection();
         } else if (isRemoteMode && (remoteIp != null || deviceId != null) && collection.getId() != null) {
-            // Load tree-data.js from remote device via WiFi or relay
-            loadRemoteTreeData();
+            // Load tree-data.js from remote device. A cached copy is patched with a
+            // delta; without one the whole list is only fetched over WiFi or relay,
+            // over BLE folders are listed page by page until a search or a folder
+            // download needs it
+            loadRemoteTreeData(false);
         }
 
         // Set storage path in adapter for thumbnail loading
@@ -299,6 +318,12 @@ public class CollectionBrowserFragment extends Fragment {
         adapter.setOnFileDownloadListener(this::onFileDownload);
         adapter.setOnFolderDownloadListener(this::onFolderDownload);
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                loadMoreIfNeeded();
+            }
+        });
     }
 
     private void updateAdapterStoragePath() {
@@ -591,6 +616,10 @@ public class CollectionBrowserFragment extends Fragment {
         // Rebuild flat file list
         buildFlatFileList();
 
+        // Prepare thumbnails and piece hashes for the files found
+        ThumbnailCache.getInstance().prefetch(collection);
+        PieceHashes.publish(collection);
+
         // Update tree-data.js with current file structure
         updateTreeDataJs();
 
@@ -601,7 +630,13 @@ public class CollectionBrowserFragment extends Fragment {
         setupCollectionHeader();
     }
 
-    private void loadRemoteTreeData() {
+    /**
+     * Load the whole file list of the remote collection.
+     *
+     * @param required download it even when only BLE reaches the device
+     */
+    private void loadRemoteTreeData(boolean required) {
+        remoteTreeRequested = true;
         android.util.Log.i("CollectionBrowser", "═══════════════════════════════════════");
         android.util.Log.i("CollectionBrowser", "loadRemoteTreeData STARTED");
         android.util.Log.i("CollectionBrowser", "  Collection ID: " + collection.getId());
@@ -611,41 +646,41 @@ public class CollectionBrowserFragment extends Fragment {
 
         new Thread(() -> {
             try {
-                // Check if we have a cached tree-data.js
+                // Cached file list of the remote collection, kept apart from the
+                // tree-data.js listing the files downloaded from it
                 File collectionsDir = new File(requireContext().getFilesDir(), "collections");
                 File collectionFolder = new File(collectionsDir, collection.getId());
-                File cachedTreeData = new File(new File(collectionFolder, "extra"), "tree-data.js");
+                File cachedTreeData = new File(new File(collectionFolder, "extra"), REMOTE_TREE_FILE);
+                offgrid.geogram.p2p.P2PHttpClient httpClient = new offgrid.geogram.p2p.P2PHttpClient(getContext());
 
-                String cachedSha1 = null;
-                if (cachedTreeData.exists()) {
-                    // Calculate SHA1 of cached file
-                    cachedSha1 = calculateSHA1(cachedTreeData);
-                    android.util.Log.i("CollectionBrowser", "Found cached tree-data.js (SHA1: " + cachedSha1 + ")");
+                TreeData cached = cachedTreeData.exists() ? TreeData.parse(readFileContent(cachedTreeData)) : null;
+                if (cached != null && cached.getVersion() > 0) {
+                    android.util.Log.i("CollectionBrowser", "Found cached tree version " + cached.getVersion() +
+                            " (" + cached.size() + " entries)");
+
+                    // Ask only for what changed since the cached version
+                    long cachedVersion = cached.getVersion();
+                    if (updateTreeFromDelta(httpClient, cached)) {
+                        String content = cached.toJs();
+                        if (cached.getVersion() != cachedVersion) {
+                            cacheTreeData(collectionFolder, content);
+                        }
+                        parseTreeData(content);
+                        onRemoteTreeLoaded();
+                        return;
+                    }
                 }
 
-                // Get tree-data SHA1 from config.json (if available)
-                String remoteSha1 = getTreeDataSha1FromConfig(deviceId, remoteIp);
-
-                // Check if cache is valid
-                boolean useCached = cachedTreeData.exists() &&
-                                   cachedSha1 != null &&
-                                   remoteSha1 != null &&
-                                   cachedSha1.equals(remoteSha1);
-
-                if (useCached) {
-                    android.util.Log.i("CollectionBrowser", "✓ Using cached tree-data.js (SHA1 matches)");
-                    String cachedContent = readFileContent(cachedTreeData);
-                    parseTreeData(cachedContent);
-
-                    if (getActivity() != null) {
-                        getActivity().runOnUiThread(() -> loadDirectory(currentPath));
-                    }
+                if (!required && remoteIp == null && !httpClient.pingViaRelay(deviceId)
+                        && pendingFolderDownload == null) {
+                    // Only BLE reaches the device, and no folder download came in meanwhile
+                    android.util.Log.i("CollectionBrowser", "Listing folders page by page, whole list on demand");
+                    remoteTreeRequested = false;
                     return;
                 }
 
-                // Cache miss or outdated - download fresh copy
+                // No usable cache - download the whole list
                 android.util.Log.i("CollectionBrowser", "Downloading tree-data.js (cache miss or outdated)");
-                offgrid.geogram.p2p.P2PHttpClient httpClient = new offgrid.geogram.p2p.P2PHttpClient(getContext());
                 String path = "/api/collections/" + collection.getId() + "/file/extra/tree-data.js";
 
                 offgrid.geogram.p2p.P2PHttpClient.HttpResponse response =
@@ -661,20 +696,182 @@ public class CollectionBrowserFragment extends Fragment {
                     parseTreeData(response.body);
 
                     // Update UI on main thread
-                    if (getActivity() != null) {
-                        getActivity().runOnUiThread(() -> loadDirectory(currentPath));
-                    }
+                    onRemoteTreeLoaded();
                 } else {
+                    remoteTreeRequested = false;
+                    pendingFolderDownload = null;
                     android.util.Log.e("CollectionBrowser", "✗ HTTP request failed with status: " + response.statusCode);
                     showRemoteError("Failed to load file list (HTTP " + response.statusCode + ")");
                 }
             } catch (Exception e) {
+                remoteTreeRequested = false;
+                pendingFolderDownload = null;
                 android.util.Log.e("CollectionBrowser", "Error loading remote tree-data", e);
                 showRemoteError("Failed to load file list: " + e.getMessage());
             }
         }).start();
     }
 
+    /**
+     * Switch from paged listing to the whole tree, on the main thread.
+     */
+    private void onRemoteTreeLoaded() {
+        if (getActivity() == null) {
+            return;
+        }
+        getActivity().runOnUiThread(() -> {
+            remoteTreeLoaded = true;
+            buildFlatFileList();
+            if (searchQuery != null && !searchQuery.trim().isEmpty()) {
+                applySearch();
+            } else {
+                loadDirectory(currentPath);
+            }
+            CollectionFile folder = pendingFolderDownload;
+            pendingFolderDownload = null;
+            if (folder != null) {
+                onFolderDownload(folder);
+            }
+        });
+    }
+
+    /**
+     * Fetch the next page of the current remote folder and append it.
+     */
+    private void loadRemotePage() {
+        if (remotePageLoading || collection == null) {
+            return;
+        }
+        remotePageLoading = true;
+        final int generation = remoteListingGeneration;
+        final String path = currentPath;
+        final String cursor = remoteNextCursor;
+
+        new Thread(() -> {
+            List<CollectionFile> page = new ArrayList<>();
+            String nextCursor = null;
+            String error = null;
+            try {
+                StringBuilder apiPath = new StringBuilder("/api/collections/")
+                        .append(collection.getId())
+                        .append("/files?limit=").append(REMOTE_PAGE_SIZE)
+                        .append("&path=").append(java.net.URLEncoder.encode(path, "UTF-8"));
+                if (cursor != null) {
+                    apiPath.append("&cursor=").append(java.net.URLEncoder.encode(cursor, "UTF-8"));
+                }
+                offgrid.geogram.p2p.P2PHttpClient httpClient = new offgrid.geogram.p2p.P2PHttpClient(getContext());
+                offgrid.geogram.p2p.P2PHttpClient.HttpResponse response =
+                    httpClient.get(deviceId, remoteIp, apiPath.toString(), 15000);
+
+                if (response.isSuccess()) {
+                    JsonObject json = JsonParser.parseString(response.body).getAsJsonObject();
+                    JsonArray files = json.getAsJsonArray("files");
+                    for (int i = 0; i < files.size(); i++) {
+                        JsonObject fileObj = files.get(i).getAsJsonObject();
+                        CollectionFile.FileType fileType = "directory".equals(fileObj.get("type").getAsString()) ?
+                                CollectionFile.FileType.DIRECTORY : CollectionFile.FileType.FILE;
+                        CollectionFile file = new CollectionFile(fileObj.get("path").getAsString(),
+                                fileObj.get("name").getAsString(), fileType);
+                        if (fileObj.has("size")) {
+                            file.setSize(fileObj.get("size").getAsLong());
+                        }
+                        if (fileObj.has("mimeType") && !fileObj.get("mimeType").isJsonNull()) {
+                            file.setMimeType(fileObj.get("mimeType").getAsString());
+                        }
+                        page.add(file);
+                    }
+                    if (json.has("next_cursor")) {
+                        nextCursor = json.get("next_cursor").getAsString();
+                    }
+                    android.util.Log.d("CollectionBrowser", "Listed " + page.size() + " of " +
+                            (json.has("total") ? json.get("total").getAsInt() : page.size()) + " entries in '" + path + "'");
+                } else {
+                    error = "HTTP " + response.statusCode;
+                }
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+
+            if (getActivity() == null) {
+                return;
+            }
+            final String finalNextCursor = nextCursor;
+            final String finalError = error;
+            getActivity().runOnUiThread(() -> {
+                // Another folder was opened, or the whole tree arrived meanwhile
+                if (generation != remoteListingGeneration || remoteTreeLoaded) {
+                    return;
+                }
+                remotePageLoading = false;
+                if (finalError != null) {
+                    android.util.Log.e("CollectionBrowser", "Error listing remote folder: " + finalError);
+                    updateUI();
+                    showRemoteError("Failed to load folder: " + finalError);
+                    return;
+                }
+                boolean first = currentFiles.isEmpty();
+                currentFiles.addAll(page);
+                remoteNextCursor = finalNextCursor;
+                if (first) {
+                    updateUI();
+                } else {
+                    adapter.appendFiles(page);
+                }
+                // A short first page may not fill the screen, so no scroll would ask for more
+                recyclerView.post(this::loadMoreIfNeeded);
+            });
+        }).start();
+    }
+
+    private void loadMoreIfNeeded() {
+        if (!isRemoteMode || remoteTreeLoaded || remoteNextCursor == null || remotePageLoading) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        if (layoutManager != null &&
+                layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - REMOTE_PREFETCH_ITEMS) {
+            loadRemotePage();
+        }
+    }
+
+    /**
+     * Patch the cached tree with the changes since its version.
+     *
+     * @return False if the full list has to be downloaded instead
+     */
+    private boolean updateTreeFromDelta(offgrid.geogram.p2p.P2PHttpClient httpClient, TreeData cached) {
+        try {
+            String path = "/api/collections/" + collection.getId() + "/tree-delta?since=" + cached.getVersion();
+            offgrid.geogram.p2p.P2PHttpClient.HttpResponse response =
+                httpClient.get(deviceId, remoteIp, path, 10000);
+            if (!response.isSuccess()) {
+                android.util.Log.w("CollectionBrowser", "Tree delta not available (HTTP " + response.statusCode + ")");
+                return false;
+            }
+
+            JsonObject delta = JsonParser.parseString(response.body).getAsJsonObject();
+            if (!cached.apply(delta)) {
+                android.util.Log.i("CollectionBrowser", "Cached tree too old for a delta");
+                return false;
+            }
+
+            // Both sides write the same bytes for the same tree
+            String expectedSha1 = delta.get("sha1").getAsString();
+            String patchedSha1 = TreeData.sha1(cached.toJs().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            if (!expectedSha1.equals(patchedSha1)) {
+                android.util.Log.w("CollectionBrowser", "Patched tree doesn't match the remote one");
+                return false;
+            }
+            android.util.Log.i("CollectionBrowser", "✓ Tree updated to version " + cached.getVersion() + ": " +
+                    delta.getAsJsonArray("changed").size() + " changed, " +
+                    delta.getAsJsonArray("removed").size() + " removed");
+            return true;
+        } catch (Exception e) {
+            android.util.Log.w("CollectionBrowser", "Could not get tree delta: " + e.getMessage());
+            return false;
+        }
+    }
+
     private void parseTreeData(String treeDataContent) {
         android.util.Log.i("CollectionBrowser", "═══════════════════════════════════════");
         android.util.Log.i("CollectionBrowser", "parseTreeData STARTED");
@@ -823,83 +1020,8 @@ public class CollectionBrowserFragment extends Fragment {
             return;
         }
 
-        try {
-            File collectionRoot = new File(collection.getStoragePath());
-
-            // Ensure extra/ folder exists
-            File extraDir = new File(collectionRoot, "extra");
-            if (!extraDir.exists()) {
-                extraDir.mkdirs();
-            }
-
-            // Generate tree-data.js content
-            StringBuilder sb = new StringBuilder();
-            sb.append("window.TREE_DATA = [\n");
-
-            List<CollectionFile> files = collection.getFiles();
-            for (int i = 0; i < files.size(); i++) {
-                CollectionFile file = files.get(i);
-                sb.append("  {\n");
-                sb.append("    \"path\": \"").append(escapeJson(file.getPath())).append("\",\n");
-                sb.append("    \"type\": \"").append(file.isDirectory() ? "directory" : "file").append("\"");
-
-                if (!file.isDirectory()) {
-                    sb.append(",\n");
-                    sb.append("    \"size\": ").append(file.getSize()).append(",\n");
-                    sb.append("    \"hashes\": {\n");
-                    sb.append("      \"sha1\": \"").append(calculateSHA1(new File(collectionRoot, file.getPath()))).append("\"\n");
-                    sb.append("    }");
-
-                    if (file.getMimeType() != null) {
-                        sb.append(",\n");
-                        sb.append("    \"metadata\": {\n");
-                        sb.append("      \"mime_type\": \"").append(escapeJson(file.getMimeType())).append("\"\n");
-                        sb.append("    }");
-                    }
-                }
-
-                sb.append("\n  }");
-                if (i < files.size() - 1) {
-                    sb.append(",");
-                }
-                sb.append("\n");
-            }
-
-            sb.append("];\n");
-
-            // Write to extra/tree-data.js
-            File treeDataJs = new File(extraDir, "tree-data.js");
-            try (java.io.FileWriter writer = new java.io.FileWriter(treeDataJs)) {
-                writer.write(sb.toString());
-            }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private String calculateSHA1(File file) {
-        try {
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-1");
-            try (java.io.FileInputStream fis = new java.io.FileInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    digest.update(buffer, 0, bytesRead);
-                }
-            }
-            byte[] hashBytes = digest.digest();
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "";
-        }
+        // Writes a new version only when the file list changed
+        TreeData.write(collection, new File(collection.getStoragePath()));
     }
 
     private String escapeJson(String str) {
@@ -994,6 +1116,14 @@ public class CollectionBrowserFragment extends Fragment {
         if (searchQuery == null || searchQuery.trim().isEmpty()) {
             // No search, show normal directory view
             loadDirectory(currentPath);
+        } else if (isRemoteMode && !remoteTreeLoaded) {
+            // Searching needs the whole tree, results show when it arrives
+            if (!remoteTreeRequested) {
+                loadRemoteTreeData(true);
+            }
+            remoteListingGeneration++;
+            currentFiles = new ArrayList<>();
+            updateUI();
         } else {
             // Filter all files by search query
             String lowerQuery = searchQuery.toLowerCase().trim();
@@ -1037,6 +1167,17 @@ public class CollectionBrowserFragment extends Fragment {
             isSettingSearchText = false;
         }
 
+        if (isRemoteMode && !remoteTreeLoaded) {
+            // Until the whole tree is here, list this folder page by page
+            currentFiles = new ArrayList<>();
+            remoteNextCursor = null;
+            remotePageLoading = false;
+            remoteListingGeneration++;
+            loadRemotePage();
+            updateUI();
+            return;
+        }
+
         // Filter files for current directory
         currentFiles = getFilesInPath(path);
 
@@ -1145,7 +1286,8 @@ public class CollectionBrowserFragment extends Fragment {
             recyclerView.setVisibility(View.GONE);
 
             // Check if we're still loading data from remote device
-            if (isRemoteMode && collection != null && collection.getFiles().isEmpty()) {
+            if (isRemoteMode && collection != null && (remoteTreeLoaded ?
+                    collection.getFiles().isEmpty() : remotePageLoading || remoteTreeRequested)) {
                 // Still loading remote data over BLE - show loading message
                 emptyStateText.setText("Loading data..");
             } else {
@@ -1208,6 +1350,17 @@ public class CollectionBrowserFragment extends Fragment {
             return;
         }
 
+        if (!remoteTreeLoaded) {
+            // Folders are listed page by page, the download starts once the file list is here
+            pendingFolderDownload = folder;
+            if (!remoteTreeRequested) {
+                loadRemoteTreeData(true);
+            }
+            Toast.makeText(requireContext(), "Loading the file list, the download starts when it is ready",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         // Get all files in this folder recursively
         List<CollectionFile> filesToDownload = new ArrayList<>();
         String folderPath = folder.getPath();
@@ -1279,6 +1432,19 @@ public class CollectionBrowserFragment extends Fragment {
                 request.addProperty("filePath", file.getPath());
                 request.addProperty("fileSize", file.getSize());
 
+                // Other devices seen with this collection are downloaded from at the same time
+                JsonArray sources = new JsonArray();
+                for (offgrid.geogram.util.CollectionHolders.Holder holder :
+                        offgrid.geogram.util.CollectionHolders.getInstance().getHolders(collection.getId(), deviceId)) {
+                    JsonObject source = new JsonObject();
+                    source.addProperty("deviceId", holder.deviceId);
+                    if (holder.remoteIp != null) {
+                        source.addProperty("remoteIp", holder.remoteIp);
+                    }
+                    sources.add(source);
+                }
+                request.add("sources", sources);
+
                 // Send POST request
                 URL url = new URL(endpoint);
                 HttpURLConnection conn = (HttpURLConnection) url.openConnection();
@@ -1580,17 +1746,13 @@ public class CollectionBrowserFragment extends Fragment {
                     });
                 }
 
-                // Check if collection is already loadable by CollectionLoader
+                // Check if collection is already loadable by CollectionRegistry
                 boolean isCollectionLoadable = false;
                 if (collectionFolder.exists()) {
                     // Try to load the collection to see if it's valid
-                    List<Collection> loadedCollections = CollectionLoader.loadCollectionsFromAppStorage(requireContext());
-                    for (Collection c : loadedCollections) {
-                        if (c.getId().equals(collection.getId())) {
-                            isCollectionLoadable = true;
-                            android.util.Log.i("CollectionBrowser", "Collection already exists and is loadable");
-                            break;
-                        }
+                    if (CollectionRegistry.getInstance(requireContext()).getCollection(collection.getId()) != null) {
+                        isCollectionLoadable = true;
+                        android.util.Log.i("CollectionBrowser", "Collection already exists and is loadable");
                     }
                 }
 
@@ -1896,28 +2058,6 @@ public class CollectionBrowserFragment extends Fragment {
         return content.toString();
     }
 
-    private String getTreeDataSha1FromConfig(String deviceId, String remoteIp) {
-        try {
-            offgrid.geogram.p2p.P2PHttpClient httpClient = new offgrid.geogram.p2p.P2PHttpClient(getContext());
-            String path = "/api/collections/" + collection.getId() + "/file/config.json";
-
-            offgrid.geogram.p2p.P2PHttpClient.HttpResponse response =
-                httpClient.get(deviceId, remoteIp, path, 5000);
-
-            if (response.isSuccess()) {
-                JsonObject config = JsonParser.parseString(response.body).getAsJsonObject();
-                if (config.has("treeDataSha1")) {
-                    String sha1 = config.get("treeDataSha1").getAsString();
-                    android.util.Log.i("CollectionBrowser", "Remote tree-data.js SHA1: " + sha1);
-                    return sha1;
-                }
-            }
-        } catch (Exception e) {
-            android.util.Log.w("CollectionBrowser", "Could not get tree-data SHA1 from config: " + e.getMessage());
-        }
-        return null;
-    }
-
     private void cacheTreeData(File collectionFolder, String content) {
         try {
             File extraDir = new File(collectionFolder, "extra");
@@ -1925,11 +2065,11 @@ public class CollectionBrowserFragment extends Fragment {
                 extraDir.mkdirs();
             }
 
-            File treeDataFile = new File(extraDir, "tree-data.js");
+            File treeDataFile = new File(extraDir, REMOTE_TREE_FILE);
             try (java.io.FileWriter writer = new java.io.FileWriter(treeDataFile)) {
                 writer.write(content);
             }
-            android.util.Log.i("CollectionBrowser", "Cached tree-data.js to: " + treeDataFile.getAbsolutePath());
+            android.util.Log.i("CollectionBrowser", "Cached remote tree-data.js to: " + treeDataFile.getAbsolutePath());
         } catch (Exception e) {
             android.util.Log.e("CollectionBrowser", "Error caching tree-data.js: " + e.getMessage());
         }
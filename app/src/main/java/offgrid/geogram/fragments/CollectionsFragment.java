@@ -35,7 +35,7 @@ import offgrid.geogram.R;
 import offgrid.geogram.adapters.CollectionAdapter;
 import offgrid.geogram.models.Collection;
 import offgrid.geogram.models.CollectionFile;
-import offgrid.geogram.util.CollectionLoader;
+import offgrid.geogram.util.CollectionRegistry;
 
 public class CollectionsFragment extends Fragment {
 
@@ -146,13 +146,17 @@ public class CollectionsFragment extends Fragment {
     }
 
     private void setupSwipeRefresh() {
-        swipeRefresh.setOnRefreshListener(this::loadCollections);
+        swipeRefresh.setOnRefreshListener(() -> {
+            // Pull-to-refresh reads everything from disk again
+            CollectionRegistry.getInstance(requireContext()).invalidateAll();
+            loadCollections();
+        });
     }
 
     private void loadCollections() {
         // Load on background thread
         new Thread(() -> {
-            List<Collection> collections = CollectionLoader.loadCollectionsFromAppStorage(requireContext());
+            List<Collection> collections = CollectionRegistry.getInstance(requireContext()).getCollections();
 
             handler.post(() -> {
                 allCollections = collections;
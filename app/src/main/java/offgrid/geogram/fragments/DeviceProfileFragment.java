@@ -492,6 +492,7 @@ public class DeviceProfileFragment extends Fragment {
 
                             // Skip collections that we own (are admin of)
                             if (!offgrid.geogram.util.CollectionKeysManager.isOwnedCollection(getContext(), collectionId)) {
+                                offgrid.geogram.util.CollectionHolders.getInstance().record(collectionId, targetId, deviceIp);
                                 filteredCount++;
                             }
                         }
@@ -25,9 +25,7 @@ import offgrid.geogram.R;
 import offgrid.geogram.devices.Device;
 import offgrid.geogram.devices.DeviceManager;
 import offgrid.geogram.devices.DeviceType;
-import offgrid.geogram.events.EventAction;
-import offgrid.geogram.events.EventControl;
-import offgrid.geogram.events.EventType;
+import offgrid.geogram.events.EventBus;
 import offgrid.geogram.p2p.DeviceRelayChecker;
 import offgrid.geogram.p2p.P2PHttpClient;
 
@@ -40,7 +38,7 @@ public class DevicesWithinReachFragment extends Fragment {
     private DeviceAdapter adapter;
     private TextView emptyMessage;
     private androidx.swiperefreshlayout.widget.SwipeRefreshLayout swipeRefresh;
-    private EventAction deviceUpdateListener;
+    private EventBus.Subscriber<Device> deviceUpdateListener;
     private android.os.Handler reachabilityHandler;
     private Runnable reachabilityCheckRunnable;
     private android.content.BroadcastReceiver wifiDiscoveryReceiver;
@@ -86,20 +84,13 @@ public class DevicesWithinReachFragment extends Fragment {
 
         // Create event listener for device updates (only if not already created)
         if (deviceUpdateListener == null) {
-            deviceUpdateListener = new EventAction(EVENT_LISTENER_ID) {
-                @Override
-                public void action(Object... data) {
-                    // Update UI on main thread
-                    if (getActivity() != null && isAdded()) {
-                        getActivity().runOnUiThread(() -> {
-                            if (isAdded() && getView() != null) {
-                                loadDevices();
-                                // Also update device count badge in MainActivity
-                                if (getActivity() instanceof MainActivity) {
-                                    ((MainActivity) getActivity()).updateDeviceCount();
-                                }
-                            }
-                        });
+            // Subscribed on the main thread, see onResume
+            deviceUpdateListener = device -> {
+                if (isAdded() && getView() != null) {
+                    loadDevices();
+                    // Also update device count badge in MainActivity
+                    if (getActivity() instanceof MainActivity) {
+                        ((MainActivity) getActivity()).updateDeviceCount();
                     }
                 }
             };
@@ -171,7 +162,8 @@ public class DevicesWithinReachFragment extends Fragment {
         }
         // Register event listener for real-time updates
         if (deviceUpdateListener != null) {
-            EventControl.addEvent(EventType.DEVICE_UPDATED, deviceUpdateListener);
+            EventBus.getInstance().subscribe(DeviceManager.DEVICE_UPDATED, EVENT_LISTENER_ID,
+                    EventBus.Dispatch.MAIN, deviceUpdateListener);
         }
         // Refresh the device list when fragment becomes visible
         if (getView() != null) {
@@ -236,7 +228,7 @@ public class DevicesWithinReachFragment extends Fragment {
     @Override
     public void onPause() {
         super.onPause();
-        // Note: EventControl doesn't have removeEvent, listener stays registered
+        EventBus.getInstance().unsubscribe(DeviceManager.DEVICE_UPDATED, EVENT_LISTENER_ID);
 
         // Stop periodic reachability checks
         stopReachabilityChecks();
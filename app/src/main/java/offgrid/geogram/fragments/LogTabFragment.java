@@ -107,19 +107,12 @@ public class LogTabFragment extends Fragment {
 
         logScrollView.post(() -> {
             StringBuilder text = new StringBuilder();
-            String filter = logFilter.getText().toString().toLowerCase();
-
-            // Get the total number of log messages
-            int totalMessages = Log.logMessages.size();
-
-            // Calculate the starting index to show only the last MAX_LOG_MESSAGES
-            int startIndex = Math.max(0, totalMessages - MAX_LOG_MESSAGES);
+            String filter = logFilter.getText().toString();
 
             // Filter and append log messages (only the last MAX_LOG_MESSAGES)
-            for (int i = startIndex; i < totalMessages; i++) {
-                String message = Log.logMessages.get(i);
-                if (filter.isEmpty() || message.toLowerCase().contains(filter)) {
-                    text.append(message).append("\n");
+            for (Log.Entry entry : Log.getEntries(MAX_LOG_MESSAGES)) {
+                if (entry.matches(filter)) {
+                    text.append(entry).append("\n");
                 }
             }
 
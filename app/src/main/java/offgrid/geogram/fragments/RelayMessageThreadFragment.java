@@ -447,6 +447,11 @@ public class RelayMessageThreadFragment extends Fragment {
                 RelayMessage lastMessage = threadMessages.get(threadMessages.size() - 1);
                 replyMessage.setInReplyTo(lastMessage.getId());
 
+                // Sign last, the signature covers the thread fields too
+                if (!replyMessage.sign(settings.getNsec())) {
+                    Log.w(TAG, "Sending " + replyMessageId + " unsigned, no valid nsec in settings");
+                }
+
                 // Append reply to the existing message file (keeping conversation together)
                 boolean appended = RelayMessage.appendReplyToFile(messageFile, replyMessage);
 
@@ -384,6 +384,11 @@ public class RelayMessagesListFragment extends Fragment {
                 message.setTtl(604800); // 7 days
                 message.setTimestamp(timestamp / 1000);
 
+                // Sign last, the signature covers every field set above
+                if (!message.sign(settings.getNsec())) {
+                    Log.w(TAG, "Sending " + messageId + " unsigned, no valid nsec in settings");
+                }
+
                 // Save to GLOBAL relay outbox (not contact-specific folder)
                 // This is required for relay sync to find and transmit the message
                 boolean saved = relayStorage.saveMessage(message, "outbox");
@@ -123,6 +123,7 @@ public class RemoteCollectionsFragment extends Fragment {
                             android.util.Log.i("RemoteCollections", "Skipping owned collection: " + id);
                             continue;
                         }
+                        offgrid.geogram.util.CollectionHolders.getInstance().record(id, deviceId, remoteIp);
 
                         String title = collectionJson.get("title").getAsString();
                         String description = collectionJson.has("description") ?
@@ -294,12 +294,19 @@ public class DeviceRelayClient extends WebSocketListener {
                 Request.Builder requestBuilder = new Request.Builder().url(url);
 
                 // Add headers
+                boolean acceptEncodingSet = false;
                 if (request.headers != null && !request.headers.isEmpty()) {
                     Map<String, String> headers = parseHeaders(request.headers);
                     for (Map.Entry<String, String> entry : headers.entrySet()) {
                         requestBuilder.addHeader(entry.getKey(), entry.getValue());
+                        acceptEncodingSet |= "Accept-Encoding".equalsIgnoreCase(entry.getKey());
                     }
                 }
+                if (!acceptEncodingSet) {
+                    // Asking explicitly keeps OkHttp from unzipping the body,
+                    // so a gzipped response crosses the relay compressed
+                    requestBuilder.header("Accept-Encoding", "gzip");
+                }
 
                 // Add body if present
                 if ("POST".equalsIgnoreCase(request.method) || "PUT".equalsIgnoreCase(request.method)) {
@@ -321,9 +328,10 @@ public class DeviceRelayClient extends WebSocketListener {
                     String responseBody;
                     String responseHeaders;
 
-                    // Check if response is binary (image, video, etc.)
+                    // Check if response is binary (image, video, etc.), gzipped bodies included
                     String contentType = response.header("Content-Type", "");
-                    boolean isBinary = contentType.startsWith("image/") ||
+                    boolean isBinary = "gzip".equalsIgnoreCase(response.header("Content-Encoding")) ||
+                                      contentType.startsWith("image/") ||
                                       contentType.startsWith("video/") ||
                                       contentType.startsWith("audio/") ||
                                       contentType.startsWith("application/octet-stream");
@@ -0,0 +1,97 @@
+package offgrid.geogram.p2p;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import offgrid.geogram.util.ChunkDownloadEngine;
+
+/**
+ * One remote device over one transport, as a source of file chunks for
+ * {@link ChunkDownloadEngine}.
+ */
+public class P2PChunkSource implements ChunkDownloadEngine.ChunkSource {
+
+    private final P2PHttpClient httpClient;
+    private final P2PHttpClient.Transport transport;
+    private final String deviceId;
+    private final String remoteIp;
+    private final String path;
+
+    public P2PChunkSource(P2PHttpClient httpClient, P2PHttpClient.Transport transport,
+                          String deviceId, String remoteIp, String path) {
+        this.httpClient = httpClient;
+        this.transport = transport;
+        this.deviceId = deviceId;
+        this.remoteIp = remoteIp;
+        this.path = path;
+    }
+
+    @Override
+    public String getName() {
+        return deviceId + "/" + transport.name().toLowerCase();
+    }
+
+    @Override
+    public int getMaxWindow() {
+        switch (transport) {
+            case WIFI:
+                return 8;
+            case RELAY:
+                return 4;
+            case GATT:
+            default:
+                // The GATT link is serial, a second request only keeps the pipe full
+                return 2;
+        }
+    }
+
+    /**
+     * Per-chunk timeout, BLE needs minutes for a few KB on a busy link.
+     */
+    private int getTimeoutMs() {
+        switch (transport) {
+            case WIFI:
+                return 30000;
+            case RELAY:
+                return 60000;
+            case GATT:
+            default:
+                return 180000;
+        }
+    }
+
+    @Override
+    public byte[] fetchChunk(long startByte, long endByte) throws IOException {
+        P2PHttpClient.InputStreamResponse response =
+                httpClient.getInputStreamWithRange(transport, deviceId, remoteIp, path,
+                        startByte, endByte, getTimeoutMs());
+        try {
+            if (response.statusCode == 404) {
+                // The file itself is missing, not just this range
+                throw new ChunkDownloadEngine.FileUnavailableException("HTTP 404");
+            }
+            if (response.statusCode == 416) {
+                throw new ChunkDownloadEngine.ChunkUnavailableException("HTTP 416");
+            }
+            if (!response.isSuccess()) {
+                throw new IOException("HTTP " + response.statusCode +
+                        (response.errorMessage != null ? ": " + response.errorMessage : ""));
+            }
+
+            // Read one byte past the range, so a peer ignoring Range is caught
+            // without pulling the whole file
+            long expected = endByte - startByte + 1;
+            ByteArrayOutputStream data = new ByteArrayOutputStream((int) expected);
+            byte[] buffer = new byte[4096];
+            InputStream in = response.stream;
+            int bytesRead;
+            while (data.size() <= expected && (bytesRead = in.read(buffer)) != -1) {
+                data.write(buffer, 0, bytesRead);
+            }
+            return data.toByteArray();
+        } finally {
+            response.close();
+        }
+    }
+}
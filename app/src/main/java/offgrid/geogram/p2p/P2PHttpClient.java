@@ -5,12 +5,14 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import offgrid.geogram.ble.BluetoothSender;
+import offgrid.geogram.ble.GattHttpStream;
 import offgrid.geogram.core.Log;
 import offgrid.geogram.devices.Device;
 import offgrid.geogram.devices.DeviceManager;
 import offgrid.geogram.settings.ConfigManager;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
@@ -404,6 +406,40 @@ public class P2PHttpClient {
         return getInputStreamViaGatt(deviceId, path, timeoutMs);
     }
 
+    /**
+     * Ways to reach a remote device, for callers that pick one themselves.
+     */
+    public enum Transport {
+        WIFI,
+        RELAY,
+        GATT
+    }
+
+    /**
+     * Get InputStream with Range request over one specific transport,
+     * without falling back to the others.
+     *
+     * @param transport Transport to use
+     * @param deviceId Device callsign (relay, GATT) or IP address
+     * @param remoteIp Device IP address, required for WIFI unless deviceId is one
+     */
+    public InputStreamResponse getInputStreamWithRange(Transport transport, String deviceId, String remoteIp,
+                                                       String path, long startByte, long endByte, int timeoutMs) {
+        switch (transport) {
+            case WIFI:
+                String ip = remoteIp != null && !remoteIp.isEmpty() ? remoteIp : deviceId;
+                if (ip == null || !isValidIpAddress(ip)) {
+                    return new InputStreamResponse(null, null, 400, "No IP address for WiFi transport");
+                }
+                return getInputStreamViaHttpWithRange(ip, path, startByte, endByte, timeoutMs);
+            case RELAY:
+                return getInputStreamViaRelayWithRange(deviceId, path, startByte, endByte, timeoutMs);
+            case GATT:
+            default:
+                return getInputStreamViaGattWithRange(deviceId, path, startByte, endByte, timeoutMs);
+        }
+    }
+
     /**
      * Get InputStream with Range request support (for chunked downloads)
      *
@@ -598,6 +634,12 @@ public class P2PHttpClient {
                 }
             }
 
+            // Prefer the streamed tunnel, the body is read while it arrives
+            InputStreamResponse streamed = getInputStreamViaGattStream(sender, deviceId, path, timeoutMs);
+            if (streamed != null) {
+                return streamed;
+            }
+
             // Send HTTP request over GATT
             java.util.concurrent.CompletableFuture<HttpResponse> future =
                 sender.sendHttpRequestOverGatt(deviceId, "GET", path, timeoutMs);
@@ -641,6 +683,60 @@ public class P2PHttpClient {
         }
     }
 
+    /**
+     * Get InputStream via the streamed GATT tunnel.
+     * Half of the timeout is given to the status line; peers without
+     * streaming support never answer it, and are then skipped for a while.
+     *
+     * @return The response, or null to fall back to a buffered GATT request
+     */
+    private InputStreamResponse getInputStreamViaGattStream(BluetoothSender sender, String deviceId,
+                                                            String path, int timeoutMs) {
+        if (!sender.supportsHttpStream(deviceId)) {
+            return null;
+        }
+        int headerTimeoutMs = timeoutMs / 2;
+        GattHttpStream stream;
+        try {
+            stream = sender.sendHttpStreamRequestOverGatt(deviceId, "GET", path, headerTimeoutMs)
+                    .get(timeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.i(TAG, "Streamed GATT request not answered, using buffered request: " + e.getMessage());
+            return null;
+        }
+
+        int statusCode = stream.getStatusCode();
+        InputStream body = stream;
+        if (stream.isGzipped()) {
+            // Sent compressed over the link, unzipped here
+            try {
+                body = new java.util.zip.GZIPInputStream(stream);
+            } catch (IOException e) {
+                stream.close();
+                Log.e(TAG, "✗ BLE GATT streamed response is not valid gzip: " + e.getMessage());
+                return new InputStreamResponse(null, null, 502, "Invalid gzip body: " + e.getMessage());
+            }
+        }
+        if (statusCode >= 200 && statusCode < 300) {
+            Log.i(TAG, "✓ BLE GATT streamed request successful");
+            return new InputStreamResponse(body, null, statusCode, null);
+        }
+
+        Log.e(TAG, "✗ BLE GATT streamed request failed with status: " + statusCode);
+        String errorMsg = "";
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null && sb.length() < 4096) {
+                sb.append(line);
+            }
+            errorMsg = sb.toString();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read error body: " + e.getMessage());
+        }
+        return new InputStreamResponse(null, null, statusCode, errorMsg);
+    }
+
     /**
      * Get InputStream via direct HTTP with Range header
      */
@@ -783,6 +879,11 @@ public class P2PHttpClient {
             String pathWithRange = path + (path.contains("?") ? "&" : "?") +
                                  "range=" + startByte + "-" + endByte;
 
+            InputStreamResponse streamed = getInputStreamViaGattStream(sender, deviceId, pathWithRange, timeoutMs);
+            if (streamed != null) {
+                return streamed;
+            }
+
             java.util.concurrent.CompletableFuture<HttpResponse> future =
                 sender.sendHttpRequestOverGatt(deviceId, "GET", pathWithRange, timeoutMs);
 
@@ -0,0 +1,212 @@
+package offgrid.geogram.relay;
+
+import android.util.Base64;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Compact Bloom filter over relay message IDs.
+ *
+ * Used by the set-reconciliation sync mode: a peer advertises a filter of
+ * every message ID it already holds, and the other side answers with only
+ * the outbox IDs that are not in the filter. The filter size depends on the
+ * number of IDs, not on their length, and is capped so it always fits in a
+ * single transport message.
+ *
+ * Each filter carries its own seed. Senders pick a fresh seed per sync so a
+ * false positive in one round is unlikely to repeat in the next.
+ *
+ * Wire format (base64, no wrap):
+ * [version:1][hashes:1][seed:4][count:4][bits...]
+ */
+public class RelayBloomFilter {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 10;
+
+    // ~1% false positive rate at the optimal number of hashes
+    private static final double BITS_PER_ITEM = 9.6;
+    private static final int MIN_BYTES = 8;
+    private static final int MAX_HASHES = 16;
+
+    private final byte[] bits;
+    private final int numBits;
+    private final int numHashes;
+    private final int seed;
+    private int count;
+
+    private RelayBloomFilter(byte[] bits, int numHashes, int seed, int count) {
+        this.bits = bits;
+        this.numBits = bits.length * 8;
+        this.numHashes = numHashes;
+        this.seed = seed;
+        this.count = count;
+    }
+
+    /**
+     * Create an empty filter sized for the expected number of IDs.
+     *
+     * @param expectedItems Number of IDs that will be added
+     * @param maxBytes Upper bound on the bit array size
+     * @param seed Hash seed for this filter
+     * @return Empty filter
+     */
+    public static RelayBloomFilter create(int expectedItems, int maxBytes, int seed) {
+        int n = Math.max(expectedItems, 1);
+        int bytes = (int) Math.ceil(n * BITS_PER_ITEM / 8.0);
+        bytes = Math.max(MIN_BYTES, Math.min(bytes, Math.max(maxBytes, MIN_BYTES)));
+
+        // Optimal hash count for the size we actually got: k = (m/n) ln 2
+        int k = (int) Math.round((bytes * 8.0 / n) * Math.log(2));
+        k = Math.max(1, Math.min(k, MAX_HASHES));
+
+        return new RelayBloomFilter(new byte[bytes], k, seed, 0);
+    }
+
+    /**
+     * Create a filter containing all the given IDs.
+     */
+    public static RelayBloomFilter of(Collection<String> ids, int maxBytes, int seed) {
+        RelayBloomFilter filter = create(ids.size(), maxBytes, seed);
+        for (String id : ids) {
+            filter.add(id);
+        }
+        return filter;
+    }
+
+    /**
+     * Add a message ID to the filter.
+     */
+    public void add(String id) {
+        long[] h = hash(id);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = index(h, i);
+            bits[bit >>> 3] |= (byte) (1 << (bit & 7));
+        }
+        count++;
+    }
+
+    /**
+     * Check whether an ID may be in the filter.
+     * False means definitely absent; true means present or a false positive.
+     */
+    public boolean mightContain(String id) {
+        long[] h = hash(id);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = index(h, i);
+            if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of IDs added to the filter.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    public int getSizeBytes() {
+        return bits.length;
+    }
+
+    /**
+     * Serialize to bytes.
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bits.length);
+        buffer.put(FORMAT_VERSION);
+        buffer.put((byte) numHashes);
+        buffer.putInt(seed);
+        buffer.putInt(count);
+        buffer.put(bits);
+        return buffer.array();
+    }
+
+    /**
+     * Deserialize from bytes.
+     *
+     * @return The filter, or null if the data is malformed
+     */
+    public static RelayBloomFilter fromBytes(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE + 1 || data[0] != FORMAT_VERSION) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.get(); // version
+        int k = buffer.get() & 0xFF;
+        int seed = buffer.getInt();
+        int count = buffer.getInt();
+        if (k < 1 || k > MAX_HASHES) {
+            return null;
+        }
+        byte[] bits = new byte[data.length - HEADER_SIZE];
+        buffer.get(bits);
+        return new RelayBloomFilter(bits, k, seed, count);
+    }
+
+    /**
+     * Encode as a base64 string for text transports (BLE, JSON).
+     */
+    public String encode() {
+        return Base64.encodeToString(toBytes(), Base64.NO_WRAP);
+    }
+
+    /**
+     * Decode from a base64 string.
+     *
+     * @return The filter, or null if the data is malformed
+     */
+    public static RelayBloomFilter decode(String encoded) {
+        if (encoded == null || encoded.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return fromBytes(Base64.decode(encoded.trim(), Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // ========== HASHING ==========
+
+    /**
+     * Two independent 64-bit hashes of the ID (FNV-1a with a murmur3 finalizer),
+     * combined by double hashing to derive the k bit positions.
+     */
+    private long[] hash(String id) {
+        byte[] data = id.getBytes(StandardCharsets.UTF_8);
+        long h1 = 0xcbf29ce484222325L ^ seed;
+        long h2 = 0x84222325cbf29ce4L ^ ((long) seed << 32);
+        for (byte b : data) {
+            h1 ^= (b & 0xFF);
+            h1 *= 0x100000001b3L;
+            h2 ^= (b & 0xFF);
+            h2 *= 0x100000001b3L;
+            h2 = Long.rotateLeft(h2, 5);
+        }
+        return new long[]{fmix(h1), fmix(h2) | 1L};
+    }
+
+    private int index(long[] h, int i) {
+        long combined = h[0] + i * h[1];
+        return (int) Long.remainderUnsigned(combined, numBits);
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
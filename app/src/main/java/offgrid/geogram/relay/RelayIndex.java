@@ -0,0 +1,433 @@
+package offgrid.geogram.relay;
+
+import offgrid.geogram.core.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent header index for relay message storage.
+ *
+ * Keeps the metadata needed by listing, sync inventory, expiry and pruning
+ * (ID, folder, save time, timestamp, priority, TTL, size, parse validity) so
+ * that those operations no longer list directories, stat files or re-parse
+ * markdown on every call.
+ *
+ * The index is persisted as an append-only journal (relay/index.log):
+ * - S&lt;TAB&gt;folder&lt;TAB&gt;id&lt;TAB&gt;savedAt&lt;TAB&gt;timestamp&lt;TAB&gt;priority&lt;TAB&gt;ttl&lt;TAB&gt;size&lt;TAB&gt;valid
+ * - D&lt;TAB&gt;folder&lt;TAB&gt;id
+ *
+ * The journal is replayed on load and rewritten (compacted) when it holds
+ * too many superseded records. On load, and whenever a folder's directory
+ * mtime changes behind our back, the folder is reconciled against the files
+ * on disk so messages written by other tools are picked up.
+ *
+ * One index exists per relay directory; all RelayStorage instances share it.
+ */
+public class RelayIndex {
+
+    private static final String TAG = "RelayIndex";
+
+    private static final String INDEX_FILENAME = "index.log";
+    private static final String RECORD_SAVE = "S";
+    private static final String RECORD_DELETE = "D";
+
+    // Compact when the journal holds this many more records than live entries
+    private static final int COMPACT_SLACK = 512;
+
+    private static final String[] FOLDERS = {"inbox", "outbox", "sent"};
+
+    private static final Map<String, RelayIndex> instances = new HashMap<>();
+
+    private final File relayDir;
+    private final File indexFile;
+
+    // folder -> (messageId -> entry), insertion order kept for stable listings
+    private final Map<String, Map<String, Entry>> folders = new HashMap<>();
+
+    // Directory mtime observed after our own last change, per folder
+    private final Map<String, Long> knownDirModified = new HashMap<>();
+
+    private int journalRecords = 0;
+
+    // Message files parsed to build entries (reconcile work the index avoids)
+    private int parsedFiles = 0;
+
+    private RelayIndex(File relayDir) {
+        this.relayDir = relayDir;
+        this.indexFile = new File(relayDir, INDEX_FILENAME);
+        for (String folder : FOLDERS) {
+            folders.put(folder, new LinkedHashMap<>());
+        }
+        load();
+    }
+
+    /**
+     * Get the shared index for a relay directory.
+     */
+    public static synchronized RelayIndex getInstance(File relayDir) {
+        String key = relayDir.getAbsolutePath();
+        RelayIndex index = instances.get(key);
+        if (index == null) {
+            index = new RelayIndex(relayDir);
+            instances.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Index entry describing one stored message.
+     */
+    public static class Entry {
+        public final String id;
+        public final String folder;
+        public final long savedAt;      // When the file was written (ms), mirrors file mtime
+        public final long timestamp;    // Message timestamp (seconds)
+        public final String priority;
+        public final long ttl;
+        public final long size;         // File size in bytes
+        public final boolean valid;     // Markdown parsed successfully when indexed
+
+        Entry(String id, String folder, long savedAt, long timestamp,
+              String priority, long ttl, long size, boolean valid) {
+            this.id = id;
+            this.folder = folder;
+            this.savedAt = savedAt;
+            this.timestamp = timestamp;
+            this.priority = priority != null ? priority : "normal";
+            this.ttl = ttl;
+            this.size = size;
+            this.valid = valid;
+        }
+
+        Entry inFolder(String newFolder, long newSavedAt) {
+            return new Entry(id, newFolder, newSavedAt, timestamp, priority, ttl, size, valid);
+        }
+
+        /**
+         * Check if the message has expired based on TTL.
+         */
+        public boolean isExpired() {
+            long now = System.currentTimeMillis() / 1000;
+            return (timestamp + ttl) < now;
+        }
+    }
+
+    /**
+     * Build an index entry from a message and its serialized size.
+     */
+    static Entry entryFor(RelayMessage message, String folder, long savedAt, long size, boolean valid) {
+        return new Entry(message.getId(), folder, savedAt, message.getTimestamp(),
+                message.getPriority(), message.getTtl(), size, valid);
+    }
+
+    // ========== QUERIES ==========
+
+    /**
+     * Get the entry for a message in a folder, or null if not indexed.
+     */
+    public synchronized Entry get(String folder, String messageId) {
+        Map<String, Entry> entries = entriesFor(folder);
+        return entries != null ? entries.get(messageId) : null;
+    }
+
+    /**
+     * Check whether a message exists in any folder.
+     */
+    public synchronized boolean contains(String messageId) {
+        for (String folder : FOLDERS) {
+            if (entriesFor(folder).containsKey(messageId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get a snapshot of all entries in a folder.
+     */
+    public synchronized List<Entry> list(String folder) {
+        Map<String, Entry> entries = entriesFor(folder);
+        return entries != null ? new ArrayList<>(entries.values()) : new ArrayList<>();
+    }
+
+    /**
+     * Count entries in a folder.
+     */
+    public synchronized int count(String folder) {
+        Map<String, Entry> entries = entriesFor(folder);
+        return entries != null ? entries.size() : 0;
+    }
+
+    // ========== UPDATES ==========
+
+    /**
+     * Record a saved (or overwritten) message.
+     */
+    public synchronized void put(Entry entry) {
+        Map<String, Entry> entries = folders.get(entry.folder);
+        if (entries == null) {
+            return;
+        }
+        entries.remove(entry.id); // Re-insert so listing order follows save order
+        entries.put(entry.id, entry);
+        appendRecord(saveRecord(entry));
+        markDirKnown(entry.folder);
+    }
+
+    /**
+     * Record a deleted message.
+     */
+    public synchronized void remove(String folder, String messageId) {
+        Map<String, Entry> entries = folders.get(folder);
+        if (entries == null || entries.remove(messageId) == null) {
+            return;
+        }
+        appendRecord(RECORD_DELETE + "\t" + folder + "\t" + messageId);
+        markDirKnown(folder);
+    }
+
+    /**
+     * Record a message moved between folders.
+     *
+     * Called after the file was renamed, so both directory mtimes have already
+     * changed: the entry is taken straight from the source folder instead of
+     * through a reconcile, which would drop it and re-parse the moved file.
+     */
+    public synchronized void move(String messageId, String fromFolder, String toFolder, long savedAt) {
+        Map<String, Entry> fromEntries = folders.get(fromFolder);
+        Entry entry = fromEntries != null ? fromEntries.get(messageId) : null;
+        if (entry == null || !folders.containsKey(toFolder)) {
+            return;
+        }
+        remove(fromFolder, messageId);
+        put(entry.inFolder(toFolder, savedAt));
+        markDirKnown(fromFolder);
+        markDirKnown(toFolder);
+    }
+
+    /**
+     * Number of message files parsed to build entries since the index was loaded.
+     */
+    synchronized int getParsedFiles() {
+        return parsedFiles;
+    }
+
+    // ========== PERSISTENCE ==========
+
+    /**
+     * Entries for a folder, reconciling with disk first if the directory was
+     * modified by something other than this index.
+     */
+    private Map<String, Entry> entriesFor(String folder) {
+        Map<String, Entry> entries = folders.get(folder);
+        if (entries == null) {
+            return null;
+        }
+        File dir = new File(relayDir, folder);
+        Long known = knownDirModified.get(folder);
+        if (known == null || known != dir.lastModified()) {
+            reconcile(folder);
+        }
+        return entries;
+    }
+
+    private void markDirKnown(String folder) {
+        knownDirModified.put(folder, new File(relayDir, folder).lastModified());
+    }
+
+    /**
+     * Replay the journal and reconcile every folder with disk.
+     */
+    private void load() {
+        if (indexFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    journalRecords++;
+                    applyRecord(line);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading relay index: " + e.getMessage());
+            }
+        }
+
+        for (String folder : FOLDERS) {
+            reconcile(folder);
+        }
+
+        int live = 0;
+        for (Map<String, Entry> entries : folders.values()) {
+            live += entries.size();
+        }
+        Log.d(TAG, "Loaded relay index with " + live + " messages (" + journalRecords + " journal records)");
+        compactIfNeeded();
+    }
+
+    private void applyRecord(String line) {
+        String[] parts = line.split("\t", -1);
+        try {
+            if (RECORD_SAVE.equals(parts[0]) && parts.length == 9) {
+                Map<String, Entry> entries = folders.get(parts[1]);
+                if (entries != null) {
+                    entries.remove(parts[2]);
+                    entries.put(parts[2], new Entry(parts[2], parts[1],
+                            Long.parseLong(parts[3]), Long.parseLong(parts[4]), parts[5],
+                            Long.parseLong(parts[6]), Long.parseLong(parts[7]),
+                            "1".equals(parts[8])));
+                }
+            } else if (RECORD_DELETE.equals(parts[0]) && parts.length == 3) {
+                Map<String, Entry> entries = folders.get(parts[1]);
+                if (entries != null) {
+                    entries.remove(parts[2]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Torn write at the end of the journal - ignore the record
+            Log.w(TAG, "Skipping corrupt index record");
+        }
+    }
+
+    /**
+     * Bring a folder's entries in line with the files actually on disk.
+     * Drops entries whose file vanished and indexes files we don't know about.
+     */
+    private void reconcile(String folder) {
+        Map<String, Entry> entries = folders.get(folder);
+        File dir = new File(relayDir, folder);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".md"));
+
+        Map<String, File> onDisk = new HashMap<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                onDisk.put(name.substring(0, name.length() - 3), file);
+            }
+        }
+
+        List<String> vanished = new ArrayList<>();
+        for (String id : entries.keySet()) {
+            if (!onDisk.containsKey(id)) {
+                vanished.add(id);
+            }
+        }
+        for (String id : vanished) {
+            entries.remove(id);
+            appendRecord(RECORD_DELETE + "\t" + folder + "\t" + id);
+        }
+
+        // Index unknown files, oldest first so listing order matches mtime
+        List<File> unknown = new ArrayList<>();
+        for (Map.Entry<String, File> e : onDisk.entrySet()) {
+            if (!entries.containsKey(e.getKey())) {
+                unknown.add(e.getValue());
+            }
+        }
+        unknown.sort((f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File file : unknown) {
+            Entry entry = indexFile(folder, file);
+            entries.put(entry.id, entry);
+            appendRecord(saveRecord(entry));
+        }
+
+        if (!vanished.isEmpty() || !unknown.isEmpty()) {
+            Log.d(TAG, "Reconciled " + folder + ": +" + unknown.size() + " -" + vanished.size());
+        }
+        knownDirModified.put(folder, dir.lastModified());
+    }
+
+    /**
+     * Parse a message file once to build its entry.
+     */
+    private Entry indexFile(String folder, File file) {
+        String name = file.getName();
+        String id = name.substring(0, name.length() - 3);
+        RelayMessage message = null;
+        parsedFiles++;
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            try (FileInputStream fis = new FileInputStream(file)) {
+                int off = 0;
+                while (off < bytes.length) {
+                    int n = fis.read(bytes, off, bytes.length - off);
+                    if (n < 0) break;
+                    off += n;
+                }
+            }
+            message = RelayMessage.parseMarkdown(new String(bytes));
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading " + name + ": " + e.getMessage());
+        }
+
+        if (message == null) {
+            return new Entry(id, folder, file.lastModified(), 0, "low", 0, file.length(), false);
+        }
+        return new Entry(id, folder, file.lastModified(), message.getTimestamp(),
+                message.getPriority(), message.getTtl(), file.length(), true);
+    }
+
+    private static String saveRecord(Entry entry) {
+        return RECORD_SAVE + "\t" + entry.folder + "\t" + entry.id + "\t" + entry.savedAt
+                + "\t" + entry.timestamp + "\t" + entry.priority + "\t" + entry.ttl
+                + "\t" + entry.size + "\t" + (entry.valid ? "1" : "0");
+    }
+
+    private void appendRecord(String record) {
+        try (FileWriter writer = new FileWriter(indexFile, true)) {
+            writer.write(record);
+            writer.write("\n");
+            journalRecords++;
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing relay index: " + e.getMessage());
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Rewrite the journal with one record per live entry once it has grown
+     * well beyond the live set.
+     */
+    private void compactIfNeeded() {
+        int live = 0;
+        for (Map<String, Entry> entries : folders.values()) {
+            live += entries.size();
+        }
+        if (journalRecords - live < COMPACT_SLACK) {
+            return;
+        }
+
+        File tmp = new File(relayDir, INDEX_FILENAME + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            for (Map<String, Entry> entries : folders.values()) {
+                for (Entry entry : entries.values()) {
+                    writer.write(saveRecord(entry));
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error compacting relay index: " + e.getMessage());
+            return;
+        }
+
+        if (!tmp.renameTo(indexFile)) {
+            Log.e(TAG, "Failed to replace relay index after compaction");
+            return;
+        }
+        journalRecords = live;
+        Log.d(TAG, "Compacted relay index to " + live + " records");
+    }
+}
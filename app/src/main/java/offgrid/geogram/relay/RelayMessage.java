@@ -7,6 +7,7 @@ import org.json.JSONArray;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -19,8 +20,11 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import offgrid.geogram.util.nostr.Bech32;
+import offgrid.geogram.util.nostr.Bech32Prefix;
 import offgrid.geogram.util.nostr.NostrUtil;
 import offgrid.geogram.util.nostr.PublicKey;
+import offgrid.geogram.util.nostr.Schnorr;
 
 /**
  * Relay message data model.
@@ -37,7 +41,11 @@ import offgrid.geogram.util.nostr.PublicKey;
  * --> type: private
  * --> priority: normal
  * --> ttl: 604800
+ * --> created-at: 1762785000
  * --> signature: abc123...
+ *
+ * created-at is the timestamp in Unix seconds (UTC). It is what gets signed,
+ * since the header carries the writer's local time.
  */
 public class RelayMessage {
 
@@ -80,6 +88,7 @@ public class RelayMessage {
     private long receivedAt;        // When this relay received it
     private String receivedVia;     // bluetooth, internet, lora, etc.
     private boolean delivered;      // Has it been delivered to destination?
+    private boolean unverified;     // Arrived without a signature, never relayed further
 
     public RelayMessage() {
         this.relayPath = new ArrayList<>();
@@ -273,6 +282,17 @@ public class RelayMessage {
             case "priority":
                 this.priority = value;
                 break;
+            case "created-at":
+                // Unambiguous across time zones, takes precedence over the header
+                try {
+                    this.timestamp = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Invalid created-at: " + value);
+                }
+                break;
+            case "unverified":
+                this.unverified = "true".equals(value);
+                break;
             case "ttl":
                 try {
                     this.ttl = Long.parseLong(value);
@@ -341,6 +361,7 @@ public class RelayMessage {
         sb.append("--> type: ").append(type).append("\n");
         sb.append("--> priority: ").append(priority).append("\n");
         sb.append("--> ttl: ").append(ttl).append("\n");
+        sb.append("--> created-at: ").append(timestamp).append("\n");
 
         if (fromNpub != null) {
             sb.append("--> from-npub: ").append(fromNpub).append("\n");
@@ -357,6 +378,9 @@ public class RelayMessage {
         if (receivedVia != null) {
             sb.append("--> received-via: ").append(receivedVia).append("\n");
         }
+        if (unverified) {
+            sb.append("--> unverified: true\n");
+        }
 
         // Custom fields
         for (Map.Entry<String, String> entry : customFields.entrySet()) {
@@ -455,6 +479,132 @@ public class RelayMessage {
         }
     }
 
+    /**
+     * Hash covered by the message signature.
+     *
+     * Format: [0, pubkey, created_at, kind, tags, content], with the ID,
+     * callsigns, subject, thread fields, type, priority, TTL and recipient
+     * npub as tags, plus one tag per attachment holding the SHA-256 of its
+     * data, so a relay can't swap the payload and keep the checksum line.
+     * created_at is the Unix timestamp carried by the created-at line, so a
+     * relay can't re-date the message to extend its TTL or replay it.
+     *
+     * @return 32-byte SHA-256, or null if the sender's npub is missing or invalid
+     */
+    public byte[] getSignedHash() {
+        byte[] pubKey = getSenderPublicKey();
+        if (pubKey == null) {
+            return null;
+        }
+        try {
+            JSONArray tags = new JSONArray();
+            // Parsing trims every field, so sign what the receiver will see
+            tags.put(new JSONArray().put("id").put(trimmed(id)));
+            tags.put(new JSONArray().put("from").put(trimmed(fromCallsign)));
+            tags.put(new JSONArray().put("to").put(trimmed(toCallsign)));
+            if (!trimmed(subject).isEmpty()) {
+                tags.put(new JSONArray().put("subject").put(trimmed(subject)));
+            }
+            if (!trimmed(threadId).isEmpty()) {
+                tags.put(new JSONArray().put("thread-id").put(trimmed(threadId)));
+            }
+            if (!trimmed(inReplyTo).isEmpty()) {
+                tags.put(new JSONArray().put("in-reply-to").put(trimmed(inReplyTo)));
+            }
+            tags.put(new JSONArray().put("type").put(trimmed(type)));
+            tags.put(new JSONArray().put("priority").put(String.valueOf(priority).trim()));
+            tags.put(new JSONArray().put("ttl").put(Long.toString(ttl)));
+            if (!trimmed(toNpub).isEmpty()) {
+                tags.put(new JSONArray().put("to-npub").put(trimmed(toNpub)));
+            }
+            for (RelayAttachment attachment : attachments) {
+                byte[] data = attachment.getData() != null ? attachment.getData() : new byte[0];
+                tags.put(new JSONArray().put("attachment")
+                        .put(NostrUtil.bytesToHex(NostrUtil.sha256(data)))
+                        .put(trimmed(attachment.getMimeType()))
+                        .put(trimmed(attachment.getFilename())));
+            }
+
+            JSONArray eventData = new JSONArray();
+            eventData.put(0);
+            eventData.put(NostrUtil.bytesToHex(pubKey));
+            eventData.put(timestamp);
+            eventData.put(30078); // Kind for relay messages
+            eventData.put(tags);
+            eventData.put(trimmed(content));
+
+            return NostrUtil.sha256(eventData.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            Log.e(TAG, "Error hashing message " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String trimmed(String value) {
+        return value != null ? value.trim() : "";
+    }
+
+    /**
+     * Get the sender's x-only public key from the from-npub field.
+     *
+     * @return 32 bytes, or null if there is no npub or it can't be decoded
+     */
+    public byte[] getSenderPublicKey() {
+        if (fromNpub == null || fromNpub.isEmpty()) {
+            return null;
+        }
+        try {
+            String hex = fromNpub.startsWith("npub") ? Bech32.fromBech32(fromNpub) : fromNpub;
+            byte[] key = NostrUtil.hexToBytes(hex);
+            return key.length == 32 ? key : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sign the message with a private key, setting from-npub to its public key.
+     *
+     * @param privateKey 32-byte secp256k1 private key
+     * @return true if signed
+     */
+    public boolean sign(byte[] privateKey) {
+        try {
+            byte[] pubKey = Schnorr.genPubKey(privateKey);
+            this.fromNpub = Bech32.toBech32(Bech32Prefix.NPUB, pubKey);
+            byte[] hash = getSignedHash();
+            if (hash == null) {
+                return false;
+            }
+            byte[] sig = Schnorr.sign(hash, privateKey, NostrUtil.createRandomByteArray(32));
+            this.signature = NostrUtil.bytesToHex(sig);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error signing message " + id + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Sign the message with the user's nsec, as stored in the settings.
+     *
+     * @param nsec bech32 nsec or 64-char hex private key
+     * @return true if signed
+     */
+    public boolean sign(String nsec) {
+        if (nsec == null || nsec.isEmpty()) {
+            return false;
+        }
+        try {
+            String hex = nsec.startsWith("nsec") ? Bech32.fromBech32(nsec) : nsec;
+            byte[] privateKey = NostrUtil.hexToBytes(hex);
+            return privateKey.length == 32 && sign(privateKey);
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid private key for message " + id + ": " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Check if message has expired based on TTL.
      */
@@ -758,6 +908,14 @@ public class RelayMessage {
         this.delivered = delivered;
     }
 
+    public boolean isUnverified() {
+        return unverified;
+    }
+
+    public void setUnverified(boolean unverified) {
+        this.unverified = unverified;
+    }
+
     public void setCustomField(String key, String value) {
         this.customFields.put(key, value);
     }
@@ -2,19 +2,34 @@ package offgrid.geogram.relay;
 
 import android.content.Context;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -38,8 +53,29 @@ import offgrid.geogram.wifi.WiFiDiscoveryService;
  * - INV:<msg-id1>,<msg-id2>,... - Inventory list
  * - REQ:<msg-id> - Request specific message
  * - MSG:<relay-message-markdown> - Relay message content
+ * - VER:<n> - Announce supported sync protocol version
+ * - BLM:<base64-bloom-filter> - Summary of every message ID the sender holds (version 2)
  *
- * WiFi uses HTTP API endpoints instead of BLE messages.
+ * Set reconciliation (version 2): instead of a capped ID list, a peer sends a
+ * Bloom filter of everything it already has. The receiver answers with INV:
+ * listing only its outbox IDs missing from that filter, followed by its own
+ * filter if it hasn't sent one recently, so both directions are resolved in
+ * one round trip regardless of outbox size. Peers that never announced
+ * version 2 keep getting the legacy INV: list.
+ *
+ * Message transfer is pipelined: missing IDs from an inventory are queued per
+ * peer and a window of outstanding REQ:s is kept full, refilled as each MSG:
+ * arrives. The window grows while messages keep arriving and halves when a
+ * request times out, bounded by per-link limits (BLE vs WiFi).
+ *
+ * WiFi uses HTTP API endpoints instead of BLE messages. Peers that speak
+ * version 3 receive requested messages in batches over a single streamed
+ * POST to /api/relay/sync/messages (NDJSON, gzip for larger batches) and
+ * answer with one ack line per message.
+ *
+ * Signed incoming messages are checked against their from-npub before being
+ * stored (see RelaySignatureVerifier), a bulk batch at a time; messages with a
+ * bad signature are acked as invalid and never relayed further.
  */
 public class RelayMessageSync {
 
@@ -49,6 +85,18 @@ public class RelayMessageSync {
     private static final String CMD_INVENTORY = "INV:";
     private static final String CMD_REQUEST = "REQ:";
     private static final String CMD_MESSAGE = "MSG:";
+    private static final String CMD_VERSION = "VER:";
+    private static final String CMD_BLOOM = "BLM:";
+
+    // Sync protocol versions
+    private static final int PROTOCOL_VERSION_LEGACY = 1;
+    private static final int PROTOCOL_VERSION_RECONCILE = 2;
+    private static final int PROTOCOL_VERSION_BULK = 3;
+    private static final int PROTOCOL_VERSION = PROTOCOL_VERSION_BULK;
+
+    // Bloom filter size caps (a BLE message is limited to 99 parcels)
+    private static final int BLE_MAX_BLOOM_BYTES = 2048;
+    private static final int WIFI_MAX_BLOOM_BYTES = 64 * 1024;
 
     // WiFi HTTP API
     private static final int WIFI_API_PORT = 45678;
@@ -57,9 +105,31 @@ public class RelayMessageSync {
 
     // Sync state
     private static final int MAX_INVENTORY_SIZE = 50; // Max message IDs per inventory
-    private static final int MAX_REQUEST_BATCH = 5;   // Max concurrent requests
     private static final long SYNC_INTERVAL_MS = 30000; // 30 seconds
 
+    // Pipelined transfer: outstanding request window per peer, per link type
+    private static final int BLE_INITIAL_WINDOW = 4;
+    private static final int BLE_MAX_WINDOW = 8;
+    private static final int WIFI_INITIAL_WINDOW = 8;
+    private static final int WIFI_MAX_WINDOW = 32;
+    private static final int MIN_WINDOW = 1;
+    private static final long BLE_REQUEST_TIMEOUT_MS = 20000;  // 20 seconds
+    private static final long WIFI_REQUEST_TIMEOUT_MS = 5000;  // 5 seconds
+
+    // Bulk WiFi transfer
+    private static final String BULK_ENDPOINT = "/api/relay/sync/messages";
+    private static final long BULK_COALESCE_MS = 100;      // Wait for more requests before sending
+    private static final int BULK_MAX_MESSAGES = 64;       // Messages per bulk request
+    private static final int BULK_GZIP_THRESHOLD = 1024;   // Compress batches larger than this
+    private static final int WIFI_BULK_TIMEOUT_MS = 30000; // 30 second timeout for bulk transfer
+
+    // Bulk ack statuses
+    public static final String STATUS_STORED = "stored";
+    public static final String STATUS_DUPLICATE = "duplicate";
+    public static final String STATUS_REJECTED = "rejected";
+    public static final String STATUS_INVALID = "invalid";
+    public static final String STATUS_ERROR = "error";
+
     private final Context context;
     private final RelayStorage storage;
     private final RelaySettings settings;
@@ -69,13 +139,29 @@ public class RelayMessageSync {
     // Executor for async WiFi HTTP requests
     private final ExecutorService wifiExecutor = Executors.newFixedThreadPool(3);
 
+    // Coalesces WiFi message requests into bulk transfers and expires
+    // unanswered pipeline requests
+    private final ScheduledExecutorService bulkScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, List<RelayMessage>> pendingBulk = new HashMap<>();
+
     // Track sync sessions with remote devices
-    private final Map<String, SyncSession> activeSessions = new HashMap<>();
+    private final Map<String, SyncSession> activeSessions = new ConcurrentHashMap<>();
 
     // Track recently sent/received to avoid duplicates
-    private final Set<String> recentlyProcessed = new HashSet<>();
+    private final Set<String> recentlyProcessed = ConcurrentHashMap.newKeySet();
     private static final int MAX_RECENT_SIZE = 100;
 
+    // Sync protocol version announced by each peer (absent = legacy)
+    private final Map<String, Integer> peerVersions = new ConcurrentHashMap<>();
+
+    // Peers we have already announced our protocol version to
+    private final Set<String> versionAnnounced = ConcurrentHashMap.newKeySet();
+
+    private final Random random = new Random();
+
+    // Signature checks on ingest, cached per message ID
+    private final RelaySignatureVerifier signatures = new RelaySignatureVerifier();
+
     // Singleton instance
     private static RelayMessageSync instance;
 
@@ -94,6 +180,21 @@ public class RelayMessageSync {
         return instance;
     }
 
+    /**
+     * Check if a BLE message body is a relay sync protocol command.
+     *
+     * @param content Message body
+     * @return true for INV:, REQ:, MSG:, VER: and BLM: messages
+     */
+    public static boolean isRelayCommand(String content) {
+        return content != null && (
+                content.startsWith(CMD_INVENTORY) ||
+                content.startsWith(CMD_REQUEST) ||
+                content.startsWith(CMD_MESSAGE) ||
+                content.startsWith(CMD_VERSION) ||
+                content.startsWith(CMD_BLOOM));
+    }
+
     /**
      * Start sync session with a remote device.
      * Prefers WiFi over BLE for faster, more reliable transfer.
@@ -145,8 +246,13 @@ public class RelayMessageSync {
             session.lastSyncAttempt = System.currentTimeMillis();
             session.useWiFi = false;
 
-            // Send inventory via BLE
-            sendInventory(remoteDeviceId);
+            // Send filter summary to peers that understand it, legacy inventory otherwise
+            if (supportsReconciliation(remoteDeviceId)) {
+                sendBloomSummary(remoteDeviceId);
+            } else {
+                sendInventory(remoteDeviceId);
+                announceVersion(remoteDeviceId);
+            }
         } else {
             // No connection available
             Log.w(TAG, "No WiFi or BLE connection available for " + remoteDeviceId + ", skipping sync");
@@ -160,24 +266,17 @@ public class RelayMessageSync {
      */
     private void sendInventory(String remoteDeviceId) {
         // Get messages from outbox (messages to be relayed)
-        List<String> outboxIds = storage.listMessages("outbox");
+        int outboxCount = storage.getMessageCount("outbox");
 
         Log.i(TAG, "Sending inventory to " + remoteDeviceId);
-        Log.i(TAG, "Outbox contains " + outboxIds.size() + " messages");
-
-        // Filter out messages that can't be parsed - prevents sync from getting stuck
-        List<String> validIds = new ArrayList<>();
-        for (String messageId : outboxIds) {
-            RelayMessage msg = storage.getMessage(messageId, "outbox");
-            if (msg != null) {
-                validIds.add(messageId);
-            } else {
-                Log.w(TAG, "⚠ Skipping unparsable message from inventory: " + messageId);
-            }
-        }
+        Log.i(TAG, "Outbox contains " + outboxCount + " messages");
+
+        // Filter out messages that can't be parsed - prevents sync from getting stuck.
+        // Validity is recorded in the storage index when a message is saved.
+        List<String> validIds = storage.listValidMessages("outbox");
 
-        if (validIds.size() < outboxIds.size()) {
-            Log.w(TAG, "Filtered out " + (outboxIds.size() - validIds.size()) + " unparsable messages from inventory");
+        if (validIds.size() < outboxCount) {
+            Log.w(TAG, "Filtered out " + (outboxCount - validIds.size()) + " unparsable messages from inventory");
         }
 
         if (validIds.isEmpty()) {
@@ -224,7 +323,9 @@ public class RelayMessageSync {
         String sender = message.getIdFromSender();
         String msgType = (content.startsWith(CMD_INVENTORY) ? "INVENTORY" :
                          content.startsWith(CMD_REQUEST) ? "REQUEST" :
-                         content.startsWith(CMD_MESSAGE) ? "MESSAGE" : "UNKNOWN");
+                         content.startsWith(CMD_MESSAGE) ? "MESSAGE" :
+                         content.startsWith(CMD_VERSION) ? "VERSION" :
+                         content.startsWith(CMD_BLOOM) ? "BLOOM" : "UNKNOWN");
 
         Log.i(TAG, "=== RELAY MESSAGE RECEIVED ===");
         Log.i(TAG, "From: " + sender);
@@ -238,6 +339,10 @@ public class RelayMessageSync {
             handleRequest(sender, content.substring(CMD_REQUEST.length()));
         } else if (content.startsWith(CMD_MESSAGE)) {
             handleRelayMessage(sender, content.substring(CMD_MESSAGE.length()));
+        } else if (content.startsWith(CMD_VERSION)) {
+            handleVersion(sender, content.substring(CMD_VERSION.length()));
+        } else if (content.startsWith(CMD_BLOOM)) {
+            handleBloomCommon(sender, content.substring(CMD_BLOOM.length()), false);
         } else {
             Log.w(TAG, "Unknown relay protocol message");
         }
@@ -255,6 +360,168 @@ public class RelayMessageSync {
         handleInventoryCommon(remoteDeviceId, inventoryData, false);
     }
 
+    // ========== SET RECONCILIATION (protocol version 2) ==========
+
+    /**
+     * Check if a peer has announced support for filter-based reconciliation.
+     */
+    private boolean supportsReconciliation(String remoteDeviceId) {
+        Integer version = peerVersions.get(remoteDeviceId);
+        return version != null && version >= PROTOCOL_VERSION_RECONCILE;
+    }
+
+    /**
+     * Record the protocol version a peer supports.
+     */
+    private void recordPeerVersion(String remoteDeviceId, int version) {
+        Integer previous = peerVersions.put(remoteDeviceId, version);
+        if (previous == null || previous != version) {
+            Log.i(TAG, "Peer " + remoteDeviceId + " speaks relay sync version " + version);
+        }
+    }
+
+    /**
+     * Tell a peer which sync protocol version we support (BLE).
+     * Legacy peers log it as an unknown command and ignore it.
+     */
+    private void announceVersion(String remoteDeviceId) {
+        versionAnnounced.add(remoteDeviceId);
+        sendBluetoothMessage(remoteDeviceId, CMD_VERSION + PROTOCOL_VERSION);
+    }
+
+    /**
+     * Handle a version announcement from a peer (BLE).
+     * Answers once so both sides learn each other's version.
+     */
+    private void handleVersion(String remoteDeviceId, String data) {
+        int version;
+        try {
+            version = Integer.parseInt(data.trim());
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid version announcement: " + data);
+            return;
+        }
+        recordPeerVersion(remoteDeviceId, version);
+
+        if (!versionAnnounced.contains(remoteDeviceId)) {
+            announceVersion(remoteDeviceId);
+        }
+    }
+
+    /**
+     * Build a Bloom filter of every message ID we hold (inbox, outbox, sent,
+     * plus anything processed recently), using a fresh seed.
+     */
+    private RelayBloomFilter buildHaveFilter(int maxBytes) {
+        Set<String> have = new HashSet<>();
+        have.addAll(storage.listMessages("inbox"));
+        have.addAll(storage.listMessages("outbox"));
+        have.addAll(storage.listMessages("sent"));
+        have.addAll(recentlyProcessed);
+        return RelayBloomFilter.of(have, maxBytes, random.nextInt());
+    }
+
+    /**
+     * Send our filter summary to a peer over BLE.
+     */
+    private void sendBloomSummary(String remoteDeviceId) {
+        RelayBloomFilter filter = buildHaveFilter(BLE_MAX_BLOOM_BYTES);
+        getOrCreateSession(remoteDeviceId).lastBloomSent = System.currentTimeMillis();
+        sendBluetoothMessage(remoteDeviceId, CMD_BLOOM + filter.encode());
+        Log.i(TAG, "✓ Sent filter summary (" + filter.getCount() + " IDs, "
+                + filter.getSizeBytes() + " bytes) to " + remoteDeviceId);
+    }
+
+    /**
+     * Our valid outbox IDs that the peer's filter says it does not have.
+     */
+    private List<String> computeMissingForPeer(RelayBloomFilter peerFilter) {
+        List<String> missing = new ArrayList<>();
+        for (String messageId : storage.listValidMessages("outbox")) {
+            if (!peerFilter.mightContain(messageId)) {
+                missing.add(messageId);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Whether we should answer a peer's filter with our own.
+     * Skipped when we sent one in the current sync round (e.g. both sides
+     * started syncing at the same time).
+     */
+    private boolean shouldReplyWithFilter(SyncSession session) {
+        return System.currentTimeMillis() - session.lastBloomSent > SYNC_INTERVAL_MS / 2;
+    }
+
+    /**
+     * Handle a filter summary from a peer (shared by BLE and WiFi).
+     * Advertises the outbox messages the peer lacks and, if needed, our own filter.
+     */
+    private void handleBloomCommon(String remoteDeviceId, String encodedFilter, boolean isWiFi) {
+        RelayBloomFilter peerFilter = RelayBloomFilter.decode(encodedFilter);
+        if (peerFilter == null) {
+            Log.w(TAG, "✗ Invalid filter summary from " + remoteDeviceId);
+            return;
+        }
+        recordPeerVersion(remoteDeviceId, Math.max(PROTOCOL_VERSION_RECONCILE,
+                peerVersions.getOrDefault(remoteDeviceId, PROTOCOL_VERSION_LEGACY)));
+
+        List<String> missing = computeMissingForPeer(peerFilter);
+        Log.i(TAG, "Peer " + remoteDeviceId + " holds ~" + peerFilter.getCount()
+                + " messages and is missing " + missing.size() + " of ours");
+
+        SyncSession session = getOrCreateSession(remoteDeviceId);
+        boolean replyWithFilter = shouldReplyWithFilter(session);
+
+        if (isWiFi) {
+            String wifiIp = resolveWiFiIp(remoteDeviceId);
+            if (wifiIp == null) {
+                Log.w(TAG, "✗ No WiFi address for " + remoteDeviceId + ", answering over BLE");
+            } else {
+                String ownFilter = null;
+                if (replyWithFilter) {
+                    ownFilter = buildHaveFilter(WIFI_MAX_BLOOM_BYTES).encode();
+                    session.lastBloomSent = System.currentTimeMillis();
+                }
+                String inventoryData = String.join(",", missing);
+                String filterData = ownFilter;
+                wifiExecutor.execute(() -> {
+                    try {
+                        sendWiFiHttpPost(wifiIp, "/api/relay/sync/inventory",
+                                createInventoryJson(inventoryData, filterData));
+                        Log.i(TAG, "✓ Sent WiFi reconciliation reply with " + missing.size() + " IDs");
+                    } catch (Exception e) {
+                        Log.w(TAG, "✗ WiFi reconciliation reply failed: " + e.getMessage());
+                    }
+                });
+                return;
+            }
+        }
+
+        // BLE: advertise the difference in inventory-sized chunks
+        for (int start = 0; start < missing.size(); start += MAX_INVENTORY_SIZE) {
+            List<String> chunk = missing.subList(start, Math.min(missing.size(), start + MAX_INVENTORY_SIZE));
+            sendBluetoothMessage(remoteDeviceId, CMD_INVENTORY + String.join(",", chunk));
+        }
+
+        if (replyWithFilter) {
+            sendBloomSummary(remoteDeviceId);
+        }
+    }
+
+    /**
+     * Find the WiFi address of a peer, from its session or from discovery.
+     */
+    private String resolveWiFiIp(String remoteDeviceId) {
+        SyncSession session = activeSessions.get(remoteDeviceId);
+        if (session != null && session.useWiFi && session.wifiIp != null) {
+            return session.wifiIp;
+        }
+        String wifiIp = wifiDiscovery.getDeviceIp(remoteDeviceId);
+        return (wifiIp != null && !wifiIp.isEmpty()) ? wifiIp : null;
+    }
+
     /**
      * Request a specific message from remote device.
      */
@@ -282,6 +549,12 @@ public class RelayMessageSync {
 
         Log.i(TAG, "Found message - from: " + message.getFromCallsign() + " to: " + message.getToCallsign());
 
+        // Unsigned messages are delivered locally but never relayed further
+        if (message.isUnverified()) {
+            Log.w(TAG, "✗ Message " + messageId + " is unverified, not relaying it");
+            return;
+        }
+
         // Check if message should be sent based on settings
         if (!message.shouldAccept(settings)) {
             Log.w(TAG, "✗ Message rejected by relay settings");
@@ -311,6 +584,7 @@ public class RelayMessageSync {
         // Send via BLE
         sendBluetoothMessage(remoteDeviceId, content);
         Log.i(TAG, "✓ Sent relay message to " + remoteDeviceId);
+        recordMessageSent(remoteDeviceId, content.length());
 
         // Mark as recently processed
         addToRecentlyProcessed(message.getId());
@@ -389,12 +663,7 @@ public class RelayMessageSync {
      * Get or create sync session for remote device.
      */
     private SyncSession getOrCreateSession(String remoteDeviceId) {
-        SyncSession session = activeSessions.get(remoteDeviceId);
-        if (session == null) {
-            session = new SyncSession(remoteDeviceId);
-            activeSessions.put(remoteDeviceId, session);
-        }
-        return session;
+        return activeSessions.computeIfAbsent(remoteDeviceId, SyncSession::new);
     }
 
     /**
@@ -434,7 +703,8 @@ public class RelayMessageSync {
 
         for (Map.Entry<String, SyncSession> entry : activeSessions.entrySet()) {
             SyncSession session = entry.getValue();
-            if (now - session.lastSyncAttempt > SYNC_INTERVAL_MS * 3) {
+            long lastActivity = Math.max(session.lastSyncAttempt, session.lastMessageAt);
+            if (now - lastActivity > SYNC_INTERVAL_MS * 3) {
                 toRemove.add(entry.getKey());
             }
         }
@@ -454,9 +724,32 @@ public class RelayMessageSync {
         stats.recentlyProcessed = recentlyProcessed.size();
 
         for (SyncSession session : activeSessions.values()) {
-            stats.totalMessagesSent += session.messagesSent;
-            stats.totalMessagesReceived += session.messagesReceived;
-            stats.totalPendingRequests += session.pendingRequests.size();
+            synchronized (session) {
+                stats.totalMessagesSent += session.messagesSent;
+                stats.totalMessagesReceived += session.messagesReceived;
+                stats.totalPendingRequests += session.pendingRequests.size();
+                stats.totalQueuedRequests += session.requestQueue.size();
+                stats.totalBytesSent += session.bytesSent;
+                stats.totalBytesReceived += session.bytesReceived;
+
+                SessionStats sessionStats = new SessionStats();
+                sessionStats.remoteDeviceId = session.remoteDeviceId;
+                sessionStats.useWiFi = session.useWiFi;
+                sessionStats.window = session.window;
+                sessionStats.outstanding = session.pendingRequests.size();
+                sessionStats.queued = session.requestQueue.size();
+                sessionStats.messagesSent = session.messagesSent;
+                sessionStats.messagesReceived = session.messagesReceived;
+                sessionStats.bytesSent = session.bytesSent;
+                sessionStats.bytesReceived = session.bytesReceived;
+                sessionStats.timeouts = session.timeouts;
+                sessionStats.messagesPerMinute = session.getMessagesPerMinute();
+                sessionStats.bytesPerSecond = session.getBytesPerSecond();
+                stats.sessions.add(sessionStats);
+
+                stats.totalMessagesPerMinute += sessionStats.messagesPerMinute;
+                stats.totalBytesPerSecond += sessionStats.bytesPerSecond;
+            }
         }
 
         return stats;
@@ -471,15 +764,73 @@ public class RelayMessageSync {
         long lastInventoryReceived;
         int messagesSent;
         int messagesReceived;
-        final Set<String> pendingRequests = new HashSet<>();
+        final Set<String> pendingRequests = new HashSet<>(); // Outstanding REQ:s
         boolean useWiFi; // true if using WiFi, false if using BLE
         String wifiIp;   // IP address for WiFi sync
+        long lastBloomSent; // When we last sent our filter summary to this peer
+
+        // Pipelined transfer state
+        final Deque<String> requestQueue = new ArrayDeque<>();   // Missing IDs not yet requested
+        final Map<String, Long> requestSentAt = new HashMap<>(); // Outstanding ID -> request time
+        double window = BLE_INITIAL_WINDOW;
+        boolean pipelineWiFi;    // Link used for the current drain
+        boolean timeoutCheckScheduled; // A request timeout check is pending
+
+        // Throughput counters
+        long bytesSent;
+        long bytesReceived;
+        int timeouts;
+        long drainStartedAt;     // First request of the current drain
+        int drainMessages;       // Messages received in the current drain
+        long drainBytes;         // Bytes received in the current drain
+        long lastMessageAt;      // Last message received
 
         SyncSession(String remoteDeviceId) {
             this.remoteDeviceId = remoteDeviceId;
             this.lastSyncAttempt = System.currentTimeMillis();
             this.useWiFi = false;
         }
+
+        boolean hasPipelineWork() {
+            return !requestQueue.isEmpty() || !pendingRequests.isEmpty();
+        }
+
+        double getMessagesPerMinute() {
+            long elapsed = lastMessageAt - drainStartedAt;
+            return (drainStartedAt > 0 && elapsed > 0) ? drainMessages * 60000.0 / elapsed : 0;
+        }
+
+        double getBytesPerSecond() {
+            long elapsed = lastMessageAt - drainStartedAt;
+            return (drainStartedAt > 0 && elapsed > 0) ? drainBytes * 1000.0 / elapsed : 0;
+        }
+    }
+
+    /**
+     * Per-session transfer statistics.
+     */
+    public static class SessionStats {
+        public String remoteDeviceId;
+        public boolean useWiFi;
+        public double window;
+        public int outstanding;
+        public int queued;
+        public int messagesSent;
+        public int messagesReceived;
+        public long bytesSent;
+        public long bytesReceived;
+        public int timeouts;
+        public double messagesPerMinute; // Drain rate of the current transfer
+        public double bytesPerSecond;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "SessionStats{%s, %s, window=%.1f, outstanding=%d, queued=%d, recv=%d (%d B), sent=%d (%d B), timeouts=%d, %.1f msg/min, %.0f B/s}",
+                    remoteDeviceId, useWiFi ? "wifi" : "ble", window, outstanding, queued,
+                    messagesReceived, bytesReceived, messagesSent, bytesSent, timeouts,
+                    messagesPerMinute, bytesPerSecond);
+        }
     }
 
     /**
@@ -491,6 +842,12 @@ public class RelayMessageSync {
         public int totalMessagesSent;
         public int totalMessagesReceived;
         public int totalPendingRequests;
+        public int totalQueuedRequests;
+        public long totalBytesSent;
+        public long totalBytesReceived;
+        public double totalMessagesPerMinute;
+        public double totalBytesPerSecond;
+        public final List<SessionStats> sessions = new ArrayList<>();
 
         @Override
         public String toString() {
@@ -500,6 +857,10 @@ public class RelayMessageSync {
                     ", messagesSent=" + totalMessagesSent +
                     ", messagesReceived=" + totalMessagesReceived +
                     ", pendingRequests=" + totalPendingRequests +
+                    ", queuedRequests=" + totalQueuedRequests +
+                    ", bytesReceived=" + totalBytesReceived +
+                    String.format(Locale.US, ", drainRate=%.1f msg/min (%.0f B/s)",
+                            totalMessagesPerMinute, totalBytesPerSecond) +
                     '}';
         }
     }
@@ -512,22 +873,26 @@ public class RelayMessageSync {
     private void sendWiFiInventory(String remoteDeviceId, String wifiIp) {
         wifiExecutor.execute(() -> {
             try {
+                // Peers that speak version 2 get a filter summary instead of an ID list
+                if (supportsReconciliation(remoteDeviceId)) {
+                    RelayBloomFilter filter = buildHaveFilter(WIFI_MAX_BLOOM_BYTES);
+                    getOrCreateSession(remoteDeviceId).lastBloomSent = System.currentTimeMillis();
+                    sendWiFiHttpPost(wifiIp, "/api/relay/sync/inventory", createInventoryJson("", filter.encode()));
+                    Log.i(TAG, "✓ Sent WiFi filter summary (" + filter.getCount() + " IDs, "
+                            + filter.getSizeBytes() + " bytes) to " + remoteDeviceId);
+                    return;
+                }
+
                 // Get messages from outbox
-                List<String> outboxIds = storage.listMessages("outbox");
+                int outboxCount = storage.getMessageCount("outbox");
                 Log.i(TAG, "Sending WiFi inventory to " + remoteDeviceId + " (" + wifiIp + ")");
-                Log.i(TAG, "Outbox contains " + outboxIds.size() + " messages");
-
-                // Filter out unparsable messages
-                List<String> validIds = new ArrayList<>();
-                for (String messageId : outboxIds) {
-                    RelayMessage msg = storage.getMessage(messageId, "outbox");
-                    if (msg != null) {
-                        validIds.add(messageId);
-                    }
-                }
+                Log.i(TAG, "Outbox contains " + outboxCount + " messages");
 
-                if (validIds.size() < outboxIds.size()) {
-                    Log.w(TAG, "Filtered out " + (outboxIds.size() - validIds.size()) + " unparsable messages");
+                // Filter out unparsable messages (validity comes from the storage index)
+                List<String> validIds = storage.listValidMessages("outbox");
+
+                if (validIds.size() < outboxCount) {
+                    Log.w(TAG, "Filtered out " + (outboxCount - validIds.size()) + " unparsable messages");
                 }
 
                 // Limit inventory size
@@ -672,9 +1037,21 @@ public class RelayMessageSync {
      * Create JSON payload for inventory
      */
     private JsonObject createInventoryJson(String inventoryData) {
+        return createInventoryJson(inventoryData, null);
+    }
+
+    /**
+     * Create JSON payload for inventory with an optional filter summary.
+     * Always carries our protocol version; legacy peers ignore unknown fields.
+     */
+    private JsonObject createInventoryJson(String inventoryData, String bloomData) {
         JsonObject json = new JsonObject();
         json.addProperty("remoteDeviceId", getDeviceId());
         json.addProperty("inventory", inventoryData);
+        json.addProperty("version", PROTOCOL_VERSION);
+        if (bloomData != null) {
+            json.addProperty("bloom", bloomData);
+        }
         return json;
     }
 
@@ -685,6 +1062,7 @@ public class RelayMessageSync {
         JsonObject json = new JsonObject();
         json.addProperty("remoteDeviceId", getDeviceId());
         json.addProperty("messageId", messageId);
+        json.addProperty("version", PROTOCOL_VERSION);
         return json;
     }
 
@@ -702,21 +1080,61 @@ public class RelayMessageSync {
      * Handle inventory received via WiFi (called by API endpoint)
      */
     public void handleWiFiInventory(String remoteDeviceId, String inventoryData) {
+        handleWiFiInventory(remoteDeviceId, inventoryData, null, PROTOCOL_VERSION_LEGACY);
+    }
+
+    /**
+     * Handle inventory received via WiFi, with optional filter summary and
+     * the sender's protocol version (called by API endpoint)
+     *
+     * @param remoteDeviceId ID of the sending device
+     * @param inventoryData Comma-separated message IDs (may be empty)
+     * @param bloomData Base64 filter summary, or null
+     * @param version Sender's sync protocol version
+     */
+    public void handleWiFiInventory(String remoteDeviceId, String inventoryData, String bloomData, int version) {
         Log.i(TAG, "--- Processing WiFi Inventory ---");
-        Log.i(TAG, "From: " + remoteDeviceId);
+        Log.i(TAG, "From: " + remoteDeviceId + " (protocol v" + version + ")");
+
+        if (version >= PROTOCOL_VERSION_RECONCILE) {
+            recordPeerVersion(remoteDeviceId, version);
+        }
+
+        if (bloomData != null && !bloomData.isEmpty()) {
+            handleBloomCommon(remoteDeviceId, bloomData, true);
+        }
 
         // Reuse the existing inventory handler logic
-        handleInventoryCommon(remoteDeviceId, inventoryData, true);
+        if (inventoryData != null && !inventoryData.trim().isEmpty()) {
+            handleInventoryCommon(remoteDeviceId, inventoryData, true);
+        }
     }
 
     /**
      * Handle message request received via WiFi (called by API endpoint)
      */
     public void handleWiFiRequest(String remoteDeviceId, String messageId) {
+        handleWiFiRequest(remoteDeviceId, messageId, PROTOCOL_VERSION_LEGACY);
+    }
+
+    /**
+     * Handle message request received via WiFi, with the requester's
+     * protocol version (called by API endpoint)
+     */
+    public void handleWiFiRequest(String remoteDeviceId, String messageId, int version) {
         Log.i(TAG, "--- Processing WiFi Request ---");
-        Log.i(TAG, "From: " + remoteDeviceId);
+        Log.i(TAG, "From: " + remoteDeviceId + " (protocol v" + version + ")");
         Log.i(TAG, "Requested message ID: " + messageId);
 
+        if (version > PROTOCOL_VERSION_LEGACY) {
+            recordPeerVersion(remoteDeviceId, version);
+        }
+
+        if (isQueuedForBulk(remoteDeviceId, messageId)) {
+            Log.d(TAG, "Message " + messageId + " already queued for bulk transfer");
+            return;
+        }
+
         // Load message from outbox
         RelayMessage message = storage.getMessage(messageId, "outbox");
         if (message == null) {
@@ -726,6 +1144,12 @@ public class RelayMessageSync {
 
         Log.i(TAG, "Found message - from: " + message.getFromCallsign() + " to: " + message.getToCallsign());
 
+        // Unsigned messages are delivered locally but never relayed further
+        if (message.isUnverified()) {
+            Log.w(TAG, "✗ Message " + messageId + " is unverified, not relaying it");
+            return;
+        }
+
         // Check if message should be sent
         if (!message.shouldAccept(settings)) {
             Log.w(TAG, "✗ Message rejected by relay settings");
@@ -734,11 +1158,17 @@ public class RelayMessageSync {
 
         // Get session to determine connection type
         SyncSession session = activeSessions.get(remoteDeviceId);
-        if (session != null && session.useWiFi && session.wifiIp != null) {
+        Integer peerVersion = peerVersions.get(remoteDeviceId);
+        if (peerVersion != null && peerVersion >= PROTOCOL_VERSION_BULK && resolveWiFiIp(remoteDeviceId) != null) {
+            // Batched with other requests; moved to sent once the peer acks it
+            queueForBulk(remoteDeviceId, message);
+        } else if (session != null && session.useWiFi && session.wifiIp != null) {
             // Send via WiFi
             Log.i(TAG, "→ Sending message via WiFi to " + session.wifiIp);
             sendWiFiRelayMessage(remoteDeviceId, session.wifiIp, message);
 
+            recordMessageSent(remoteDeviceId, message.toMarkdown().length());
+
             // Update message metadata
             message.addRelayNode(getDeviceId());
             message.setReceivedVia("wifi");
@@ -751,6 +1181,368 @@ public class RelayMessageSync {
         }
     }
 
+    // ========== BULK WiFi TRANSFER ==========
+
+    private boolean isQueuedForBulk(String remoteDeviceId, String messageId) {
+        synchronized (pendingBulk) {
+            List<RelayMessage> queued = pendingBulk.get(remoteDeviceId);
+            if (queued == null) {
+                return false;
+            }
+            for (RelayMessage message : queued) {
+                if (messageId.equals(message.getId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Add a requested message to the peer's next bulk transfer.
+     * The first message of a batch schedules the flush, so requests that
+     * arrive together go out in one POST.
+     */
+    private void queueForBulk(String remoteDeviceId, RelayMessage message) {
+        synchronized (pendingBulk) {
+            List<RelayMessage> queued = pendingBulk.get(remoteDeviceId);
+            if (queued == null) {
+                queued = new ArrayList<>();
+                pendingBulk.put(remoteDeviceId, queued);
+                bulkScheduler.schedule(() -> flushBulk(remoteDeviceId), BULK_COALESCE_MS, TimeUnit.MILLISECONDS);
+            }
+            queued.add(message);
+
+            if (queued.size() >= BULK_MAX_MESSAGES) {
+                bulkScheduler.execute(() -> flushBulk(remoteDeviceId));
+            }
+        }
+        Log.i(TAG, "→ Queued message " + message.getId() + " for bulk transfer to " + remoteDeviceId);
+    }
+
+    /**
+     * Send everything queued for a peer as one bulk transfer.
+     */
+    private void flushBulk(String remoteDeviceId) {
+        List<RelayMessage> batch;
+        synchronized (pendingBulk) {
+            batch = pendingBulk.remove(remoteDeviceId);
+        }
+        if (batch == null || batch.isEmpty()) {
+            return;
+        }
+
+        wifiExecutor.execute(() -> {
+            String wifiIp = resolveWiFiIp(remoteDeviceId);
+            Map<String, String> statuses = new HashMap<>();
+            try {
+                if (wifiIp == null) {
+                    throw new IOException("No WiFi address for " + remoteDeviceId);
+                }
+                statuses = sendWiFiRelayMessagesBulk(remoteDeviceId, wifiIp, batch);
+            } catch (BulkNotSupportedException e) {
+                // Peer advertised a version it doesn't implement - use single messages from now on
+                Log.w(TAG, "Peer " + remoteDeviceId + " has no bulk endpoint, sending messages one by one");
+                recordPeerVersion(remoteDeviceId, PROTOCOL_VERSION_RECONCILE);
+                for (RelayMessage message : batch) {
+                    sendWiFiRelayMessage(remoteDeviceId, wifiIp, message);
+                    recordMessageSent(remoteDeviceId, message.toMarkdown().length());
+                    storage.moveMessage(message.getId(), "outbox", "sent");
+                }
+                return;
+            } catch (Exception e) {
+                Log.w(TAG, "✗ WiFi bulk transfer failed (" + e.getMessage() + "), falling back to BLE");
+                if (e instanceof BulkInterruptedException) {
+                    statuses = ((BulkInterruptedException) e).statuses;
+                }
+                SyncSession session = activeSessions.get(remoteDeviceId);
+                if (session != null) {
+                    session.useWiFi = false;
+                    session.wifiIp = null;
+                }
+            }
+
+            // Messages without an ack, or that failed on the peer's side, go over BLE
+            // like single WiFi sends do. Rejected and invalid ones were refused on
+            // purpose and stay in the outbox.
+            for (RelayMessage message : batch) {
+                String status = statuses.get(message.getId());
+                if (status == null || STATUS_ERROR.equals(status)) {
+                    sendRelayMessage(remoteDeviceId, message);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stream a batch of messages to a peer in one POST and read the per-message acks.
+     *
+     * Request body (NDJSON, gzip when larger than BULK_GZIP_THRESHOLD):
+     * {"remoteDeviceId":"...","version":3,"count":n}
+     * {"id":"...","markdown":"..."}
+     * ...
+     *
+     * Response body (NDJSON): one {"id":"...","status":"..."} line per message,
+     * then {"done":true,...}.
+     *
+     * Messages the peer stored or already had are moved to sent, including
+     * when the response breaks off after their acks.
+     *
+     * @return Ack status per message ID, for the messages the peer answered
+     * @throws BulkInterruptedException when the response broke off, with the acks read until then
+     */
+    private Map<String, String> sendWiFiRelayMessagesBulk(String remoteDeviceId, String wifiIp,
+                                                           List<RelayMessage> batch) throws IOException {
+        String urlString = "http://" + wifiIp + ":" + WIFI_API_PORT + BULK_ENDPOINT;
+        Map<String, String> statuses = new HashMap<>();
+        Set<String> acked = new HashSet<>();
+        Exception readFailure = null;
+
+        // Serialize up front to decide on compression
+        List<String> lines = new ArrayList<>();
+        long totalBytes = 0;
+        for (RelayMessage message : batch) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("id", message.getId());
+            entry.addProperty("markdown", message.toMarkdown());
+            String line = gson.toJson(entry);
+            lines.add(line);
+            totalBytes += line.length();
+        }
+        boolean gzip = totalBytes > BULK_GZIP_THRESHOLD;
+
+        Log.i(TAG, "→ Sending bulk transfer of " + batch.size() + " messages (" + totalBytes
+                + " bytes" + (gzip ? ", gzip" : "") + ") to " + remoteDeviceId);
+
+        HttpURLConnection conn = null;
+        try {
+            URL url = new URL(urlString);
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/x-ndjson");
+            if (gzip) {
+                conn.setRequestProperty("Content-Encoding", "gzip");
+            }
+            conn.setConnectTimeout(WIFI_TIMEOUT_MS);
+            conn.setReadTimeout(WIFI_BULK_TIMEOUT_MS);
+            conn.setDoOutput(true);
+            conn.setChunkedStreamingMode(0);
+
+            OutputStream raw = conn.getOutputStream();
+            OutputStream body = gzip ? new GZIPOutputStream(raw) : raw;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8))) {
+                JsonObject header = new JsonObject();
+                header.addProperty("remoteDeviceId", getDeviceId());
+                header.addProperty("version", PROTOCOL_VERSION);
+                header.addProperty("count", batch.size());
+                writer.write(gson.toJson(header));
+                writer.write("\n");
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write("\n");
+                }
+            }
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode == 404) {
+                throw new BulkNotSupportedException();
+            }
+            if (responseCode != 200) {
+                throw new IOException("HTTP " + responseCode + " from " + wifiIp);
+            }
+
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) continue;
+                    JsonObject ack = gson.fromJson(line, JsonObject.class);
+                    if (ack == null || !ack.has("id") || !ack.has("status")) continue;
+
+                    String messageId = ack.get("id").getAsString();
+                    String status = ack.get("status").getAsString();
+                    statuses.put(messageId, status);
+                    if (STATUS_STORED.equals(status) || STATUS_DUPLICATE.equals(status)) {
+                        acked.add(messageId);
+                    } else {
+                        Log.w(TAG, "Peer did not accept " + messageId + ": " + status);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // Broken off or truncated mid-response: keep the acks read so far
+                readFailure = e;
+            }
+        } catch (java.net.ConnectException e) {
+            throw new IOException("Device offline or unreachable: " + wifiIp, e);
+        } catch (java.net.SocketTimeoutException e) {
+            throw new IOException("Connection timeout: " + wifiIp, e);
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+
+        // Peer has these now - update metadata and move them to sent
+        for (RelayMessage message : batch) {
+            if (acked.contains(message.getId())) {
+                recordMessageSent(remoteDeviceId, message.toMarkdown().length());
+                addToRecentlyProcessed(message.getId());
+                storage.moveMessage(message.getId(), "outbox", "sent");
+            }
+        }
+        if (readFailure != null) {
+            throw new BulkInterruptedException(statuses, readFailure);
+        }
+        Log.i(TAG, "✓ Bulk transfer to " + remoteDeviceId + ": " + acked.size() + "/" + batch.size() + " acked");
+        return statuses;
+    }
+
+    /**
+     * Thrown when a bulk response breaks off after some acks were read.
+     */
+    private static class BulkInterruptedException extends IOException {
+        final Map<String, String> statuses;
+
+        BulkInterruptedException(Map<String, String> statuses, Exception cause) {
+            super("Bulk response interrupted after " + statuses.size() + " acks: " + cause.getMessage(), cause);
+            this.statuses = statuses;
+        }
+    }
+
+    /**
+     * Thrown when a peer answers the bulk endpoint with 404.
+     */
+    private static class BulkNotSupportedException extends IOException {
+        BulkNotSupportedException() {
+            super("Bulk endpoint not supported");
+        }
+    }
+
+    /**
+     * Process a bulk transfer stream from a peer (called by API endpoint).
+     * Entries are parsed as they are read and handled in batches of up to
+     * BULK_MAX_MESSAGES, whose signatures are verified together; an ack line
+     * is written for each entry after its batch, so the body is never
+     * buffered whole.
+     *
+     * @param in Decompressed NDJSON request body
+     * @param ackOut Response stream for NDJSON ack lines
+     * @return Number of messages processed
+     */
+    public int handleWiFiRelayMessageStream(InputStream in, OutputStream ackOut) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(ackOut, StandardCharsets.UTF_8));
+
+        String headerLine = reader.readLine();
+        JsonObject header = headerLine != null ? gson.fromJson(headerLine, JsonObject.class) : null;
+        if (header == null || !header.has("remoteDeviceId")) {
+            throw new IOException("Missing bulk header line");
+        }
+        String remoteDeviceId = header.get("remoteDeviceId").getAsString();
+        if (header.has("version")) {
+            recordPeerVersion(remoteDeviceId, header.get("version").getAsInt());
+        }
+
+        Log.i(TAG, "--- Processing WiFi Bulk Transfer ---");
+        Log.i(TAG, "From: " + remoteDeviceId + (header.has("count")
+                ? " (" + header.get("count").getAsInt() + " messages announced)" : ""));
+
+        int processed = 0;
+        int stored = 0;
+        List<BulkEntry> batch = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+
+            BulkEntry bulkEntry = new BulkEntry();
+            try {
+                JsonObject entry = gson.fromJson(line, JsonObject.class);
+                bulkEntry.id = entry.has("id") ? entry.get("id").getAsString() : null;
+                if (entry.has("markdown")) {
+                    String markdown = entry.get("markdown").getAsString();
+                    bulkEntry.size = markdown.length();
+                    bulkEntry.message = RelayMessage.parseMarkdown(markdown);
+                    if (bulkEntry.message == null) {
+                        Log.e(TAG, "✗ Failed to parse relay message markdown");
+                        bulkEntry.status = STATUS_INVALID;
+                    }
+                } else {
+                    bulkEntry.status = STATUS_INVALID;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "✗ Bad bulk entry: " + e.getMessage());
+                bulkEntry.status = STATUS_ERROR;
+            }
+            batch.add(bulkEntry);
+
+            // Verify signatures a batch at a time, acks follow each batch
+            if (batch.size() >= BULK_MAX_MESSAGES) {
+                stored += ingestBulkBatch(remoteDeviceId, batch, writer);
+                processed += batch.size();
+                batch.clear();
+            }
+        }
+        stored += ingestBulkBatch(remoteDeviceId, batch, writer);
+        processed += batch.size();
+
+        JsonObject done = new JsonObject();
+        done.addProperty("done", true);
+        done.addProperty("received", processed);
+        done.addProperty("stored", stored);
+        writer.write(gson.toJson(done));
+        writer.write("\n");
+        writer.flush();
+
+        Log.i(TAG, "✓ Bulk transfer from " + remoteDeviceId + ": " + stored + "/" + processed + " stored");
+        return processed;
+    }
+
+    /** One entry of a bulk transfer stream, waiting for its batch to be verified. */
+    private static class BulkEntry {
+        String id;
+        RelayMessage message;
+        int size;
+        String status;
+    }
+
+    /**
+     * Verify the signatures of a batch of bulk entries together, then store
+     * the messages and write an ack line for each entry.
+     *
+     * @return Number of messages stored
+     */
+    private int ingestBulkBatch(String remoteDeviceId, List<BulkEntry> batch, Writer writer) throws IOException {
+        List<RelayMessage> parsed = new ArrayList<>();
+        for (BulkEntry entry : batch) {
+            if (entry.message != null) {
+                parsed.add(entry.message);
+            }
+        }
+        RelaySignatureVerifier.Result[] results = signatures.verify(parsed);
+
+        int stored = 0;
+        int next = 0;
+        for (BulkEntry entry : batch) {
+            String status = entry.status;
+            if (entry.message != null) {
+                try {
+                    status = ingestMessage(remoteDeviceId, entry.message, entry.size, "wifi", results[next++]);
+                } catch (Exception e) {
+                    Log.e(TAG, "✗ Error storing bulk entry: " + e.getMessage());
+                    status = STATUS_ERROR;
+                }
+            }
+            if (STATUS_STORED.equals(status)) stored++;
+
+            JsonObject ack = new JsonObject();
+            ack.addProperty("id", entry.id);
+            ack.addProperty("status", status);
+            writer.write(gson.toJson(ack));
+            writer.write("\n");
+        }
+        return stored;
+    }
+
     /**
      * Handle relay message received via WiFi (called by API endpoint)
      */
@@ -803,51 +1595,229 @@ public class RelayMessageSync {
             return;
         }
 
-        // Request missing messages (batch limited)
-        int requestCount = Math.min(missingMessages.size(), MAX_REQUEST_BATCH);
-        Log.i(TAG, "Requesting " + requestCount + " messages");
-
+        // Queue missing messages; the request window drains the queue
         SyncSession session = getOrCreateSession(remoteDeviceId);
+        synchronized (session) {
+            boolean wiFiLink = isWiFi && session.useWiFi && session.wifiIp != null;
+            if (!session.hasPipelineWork()) {
+                // Starting a new drain
+                session.pipelineWiFi = wiFiLink;
+                session.window = wiFiLink ? WIFI_INITIAL_WINDOW : BLE_INITIAL_WINDOW;
+                session.drainStartedAt = 0;
+                session.drainMessages = 0;
+                session.drainBytes = 0;
+            } else if (wiFiLink != session.pipelineWiFi) {
+                session.pipelineWiFi = wiFiLink;
+                session.window = Math.min(session.window, maxWindow(session));
+            }
+
+            int queued = 0;
+            for (String messageId : missingMessages) {
+                if (!session.pendingRequests.contains(messageId) && !session.requestQueue.contains(messageId)) {
+                    session.requestQueue.add(messageId);
+                    queued++;
+                }
+            }
+            session.lastInventoryReceived = System.currentTimeMillis();
+            Log.i(TAG, "Queued " + queued + " messages (queue: " + session.requestQueue.size()
+                    + ", outstanding: " + session.pendingRequests.size() + ")");
+
+            fillRequestWindow(session);
+        }
+    }
+
+    /**
+     * Maximum request window for the session's current link.
+     */
+    private int maxWindow(SyncSession session) {
+        return session.pipelineWiFi ? WIFI_MAX_WINDOW : BLE_MAX_WINDOW;
+    }
 
-        for (int i = 0; i < requestCount; i++) {
-            String messageId = missingMessages.get(i);
-            if (isWiFi && session.useWiFi && session.wifiIp != null) {
-                sendWiFiRequest(remoteDeviceId, session.wifiIp, messageId);
+    /**
+     * Expire timed-out requests and issue new ones until the window is full.
+     * Caller must hold the session lock.
+     */
+    private void fillRequestWindow(SyncSession session) {
+        long now = System.currentTimeMillis();
+        long timeout = session.pipelineWiFi ? WIFI_REQUEST_TIMEOUT_MS : BLE_REQUEST_TIMEOUT_MS;
+
+        // Requests without an answer are dropped (the peer moves a message to
+        // sent once it answers, so re-requesting won't help) and the window shrinks
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : session.requestSentAt.entrySet()) {
+            if (now - entry.getValue() > timeout) {
+                expired.add(entry.getKey());
+            }
+        }
+        if (!expired.isEmpty()) {
+            for (String messageId : expired) {
+                session.requestSentAt.remove(messageId);
+                session.pendingRequests.remove(messageId);
+            }
+            session.timeouts += expired.size();
+            session.window = Math.max(MIN_WINDOW, session.window / 2);
+            Log.w(TAG, expired.size() + " request(s) to " + session.remoteDeviceId
+                    + " timed out, window now " + (int) session.window);
+        }
+
+        while (session.pendingRequests.size() < (int) session.window && !session.requestQueue.isEmpty()) {
+            String messageId = session.requestQueue.poll();
+            if (isRecentlyProcessed(messageId) || storage.hasMessage(messageId)) {
+                continue; // Arrived through another peer meanwhile
+            }
+
+            if (session.drainStartedAt == 0) {
+                session.drainStartedAt = now;
+            }
+            session.pendingRequests.add(messageId);
+            session.requestSentAt.put(messageId, now);
+
+            if (session.pipelineWiFi && session.useWiFi && session.wifiIp != null) {
+                sendWiFiRequest(session.remoteDeviceId, session.wifiIp, messageId);
             } else {
-                requestMessage(remoteDeviceId, messageId);
+                requestMessage(session.remoteDeviceId, messageId);
+            }
+        }
+
+        scheduleTimeoutCheck(session, timeout);
+    }
+
+    /**
+     * Make sure outstanding requests expire even if no inventory or answer
+     * arrives to run fillRequestWindow: check again once the oldest request
+     * can have timed out. Caller must hold the session lock.
+     */
+    private void scheduleTimeoutCheck(SyncSession session, long timeout) {
+        if (session.timeoutCheckScheduled || session.requestSentAt.isEmpty()) {
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (long sentAt : session.requestSentAt.values()) {
+            oldest = Math.min(oldest, sentAt);
+        }
+        long delay = Math.max(0, oldest + timeout - System.currentTimeMillis()) + 1;
+        try {
+            bulkScheduler.schedule(() -> {
+                synchronized (session) {
+                    session.timeoutCheckScheduled = false;
+                    fillRequestWindow(session);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            session.timeoutCheckScheduled = true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Cannot schedule request timeout check: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A requested message arrived (or was answered in some way): update the
+     * throughput counters, grow the window and request more.
+     */
+    private void onRequestAnswered(String remoteDeviceId, String messageId, int bytes) {
+        SyncSession session = activeSessions.get(remoteDeviceId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (!session.pendingRequests.remove(messageId)) {
+                return; // Unsolicited message, not part of the pipeline
+            }
+            session.requestSentAt.remove(messageId);
+
+            long now = System.currentTimeMillis();
+            session.lastMessageAt = now;
+            session.bytesReceived += bytes;
+            session.drainMessages++;
+            session.drainBytes += bytes;
+
+            // Additive increase: about one extra slot per window's worth of answers
+            session.window = Math.min(maxWindow(session), session.window + 1.0 / session.window);
+
+            fillRequestWindow(session);
+
+            if (!session.hasPipelineWork()) {
+                Log.i(TAG, String.format(Locale.US, "✓ Drain from %s complete: %d messages, %.1f msg/min, %.0f B/s",
+                        remoteDeviceId, session.drainMessages,
+                        session.getMessagesPerMinute(), session.getBytesPerSecond()));
             }
         }
+    }
 
-        // Update session
-        session.lastInventoryReceived = System.currentTimeMillis();
-        session.pendingRequests.addAll(missingMessages.subList(0, requestCount));
+    /**
+     * Count a message we sent to a peer.
+     */
+    private void recordMessageSent(String remoteDeviceId, int bytes) {
+        SyncSession session = getOrCreateSession(remoteDeviceId);
+        synchronized (session) {
+            session.messagesSent++;
+            session.bytesSent += bytes;
+        }
     }
 
     /**
      * Common relay message handling logic (shared by BLE and WiFi)
      */
-    private void handleRelayMessageCommon(String remoteDeviceId, String markdown, String receivedVia) {
+    private String handleRelayMessageCommon(String remoteDeviceId, String markdown, String receivedVia) {
         // Parse markdown
         RelayMessage message = RelayMessage.parseMarkdown(markdown);
         if (message == null) {
             Log.e(TAG, "✗ Failed to parse relay message markdown");
-            return;
+            return STATUS_INVALID;
         }
 
         Log.i(TAG, "Parsed message ID: " + message.getId());
         Log.i(TAG, "Message from: " + message.getFromCallsign() + " to: " + message.getToCallsign());
 
+        return ingestMessage(remoteDeviceId, message, markdown.length(), receivedVia,
+                signatures.verify(message));
+    }
+
+    /**
+     * Store a parsed message unless its signature failed verification.
+     * Unsigned messages are kept for local delivery (when the settings allow
+     * it) but marked unverified, so they are never relayed further.
+     *
+     * @param bytes Size of the message markdown, for the transfer window
+     * @param signature Result of verifying the message signature
+     * @return Ack status for the message (STATUS_*)
+     */
+    private String ingestMessage(String remoteDeviceId, RelayMessage message, int bytes,
+                                 String receivedVia, RelaySignatureVerifier.Result signature) {
+        try {
+            if (signature == RelaySignatureVerifier.Result.INVALID) {
+                Log.w(TAG, "✗ Message " + message.getId() + " rejected: bad signature");
+                return STATUS_INVALID;
+            }
+            if (signature == RelaySignatureVerifier.Result.UNSIGNED && !settings.isAcceptUnsignedEnabled()) {
+                Log.w(TAG, "✗ Message " + message.getId() + " rejected: unsigned");
+                return STATUS_REJECTED;
+            }
+            // Only signed messages may travel on; a stripped signature can't launder a forgery
+            message.setUnverified(signature != RelaySignatureVerifier.Result.VALID);
+            return storeIncomingMessage(remoteDeviceId, message, receivedVia);
+        } finally {
+            // Whatever happened to it, the request was answered: refill the window
+            onRequestAnswered(remoteDeviceId, message.getId(), bytes);
+        }
+    }
+
+    /**
+     * Store an incoming relay message in the inbox if it is new and accepted.
+     *
+     * @return Ack status for the message (STATUS_*)
+     */
+    private String storeIncomingMessage(String remoteDeviceId, RelayMessage message, String receivedVia) {
         // Check if already processed
         if (isRecentlyProcessed(message.getId())) {
             Log.d(TAG, "Message " + message.getId() + " already processed (skipping)");
-            return;
+            return STATUS_DUPLICATE;
         }
 
         // Check if we already have this message
-        if (storage.getMessage(message.getId()) != null) {
+        if (storage.hasMessage(message.getId())) {
             Log.d(TAG, "Message " + message.getId() + " already in storage (skipping)");
             addToRecentlyProcessed(message.getId());
-            return;
+            return STATUS_DUPLICATE;
         }
 
         // Check acceptance based on settings
@@ -856,7 +1826,7 @@ public class RelayMessageSync {
 
         if (!shouldAccept) {
             Log.w(TAG, "✗ Message rejected by relay settings");
-            return;
+            return STATUS_REJECTED;
         }
 
         // Update metadata
@@ -870,15 +1840,18 @@ public class RelayMessageSync {
             Log.i(TAG, "✓ Message saved to inbox successfully");
             addToRecentlyProcessed(message.getId());
 
-            // Remove from session pending requests
+            // Update session counters (pending request is cleared by the caller)
             SyncSession session = activeSessions.get(remoteDeviceId);
             if (session != null) {
-                session.pendingRequests.remove(message.getId());
-                session.messagesReceived++;
+                synchronized (session) {
+                    session.messagesReceived++;
+                }
                 Log.i(TAG, "Session stats - Received: " + session.messagesReceived + ", Sent: " + session.messagesSent);
             }
+            return STATUS_STORED;
         } else {
             Log.e(TAG, "✗ Failed to save message to inbox");
+            return STATUS_ERROR;
         }
     }
 
@@ -912,6 +1885,13 @@ public class RelayMessageSync {
         return activeSessions;
     }
 
+    /**
+     * Get the protocol version recorded for a peer (for testing).
+     */
+    int getPeerVersion(String remoteDeviceId) {
+        return peerVersions.getOrDefault(remoteDeviceId, PROTOCOL_VERSION_LEGACY);
+    }
+
     /**
      * Get pending request count for a session (for testing).
      */
@@ -919,4 +1899,20 @@ public class RelayMessageSync {
         SyncSession session = activeSessions.get(remoteDeviceId);
         return session != null ? session.pendingRequests.size() : 0;
     }
+
+    /**
+     * Get queued (not yet requested) message count for a session (for testing).
+     */
+    int getQueuedRequestCount(String remoteDeviceId) {
+        SyncSession session = activeSessions.get(remoteDeviceId);
+        return session != null ? session.requestQueue.size() : 0;
+    }
+
+    /**
+     * Get a copy of the outstanding request IDs for a session (for testing).
+     */
+    Set<String> getPendingRequests(String remoteDeviceId) {
+        SyncSession session = activeSessions.get(remoteDeviceId);
+        return session != null ? new HashSet<>(session.pendingRequests) : new HashSet<>();
+    }
 }
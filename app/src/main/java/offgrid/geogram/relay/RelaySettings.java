@@ -69,6 +69,21 @@ public class RelaySettings {
         configManager.updateConfig(config -> config.setRelayAutoAccept(enabled));
     }
 
+    /**
+     * Check if unsigned (legacy) messages are kept for local delivery.
+     * They are marked unverified and never relayed further either way.
+     */
+    public boolean isAcceptUnsignedEnabled() {
+        return configManager.isRelayAcceptUnsigned();
+    }
+
+    /**
+     * Keep or reject unsigned (legacy) messages.
+     */
+    public void setAcceptUnsignedEnabled(boolean enabled) {
+        configManager.updateConfig(config -> config.setRelayAcceptUnsigned(enabled));
+    }
+
     /**
      * Get accepted message types.
      *
@@ -0,0 +1,193 @@
+package offgrid.geogram.relay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import offgrid.geogram.core.Log;
+import offgrid.geogram.util.nostr.NostrUtil;
+import offgrid.geogram.util.nostr.Schnorr;
+
+/**
+ * Checks the Schnorr signatures of incoming relay messages.
+ *
+ * Messages arriving together (a bulk WiFi transfer) are verified as one
+ * batch, which costs about as much as two or three single verifications
+ * whatever the batch size. Only when the batch fails are its messages
+ * verified one by one to find the bad ones.
+ *
+ * Results are cached per message ID, with the signed hash and signature they
+ * were computed for, so a message relayed to us again is not verified again
+ * while an altered copy under the same ID still is.
+ *
+ * Unsigned messages are let through for local delivery, since older clients
+ * don't sign yet, but the caller marks them unverified and never relays them.
+ */
+public class RelaySignatureVerifier {
+
+    private static final String TAG = "Relay/Signatures";
+
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    public enum Result {
+        VALID,      // Signed by the from-npub key
+        UNSIGNED,   // No signature (legacy message), kept only for local delivery
+        INVALID     // Bad signature, or a signature without a usable npub
+    }
+
+    private static final class CachedResult {
+        final String fingerprint;
+        final boolean valid;
+
+        CachedResult(String fingerprint, boolean valid) {
+            this.fingerprint = fingerprint;
+            this.valid = valid;
+        }
+    }
+
+    // Message ID -> verification result, least recently used evicted first
+    private final Map<String, CachedResult> cache =
+            new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                    return size() > MAX_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Verify the signature of a single message.
+     */
+    public Result verify(RelayMessage message) {
+        return verify(Collections.singletonList(message))[0];
+    }
+
+    /**
+     * Verify the signatures of several messages together.
+     *
+     * @return One result per message, in the same order
+     */
+    public Result[] verify(List<RelayMessage> messages) {
+        int count = messages.size();
+        Result[] results = new Result[count];
+
+        // Pending verification, by index into messages
+        List<Integer> pending = new ArrayList<>();
+        byte[][] hashes = new byte[count][];
+        byte[][] keys = new byte[count][];
+        byte[][] sigs = new byte[count][];
+        String[] fingerprints = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            RelayMessage message = messages.get(i);
+            String signature = message.getSignature();
+            if (signature == null || signature.isEmpty()) {
+                results[i] = Result.UNSIGNED;
+                continue;
+            }
+            byte[] key = message.getSenderPublicKey();
+            byte[] hash = message.getSignedHash();
+            byte[] sig = signature.length() == 128 ? decodeHex(signature) : null;
+            if (key == null || hash == null || sig == null) {
+                Log.w(TAG, "Message " + message.getId() + " has an unusable signature or npub");
+                results[i] = Result.INVALID;
+                continue;
+            }
+            fingerprints[i] = NostrUtil.bytesToHex(hash) + signature.toLowerCase();
+
+            Boolean cached = lookup(message.getId(), fingerprints[i]);
+            if (cached != null) {
+                results[i] = cached ? Result.VALID : Result.INVALID;
+                continue;
+            }
+            hashes[i] = hash;
+            keys[i] = key;
+            sigs[i] = sig;
+            pending.add(i);
+        }
+
+        if (pending.size() > 1 && verifyBatch(pending, hashes, keys, sigs)) {
+            for (int i : pending) {
+                results[i] = Result.VALID;
+            }
+        } else {
+            if (pending.size() > 1) {
+                Log.w(TAG, "Batch of " + pending.size() + " signatures failed, checking each");
+            }
+            for (int i : pending) {
+                results[i] = verifySingle(hashes[i], keys[i], sigs[i]) ? Result.VALID : Result.INVALID;
+            }
+        }
+
+        synchronized (cache) {
+            for (int i : pending) {
+                if (messages.get(i).getId() == null) {
+                    continue;
+                }
+                cache.put(messages.get(i).getId(),
+                        new CachedResult(fingerprints[i], results[i] == Result.VALID));
+            }
+        }
+        return results;
+    }
+
+    private boolean verifyBatch(List<Integer> pending, byte[][] hashes, byte[][] keys, byte[][] sigs) {
+        int size = pending.size();
+        byte[][] batchHashes = new byte[size][];
+        byte[][] batchKeys = new byte[size][];
+        byte[][] batchSigs = new byte[size][];
+        for (int j = 0; j < size; j++) {
+            int i = pending.get(j);
+            batchHashes[j] = hashes[i];
+            batchKeys[j] = keys[i];
+            batchSigs[j] = sigs[i];
+        }
+        try {
+            return Schnorr.verifyBatch(batchHashes, batchKeys, batchSigs);
+        } catch (Exception e) {
+            Log.e(TAG, "Error verifying signature batch: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean verifySingle(byte[] hash, byte[] key, byte[] sig) {
+        try {
+            return Schnorr.verify(hash, key, sig);
+        } catch (Exception e) {
+            Log.e(TAG, "Error verifying signature: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private Boolean lookup(String messageId, String fingerprint) {
+        if (messageId == null) {
+            return null;
+        }
+        synchronized (cache) {
+            CachedResult cached = cache.get(messageId);
+            if (cached == null || !cached.fingerprint.equals(fingerprint)) {
+                return null;
+            }
+            return cached.valid;
+        }
+    }
+
+    private static byte[] decodeHex(String hex) {
+        for (int i = 0; i < hex.length(); i++) {
+            if (Character.digit(hex.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+        return NostrUtil.hexToBytes(hex);
+    }
+
+    /**
+     * Number of cached results (for testing).
+     */
+    int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+}
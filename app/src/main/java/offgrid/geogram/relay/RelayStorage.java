@@ -8,7 +8,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -21,6 +21,8 @@ import java.util.List;
  * - relay/sent/     - Messages that have been successfully delivered
  *
  * Each message is stored as a markdown file named by its message ID.
+ * Message headers are tracked in a shared {@link RelayIndex} so listing,
+ * counting, expiry and pruning don't need to stat or re-parse every file.
  */
 public class RelayStorage {
 
@@ -36,6 +38,7 @@ public class RelayStorage {
     private final File inboxDir;
     private final File outboxDir;
     private final File sentDir;
+    private final RelayIndex index;
 
     public RelayStorage(Context context) {
         this.context = context;
@@ -51,6 +54,9 @@ public class RelayStorage {
 
         // Ensure directories exist
         createDirectories();
+
+        // Load (or reuse) the header index for this relay directory
+        this.index = RelayIndex.getInstance(relayDir);
     }
 
     /**
@@ -96,11 +102,17 @@ public class RelayStorage {
             // Serialize message to markdown
             String markdown = message.toMarkdown();
 
+            byte[] bytes = markdown.getBytes();
+
             // Write to file
             try (FileOutputStream fos = new FileOutputStream(messageFile)) {
-                fos.write(markdown.getBytes());
+                fos.write(bytes);
             }
 
+            // Check once, at save time, that the stored markdown parses back
+            boolean valid = RelayMessage.parseMarkdown(markdown) != null;
+            index.put(RelayIndex.entryFor(message, folder, messageFile.lastModified(), bytes.length, valid));
+
             Log.d(TAG, "Saved message " + message.getId() + " to " + folder);
             return true;
 
@@ -152,24 +164,25 @@ public class RelayStorage {
             return null;
         }
 
-        Log.d(TAG, "getMessage: Looking for " + messageId + " in folder: " + folder);
-        Log.d(TAG, "getMessage: Target directory: " + targetDir.getAbsolutePath());
-        Log.d(TAG, "getMessage: Directory exists: " + targetDir.exists());
-
         File messageFile = new File(targetDir, messageId + ".md");
-        Log.d(TAG, "getMessage: Full file path: " + messageFile.getAbsolutePath());
-        Log.d(TAG, "getMessage: File exists: " + messageFile.exists());
+        boolean debug = Log.isLoggable(Log.DEBUG, TAG);
+        if (debug) {
+            Log.d(TAG, "getMessage: Looking for " + messageId + " in folder: " + folder);
+            Log.d(TAG, "getMessage: Full file path: " + messageFile.getAbsolutePath());
+        }
 
         if (!messageFile.exists()) {
-            // List all files in directory for debugging
-            File[] files = targetDir.listFiles();
-            if (files != null && files.length > 0) {
-                Log.d(TAG, "getMessage: Directory contains " + files.length + " files:");
-                for (File f : files) {
-                    Log.d(TAG, "  - " + f.getName());
+            if (debug) {
+                // List all files in directory for debugging
+                File[] files = targetDir.listFiles();
+                if (files != null && files.length > 0) {
+                    Log.d(TAG, "getMessage: Directory contains " + files.length + " files:");
+                    for (File f : files) {
+                        Log.d(TAG, "  - " + f.getName());
+                    }
+                } else {
+                    Log.d(TAG, "getMessage: Directory is empty or null");
                 }
-            } else {
-                Log.d(TAG, "getMessage: Directory is empty or null");
             }
             return null;
         }
@@ -212,23 +225,64 @@ public class RelayStorage {
     public List<String> listMessages(String folder) {
         List<String> messageIds = new ArrayList<>();
 
-        File targetDir = getDirectoryForFolder(folder);
-        if (targetDir == null || !targetDir.exists()) {
+        if (getDirectoryForFolder(folder) == null) {
             return messageIds;
         }
 
-        File[] files = targetDir.listFiles((dir, name) -> name.endsWith(".md"));
-        if (files != null) {
-            for (File file : files) {
-                String filename = file.getName();
-                String messageId = filename.substring(0, filename.length() - 3); // Remove .md
-                messageIds.add(messageId);
+        for (RelayIndex.Entry entry : index.list(folder)) {
+            messageIds.add(entry.id);
+        }
+
+        return messageIds;
+    }
+
+    /**
+     * List messages in a folder whose markdown is known to parse.
+     * Uses the validity flag recorded in the index instead of re-reading files.
+     *
+     * @param folder The folder to list
+     * @return List of message IDs
+     */
+    public List<String> listValidMessages(String folder) {
+        List<String> messageIds = new ArrayList<>();
+
+        if (getDirectoryForFolder(folder) == null) {
+            return messageIds;
+        }
+
+        for (RelayIndex.Entry entry : index.list(folder)) {
+            if (entry.valid) {
+                messageIds.add(entry.id);
             }
         }
 
         return messageIds;
     }
 
+    /**
+     * Get the index entry for a message without loading it.
+     *
+     * @param messageId The message ID
+     * @param folder The folder to look in
+     * @return The index entry, or null if not stored there
+     */
+    public RelayIndex.Entry getMessageInfo(String messageId, String folder) {
+        if (messageId == null || getDirectoryForFolder(folder) == null) {
+            return null;
+        }
+        return index.get(folder, messageId);
+    }
+
+    /**
+     * Check whether a message is stored in any folder, without loading it.
+     *
+     * @param messageId The message ID
+     * @return true if the message exists in inbox, outbox or sent
+     */
+    public boolean hasMessage(String messageId) {
+        return messageId != null && index.contains(messageId);
+    }
+
     /**
      * List all messages in a folder, sorted by modification time.
      *
@@ -237,33 +291,25 @@ public class RelayStorage {
      * @return List of message IDs
      */
     public List<String> listMessagesSorted(String folder, boolean newestFirst) {
-        File targetDir = getDirectoryForFolder(folder);
-        if (targetDir == null || !targetDir.exists()) {
-            return new ArrayList<>();
-        }
-
-        File[] files = targetDir.listFiles((dir, name) -> name.endsWith(".md"));
-        if (files == null || files.length == 0) {
+        if (getDirectoryForFolder(folder) == null) {
             return new ArrayList<>();
         }
 
-        // Sort by last modified time
-        Arrays.sort(files, new Comparator<File>() {
+        // Index keeps save order; stable sort on save time keeps ties in that order
+        List<RelayIndex.Entry> entries = index.list(folder);
+        entries.sort(new Comparator<RelayIndex.Entry>() {
             @Override
-            public int compare(File f1, File f2) {
-                long diff = f1.lastModified() - f2.lastModified();
-                if (newestFirst) {
-                    diff = -diff;
-                }
-                return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+            public int compare(RelayIndex.Entry e1, RelayIndex.Entry e2) {
+                return Long.compare(e1.savedAt, e2.savedAt);
             }
         });
+        if (newestFirst) {
+            Collections.reverse(entries);
+        }
 
         List<String> messageIds = new ArrayList<>();
-        for (File file : files) {
-            String filename = file.getName();
-            String messageId = filename.substring(0, filename.length() - 3); // Remove .md
-            messageIds.add(messageId);
+        for (RelayIndex.Entry entry : entries) {
+            messageIds.add(entry.id);
         }
 
         return messageIds;
@@ -290,6 +336,7 @@ public class RelayStorage {
         if (messageFile.exists()) {
             boolean deleted = messageFile.delete();
             if (deleted) {
+                index.remove(folder, messageId);
                 Log.d(TAG, "Deleted message " + messageId + " from " + folder);
             }
             return deleted;
@@ -307,6 +354,23 @@ public class RelayStorage {
      * @return true if successful, false otherwise
      */
     public boolean moveMessage(String messageId, String fromFolder, String toFolder) {
+        File fromDir = getDirectoryForFolder(fromFolder);
+        File toDir = getDirectoryForFolder(toFolder);
+
+        // Fast path: rename the file and carry its index entry over, no re-parse
+        if (messageId != null && fromDir != null && toDir != null
+                && index.get(fromFolder, messageId) != null) {
+            File source = new File(fromDir, messageId + ".md");
+            File target = new File(toDir, messageId + ".md");
+            if (source.renameTo(target)) {
+                long now = System.currentTimeMillis();
+                target.setLastModified(now);
+                index.move(messageId, fromFolder, toFolder, now);
+                Log.d(TAG, "Moved message " + messageId + " from " + fromFolder + " to " + toFolder);
+                return true;
+            }
+        }
+
         // Load message from source folder
         RelayMessage message = getMessage(messageId, fromFolder);
         if (message == null) {
@@ -360,13 +424,11 @@ public class RelayStorage {
      * @return Number of messages
      */
     public int getMessageCount(String folder) {
-        File targetDir = getDirectoryForFolder(folder);
-        if (targetDir == null || !targetDir.exists()) {
+        if (getDirectoryForFolder(folder) == null) {
             return 0;
         }
 
-        File[] files = targetDir.listFiles((dir, name) -> name.endsWith(".md"));
-        return files != null ? files.length : 0;
+        return index.count(folder);
     }
 
     /**
@@ -379,11 +441,9 @@ public class RelayStorage {
 
         String[] folders = {INBOX_DIR, OUTBOX_DIR, SENT_DIR};
         for (String folder : folders) {
-            List<String> messageIds = listMessages(folder);
-            for (String messageId : messageIds) {
-                RelayMessage message = getMessage(messageId, folder);
-                if (message != null && message.isExpired()) {
-                    if (deleteMessage(messageId, folder)) {
+            for (RelayIndex.Entry entry : index.list(folder)) {
+                if (entry.valid && entry.isExpired()) {
+                    if (deleteMessage(entry.id, folder)) {
                         deleted++;
                     }
                 }
@@ -404,35 +464,32 @@ public class RelayStorage {
     public long pruneOldMessages(long bytesToFree) {
         long bytesFreed = 0;
 
-        // Get all messages sorted by age (oldest first)
-        List<MessageInfo> allMessages = new ArrayList<>();
+        // Get all parsable messages from the index
+        List<RelayIndex.Entry> allMessages = new ArrayList<>();
 
         String[] folders = {INBOX_DIR, OUTBOX_DIR, SENT_DIR};
         for (String folder : folders) {
-            List<String> messageIds = listMessagesSorted(folder, false); // oldest first
-            for (String messageId : messageIds) {
-                RelayMessage message = getMessage(messageId, folder);
-                if (message != null) {
-                    File messageFile = new File(getDirectoryForFolder(folder), messageId + ".md");
-                    allMessages.add(new MessageInfo(messageId, folder, message, messageFile.length()));
+            for (RelayIndex.Entry entry : index.list(folder)) {
+                if (entry.valid) {
+                    allMessages.add(entry);
                 }
             }
         }
 
         // Sort by priority (low priority first), then by age
-        allMessages.sort(new Comparator<MessageInfo>() {
+        allMessages.sort(new Comparator<RelayIndex.Entry>() {
             @Override
-            public int compare(MessageInfo m1, MessageInfo m2) {
+            public int compare(RelayIndex.Entry m1, RelayIndex.Entry m2) {
                 // Priority order: low < normal < urgent
-                int p1 = getPriorityValue(m1.message.getPriority());
-                int p2 = getPriorityValue(m2.message.getPriority());
+                int p1 = getPriorityValue(m1.priority);
+                int p2 = getPriorityValue(m2.priority);
 
                 if (p1 != p2) {
                     return p1 - p2; // Lower priority first
                 }
 
                 // Same priority - older first
-                return Long.compare(m1.message.getTimestamp(), m2.message.getTimestamp());
+                return Long.compare(m1.timestamp, m2.timestamp);
             }
 
             private int getPriorityValue(String priority) {
@@ -443,14 +500,14 @@ public class RelayStorage {
         });
 
         // Delete messages until we've freed enough space
-        for (MessageInfo info : allMessages) {
+        for (RelayIndex.Entry info : allMessages) {
             if (bytesFreed >= bytesToFree) {
                 break;
             }
 
-            if (deleteMessage(info.messageId, info.folder)) {
+            if (deleteMessage(info.id, info.folder)) {
                 bytesFreed += info.size;
-                Log.d(TAG, "Pruned message " + info.messageId + " (" + info.size + " bytes)");
+                Log.d(TAG, "Pruned message " + info.id + " (" + info.size + " bytes)");
             }
         }
 
@@ -521,23 +578,6 @@ public class RelayStorage {
         return size;
     }
 
-    /**
-     * Helper class for message pruning.
-     */
-    private static class MessageInfo {
-        String messageId;
-        String folder;
-        RelayMessage message;
-        long size;
-
-        MessageInfo(String messageId, String folder, RelayMessage message, long size) {
-            this.messageId = messageId;
-            this.folder = folder;
-            this.message = message;
-            this.size = size;
-        }
-    }
-
     // Getters for directory paths (useful for testing)
 
     public File getRelayDir() {
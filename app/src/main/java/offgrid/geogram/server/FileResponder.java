@@ -0,0 +1,279 @@
+package offgrid.geogram.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams collection files to HTTP clients without loading them in memory.
+ *
+ * Handles the parts of HTTP that make repeated and partial downloads cheap:
+ * byte ranges ("bytes=0-99", "bytes=100-", "bytes=-50" and lists of them,
+ * answered as multipart/byteranges) and validators (ETag, If-None-Match,
+ * If-Modified-Since, If-Range). Also reads Accept-Encoding for the
+ * responses that are sent compressed.
+ */
+public class FileResponder {
+
+    // More ranges than this are answered with the whole file
+    public static final int MAX_RANGES = 16;
+
+    /**
+     * Inclusive byte range inside a file.
+     */
+    public static class ByteRange {
+        public final long start;
+        public final long end;
+
+        public ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long length() {
+            return end - start + 1;
+        }
+
+        public String contentRange(long fileSize) {
+            return "bytes " + start + "-" + end + "/" + fileSize;
+        }
+    }
+
+    /**
+     * Parse a Range header ("bytes=0-99,200-") or the "range" query
+     * parameter used over GATT ("0-99").
+     *
+     * @return The satisfiable ranges (empty when none is, answer 416),
+     *         or null when the value is malformed and the whole file should be sent
+     */
+    public static List<ByteRange> parseRange(String value, long fileSize) {
+        if (value == null) {
+            return null;
+        }
+        String spec = value.trim();
+        if (spec.startsWith("bytes=")) {
+            spec = spec.substring("bytes=".length());
+        }
+
+        String[] parts = spec.split(",");
+        if (parts.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String part : parts) {
+            String range = part.trim();
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = range.substring(0, dash).trim();
+            String last = range.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // Suffix range: the last N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    if (fileSize > 0) {
+                        ranges.add(new ByteRange(Math.max(0, fileSize - suffix), fileSize - 1));
+                    }
+                    continue;
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                if (start < 0 || end < start) {
+                    return null;
+                }
+                if (start >= fileSize) {
+                    continue;
+                }
+                ranges.add(new ByteRange(start, Math.min(end, fileSize - 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Strong validator from the file size and modification time.
+     */
+    public static String etag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    /**
+     * Check the conditional request headers against the current file.
+     *
+     * @param ifNoneMatch If-None-Match header, may be null
+     * @param ifModifiedSince If-Modified-Since as epoch millis, -1 when absent
+     * @return true when the client copy is current and 304 can be sent
+     */
+    public static boolean isNotModified(String ifNoneMatch, long ifModifiedSince, String etag, long lastModified) {
+        if (ifNoneMatch != null) {
+            // If-None-Match wins over If-Modified-Since when both are sent
+            return matchesEtag(ifNoneMatch, etag);
+        }
+        // HTTP dates have a resolution of one second
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Whether a range request still applies to this version of the file.
+     *
+     * @param ifRange If-Range header, may be null
+     */
+    public static boolean isRangeCurrent(String ifRange, String etag, long lastModified) {
+        if (ifRange == null || ifRange.trim().isEmpty()) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+        // Date form, compared the way If-Modified-Since is
+        try {
+            long since = java.time.ZonedDateTime.parse(value,
+                    java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return lastModified / 1000 <= since / 1000;
+        } catch (java.time.format.DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether the response may be sent gzipped, from the Accept-Encoding
+     * header. No header means any coding is fine; a coding with q=0 is
+     * refused, and "*" covers gzip when it isn't listed.
+     *
+     * @param acceptEncoding Accept-Encoding header, may be null
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return true;
+        }
+        double wildcard = 0;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(java.util.Locale.US);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        // Unreadable weight, identity is always safe
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                return quality > 0;
+            }
+            if (name.equals("*")) {
+                wildcard = quality;
+            }
+        }
+        return wildcard > 0;
+    }
+
+    private static boolean matchesEtag(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            // Weak comparison, as required for If-None-Match
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy part of a file to the response, letting the channel move the
+     * bytes (sendfile where the platform supports it) instead of a heap buffer.
+     */
+    public static void copy(File file, long start, long length, OutputStream out) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            copy(in.getChannel(), start, length, Channels.newChannel(out));
+        }
+        out.flush();
+    }
+
+    private static void copy(FileChannel source, long start, long length, WritableByteChannel target) throws IOException {
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            long sent = source.transferTo(position, remaining, target);
+            if (sent <= 0) {
+                // File shrank while it was being sent
+                throw new IOException("Unexpected end of file at byte " + position);
+            }
+            position += sent;
+            remaining -= sent;
+        }
+    }
+
+    /**
+     * Content type of a multipart/byteranges response.
+     */
+    public static String multipartContentType(String boundary) {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    /**
+     * Exact body size of a multipart/byteranges response, for Content-Length.
+     */
+    public static long multipartLength(List<ByteRange> ranges, String boundary, String mimeType, long fileSize) {
+        long length = 0;
+        for (ByteRange range : ranges) {
+            length += partHeader(range, boundary, mimeType, fileSize).length + range.length();
+        }
+        return length + closingBoundary(boundary).length;
+    }
+
+    /**
+     * Write several ranges of a file as a multipart/byteranges body.
+     */
+    public static void writeMultipart(File file, List<ByteRange> ranges, String boundary,
+                                      String mimeType, OutputStream out) throws IOException {
+        long fileSize = file.length();
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel source = in.getChannel();
+            WritableByteChannel target = Channels.newChannel(out);
+            for (ByteRange range : ranges) {
+                out.write(partHeader(range, boundary, mimeType, fileSize));
+                copy(source, range.start, range.length(), target);
+            }
+        }
+        out.write(closingBoundary(boundary));
+        out.flush();
+    }
+
+    private static byte[] partHeader(ByteRange range, String boundary, String mimeType, long fileSize) {
+        String header = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + mimeType + "\r\n"
+                + "Content-Range: " + range.contentRange(fileSize) + "\r\n"
+                + "\r\n";
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] closingBoundary(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -4,11 +4,13 @@ import static offgrid.geogram.core.Messages.log;
 import static spark.Spark.*;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import offgrid.geogram.ble.BluetoothSender;
 import offgrid.geogram.core.Central;
 import offgrid.geogram.core.Log;
+import offgrid.geogram.core.LogQuery;
 import offgrid.geogram.util.JsonUtils;
 import offgrid.geogram.relay.RelayStorage;
 import offgrid.geogram.relay.RelayMessage;
@@ -20,7 +22,11 @@ import offgrid.geogram.devices.EventConnected;
 import offgrid.geogram.models.Collection;
 import offgrid.geogram.models.CollectionFile;
 import offgrid.geogram.models.CollectionSecurity;
-import offgrid.geogram.util.CollectionLoader;
+import offgrid.geogram.util.CollectionRegistry;
+import offgrid.geogram.util.DirectoryListing;
+import offgrid.geogram.util.PieceHashes;
+import offgrid.geogram.util.ThumbnailCache;
+import offgrid.geogram.util.TreeData;
 // Removed (legacy Google Play Services code) - import offgrid.geogram.old.wifi.comm.WiFiReceiver;
 // Removed (legacy Google Play Services code) - import offgrid.geogram.old.wifi.messages.Message;
 
@@ -30,17 +36,17 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import java.io.ByteArrayOutputStream;
 
 public class SimpleSparkServer implements Runnable {
 
     private static final String TAG_ID = "offgrid-server";
     private static final int SERVER_PORT = 45678;
+    // Upper bound for one chunked download, sources give up long before on a dead link
+    private static final long CHUNKED_DOWNLOAD_TIMEOUT_MS = 6 * 60 * 60 * 1000L;
     private static final String BUILD_TIMESTAMP = "2025-01-12T07:00:00Z"; // Updated on each build
-    private static final String API_VERSION = "0.5.8"; // Increment on API changes
+    private static final String API_VERSION = "0.5.9"; // Increment on API changes
     private static final Gson gson = new Gson();
     private volatile boolean isRunning = false;
     private android.content.Context context;
@@ -102,6 +108,7 @@ public class SimpleSparkServer implements Runnable {
                     "<ul>" +
                     "<li>GET /api/logs - Get recent log messages (supports ?filter= and ?limit=)</li>" +
                     "<li>GET /api/logs/file - Get log file contents</li>" +
+                    "<li>GET /api/logs/query - Query the log files (supports ?since=, ?until=, ?tag=, ?level=, ?cursor=, ?limit=; gzipped NDJSON ending with the cursor)</li>" +
                     "</ul>" +
                     "<h3>Relay Messages</h3>" +
                     "<ul>" +
@@ -116,6 +123,7 @@ public class SimpleSparkServer implements Runnable {
                     "<li>POST /api/relay/sync/inventory - Receive inventory from remote device</li>" +
                     "<li>POST /api/relay/sync/request - Receive message request from remote device</li>" +
                     "<li>POST /api/relay/sync/message - Receive relay message from remote device</li>" +
+                    "<li>POST /api/relay/sync/messages - Receive a batch of relay messages (NDJSON, optional gzip)</li>" +
                     "</ul>" +
                     "<h3>Devices</h3>" +
                     "<ul>" +
@@ -237,6 +245,7 @@ public class SimpleSparkServer implements Runnable {
                     // Chat is visible in foreground - mark message as read immediately
                     Log.i(TAG_ID, "Chat is visible in foreground, marking WiFi message as read immediately");
                     wifiMessage.setRead(true);
+                    offgrid.geogram.database.DatabaseMessages.getInstance().update(wifiMessage);
                     offgrid.geogram.database.DatabaseMessages.getInstance().flushNow();
                 } else {
                     // App in background or chat not visible - update counter and show notification
@@ -295,36 +304,28 @@ public class SimpleSparkServer implements Runnable {
                 // Get filter parameter (case-insensitive keyword search)
                 String filter = req.queryParams("filter");
 
-                // Get the logs
-                List<String> allLogs = new ArrayList<>(Log.logMessages);
-                List<String> filteredLogs = allLogs;
-
-                // Apply filter if provided
-                if (filter != null && !filter.isEmpty()) {
-                    String filterLower = filter.toLowerCase();
-                    filteredLogs = new ArrayList<>();
-                    for (String logEntry : allLogs) {
-                        if (logEntry.toLowerCase().contains(filterLower)) {
-                            filteredLogs.add(logEntry);
-                        }
+                // Walk back from the newest entry, keeping the last 'limit' matches
+                List<Log.Entry> allLogs = Log.getEntries(Integer.MAX_VALUE);
+                List<String> recentLogs = new ArrayList<>();
+                int filteredCount = 0;
+                for (int i = allLogs.size() - 1; i >= 0; i--) {
+                    Log.Entry logEntry = allLogs.get(i);
+                    if (!logEntry.matches(filter)) {
+                        continue;
+                    }
+                    filteredCount++;
+                    if (recentLogs.size() < limit) {
+                        recentLogs.add(logEntry.toString());
                     }
                 }
-
-                // Apply limit
-                List<String> recentLogs;
-                if (filteredLogs.size() <= limit) {
-                    recentLogs = filteredLogs;
-                } else {
-                    // Get the last 'limit' messages
-                    recentLogs = filteredLogs.subList(filteredLogs.size() - limit, filteredLogs.size());
-                }
+                Collections.reverse(recentLogs);
 
                 // Create response
                 JsonObject response = new JsonObject();
                 response.addProperty("success", true);
                 response.addProperty("count", recentLogs.size());
                 response.addProperty("total_logs", allLogs.size());
-                response.addProperty("filtered_count", filteredLogs.size());
+                response.addProperty("filtered_count", filteredCount);
                 if (filter != null && !filter.isEmpty()) {
                     response.addProperty("filter", filter);
                 }
@@ -355,6 +356,7 @@ public class SimpleSparkServer implements Runnable {
                     return gson.toJson(createErrorResponse("Log file not initialized yet"));
                 }
 
+                Log.flush();
                 File logFile = new File(logFilePath);
 
                 if (!logFile.exists()) {
@@ -407,6 +409,78 @@ public class SimpleSparkServer implements Runnable {
             }
         });
 
+        // API endpoint to query the log files by time, tag and level (gzipped NDJSON pages)
+        get("/api/logs/query", (req, res) -> {
+            long since;
+            long until;
+            int limit = LogQuery.DEFAULT_PAGE_SIZE;
+            try {
+                since = req.queryParams("since") != null ? Long.parseLong(req.queryParams("since")) : 0;
+                until = req.queryParams("until") != null ? Long.parseLong(req.queryParams("until")) : Long.MAX_VALUE;
+                if (req.queryParams("limit") != null) {
+                    limit = Math.max(1, Math.min(Integer.parseInt(req.queryParams("limit")), LogQuery.MAX_PAGE_SIZE));
+                }
+            } catch (NumberFormatException e) {
+                res.type("application/json");
+                res.status(400);
+                return gson.toJson(createErrorResponse("since, until and limit must be numbers"));
+            }
+            int level = LogQuery.parseLevel(req.queryParams("level"));
+            if (level < 0) {
+                res.type("application/json");
+                res.status(400);
+                return gson.toJson(createErrorResponse("Unknown level: " + req.queryParams("level")));
+            }
+            String tag = req.queryParams("tag");
+            if (tag != null && tag.isEmpty()) {
+                tag = null;
+            }
+
+            try {
+                LogQuery.Page page = new LogQuery(since, until, tag, level)
+                        .run(req.queryParams("cursor"), limit);
+
+                // Compress unless the client refuses gzip
+                boolean gzip = FileResponder.acceptsGzip(req.headers("Accept-Encoding"));
+
+                res.status(200);
+                res.type("application/x-ndjson");
+                res.header("X-Log-Cursor", page.cursor);
+                res.header("X-Log-Complete", String.valueOf(page.complete));
+                res.header("X-Log-Count", String.valueOf(page.entries.size()));
+                if (gzip) {
+                    res.header("Content-Encoding", "gzip");
+                }
+
+                java.io.OutputStream out = res.raw().getOutputStream();
+                if (gzip) {
+                    out = new java.util.zip.GZIPOutputStream(out, 8192);
+                }
+                // The cursor is repeated in the last line for proxies that drop headers
+                try (java.io.Writer writer = new java.io.BufferedWriter(
+                        new java.io.OutputStreamWriter(out, java.nio.charset.StandardCharsets.UTF_8))) {
+                    page.writeNdjson(writer);
+                }
+
+                log(TAG_ID, "API: Returned " + page.entries.size() + " log lines from "
+                    + page.blocksRead + " blocks");
+                return null;
+
+            } catch (IllegalArgumentException e) {
+                res.type("application/json");
+                res.status(400);
+                return gson.toJson(createErrorResponse(e.getMessage()));
+            } catch (Exception e) {
+                Log.e(TAG_ID, "Error querying logs via API: " + e.getMessage());
+                if (res.raw().isCommitted()) {
+                    return null;
+                }
+                res.type("application/json");
+                res.status(500);
+                return gson.toJson(createErrorResponse("Error: " + e.getMessage()));
+            }
+        });
+
         // API endpoint to get server status
         get("/api/status", (req, res) -> {
             res.type("application/json");
@@ -518,6 +592,10 @@ public class SimpleSparkServer implements Runnable {
                     relayMsg.setId(generatedId);
                 }
 
+                if (!relayMsg.sign(Central.getInstance().getSettings().getNsec())) {
+                    Log.w(TAG_ID, "Sending " + relayMsg.getId() + " unsigned, no valid nsec in settings");
+                }
+
                 // Save to outbox
                 RelayStorage storage = new RelayStorage(context);
                 boolean saved = storage.saveMessage(relayMsg, "outbox");
@@ -807,13 +885,18 @@ public class SimpleSparkServer implements Runnable {
                 String remoteDeviceId = jsonRequest.get("remoteDeviceId").getAsString();
                 String inventoryData = jsonRequest.get("inventory").getAsString();
 
-                Log.i(TAG_ID, "API: Received relay sync inventory from " + remoteDeviceId);
-                Log.i(TAG_ID, "Inventory data: " + inventoryData);
+                // Optional set-reconciliation fields (sync protocol version 2)
+                int version = jsonRequest.has("version") ? jsonRequest.get("version").getAsInt() : 1;
+                String bloomData = jsonRequest.has("bloom") ? jsonRequest.get("bloom").getAsString() : null;
+
+                Log.i(TAG_ID, "API: Received relay sync inventory from " + remoteDeviceId + " (v" + version + ")");
+                Log.i(TAG_ID, "Inventory data: " + inventoryData
+                        + (bloomData != null ? " (+ filter summary, " + bloomData.length() + " chars)" : ""));
 
                 // Process inventory via RelayMessageSync
                 offgrid.geogram.relay.RelayMessageSync relaySync =
                     offgrid.geogram.relay.RelayMessageSync.getInstance(context);
-                relaySync.handleWiFiInventory(remoteDeviceId, inventoryData);
+                relaySync.handleWiFiInventory(remoteDeviceId, inventoryData, bloomData, version);
 
                 JsonObject response = new JsonObject();
                 response.addProperty("success", true);
@@ -850,13 +933,14 @@ public class SimpleSparkServer implements Runnable {
 
                 String remoteDeviceId = jsonRequest.get("remoteDeviceId").getAsString();
                 String messageId = jsonRequest.get("messageId").getAsString();
+                int version = jsonRequest.has("version") ? jsonRequest.get("version").getAsInt() : 1;
 
                 Log.i(TAG_ID, "API: Received relay message request from " + remoteDeviceId + " for message " + messageId);
 
                 // Process request via RelayMessageSync
                 offgrid.geogram.relay.RelayMessageSync relaySync =
                     offgrid.geogram.relay.RelayMessageSync.getInstance(context);
-                relaySync.handleWiFiRequest(remoteDeviceId, messageId);
+                relaySync.handleWiFiRequest(remoteDeviceId, messageId, version);
 
                 JsonObject response = new JsonObject();
                 response.addProperty("success", true);
@@ -916,6 +1000,44 @@ public class SimpleSparkServer implements Runnable {
             }
         });
 
+        // POST /api/relay/sync/messages - Receive a batch of relay messages (NDJSON stream)
+        post("/api/relay/sync/messages", (req, res) -> {
+            if (context == null) {
+                res.type("application/json");
+                res.status(503);
+                return gson.toJson(createErrorResponse("Server context not initialized"));
+            }
+
+            try {
+                // Read the body as a stream so entries are stored as they arrive
+                java.io.InputStream in = req.raw().getInputStream();
+                String encoding = req.headers("Content-Encoding");
+                if (encoding != null && encoding.toLowerCase().contains("gzip")) {
+                    in = new java.util.zip.GZIPInputStream(in);
+                }
+
+                res.status(200);
+                res.type("application/x-ndjson");
+
+                offgrid.geogram.relay.RelayMessageSync relaySync =
+                    offgrid.geogram.relay.RelayMessageSync.getInstance(context);
+                int processed = relaySync.handleWiFiRelayMessageStream(in, res.raw().getOutputStream());
+
+                Log.i(TAG_ID, "API: Processed bulk relay transfer with " + processed + " messages");
+                return null;
+
+            } catch (Exception e) {
+                Log.e(TAG_ID, "Error processing bulk relay transfer: " + e.getMessage());
+                if (res.raw().isCommitted()) {
+                    // Acks already streamed; the sender treats missing acks as failures
+                    return null;
+                }
+                res.type("application/json");
+                res.status(e instanceof IOException ? 400 : 500);
+                return gson.toJson(createErrorResponse("Error: " + e.getMessage()));
+            }
+        });
+
         // ========== DEVICES ENDPOINT ==========
 
         // GET /api/devices/nearby - List nearby devices detected via BLE
@@ -1132,40 +1254,10 @@ public class SimpleSparkServer implements Runnable {
                     }
                 }
 
+                // Page of this conversation from its index (newest first)
                 DatabaseMessages db = DatabaseMessages.getInstance();
-                List<ChatMessage> allMessages = db.snapshot();
-
-                // Filter messages for this conversation
-                List<ChatMessage> conversationMessages = new ArrayList<>();
-                for (ChatMessage msg : allMessages) {
-                    boolean belongsToConversation = false;
-
-                    // Match by destinationId or authorId
-                    if (callsign.equals(msg.destinationId) || callsign.equals(msg.authorId)) {
-                        belongsToConversation = true;
-                    }
-                    // Try with "group-" prefix
-                    else if (msg.destinationId != null &&
-                             (msg.destinationId.equals("group-" + callsign) ||
-                              callsign.equals("group-" + msg.destinationId))) {
-                        belongsToConversation = true;
-                    }
-                    // Try without "group-" prefix
-                    else if (callsign.startsWith("group-") && msg.destinationId != null &&
-                             msg.destinationId.equals(callsign.substring(6))) {
-                        belongsToConversation = true;
-                    }
-
-                    if (belongsToConversation) {
-                        conversationMessages.add(msg);
-                    }
-                }
-
-                // Apply offset and limit (messages are already sorted newest first)
-                int totalMessages = conversationMessages.size();
-                int startIndex = Math.min(offset, totalMessages);
-                int endIndex = Math.min(startIndex + limit, totalMessages);
-                List<ChatMessage> paginatedMessages = conversationMessages.subList(startIndex, endIndex);
+                int totalMessages = db.getConversationStats(callsign).totalMessages;
+                List<ChatMessage> paginatedMessages = db.getConversationMessages(callsign, offset, limit);
 
                 // Convert to JSON
                 List<JsonObject> messageList = new ArrayList<>();
@@ -1335,7 +1427,7 @@ public class SimpleSparkServer implements Runnable {
                 }
 
                 // Load all collections
-                List<Collection> allCollections = CollectionLoader.loadCollectionsFromAppStorage(context);
+                List<Collection> allCollections = CollectionRegistry.getInstance(context).getCollections();
 
                 // Filter collections based on visibility and permissions
                 List<JsonObject> accessibleCollections = new ArrayList<>();
@@ -1503,7 +1595,7 @@ public class SimpleSparkServer implements Runnable {
                 }
 
                 // Load all collections
-                List<Collection> allCollections = CollectionLoader.loadCollectionsFromAppStorage(context);
+                List<Collection> allCollections = CollectionRegistry.getInstance(context).getCollections();
 
                 // Count only public collections
                 int publicCount = 0;
@@ -1547,16 +1639,8 @@ public class SimpleSparkServer implements Runnable {
                     return gson.toJson(createErrorResponse("Collection npub is required"));
                 }
 
-                // Load all collections and find the requested one
-                List<Collection> allCollections = CollectionLoader.loadCollectionsFromAppStorage(context);
-                Collection requestedCollection = null;
-
-                for (Collection collection : allCollections) {
-                    if (npub.equals(collection.getId())) {
-                        requestedCollection = collection;
-                        break;
-                    }
-                }
+                // Look up the collection by npub
+                Collection requestedCollection = CollectionRegistry.getInstance(context).getCollection(npub);
 
                 if (requestedCollection == null) {
                     res.status(404);
@@ -1627,16 +1711,8 @@ public class SimpleSparkServer implements Runnable {
                     path = "";
                 }
 
-                // Load collection
-                List<Collection> allCollections = CollectionLoader.loadCollectionsFromAppStorage(context);
-                Collection requestedCollection = null;
-
-                for (Collection collection : allCollections) {
-                    if (npub.equals(collection.getId())) {
-                        requestedCollection = collection;
-                        break;
-                    }
-                }
+                // Look up the collection by npub
+                Collection requestedCollection = CollectionRegistry.getInstance(context).getCollection(npub);
 
                 if (requestedCollection == null) {
                     res.status(404);
@@ -1659,25 +1735,51 @@ public class SimpleSparkServer implements Runnable {
                     return gson.toJson(createErrorResponse("Access denied to this collection"));
                 }
 
-                // Get files in the requested path
-                List<JsonObject> filesList = new ArrayList<>();
-                for (CollectionFile file : requestedCollection.getFiles()) {
-                    String filePath = file.getPath();
-                    String fileDir = filePath.contains("/") ?
-                        filePath.substring(0, filePath.lastIndexOf("/")) : "";
-
-                    // Only include files in the requested directory
-                    if (path.equals(fileDir)) {
-                        JsonObject fileJson = new JsonObject();
-                        fileJson.addProperty("name", file.getName());
-                        fileJson.addProperty("path", file.getPath());
-                        fileJson.addProperty("type", file.isDirectory() ? "directory" : "file");
-                        if (!file.isDirectory()) {
-                            fileJson.addProperty("size", file.getSize());
-                            fileJson.addProperty("mimeType", file.getMimeType());
+                // Optional paging: limit per page and the cursor of the previous page
+                int limit = Integer.MAX_VALUE;
+                String limitParam = req.queryParams("limit");
+                if (limitParam != null && !limitParam.isEmpty()) {
+                    try {
+                        limit = Math.max(1, Math.min(Integer.parseInt(limitParam), DirectoryListing.MAX_PAGE_SIZE));
+                    } catch (NumberFormatException e) {
+                        res.status(400);
+                        return gson.toJson(createErrorResponse("Invalid limit: " + limitParam));
+                    }
+                }
+                String cursor = req.queryParams("cursor");
+
+                // Get files in the requested path, from the listing kept by the registry
+                DirectoryListing listing = CollectionRegistry.getInstance(context).getListing(npub);
+                if (listing == null) {
+                    res.status(404);
+                    return gson.toJson(createErrorResponse("Collection not found"));
+                }
+                DirectoryListing.Page page = listing.list(path, cursor, limit);
+                if (page == null) {
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Invalid cursor: " + cursor));
+                }
+                File collectionRoot = new File(requestedCollection.getStoragePath());
+                JsonArray filesList = new JsonArray();
+                for (DirectoryListing.Item item : page.items) {
+                    JsonObject fileJson = new JsonObject();
+                    fileJson.addProperty("name", item.name);
+                    fileJson.addProperty("path", item.path);
+                    fileJson.addProperty("type", item.directory ? "directory" : "file");
+                    fileJson.addProperty("size", item.size);
+                    if (item.directory) {
+                        fileJson.addProperty("items", item.items);
+                    } else {
+                        fileJson.addProperty("mimeType", item.mimeType);
+                        // Whether a thumbnail can be asked for, and whether it is ready
+                        boolean image = ThumbnailCache.isImage(item.name);
+                        fileJson.addProperty("thumbnail", image);
+                        if (image) {
+                            fileJson.addProperty("thumbnail_ready",
+                                    ThumbnailCache.getInstance().isCached(collectionRoot, item.path));
                         }
-                        filesList.add(fileJson);
                     }
+                    filesList.add(fileJson);
                 }
 
                 // Create response
@@ -1686,7 +1788,11 @@ public class SimpleSparkServer implements Runnable {
                 response.addProperty("collection_id", npub);
                 response.addProperty("path", path);
                 response.addProperty("count", filesList.size());
-                response.add("files", gson.toJsonTree(filesList));
+                response.addProperty("total", page.total);
+                if (page.nextCursor != null) {
+                    response.addProperty("next_cursor", page.nextCursor);
+                }
+                response.add("files", filesList);
 
                 Log.i(TAG_ID, "API: Returned " + filesList.size() + " files for collection " + npub);
 
@@ -1725,16 +1831,8 @@ public class SimpleSparkServer implements Runnable {
                     return gson.toJson(createErrorResponse("Invalid file path"));
                 }
 
-                // Load collection
-                List<Collection> allCollections = CollectionLoader.loadCollectionsFromAppStorage(context);
-                Collection requestedCollection = null;
-
-                for (Collection collection : allCollections) {
-                    if (npub.equals(collection.getId())) {
-                        requestedCollection = collection;
-                        break;
-                    }
-                }
+                // Look up the collection by npub
+                Collection requestedCollection = CollectionRegistry.getInstance(context).getCollection(npub);
 
                 if (requestedCollection == null) {
                     res.status(404);
@@ -1811,84 +1909,82 @@ public class SimpleSparkServer implements Runnable {
                 }
 
                 long fileSize = requestedFile.length();
+                long lastModified = requestedFile.lastModified();
+                String etag = FileResponder.etag(requestedFile);
+                javax.servlet.http.HttpServletRequest rawRequest = req.raw();
+                javax.servlet.http.HttpServletResponse rawResponse = res.raw();
+
+                // Validators let repeat fetches finish without sending the file again
+                res.header("ETag", etag);
+                rawResponse.setDateHeader("Last-Modified", lastModified);
+                res.header("Accept-Ranges", "bytes");
+
+                long ifModifiedSince;
+                try {
+                    ifModifiedSince = rawRequest.getDateHeader("If-Modified-Since");
+                } catch (IllegalArgumentException e) {
+                    ifModifiedSince = -1;
+                }
+                if (FileResponder.isNotModified(req.headers("If-None-Match"), ifModifiedSince, etag, lastModified)) {
+                    Log.d(TAG_ID, "API: File not modified " + filePath);
+                    res.status(304);
+                    return "";
+                }
 
                 // Check for Range header (for chunked downloads)
                 String rangeHeader = req.headers("Range");
                 String rangeParam = req.queryParams("range"); // Also support range as query param (for GATT)
+                String rangeValue = rangeHeader != null ? rangeHeader : rangeParam;
+
+                List<FileResponder.ByteRange> ranges = null;
+                if (rangeValue != null && FileResponder.isRangeCurrent(req.headers("If-Range"), etag, lastModified)) {
+                    // Malformed ranges give null and fall through to the full file
+                    ranges = FileResponder.parseRange(rangeValue, fileSize);
+                    if (ranges == null) {
+                        Log.e(TAG_ID, "Invalid range format: " + rangeValue);
+                    }
+                }
 
-                if (rangeHeader != null || rangeParam != null) {
-                    // Parse Range header: "bytes=start-end" or query param: "start-end"
-                    String rangeValue = rangeHeader != null ? rangeHeader : rangeParam;
-                    String bytesRange = rangeValue.replace("bytes=", "");
-                    String[] rangeParts = bytesRange.split("-");
-
-                    if (rangeParts.length == 2) {
-                        try {
-                            long startByte = Long.parseLong(rangeParts[0]);
-                            long endByte = Long.parseLong(rangeParts[1]);
-
-                            // Validate range
-                            if (startByte < 0 || endByte >= fileSize || startByte > endByte) {
-                                res.status(416); // Range Not Satisfiable
-                                res.type("application/json");
-                                return gson.toJson(createErrorResponse("Invalid range"));
-                            }
-
-                            long chunkSize = endByte - startByte + 1;
-
-                            Log.i(TAG_ID, "API: Serving file chunk " + filePath + " (bytes " + startByte + "-" + endByte + ", " + chunkSize + " bytes)");
-
-                            // Read only the requested chunk
-                            byte[] chunk = new byte[(int) chunkSize];
-                            try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(requestedFile, "r")) {
-                                raf.seek(startByte);
-                                raf.readFully(chunk);
-                            }
-
-                            // Set response properties for partial content
-                            res.status(206); // Partial Content
-                            res.type(mimeType);
-                            res.header("Content-Range", "bytes " + startByte + "-" + endByte + "/" + fileSize);
-                            res.header("Content-Length", String.valueOf(chunkSize));
-                            res.header("Accept-Ranges", "bytes");
-
-                            // Write chunk
-                            try {
-                                javax.servlet.http.HttpServletResponse rawResponse = res.raw();
-                                rawResponse.getOutputStream().write(chunk);
-                                rawResponse.getOutputStream().flush();
-                            } catch (Exception writeEx) {
-                                Log.e(TAG_ID, "Error writing chunk to response: " + writeEx.getMessage());
-                                throw writeEx;
-                            }
-
-                            return null;
+                if (ranges != null && ranges.isEmpty()) {
+                    res.status(416); // Range Not Satisfiable
+                    res.header("Content-Range", "bytes */" + fileSize);
+                    res.type("application/json");
+                    return gson.toJson(createErrorResponse("Invalid range"));
+                }
 
-                        } catch (NumberFormatException e) {
-                            Log.e(TAG_ID, "Invalid range format: " + rangeValue);
-                            // Fall through to serve full file
-                        }
+                try {
+                    if (ranges != null && ranges.size() == 1) {
+                        FileResponder.ByteRange range = ranges.get(0);
+                        Log.i(TAG_ID, "API: Serving file chunk " + filePath + " (bytes " + range.start + "-" + range.end + ", " + range.length() + " bytes)");
+
+                        res.status(206); // Partial Content
+                        res.type(mimeType);
+                        res.header("Content-Range", range.contentRange(fileSize));
+                        res.header("Content-Length", String.valueOf(range.length()));
+                        FileResponder.copy(requestedFile, range.start, range.length(), rawResponse.getOutputStream());
+                        return null;
                     }
-                }
 
-                // No Range header or invalid range - serve full file
-                Log.i(TAG_ID, "API: Serving full file " + filePath + " from collection " + npub + " (" + fileSize + " bytes)");
+                    if (ranges != null) {
+                        String boundary = java.util.UUID.randomUUID().toString().replace("-", "");
+                        long length = FileResponder.multipartLength(ranges, boundary, mimeType, fileSize);
+                        Log.i(TAG_ID, "API: Serving " + ranges.size() + " ranges of " + filePath + " (" + length + " bytes)");
 
-                // Read file content
-                byte[] fileContent = Files.readAllBytes(requestedFile.toPath());
+                        res.status(206); // Partial Content
+                        res.type(FileResponder.multipartContentType(boundary));
+                        res.header("Content-Length", String.valueOf(length));
+                        FileResponder.writeMultipart(requestedFile, ranges, boundary, mimeType, rawResponse.getOutputStream());
+                        return null;
+                    }
 
-                // Set response properties BEFORE accessing raw()
-                res.status(200);
-                res.type(mimeType);
-                res.header("Content-Disposition", "inline; filename=\"" + fileName + "\"");
-                res.header("Content-Length", String.valueOf(fileContent.length));
-                res.header("Accept-Ranges", "bytes");
+                    // No Range header or invalid range - serve full file
+                    Log.i(TAG_ID, "API: Serving full file " + filePath + " from collection " + npub + " (" + fileSize + " bytes)");
 
-                // Get raw response and write bytes directly
-                try {
-                    javax.servlet.http.HttpServletResponse rawResponse = res.raw();
-                    rawResponse.getOutputStream().write(fileContent);
-                    rawResponse.getOutputStream().flush();
+                    res.status(200);
+                    res.type(mimeType);
+                    res.header("Content-Disposition", "inline; filename=\"" + fileName + "\"");
+                    res.header("Content-Length", String.valueOf(fileSize));
+                    FileResponder.copy(requestedFile, 0, fileSize, rawResponse.getOutputStream());
                 } catch (Exception writeEx) {
                     Log.e(TAG_ID, "Error writing file to response: " + writeEx.getMessage());
                     throw writeEx;
@@ -2225,6 +2321,20 @@ public class SimpleSparkServer implements Runnable {
                     downloadDir.mkdirs();
                 }
 
+                // Other devices holding the same collection: [{"deviceId": ..., "remoteIp": ...}]
+                List<String[]> peers = new ArrayList<>();
+                peers.add(new String[]{deviceId, remoteIp});
+                if (jsonRequest.has("sources") && jsonRequest.get("sources").isJsonArray()) {
+                    for (com.google.gson.JsonElement element : jsonRequest.getAsJsonArray("sources")) {
+                        if (!element.isJsonObject() || !element.getAsJsonObject().has("deviceId")) {
+                            continue;
+                        }
+                        JsonObject peer = element.getAsJsonObject();
+                        String peerIp = peer.has("remoteIp") ? peer.get("remoteIp").getAsString() : null;
+                        peers.add(new String[]{peer.get("deviceId").getAsString(), peerIp});
+                    }
+                }
+
                 String fileId = collectionId + "/" + filePath;
                 String fileName = new File(filePath).getName();
 
@@ -2246,59 +2356,27 @@ public class SimpleSparkServer implements Runnable {
                         offgrid.geogram.p2p.P2PHttpClient httpClient = new offgrid.geogram.p2p.P2PHttpClient(context);
                         String baseApiPath = "/api/collections/" + collectionId + "/file/" + filePath;
 
-                        int nextChunk;
-                        while ((nextChunk = chunkDownload.getNextChunkToDownload()) != -1) {
-                            long offset = (long) nextChunk * chunkSize;
-                            long endOffset = Math.min(offset + chunkSize - 1, fileSize - 1);
-
-                            Log.i(TAG_ID, "Downloading chunk " + nextChunk + "/" + (chunkDownload.getTotalChunks() - 1) +
-                                        " (bytes " + offset + "-" + endOffset + ")");
-
-                            try {
-                                // Use Range request to get specific chunk
-                                // Note: Server must support Range requests (will add this next)
-                                offgrid.geogram.p2p.P2PHttpClient.InputStreamResponse streamResponse =
-                                    httpClient.getInputStreamWithRange(deviceId, remoteIp, baseApiPath,
-                                                                      offset, endOffset, 180000); // 3 minutes per chunk for BLE
-
-                                if (streamResponse.isSuccess()) {
-                                    try (java.io.InputStream in = streamResponse.stream) {
-                                        // Read chunk data
-                                        java.io.ByteArrayOutputStream chunkData = new java.io.ByteArrayOutputStream();
-                                        byte[] buffer = new byte[4096];
-                                        int bytesRead;
-                                        while ((bytesRead = in.read(buffer)) != -1) {
-                                            chunkData.write(buffer, 0, bytesRead);
-                                        }
-
-                                        // Write chunk to partial file
-                                        if (chunkDownload.writeChunk(nextChunk, chunkData.toByteArray())) {
-                                            // Update overall progress
-                                            downloadStatus.updateProgress(chunkDownload.getDownloadedBytes());
-                                            Log.i(TAG_ID, "Chunk " + nextChunk + " complete (" +
-                                                        chunkDownload.getPercentComplete() + "%)");
-                                        } else {
-                                            Log.e(TAG_ID, "Failed to write chunk " + nextChunk);
-                                        }
-
-                                    } finally {
-                                        streamResponse.close();
-                                    }
-                                } else {
-                                    Log.e(TAG_ID, "Failed to download chunk " + nextChunk + ": HTTP " +
-                                                streamResponse.statusCode);
-                                    // Don't fail entire download, will retry chunk later
-                                }
-
-                            } catch (Exception e) {
-                                Log.e(TAG_ID, "Error downloading chunk " + nextChunk + ": " + e.getMessage());
-                                // Continue with next chunk
-                            }
+                        // Piece hashes let us re-fetch just a corrupt piece; older peers don't have them
+                        offgrid.geogram.p2p.P2PHttpClient.HttpResponse hashResponse = httpClient.get(deviceId, remoteIp,
+                                "/api/collections/" + collectionId + "/hashes/" + filePath, 60000);
+                        if (hashResponse.isSuccess()) {
+                            chunkDownload.setPieceHashes(PieceHashes.fromJson(hashResponse.body));
+                        } else {
+                            Log.w(TAG_ID, "No piece hashes for " + filePath + " (HTTP " + hashResponse.statusCode +
+                                        "), download will not be verified");
+                        }
 
-                            // Small delay between chunks to avoid overwhelming BLE
-                            try { Thread.sleep(100); } catch (InterruptedException e) {}
+                        // Every device holding the file is a source, over WiFi when possible
+                        List<offgrid.geogram.p2p.P2PChunkSource> sources = new ArrayList<>();
+                        for (String[] peer : peers) {
+                            addChunkSources(sources, httpClient, peer[0], peer[1], baseApiPath);
                         }
 
+                        offgrid.geogram.util.ChunkDownloadEngine engine = new offgrid.geogram.util.ChunkDownloadEngine(
+                                chunkDownload, sources,
+                                (chunkIndex, sourceName) -> downloadStatus.updateProgress(chunkDownload.getDownloadedBytes()));
+                        engine.run(CHUNKED_DOWNLOAD_TIMEOUT_MS);
+
                         // Check if download completed
                         if (chunkDownload.isComplete()) {
                             downloadStatus.markCompleted();
@@ -2333,6 +2411,7 @@ public class SimpleSparkServer implements Runnable {
                 response.addProperty("fileName", fileName);
                 response.addProperty("totalChunks", chunkDownload.getTotalChunks());
                 response.addProperty("chunkSize", chunkSize);
+                response.addProperty("sources", peers.size());
 
                 Log.i(TAG_ID, "API: Chunked download initiated for " + fileId +
                             " (" + chunkDownload.getTotalChunks() + " chunks)");
@@ -2422,16 +2501,8 @@ public class SimpleSparkServer implements Runnable {
                     return gson.toJson(createErrorResponse("Invalid file path"));
                 }
 
-                // Load collection
-                List<Collection> allCollections = CollectionLoader.loadCollectionsFromAppStorage(context);
-                Collection requestedCollection = null;
-
-                for (Collection collection : allCollections) {
-                    if (npub.equals(collection.getId())) {
-                        requestedCollection = collection;
-                        break;
-                    }
-                }
+                // Look up the collection by npub
+                Collection requestedCollection = CollectionRegistry.getInstance(context).getCollection(npub);
 
                 if (requestedCollection == null) {
                     res.status(404);
@@ -2491,56 +2562,35 @@ public class SimpleSparkServer implements Runnable {
                     return gson.toJson(createErrorResponse("File is not an image"));
                 }
 
-                Log.i(TAG_ID, "API: Generating thumbnail for " + filePath + " from collection " + npub);
-
-                // Load and downsample image to create thumbnail
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(requestedFile.getAbsolutePath(), options);
-
-                // Calculate sample size for 200x200 thumbnail
-                int targetSize = 200;
-                int width = options.outWidth;
-                int height = options.outHeight;
-                int inSampleSize = 1;
-
-                if (height > targetSize || width > targetSize) {
-                    final int halfHeight = height / 2;
-                    final int halfWidth = width / 2;
-                    while ((halfHeight / inSampleSize) >= targetSize && (halfWidth / inSampleSize) >= targetSize) {
-                        inSampleSize *= 2;
-                    }
-                }
-
-                options.inSampleSize = inSampleSize;
-                options.inJustDecodeBounds = false;
-
-                // Decode with downsampling
-                Bitmap thumbnail = BitmapFactory.decodeFile(requestedFile.getAbsolutePath(), options);
+                // Thumbnails are generated once and kept in the collection's extra/ folder
+                File thumbnailFile = ThumbnailCache.getInstance().getThumbnail(collectionRoot, filePath);
 
-                if (thumbnail == null) {
+                if (thumbnailFile == null) {
                     res.status(500);
                     res.type("application/json");
                     return gson.toJson(createErrorResponse("Failed to decode image"));
                 }
 
-                // Compress to JPEG
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                thumbnail.compress(Bitmap.CompressFormat.JPEG, 85, baos);
-                byte[] thumbnailBytes = baos.toByteArray();
-                thumbnail.recycle(); // Free bitmap memory
+                // The file name is a hash of the image path, size and date
+                String etag = "\"" + thumbnailFile.getName().replace(".jpg", "") + "\"";
+                res.header("ETag", etag);
+                res.header("Cache-Control", "public, max-age=86400"); // Cache for 24 hours
+                if (FileResponder.isNotModified(req.headers("If-None-Match"), -1, etag, thumbnailFile.lastModified())) {
+                    res.status(304);
+                    return "";
+                }
+
+                Log.d(TAG_ID, "API: Serving thumbnail for " + filePath + " from collection " + npub);
 
                 // Set response properties
                 res.status(200);
                 res.type("image/jpeg");
-                res.header("Content-Length", String.valueOf(thumbnailBytes.length));
-                res.header("Cache-Control", "public, max-age=86400"); // Cache for 24 hours
+                res.header("Content-Length", String.valueOf(thumbnailFile.length()));
 
                 // Write thumbnail bytes
                 try {
                     javax.servlet.http.HttpServletResponse rawResponse = res.raw();
-                    rawResponse.getOutputStream().write(thumbnailBytes);
-                    rawResponse.getOutputStream().flush();
+                    FileResponder.copy(thumbnailFile, 0, thumbnailFile.length(), rawResponse.getOutputStream());
                 } catch (Exception writeEx) {
                     Log.e(TAG_ID, "Error writing thumbnail to response: " + writeEx.getMessage());
                     throw writeEx;
@@ -2556,6 +2606,135 @@ public class SimpleSparkServer implements Runnable {
             }
         });
 
+        // GET /api/collections/:npub/tree-delta?since=<version>&sha1=<hash> - Changes to tree-data.js
+        get("/api/collections/:npub/tree-delta", (req, res) -> {
+            res.type("application/json");
+
+            try {
+                if (context == null) {
+                    res.status(503);
+                    return gson.toJson(createErrorResponse("Server context not initialized"));
+                }
+
+                String npub = req.params(":npub");
+                if (npub == null || npub.isEmpty()) {
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Collection npub is required"));
+                }
+
+                long since = 0;
+                String sinceParam = req.queryParams("since");
+                if (sinceParam != null && !sinceParam.isEmpty()) {
+                    try {
+                        since = Long.parseLong(sinceParam);
+                    } catch (NumberFormatException e) {
+                        res.status(400);
+                        return gson.toJson(createErrorResponse("Invalid version: " + sinceParam));
+                    }
+                }
+                String sinceSha1 = req.queryParams("sha1");
+
+                Collection requestedCollection = CollectionRegistry.getInstance(context).getCollection(npub);
+                if (requestedCollection == null) {
+                    res.status(404);
+                    return gson.toJson(createErrorResponse("Collection not found"));
+                }
+
+                // Same access rules as tree-data.js itself
+                String requestingNpub = null;
+                offgrid.geogram.devices.Device requestingDevice = findDeviceByIp(req.ip());
+                if (requestingDevice != null) {
+                    requestingNpub = requestingDevice.getProfileNpub();
+                }
+                if (!hasCollectionAccess(requestedCollection.getSecurity(), requestingNpub)) {
+                    res.status(403);
+                    return gson.toJson(createErrorResponse("Access denied to this collection"));
+                }
+
+                JsonObject delta = TreeData.delta(new File(requestedCollection.getStoragePath()), since, sinceSha1);
+                if (delta == null) {
+                    res.status(404);
+                    return gson.toJson(createErrorResponse("Tree data not found"));
+                }
+                delta.addProperty("success", true);
+
+                Log.i(TAG_ID, "API: Tree delta for " + npub + " since " + since + " -> version " +
+                        delta.get("version").getAsLong() + (delta.get("full").getAsBoolean() ? " (full)" : ""));
+                res.status(200);
+                return gson.toJson(delta);
+
+            } catch (Exception e) {
+                Log.e(TAG_ID, "Error serving tree delta: " + e.getMessage());
+                res.status(500);
+                return gson.toJson(createErrorResponse("Error: " + e.getMessage()));
+            }
+        });
+
+        // GET /api/collections/:npub/hashes/* - SHA-256 piece hashes of a file, to verify downloads
+        get("/api/collections/:npub/hashes/*", (req, res) -> {
+            res.type("application/json");
+
+            try {
+                if (context == null) {
+                    res.status(503);
+                    return gson.toJson(createErrorResponse("Server context not initialized"));
+                }
+
+                String npub = req.params(":npub");
+                String filePath = req.splat()[0]; // Get the wildcard path
+
+                if (npub == null || npub.isEmpty() || filePath == null || filePath.isEmpty()) {
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Collection npub and file path are required"));
+                }
+
+                // Security: Prevent path traversal attacks and system files
+                if (filePath.contains("..") || filePath.startsWith("/") || filePath.startsWith("extra/")) {
+                    res.status(403);
+                    return gson.toJson(createErrorResponse("Invalid file path"));
+                }
+
+                Collection requestedCollection = CollectionRegistry.getInstance(context).getCollection(npub);
+                if (requestedCollection == null) {
+                    res.status(404);
+                    return gson.toJson(createErrorResponse("Collection not found"));
+                }
+
+                // Same access rules as the file itself
+                String requestingNpub = null;
+                offgrid.geogram.devices.Device requestingDevice = findDeviceByIp(req.ip());
+                if (requestingDevice != null) {
+                    requestingNpub = requestingDevice.getProfileNpub();
+                }
+                if (!hasCollectionAccess(requestedCollection.getSecurity(), requestingNpub)) {
+                    res.status(403);
+                    return gson.toJson(createErrorResponse("Access denied to this collection"));
+                }
+
+                File collectionRoot = new File(requestedCollection.getStoragePath());
+                File requestedFile = new File(collectionRoot, filePath);
+                if (!requestedFile.getCanonicalPath().startsWith(collectionRoot.getCanonicalPath())) {
+                    res.status(403);
+                    return gson.toJson(createErrorResponse("Access denied: file outside collection"));
+                }
+
+                // Usually ready from the scan, otherwise hashed now
+                PieceHashes hashes = PieceHashes.forFile(collectionRoot, filePath);
+                if (hashes == null) {
+                    res.status(404);
+                    return gson.toJson(createErrorResponse("File not found"));
+                }
+
+                res.status(200);
+                return hashes.toJson();
+
+            } catch (Exception e) {
+                Log.e(TAG_ID, "Error serving piece hashes: " + e.getMessage());
+                res.status(500);
+                return gson.toJson(createErrorResponse("Error: " + e.getMessage()));
+            }
+        });
+
         log(TAG_ID, "Server is running on http://0.0.0.0:" + SERVER_PORT + "/");
         log(TAG_ID, "API endpoints available at /api/ble/send, /api/logs, /api/logs/file, /api/status");
         isRunning = true;
@@ -2600,6 +2779,28 @@ public class SimpleSparkServer implements Runnable {
         }
     }
 
+    /**
+     * Add the chunk sources of a device: WiFi when its IP is known, plus relay
+     * and GATT when it has a callsign. Every transport pulls from the same
+     * pending chunks with its own window (small for relay and GATT, and faster
+     * sources are offered work first); end-game duplicates cover stragglers.
+     */
+    private void addChunkSources(List<offgrid.geogram.p2p.P2PChunkSource> sources,
+                                 offgrid.geogram.p2p.P2PHttpClient httpClient,
+                                 String deviceId, String remoteIp, String path) {
+        boolean deviceIsIp = deviceId.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+        if ((remoteIp != null && !remoteIp.isEmpty()) || deviceIsIp) {
+            sources.add(new offgrid.geogram.p2p.P2PChunkSource(httpClient,
+                    offgrid.geogram.p2p.P2PHttpClient.Transport.WIFI, deviceId, remoteIp, path));
+        }
+        if (!deviceIsIp && !deviceId.isEmpty()) {
+            sources.add(new offgrid.geogram.p2p.P2PChunkSource(httpClient,
+                    offgrid.geogram.p2p.P2PHttpClient.Transport.RELAY, deviceId, remoteIp, path));
+            sources.add(new offgrid.geogram.p2p.P2PChunkSource(httpClient,
+                    offgrid.geogram.p2p.P2PHttpClient.Transport.GATT, deviceId, remoteIp, path));
+        }
+    }
+
     // Helper method to create an error response JSON object
     private JsonObject createErrorResponse(String message) {
         JsonObject errorResponse = new JsonObject();
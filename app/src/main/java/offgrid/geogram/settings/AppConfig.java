@@ -88,6 +88,9 @@ public class AppConfig {
     @Expose
     private String relayMessageTypes = "text_only"; // text_only, text_and_images, everything
 
+    @Expose
+    private boolean relayAcceptUnsigned = true; // Keep unsigned (legacy) messages for local delivery
+
     // ===== Device Relay Settings =====
 
     @Expose
@@ -329,6 +332,14 @@ public class AppConfig {
         this.relayAutoAccept = relayAutoAccept;
     }
 
+    public boolean isRelayAcceptUnsigned() {
+        return relayAcceptUnsigned;
+    }
+
+    public void setRelayAcceptUnsigned(boolean relayAcceptUnsigned) {
+        this.relayAcceptUnsigned = relayAcceptUnsigned;
+    }
+
     public String getRelayMessageTypes() {
         return relayMessageTypes != null ? relayMessageTypes : "text_only";
     }
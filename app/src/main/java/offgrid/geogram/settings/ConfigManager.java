@@ -305,6 +305,7 @@ public class ConfigManager {
     public int getRelayDiskSpaceMB() { return getConfig().getRelayDiskSpaceMB(); }
     public long getRelayDiskSpaceBytes() { return getConfig().getRelayDiskSpaceBytes(); }
     public boolean isRelayAutoAccept() { return getConfig().isRelayAutoAccept(); }
+    public boolean isRelayAcceptUnsigned() { return getConfig().isRelayAcceptUnsigned(); }
     public String getRelayMessageTypes() { return getConfig().getRelayMessageTypes(); }
 
     // App
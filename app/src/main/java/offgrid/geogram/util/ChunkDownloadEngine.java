@@ -0,0 +1,474 @@
+package offgrid.geogram.util;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads the chunks of a {@link ChunkDownloadManager.ChunkDownload} from
+ * several sources at once (devices holding the same collection, over WiFi,
+ * relay or GATT).
+ *
+ * Scheduling:
+ * - Each source has its own window of chunks in flight. It grows by one on
+ *   every success up to the source's maximum and halves on failure, so slow
+ *   transports end up with few outstanding requests.
+ * - Throughput is tracked per source (smoothed bytes/ms); faster sources are
+ *   offered work first.
+ * - Rarest first: a source that reported a chunk as missing is never asked
+ *   for it again, and chunks only some sources have are fetched first by the
+ *   sources that do. Other chunks go in file order.
+ * - A source that doesn't have the file at all is dropped on its first answer.
+ * - End game: once every missing chunk is in flight, idle sources request
+ *   duplicates of the oldest outstanding chunks; the first copy wins.
+ * - A chunk the download rejects (its piece failed the hash check) counts
+ *   as a failure of its source, and the chunks cleared with it are queued again.
+ * - Sources failing MAX_SOURCE_FAILURES times in a row are dropped. The
+ *   download stops once it is complete or no sources are left.
+ */
+public class ChunkDownloadEngine {
+    private static final String TAG = "ChunkDownloadEngine";
+
+    private static final int MAX_SOURCE_FAILURES = 5;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final int MAX_DUPLICATES = 2;
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+    private static final long IDLE_WAKEUP_MS = 500;
+
+    /**
+     * Somewhere a chunk can be fetched from.
+     */
+    public interface ChunkSource {
+        /**
+         * Short name for logs, e.g. "X1ABCD/wifi".
+         */
+        String getName();
+
+        /**
+         * Most requests this source should have outstanding.
+         */
+        int getMaxWindow();
+
+        /**
+         * Fetch the bytes startByte..endByte (inclusive). Called from worker threads.
+         *
+         * @throws ChunkUnavailableException if the source does not have this chunk
+         * @throws FileUnavailableException if the source does not have the file
+         */
+        byte[] fetchChunk(long startByte, long endByte) throws IOException;
+    }
+
+    /**
+     * Thrown by a source that answered, but doesn't have the requested range.
+     */
+    public static class ChunkUnavailableException extends IOException {
+        public ChunkUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown by a source that answered, but doesn't have the file at all.
+     */
+    public static class FileUnavailableException extends IOException {
+        public FileUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Called on a worker thread after each chunk is saved.
+     */
+    public interface ProgressListener {
+        void onChunkWritten(int chunkIndex, String sourceName);
+    }
+
+    private static class SourceState {
+        final ChunkSource source;
+        int window = 1;
+        int inFlight = 0;
+        double bytesPerMs = 0;
+        int consecutiveFailures = 0;
+        long retryAfterMs = 0;
+        boolean dropped = false;
+        int chunksDelivered = 0;
+        // Chunks this source said it doesn't have
+        final Set<Integer> unavailable = new HashSet<>();
+        // Chunks this source is fetching right now
+        final Set<Integer> fetching = new HashSet<>();
+
+        SourceState(ChunkSource source) {
+            this.source = source;
+        }
+
+        boolean isReady(long now) {
+            return !dropped && now >= retryAfterMs && inFlight < window;
+        }
+    }
+
+    private static class Request {
+        final int chunk;
+        final long startedMs;
+        final List<SourceState> sources = new ArrayList<>();
+
+        Request(int chunk, long startedMs) {
+            this.chunk = chunk;
+            this.startedMs = startedMs;
+        }
+    }
+
+    private final ChunkDownloadManager.ChunkDownload download;
+    private final List<SourceState> sources = new ArrayList<>();
+    private final ProgressListener listener;
+    private final Object lock = new Object();
+
+    // Missing chunks nobody is fetching
+    private final TreeSet<Integer> pending = new TreeSet<>();
+    // Missing chunks only some sources have
+    private final Set<Integer> rare = new HashSet<>();
+    private final Map<Integer, Request> requests = new HashMap<>();
+
+    private ExecutorService executor;
+    private int duplicateRequests = 0;
+
+    public ChunkDownloadEngine(ChunkDownloadManager.ChunkDownload download,
+                               List<? extends ChunkSource> sources, ProgressListener listener) {
+        this.download = download;
+        this.listener = listener;
+        for (ChunkSource source : sources) {
+            this.sources.add(new SourceState(source));
+        }
+    }
+
+    /**
+     * Download every missing chunk. Blocks until the download is complete,
+     * all sources gave up, or the timeout passes.
+     *
+     * @return true if the download completed
+     */
+    public boolean run(long timeoutMs) {
+        int threads = 0;
+        for (SourceState state : sources) {
+            threads += Math.max(1, state.source.getMaxWindow()) + 1;
+        }
+        if (threads == 0) {
+            Log.e(TAG, "No sources for " + download.getFileName());
+            return false;
+        }
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ChunkDownload");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            synchronized (lock) {
+                for (int i = 0; i < download.getTotalChunks(); i++) {
+                    if (!download.isChunkCompleted(i)) {
+                        pending.add(i);
+                    }
+                }
+                Log.i(TAG, "Downloading " + pending.size() + " chunks of " + download.getFileName() +
+                        " from " + sources.size() + " sources");
+
+                while (!download.isComplete() && !download.isFailed()) {
+                    dispatch();
+                    if (requests.isEmpty() && !hasUsableSource()) {
+                        Log.w(TAG, "No sources left for " + download.getFileName());
+                        break;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= deadline) {
+                        Log.w(TAG, "Timed out downloading " + download.getFileName());
+                        break;
+                    }
+                    lock.wait(Math.min(IDLE_WAKEUP_MS, deadline - now));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Log.i(TAG, download.getFileName() + ": " + getSummary());
+        return download.isComplete();
+    }
+
+    /**
+     * Per-source statistics, for logs and the download status API.
+     */
+    public String getSummary() {
+        synchronized (lock) {
+            StringBuilder summary = new StringBuilder();
+            summary.append(download.getCompletedChunks()).append("/").append(download.getTotalChunks())
+                    .append(" chunks, ").append(duplicateRequests).append(" duplicate requests;");
+            for (SourceState state : sources) {
+                summary.append(' ').append(state.source.getName())
+                        .append('=').append(state.chunksDelivered)
+                        .append(String.format(" (%.1f KB/s%s)", state.bytesPerMs * 1000 / 1024,
+                                state.dropped ? ", dropped" : ""));
+            }
+            return summary.toString();
+        }
+    }
+
+    /**
+     * Hand out work to every source with room in its window. Holds the lock.
+     */
+    private void dispatch() {
+        long now = System.currentTimeMillis();
+        List<SourceState> ready = new ArrayList<>();
+        for (SourceState state : sources) {
+            if (state.isReady(now)) {
+                ready.add(state);
+            }
+        }
+        // Fastest sources pick first
+        ready.sort(Comparator.comparingDouble((SourceState state) -> state.bytesPerMs).reversed());
+
+        for (SourceState state : ready) {
+            while (state.inFlight < state.window) {
+                int chunk = pickChunk(state);
+                if (chunk < 0) {
+                    chunk = pickDuplicate(state);
+                    if (chunk < 0) {
+                        break;
+                    }
+                    duplicateRequests++;
+                }
+                start(state, chunk, now);
+            }
+        }
+    }
+
+    /**
+     * Next chunk for this source: the rarest one it has, else the first in file order.
+     */
+    private int pickChunk(SourceState state) {
+        int best = -1;
+        int bestAvailability = Integer.MAX_VALUE;
+        for (int chunk : rare) {
+            if (!pending.contains(chunk) || state.unavailable.contains(chunk)) {
+                continue;
+            }
+            int availability = availability(chunk);
+            if (availability < bestAvailability || (availability == bestAvailability && chunk < best)) {
+                best = chunk;
+                bestAvailability = availability;
+            }
+        }
+        if (best >= 0) {
+            return best;
+        }
+        for (int chunk : pending) {
+            if (!state.unavailable.contains(chunk)) {
+                return chunk;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * End game: the oldest outstanding chunk this source isn't fetching yet.
+     */
+    private int pickDuplicate(SourceState state) {
+        if (!pending.isEmpty()) {
+            // Chunks remain that this source can't serve, nothing to duplicate yet
+            for (int chunk : pending) {
+                if (availability(chunk) > 0) {
+                    return -1;
+                }
+            }
+        }
+        Request oldest = null;
+        for (Request request : requests.values()) {
+            if (request.sources.size() >= MAX_DUPLICATES || request.sources.contains(state)
+                    || state.unavailable.contains(request.chunk)) {
+                continue;
+            }
+            if (oldest == null || request.startedMs < oldest.startedMs) {
+                oldest = request;
+            }
+        }
+        return oldest == null ? -1 : oldest.chunk;
+    }
+
+    /**
+     * Put back every chunk the download is missing again, e.g. the other
+     * chunks of a piece that failed verification.
+     */
+    private void requeueMissing() {
+        for (int chunk = 0; chunk < download.getTotalChunks(); chunk++) {
+            if (!download.isChunkCompleted(chunk) && !requests.containsKey(chunk)) {
+                pending.add(chunk);
+            }
+        }
+    }
+
+    private int availability(int chunk) {
+        int count = 0;
+        for (SourceState state : sources) {
+            if (!state.dropped && !state.unavailable.contains(chunk)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean hasUsableSource() {
+        for (SourceState state : sources) {
+            if (!state.dropped) {
+                for (int chunk : pending) {
+                    if (!state.unavailable.contains(chunk)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void start(SourceState state, int chunk, long now) {
+        pending.remove(chunk);
+        Request request = requests.get(chunk);
+        if (request == null) {
+            request = new Request(chunk, now);
+            requests.put(chunk, request);
+        }
+        request.sources.add(state);
+        state.inFlight++;
+        state.fetching.add(chunk);
+
+        long startByte = (long) chunk * download.getChunkSize();
+        long endByte = Math.min(startByte + download.getChunkSize(), download.getTotalSize()) - 1;
+        executor.execute(() -> fetch(state, chunk, startByte, endByte));
+    }
+
+    /**
+     * Worker: fetch one chunk and report back.
+     */
+    private void fetch(SourceState state, int chunk, long startByte, long endByte) {
+        long started = System.currentTimeMillis();
+        byte[] data = null;
+        IOException error = null;
+        try {
+            data = state.source.fetchChunk(startByte, endByte);
+            long expected = endByte - startByte + 1;
+            if (data == null || data.length != expected) {
+                error = new IOException("Expected " + expected + " bytes, got " + (data == null ? 0 : data.length));
+                data = null;
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (Exception e) {
+            error = new IOException(e.getMessage(), e);
+        }
+        long elapsedMs = System.currentTimeMillis() - started;
+
+        synchronized (lock) {
+            // Written under the lock so run() never sees a completed but unfinished file
+            boolean rejected = false;
+            if (data != null && !download.isChunkCompleted(chunk)) {
+                if (download.writeChunk(chunk, data)) {
+                    if (listener != null) {
+                        listener.onChunkWritten(chunk, state.source.getName());
+                    }
+                } else {
+                    // Disk error, or the chunk completed a piece that failed verification
+                    error = new IOException("Chunk " + chunk + " was not accepted");
+                    rejected = true;
+                }
+            }
+
+            state.inFlight--;
+            state.fetching.remove(chunk);
+            Request request = requests.get(chunk);
+            if (request != null) {
+                request.sources.remove(state);
+            }
+
+            if (error == null) {
+                onSuccess(state, data.length, elapsedMs);
+                if (request != null && download.isChunkCompleted(chunk)) {
+                    requests.remove(chunk);
+                    rare.remove(chunk);
+                }
+            } else {
+                onFailure(state, chunk, error);
+                if (request != null && request.sources.isEmpty()) {
+                    // Nobody else is fetching it, put it back
+                    requests.remove(chunk);
+                    if (!download.isChunkCompleted(chunk)) {
+                        pending.add(chunk);
+                    }
+                }
+                if (rejected) {
+                    requeueMissing();
+                }
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void onSuccess(SourceState state, int bytes, long elapsedMs) {
+        double rate = bytes / (double) Math.max(1, elapsedMs);
+        state.bytesPerMs = state.bytesPerMs == 0 ? rate
+                : state.bytesPerMs + THROUGHPUT_SMOOTHING * (rate - state.bytesPerMs);
+        state.consecutiveFailures = 0;
+        state.chunksDelivered++;
+        if (state.window < state.source.getMaxWindow()) {
+            state.window++;
+        }
+    }
+
+    private void onFailure(SourceState state, int chunk, IOException error) {
+        if (error instanceof FileUnavailableException) {
+            // No other chunk will be there either, don't ask again
+            state.dropped = true;
+            Log.w(TAG, "Dropping source " + state.source.getName() + ": no such file");
+            return;
+        }
+        if (error instanceof ChunkUnavailableException) {
+            // The source answered, it just doesn't have this part: a healthy
+            // partial holder, so no failure, window or backoff penalty
+            state.unavailable.add(chunk);
+            if (availability(chunk) < countActiveSources()) {
+                rare.add(chunk);
+            }
+            Log.d(TAG, "Chunk " + chunk + " not held by " + state.source.getName());
+            return;
+        }
+        state.consecutiveFailures++;
+        state.window = Math.max(1, state.window / 2);
+        state.retryAfterMs = System.currentTimeMillis() + RETRY_BACKOFF_MS * state.consecutiveFailures;
+        Log.w(TAG, "Chunk " + chunk + " from " + state.source.getName() + " failed: " + error.getMessage());
+
+        if (state.consecutiveFailures >= MAX_SOURCE_FAILURES) {
+            state.dropped = true;
+            Log.w(TAG, "Dropping source " + state.source.getName() + " after " +
+                    state.consecutiveFailures + " failures");
+        }
+    }
+
+    private int countActiveSources() {
+        int count = 0;
+        for (SourceState state : sources) {
+            if (!state.dropped) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -2,12 +2,12 @@ package offgrid.geogram.util;
 
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,13 +17,15 @@ import java.util.concurrent.ConcurrentHashMap;
  *
  * Features:
  * - Saves partial downloads as .partial files
- * - Tracks chunk status in text manifest files
+ * - Tracks chunk status in a bitset manifest plus an append-only journal
  * - Handles out-of-order chunk arrivals
+ * - Verifies pieces against the sender's SHA-256 hashes, when it has them
  * - Reassembles chunks into final file when complete
  *
  * File structure:
  * - Downloads/acme.zip.partial - Binary file with chunks written at correct offsets
- * - Downloads/acme.zip.manifest - Text file tracking chunk status
+ * - Downloads/acme.zip.manifest - Bitset snapshot of the completed chunks
+ * - Downloads/acme.zip.journal - Chunk ranges completed since the snapshot
  */
 public class ChunkDownloadManager {
     private static final String TAG = "ChunkDownloadManager";
@@ -81,7 +83,10 @@ public class ChunkDownloadManager {
      * Remove a download from active tracking (call after completion or cancellation).
      */
     public void removeDownload(String fileId) {
-        activeDownloads.remove(fileId);
+        ChunkDownload download = activeDownloads.remove(fileId);
+        if (download != null && !download.isCompleted()) {
+            download.close();
+        }
     }
 
     /**
@@ -95,6 +100,10 @@ public class ChunkDownloadManager {
      * Represents a single chunked download with manifest tracking.
      */
     public static class ChunkDownload {
+        // Journal the completed chunks after this many, or this often
+        private static final int COMMIT_BATCH = 64;
+        private static final long COMMIT_INTERVAL_MS = 1000;
+
         private final String fileId;
         private final String fileName;
         private final long totalSize;
@@ -104,10 +113,21 @@ public class ChunkDownloadManager {
 
         private final File partialFile;
         private final File manifestFile;
+        private final File journalFile;
         private final File finalFile;
 
-        // Track which chunks are complete: chunkIndex -> true
-        private final Map<Integer, Boolean> completedChunks = new ConcurrentHashMap<>();
+        // Completed chunks, persisted as a bitset snapshot plus a journal
+        private final ChunkManifest manifest;
+        // Open for the whole download, instead of once per chunk
+        private FileChannel channel;
+        private int firstMissing = 0;
+
+        // Expected piece hashes, null when the source didn't publish any
+        private PieceHashes pieceHashes;
+        private final BitSet verifiedPieces = new BitSet();
+        private byte[] pieceBuffer;
+        private int corruptPieces = 0;
+        private long lastCommitMs;
 
         private long startTimeMs;
         private boolean completed = false;
@@ -125,9 +145,11 @@ public class ChunkDownloadManager {
 
             this.partialFile = new File(downloadDir, fileName + ".partial");
             this.manifestFile = new File(downloadDir, fileName + ".manifest");
+            this.journalFile = new File(downloadDir, fileName + ".journal");
             this.finalFile = new File(downloadDir, fileName);
 
             this.startTimeMs = System.currentTimeMillis();
+            this.lastCommitMs = startTimeMs;
 
             // Create download directory if needed
             if (!downloadDir.exists()) {
@@ -135,27 +157,36 @@ public class ChunkDownloadManager {
             }
 
             // Load existing manifest if resuming
-            loadManifest();
+            manifest = new ChunkManifest(manifestFile, journalFile, totalSize, chunkSize, totalChunks);
+            if (partialFile.exists()) {
+                manifest.load();
+                if (manifest.getCompletedCount() > 0) {
+                    Log.i(TAG, "Loaded manifest: " + manifest.getCompletedCount() + " chunks already complete");
+                }
+            } else {
+                // Progress without the data is worthless
+                manifest.reset();
+            }
 
             // Create empty partial file if starting fresh
-            if (!partialFile.exists()) {
-                try {
-                    partialFile.createNewFile();
+            try {
+                boolean created = !partialFile.exists();
+                RandomAccessFile raf = new RandomAccessFile(partialFile, "rw");
+                channel = raf.getChannel();
+                if (created) {
                     // Pre-allocate file to total size
-                    RandomAccessFile raf = new RandomAccessFile(partialFile, "rw");
                     raf.setLength(totalSize);
-                    raf.close();
                     Log.i(TAG, "Created partial file: " + partialFile.getAbsolutePath() +
                               " (" + totalSize + " bytes)");
-                } catch (IOException e) {
-                    Log.e(TAG, "Failed to create partial file", e);
                 }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create partial file", e);
             }
         }
 
         /**
          * Write a chunk to the partial file at the correct offset.
-         * Handles out-of-order chunks by using RandomAccessFile.
+         * Handles out-of-order chunks with positional writes.
          *
          * @param chunkIndex Index of this chunk (0-based)
          * @param data Chunk data to write
@@ -167,25 +198,46 @@ public class ChunkDownloadManager {
                 return false;
             }
 
-            if (completedChunks.containsKey(chunkIndex)) {
+            if (manifest.isComplete(chunkIndex)) {
                 Log.w(TAG, "Chunk " + chunkIndex + " already completed, skipping");
                 return true;
             }
 
+            if (channel == null) {
+                Log.e(TAG, "Partial file is not open: " + fileName);
+                return false;
+            }
+
             try {
                 long offset = (long) chunkIndex * chunkSize;
-                RandomAccessFile raf = new RandomAccessFile(partialFile, "rw");
-                raf.seek(offset);
-                raf.write(data);
-                raf.close();
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
 
                 // Mark chunk as complete
-                completedChunks.put(chunkIndex, true);
+                manifest.markComplete(chunkIndex);
+
+                // Check the pieces this chunk completes, a corrupt one is fetched again
+                boolean intact = verifyPieces(offset, data.length);
+                if (intact && isComplete()) {
+                    // Pieces finished before a restart haven't been checked yet
+                    intact = verifyPieces(0, totalSize);
+                }
 
-                // Update manifest
-                saveManifest();
+                // Update manifest, in batches: the data must reach the disk before the journal does
+                long now = System.currentTimeMillis();
+                if (manifest.getUncommittedCount() >= COMMIT_BATCH || now - lastCommitMs >= COMMIT_INTERVAL_MS
+                        || isComplete()) {
+                    commit();
+                    lastCommitMs = now;
+                }
 
-                Log.i(TAG, "Wrote chunk " + chunkIndex + "/" + (totalChunks - 1) +
+                if (!intact) {
+                    return false;
+                }
+
+                Log.d(TAG, "Wrote chunk " + chunkIndex + "/" + (totalChunks - 1) +
                           " (" + data.length + " bytes at offset " + offset + ") - " +
                           getCompletedChunks() + "/" + totalChunks + " complete");
 
@@ -201,52 +253,162 @@ public class ChunkDownloadManager {
             }
         }
 
+        /**
+         * Verify the download against the sender's piece hashes from now on.
+         *
+         * @return false if the hashes don't describe a file of this size
+         */
+        public synchronized boolean setPieceHashes(PieceHashes hashes) {
+            if (hashes == null || !hashes.isValidFor(totalSize)) {
+                Log.w(TAG, "Ignoring piece hashes that don't match " + fileName);
+                return false;
+            }
+            pieceHashes = hashes;
+            verifiedPieces.clear();
+            return true;
+        }
+
+        /**
+         * Check every piece inside the byte range whose chunks are all in.
+         * Corrupt pieces have their chunks marked missing again.
+         *
+         * @return false if a corrupt piece was found
+         */
+        private boolean verifyPieces(long start, long length) throws IOException {
+            if (pieceHashes == null || length <= 0) {
+                return true;
+            }
+            int pieceSize = pieceHashes.pieceSize;
+            int firstPiece = (int) (start / pieceSize);
+            int lastPiece = (int) ((start + length - 1) / pieceSize);
+            boolean intact = true;
+
+            for (int piece = firstPiece; piece <= lastPiece; piece++) {
+                if (verifiedPieces.get(piece)) {
+                    continue;
+                }
+                long pieceStart = (long) piece * pieceSize;
+                int pieceLength = pieceHashes.getPieceLength(piece);
+                int firstChunk = (int) (pieceStart / chunkSize);
+                int lastChunk = (int) ((pieceStart + pieceLength - 1) / chunkSize);
+                int missing = manifest.nextMissing(firstChunk);
+                if (missing >= 0 && missing <= lastChunk) {
+                    continue;
+                }
+
+                if (pieceBuffer == null || pieceBuffer.length < pieceSize) {
+                    pieceBuffer = new byte[pieceSize];
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(pieceBuffer, 0, pieceLength);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, pieceStart + buffer.position()) < 0) {
+                        throw new IOException("Partial file is shorter than expected");
+                    }
+                }
+
+                if (pieceHashes.matches(piece, pieceBuffer, 0, pieceLength)) {
+                    verifiedPieces.set(piece);
+                    continue;
+                }
+
+                intact = false;
+                corruptPieces++;
+                Log.w(TAG, "Piece " + piece + " of " + fileName + " is corrupt, fetching chunks " +
+                          firstChunk + "-" + lastChunk + " again");
+                for (int chunk = firstChunk; chunk <= lastChunk; chunk++) {
+                    manifest.clearComplete(chunk);
+                }
+                // Neighbouring pieces sharing these chunks must be checked again
+                long clearedEnd = Math.min((long) (lastChunk + 1) * chunkSize, totalSize);
+                verifiedPieces.clear((int) ((long) firstChunk * chunkSize / pieceSize),
+                        (int) ((clearedEnd - 1) / pieceSize) + 1);
+                firstMissing = Math.min(firstMissing, firstChunk);
+            }
+            return intact;
+        }
+
         /**
          * Check if a specific chunk is already completed.
          */
-        public boolean isChunkCompleted(int chunkIndex) {
-            return completedChunks.containsKey(chunkIndex);
+        public synchronized boolean isChunkCompleted(int chunkIndex) {
+            return manifest.isComplete(chunkIndex);
         }
 
         /**
          * Get the next chunk that needs to be downloaded.
          * @return chunk index, or -1 if all chunks complete
          */
-        public int getNextChunkToDownload() {
-            for (int i = 0; i < totalChunks; i++) {
-                if (!completedChunks.containsKey(i)) {
-                    return i;
-                }
+        public synchronized int getNextChunkToDownload() {
+            // Chunks before firstMissing are done and stay done
+            int next = manifest.nextMissing(firstMissing);
+            if (next >= 0) {
+                firstMissing = next;
             }
-            return -1; // All chunks complete
+            return next; // -1 when all chunks complete
         }
 
         /**
          * Check if all chunks are complete.
          */
-        public boolean isComplete() {
-            return completedChunks.size() == totalChunks;
+        public synchronized boolean isComplete() {
+            return manifest.getCompletedCount() == totalChunks;
         }
 
         /**
          * Get number of completed chunks.
          */
-        public int getCompletedChunks() {
-            return completedChunks.size();
+        public synchronized int getCompletedChunks() {
+            return manifest.getCompletedCount();
         }
 
         /**
          * Get completion percentage (0-100).
          */
-        public int getPercentComplete() {
-            return (int) ((completedChunks.size() * 100L) / totalChunks);
+        public synchronized int getPercentComplete() {
+            if (totalChunks == 0) {
+                return 100;
+            }
+            return (int) ((manifest.getCompletedCount() * 100L) / totalChunks);
         }
 
         /**
          * Get downloaded bytes.
          */
-        public long getDownloadedBytes() {
-            return (long) completedChunks.size() * chunkSize;
+        public synchronized long getDownloadedBytes() {
+            return Math.min((long) manifest.getCompletedCount() * chunkSize, totalSize);
+        }
+
+        /**
+         * Save progress and release the partial file. The download can be
+         * resumed later by creating a new ChunkDownload for the same file.
+         */
+        public synchronized void close() {
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to flush partial file", e);
+                }
+                closeChannel();
+            }
+            manifest.close();
+        }
+
+        /**
+         * Persist the chunks written since the last commit.
+         */
+        private void commit() throws IOException {
+            channel.force(false);
+            manifest.commit();
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            channel = null;
         }
 
         /**
@@ -256,6 +418,8 @@ public class ChunkDownloadManager {
             Log.i(TAG, "All chunks complete! Finalizing download: " + fileName);
 
             try {
+                closeChannel();
+
                 // Rename partial file to final file
                 if (finalFile.exists()) {
                     finalFile.delete();
@@ -265,10 +429,8 @@ public class ChunkDownloadManager {
                     Log.i(TAG, "Download complete: " + finalFile.getAbsolutePath());
                     completed = true;
 
-                    // Delete manifest file
-                    if (manifestFile.exists()) {
-                        manifestFile.delete();
-                    }
+                    // Delete manifest and journal
+                    manifest.delete();
                 } else {
                     Log.e(TAG, "Failed to rename partial file to final file");
                     markFailed("Failed to finalize download");
@@ -279,64 +441,6 @@ public class ChunkDownloadManager {
             }
         }
 
-        /**
-         * Load manifest from disk to resume download.
-         */
-        private void loadManifest() {
-            if (!manifestFile.exists()) {
-                return;
-            }
-
-            try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.startsWith("chunk")) {
-                        // Format: chunk5=complete,40960-49151
-                        String[] parts = line.split("=");
-                        if (parts.length == 2 && parts[1].startsWith("complete,")) {
-                            String chunkNumStr = parts[0].substring(5); // Remove "chunk" prefix
-                            int chunkIndex = Integer.parseInt(chunkNumStr);
-                            completedChunks.put(chunkIndex, true);
-                        }
-                    }
-                }
-                Log.i(TAG, "Loaded manifest: " + completedChunks.size() + " chunks already complete");
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to load manifest", e);
-            }
-        }
-
-        /**
-         * Save manifest to disk.
-         *
-         * Format:
-         * filename=acme.zip
-         * totalSize=102400
-         * chunkSize=10240
-         * totalChunks=10
-         * chunk0=complete,0-10239
-         * chunk1=complete,10240-20479
-         * chunk2=pending,20480-30719
-         * ...
-         */
-        private void saveManifest() {
-            try (FileWriter writer = new FileWriter(manifestFile)) {
-                writer.write("filename=" + fileName + "\n");
-                writer.write("totalSize=" + totalSize + "\n");
-                writer.write("chunkSize=" + chunkSize + "\n");
-                writer.write("totalChunks=" + totalChunks + "\n");
-
-                for (int i = 0; i < totalChunks; i++) {
-                    long startOffset = (long) i * chunkSize;
-                    long endOffset = Math.min(startOffset + chunkSize - 1, totalSize - 1);
-                    String status = completedChunks.containsKey(i) ? "complete" : "pending";
-                    writer.write("chunk" + i + "=" + status + "," + startOffset + "-" + endOffset + "\n");
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to save manifest", e);
-            }
-        }
-
         /**
          * Mark download as failed.
          */
@@ -355,8 +459,10 @@ public class ChunkDownloadManager {
         public boolean isCompleted() { return completed; }
         public boolean isFailed() { return failed; }
         public String getErrorMessage() { return errorMessage; }
+        public synchronized int getCorruptPieces() { return corruptPieces; }
         public File getPartialFile() { return partialFile; }
         public File getManifestFile() { return manifestFile; }
+        public File getJournalFile() { return journalFile; }
         public File getFinalFile() { return finalFile; }
         public long getElapsedTimeMs() { return System.currentTimeMillis() - startTimeMs; }
     }
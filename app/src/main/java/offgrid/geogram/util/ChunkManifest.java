@@ -0,0 +1,435 @@
+package offgrid.geogram.util;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Which chunks of a download are on disk, kept crash-safe in two files:
+ *
+ * - acme.zip.manifest: snapshot of the completed chunks as a bitset, with a
+ *   header (sizes) and a CRC32. Replaced atomically (write + rename).
+ * - acme.zip.journal: chunk ranges completed (or found corrupt and cleared)
+ *   since the snapshot, 12 bytes each with a checksum so a torn last record
+ *   is detected.
+ *
+ * Marking chunks costs nothing on disk until commit(), which appends the new
+ * ranges to the journal. Once the journal holds COMPACT_AFTER records it is
+ * folded into a new snapshot and emptied. Replaying the journal over the
+ * snapshot is idempotent, so a crash at any point loses at most the chunks
+ * not yet committed.
+ *
+ * Manifests in the old text format (one "chunkN=complete,..." line per
+ * chunk) are read and rewritten as a snapshot.
+ *
+ * Not thread-safe, ChunkDownload calls it under its own lock.
+ */
+class ChunkManifest {
+    private static final String TAG = "ChunkManifest";
+
+    private static final int SNAPSHOT_MAGIC = 0x47434D31; // "GCM1"
+    private static final int JOURNAL_MAGIC = 0x47434A31;  // "GCJ1"
+    private static final int JOURNAL_HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 12;
+    static final int COMPACT_AFTER = 4096;
+
+    private final File manifestFile;
+    private final File journalFile;
+    private final long totalSize;
+    private final int chunkSize;
+    private final int totalChunks;
+
+    private final BitSet completed = new BitSet();
+    // Marked but not yet in the journal
+    private final BitSet uncommitted = new BitSet();
+    // Cleared after being journaled as complete
+    private final BitSet uncommittedClears = new BitSet();
+    private int completedCount = 0;
+    private int journalRecords = 0;
+    private FileChannel journal;
+
+    ChunkManifest(File manifestFile, File journalFile, long totalSize, int chunkSize, int totalChunks) {
+        this.manifestFile = manifestFile;
+        this.journalFile = journalFile;
+        this.totalSize = totalSize;
+        this.chunkSize = chunkSize;
+        this.totalChunks = totalChunks;
+    }
+
+    /**
+     * Read the snapshot and replay the journal. Missing or unreadable state
+     * counts as no chunks done, they are downloaded again.
+     */
+    void load() {
+        boolean migrated = false;
+        if (manifestFile.exists()) {
+            try {
+                byte[] bytes = Files.readAllBytes(manifestFile.toPath());
+                if (bytes.length >= 4 && ByteBuffer.wrap(bytes).getInt() == SNAPSHOT_MAGIC) {
+                    readSnapshot(bytes);
+                } else {
+                    readLegacy(new String(bytes, StandardCharsets.UTF_8));
+                    migrated = true;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read manifest " + manifestFile.getName() + ": " + e.getMessage());
+                completed.clear();
+            }
+        }
+        replayJournal();
+        completedCount = completed.cardinality();
+
+        if (migrated) {
+            try {
+                compact();
+                Log.i(TAG, "Migrated text manifest " + manifestFile.getName());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to migrate manifest " + manifestFile.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    boolean isComplete(int chunk) {
+        return completed.get(chunk);
+    }
+
+    int getCompletedCount() {
+        return completedCount;
+    }
+
+    int getUncommittedCount() {
+        return uncommitted.cardinality();
+    }
+
+    /**
+     * First chunk at or after fromChunk that is not done, or -1.
+     */
+    int nextMissing(int fromChunk) {
+        int chunk = completed.nextClearBit(fromChunk);
+        return chunk < totalChunks ? chunk : -1;
+    }
+
+    /**
+     * Mark a chunk done in memory. It is persisted by the next commit(),
+     * after its data has reached the disk.
+     */
+    void markComplete(int chunk) {
+        if (!completed.get(chunk)) {
+            completed.set(chunk);
+            uncommitted.set(chunk);
+            completedCount++;
+        }
+    }
+
+    /**
+     * Undo markComplete, for chunks whose data turned out to be corrupt.
+     */
+    void clearComplete(int chunk) {
+        if (completed.get(chunk)) {
+            completed.clear(chunk);
+            completedCount--;
+            if (uncommitted.get(chunk)) {
+                // Never reached the journal, nothing to undo there
+                uncommitted.clear(chunk);
+            } else {
+                uncommittedClears.set(chunk);
+            }
+        }
+    }
+
+    /**
+     * Append the chunks marked since the last commit to the journal, as ranges.
+     * The caller must have forced the chunk data to disk first.
+     */
+    void commit() throws IOException {
+        if (uncommitted.isEmpty() && uncommittedClears.isEmpty()) {
+            return;
+        }
+        FileChannel channel = openJournal();
+        ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 64);
+        // Clears first: a chunk cleared and then fetched again ends up complete
+        appendRanges(channel, records, uncommittedClears, true);
+        appendRanges(channel, records, uncommitted, false);
+        writeFully(channel, records);
+        channel.force(false);
+        uncommitted.clear();
+        uncommittedClears.clear();
+
+        if (journalRecords >= COMPACT_AFTER) {
+            compact();
+        }
+    }
+
+    /**
+     * One record per run of set bits. Cleared ranges have a negative count.
+     */
+    private void appendRanges(FileChannel channel, ByteBuffer records, BitSet chunks, boolean clear)
+            throws IOException {
+        int start = chunks.nextSetBit(0);
+        while (start >= 0) {
+            int end = chunks.nextClearBit(start);
+            int count = clear ? start - end : end - start;
+            if (!records.hasRemaining()) {
+                writeFully(channel, records);
+            }
+            records.putInt(start).putInt(count).putInt(checksum(start, count));
+            journalRecords++;
+            start = chunks.nextSetBit(end);
+        }
+    }
+
+    /**
+     * Fold the journal into a new snapshot and empty it.
+     */
+    void compact() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        byte[] bits = completed.toByteArray();
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeLong(totalSize);
+        out.writeInt(chunkSize);
+        out.writeInt(totalChunks);
+        out.writeInt(bits.length);
+        out.write(bits);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        File temporary = new File(manifestFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary)) {
+            file.write(buffer.toByteArray());
+            file.getFD().sync();
+        }
+        if (!temporary.renameTo(manifestFile)) {
+            temporary.delete();
+            throw new IOException("Cannot replace " + manifestFile.getName());
+        }
+
+        // The snapshot now covers everything committed, start a new journal
+        FileChannel channel = openJournal();
+        channel.truncate(JOURNAL_HEADER_SIZE);
+        channel.position(JOURNAL_HEADER_SIZE);
+        channel.force(false);
+        journalRecords = 0;
+    }
+
+    /**
+     * Commit, compact and release the journal.
+     */
+    void close() {
+        try {
+            commit();
+            if (journalRecords > 0) {
+                compact();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save manifest " + manifestFile.getName() + ": " + e.getMessage());
+        }
+        closeJournal();
+    }
+
+    /**
+     * Remove both files, once the download is finished.
+     */
+    void delete() {
+        closeJournal();
+        manifestFile.delete();
+        journalFile.delete();
+    }
+
+    /**
+     * Forget all progress, e.g. when the partial file is gone.
+     */
+    void reset() {
+        closeJournal();
+        completed.clear();
+        uncommitted.clear();
+        uncommittedClears.clear();
+        completedCount = 0;
+        journalRecords = 0;
+        manifestFile.delete();
+        journalFile.delete();
+    }
+
+    private void readSnapshot(byte[] bytes) throws IOException {
+        if (bytes.length < 32) {
+            throw new IOException("Truncated manifest");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) {
+            throw new IOException("Manifest checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.readInt();
+        long savedTotalSize = in.readLong();
+        int savedChunkSize = in.readInt();
+        int savedTotalChunks = in.readInt();
+        if (!matches(savedTotalSize, savedChunkSize) || savedTotalChunks != totalChunks) {
+            Log.w(TAG, "Manifest " + manifestFile.getName() + " is for another file version, starting over");
+            reset();
+            return;
+        }
+        byte[] bits = new byte[in.readInt()];
+        in.readFully(bits);
+        completed.or(BitSet.valueOf(bits));
+        clearBeyondEnd();
+    }
+
+    /**
+     * Old format:
+     * filename=acme.zip
+     * totalSize=102400
+     * chunkSize=10240
+     * totalChunks=10
+     * chunk0=complete,0-10239
+     * chunk1=pending,10240-20479
+     */
+    private void readLegacy(String text) throws IOException {
+        long savedTotalSize = totalSize;
+        int savedChunkSize = chunkSize;
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("=", 2);
+                if (parts.length != 2) {
+                    continue;
+                }
+                try {
+                    if (parts[0].equals("totalSize")) {
+                        savedTotalSize = Long.parseLong(parts[1].trim());
+                    } else if (parts[0].equals("chunkSize")) {
+                        savedChunkSize = Integer.parseInt(parts[1].trim());
+                    } else if (parts[0].startsWith("chunk") && parts[1].startsWith("complete,")) {
+                        completed.set(Integer.parseInt(parts[0].substring(5)));
+                    }
+                } catch (NumberFormatException e) {
+                    // Skip damaged lines, those chunks are downloaded again
+                }
+            }
+        }
+        if (!matches(savedTotalSize, savedChunkSize)) {
+            Log.w(TAG, "Manifest " + manifestFile.getName() + " is for another file version, starting over");
+            reset();
+            return;
+        }
+        clearBeyondEnd();
+    }
+
+    private void replayJournal() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            if (channel.read(header, 0) != JOURNAL_HEADER_SIZE || header.getInt(0) != JOURNAL_MAGIC
+                    || !matches(header.getLong(4), header.getInt(12))) {
+                // Not ours, or from an earlier version of the file
+                file.setLength(0);
+                return;
+            }
+
+            long position = JOURNAL_HEADER_SIZE;
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            while (true) {
+                record.clear();
+                if (channel.read(record, position) != RECORD_SIZE) {
+                    break;
+                }
+                int start = record.getInt(0);
+                int count = record.getInt(4);
+                int length = Math.abs(count);
+                if (record.getInt(8) != checksum(start, count) || start < 0 || count == 0
+                        || (long) start + length > totalChunks) {
+                    break;
+                }
+                if (count > 0) {
+                    completed.set(start, start + count);
+                } else {
+                    completed.clear(start, start + length);
+                }
+                journalRecords++;
+                position += RECORD_SIZE;
+            }
+            if (position < channel.size()) {
+                // Torn write from a crash, drop it so new records follow valid ones
+                Log.w(TAG, "Dropping " + (channel.size() - position) + " bytes of damaged journal");
+                channel.truncate(position);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read journal " + journalFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private FileChannel openJournal() throws IOException {
+        if (journal != null) {
+            return journal;
+        }
+        FileChannel channel = new RandomAccessFile(journalFile, "rw").getChannel();
+        if (channel.size() < JOURNAL_HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            header.putInt(JOURNAL_MAGIC).putLong(totalSize).putInt(chunkSize);
+            header.flip();
+            channel.truncate(0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        channel.position(channel.size());
+        journal = channel;
+        return channel;
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            journal = null;
+        }
+    }
+
+    private boolean matches(long savedTotalSize, int savedChunkSize) {
+        return savedTotalSize == totalSize && savedChunkSize == chunkSize;
+    }
+
+    private void clearBeyondEnd() {
+        int beyond = completed.nextSetBit(totalChunks);
+        if (beyond >= 0) {
+            completed.clear(totalChunks, completed.length());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int checksum(int start, int count) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putInt(start).putInt(count).array());
+        return (int) crc.getValue();
+    }
+}
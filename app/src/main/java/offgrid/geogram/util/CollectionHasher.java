@@ -0,0 +1,275 @@
+package offgrid.geogram.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hashes collection files for {@link CollectionIndex} on a fork-join pool.
+ *
+ * Each file is read sequentially in windows of a few torrent pieces, with two
+ * windows in flight: while the pieces of one window are hashed on the pool
+ * (SHA-1 for the torrent, SHA-256 for verification) the next one is read and
+ * the reading thread feeds the whole-file SHA-1. Several files are hashed at
+ * the same time, so a collection of small files uses every core as well.
+ *
+ * Files are read rather than memory-mapped: a collection file truncated by
+ * another app while mapped would crash the process instead of failing the
+ * hash.
+ */
+class CollectionHasher {
+    private static final String TAG = "CollectionHasher";
+
+    static final int TORRENT_PIECE_LENGTH = CollectionIndex.TORRENT_PIECE_LENGTH;
+    // Torrent pieces per read, two windows per file are in memory at once
+    private static final int WINDOW_PIECES = 4;
+    private static final byte[] ZEROS = new byte[TORRENT_PIECE_LENGTH];
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static CollectionHasher shared;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Hashes of one file.
+     */
+    static class FileHashes {
+        long size;
+        long modified;
+        String sha1;
+        // SHA-1 per torrent piece, the last piece zero-padded to full length
+        final List<String> torrentPieces = new ArrayList<>();
+        // SHA-1 of the last piece without padding
+        String torrentTail;
+        // SHA-256 per PieceHashes.PIECE_SIZE
+        final List<String> pieces = new ArrayList<>();
+    }
+
+    CollectionHasher(int parallelism) {
+        pool = new ForkJoinPool(parallelism, owner -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(owner);
+            thread.setName("CollectionHasher-" + thread.getPoolIndex());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, false);
+    }
+
+    static synchronized CollectionHasher getShared() {
+        if (shared == null) {
+            shared = new CollectionHasher(Runtime.getRuntime().availableProcessors());
+        }
+        return shared;
+    }
+
+    /**
+     * Hash one file.
+     */
+    FileHashes hash(File file) throws IOException {
+        FileTask task = new FileTask(file);
+        pool.invoke(task);
+        if (task.error != null) {
+            throw task.error;
+        }
+        return task.result;
+    }
+
+    /**
+     * Hash several files in parallel.
+     *
+     * @return The hashes in the order of the files, null where a file
+     *         couldn't be read or changed while it was hashed
+     */
+    List<FileHashes> hashAll(List<File> files) {
+        List<FileTask> tasks = new ArrayList<>();
+        for (File file : files) {
+            tasks.add(new FileTask(file));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        List<FileHashes> results = new ArrayList<>();
+        for (FileTask task : tasks) {
+            if (task.error != null) {
+                Log.e(TAG, "Error hashing " + task.file.getName() + ": " + task.error.getMessage());
+            }
+            results.add(task.result);
+        }
+        return results;
+    }
+
+    private static class FileTask extends RecursiveAction {
+        private final File file;
+        private FileHashes result;
+        private IOException error;
+
+        FileTask(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                result = hashFile();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        private FileHashes hashFile() throws IOException {
+            FileHashes hashes = new FileHashes();
+            hashes.size = file.length();
+            hashes.modified = file.lastModified();
+
+            MessageDigest whole = newDigest("SHA-1");
+            int windowLength = (int) Math.max(1, Math.min((long) WINDOW_PIECES * TORRENT_PIECE_LENGTH,
+                    roundUp(hashes.size)));
+            byte[][] buffers = {new byte[windowLength], new byte[windowLength]};
+            Deque<List<PieceTask>> inFlight = new ArrayDeque<>();
+
+            try (InputStream in = new FileInputStream(file)) {
+                for (int window = 0; ; window++) {
+                    // The pieces of the window two steps back used this buffer
+                    if (inFlight.size() == 2) {
+                        collect(inFlight.removeFirst(), hashes);
+                    }
+                    byte[] buffer = buffers[window & 1];
+                    int filled = readFully(in, buffer);
+                    if (filled == 0) {
+                        break;
+                    }
+                    List<PieceTask> pieces = new ArrayList<>();
+                    for (int offset = 0; offset < filled; offset += TORRENT_PIECE_LENGTH) {
+                        PieceTask piece = new PieceTask(buffer, offset,
+                                Math.min(TORRENT_PIECE_LENGTH, filled - offset));
+                        piece.fork();
+                        pieces.add(piece);
+                    }
+                    inFlight.addLast(pieces);
+                    whole.update(buffer, 0, filled);
+                    if (filled < buffer.length) {
+                        break;
+                    }
+                }
+            } finally {
+                // Let forked pieces finish before the buffers go away
+                while (!inFlight.isEmpty()) {
+                    collect(inFlight.removeFirst(), hashes);
+                }
+            }
+            hashes.sha1 = toHex(whole.digest());
+
+            if (file.length() != hashes.size || file.lastModified() != hashes.modified) {
+                throw new IOException("File changed while hashing: " + file.getName());
+            }
+            return hashes;
+        }
+
+        private static void collect(List<PieceTask> pieces, FileHashes hashes) {
+            for (PieceTask piece : pieces) {
+                piece.join();
+                hashes.torrentPieces.add(piece.torrentPiece);
+                hashes.torrentTail = piece.torrentTail;
+                hashes.pieces.addAll(Arrays.asList(piece.pieces));
+            }
+        }
+    }
+
+    /**
+     * One torrent piece and the verification pieces inside it.
+     */
+    private static class PieceTask extends RecursiveAction {
+        private final byte[] buffer;
+        private final int offset;
+        private final int length;
+        private String torrentPiece;
+        private String torrentTail;
+        private String[] pieces;
+
+        PieceTask(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        protected void compute() {
+            MessageDigest sha1 = newDigest("SHA-1");
+            sha1.update(buffer, offset, length);
+            if (length < TORRENT_PIECE_LENGTH) {
+                try {
+                    MessageDigest padded = (MessageDigest) sha1.clone();
+                    padded.update(ZEROS, 0, TORRENT_PIECE_LENGTH - length);
+                    torrentPiece = toHex(padded.digest());
+                } catch (CloneNotSupportedException e) {
+                    // Android's and the JDK's SHA-1 are cloneable
+                    throw new IllegalStateException(e);
+                }
+                torrentTail = toHex(sha1.digest());
+            } else {
+                torrentPiece = toHex(sha1.digest());
+                torrentTail = torrentPiece;
+            }
+
+            // A torrent piece holds a whole number of verification pieces
+            MessageDigest sha256 = newDigest(PieceHashes.ALGORITHM);
+            int count = (length + PieceHashes.PIECE_SIZE - 1) / PieceHashes.PIECE_SIZE;
+            pieces = new String[count];
+            for (int i = 0; i < count; i++) {
+                int start = i * PieceHashes.PIECE_SIZE;
+                sha256.update(buffer, offset + start, Math.min(PieceHashes.PIECE_SIZE, length - start));
+                pieces[i] = toHex(sha256.digest());
+            }
+        }
+    }
+
+    private static long roundUp(long size) {
+        return (size + TORRENT_PIECE_LENGTH - 1) / TORRENT_PIECE_LENGTH * TORRENT_PIECE_LENGTH;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int filled = 0;
+        while (filled < buffer.length) {
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read == -1) {
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime has SHA-1 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,79 @@
+package offgrid.geogram.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which remote devices listed which collections, so a download can
+ * take chunks from every device known to hold the collection and not only
+ * the one being browsed. Entries expire, a device that left is not a source.
+ */
+public class CollectionHolders {
+    static final long HOLDER_TTL_MS = 30 * 60 * 1000;
+
+    private static CollectionHolders instance;
+
+    // collectionId -> deviceId -> holder
+    private final Map<String, Map<String, Holder>> holders = new ConcurrentHashMap<>();
+
+    public static class Holder {
+        public final String deviceId;
+        public final String remoteIp;
+        final long seenAt;
+
+        Holder(String deviceId, String remoteIp, long seenAt) {
+            this.deviceId = deviceId;
+            this.remoteIp = remoteIp;
+            this.seenAt = seenAt;
+        }
+    }
+
+    public static synchronized CollectionHolders getInstance() {
+        if (instance == null) {
+            instance = new CollectionHolders();
+        }
+        return instance;
+    }
+
+    /**
+     * Record that a device listed a collection.
+     *
+     * @param remoteIp the device's WiFi address, or null when only reachable by callsign
+     */
+    public void record(String collectionId, String deviceId, String remoteIp) {
+        record(collectionId, deviceId, remoteIp, System.currentTimeMillis());
+    }
+
+    void record(String collectionId, String deviceId, String remoteIp, long now) {
+        if (collectionId == null || deviceId == null || deviceId.isEmpty()) {
+            return;
+        }
+        holders.computeIfAbsent(collectionId, id -> new ConcurrentHashMap<>())
+                .put(deviceId, new Holder(deviceId, remoteIp, now));
+    }
+
+    /**
+     * Devices seen holding a collection recently, except the given one.
+     */
+    public List<Holder> getHolders(String collectionId, String exceptDeviceId) {
+        return getHolders(collectionId, exceptDeviceId, System.currentTimeMillis());
+    }
+
+    List<Holder> getHolders(String collectionId, String exceptDeviceId, long now) {
+        List<Holder> result = new ArrayList<>();
+        Map<String, Holder> devices = holders.get(collectionId);
+        if (devices == null) {
+            return result;
+        }
+        for (Holder holder : devices.values()) {
+            if (now - holder.seenAt > HOLDER_TTL_MS) {
+                devices.remove(holder.deviceId, holder);
+            } else if (!holder.deviceId.equals(exceptDeviceId)) {
+                result.add(holder);
+            }
+        }
+        return result;
+    }
+}
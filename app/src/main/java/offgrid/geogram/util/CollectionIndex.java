@@ -0,0 +1,266 @@
+package offgrid.geogram.util;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent index of the files in a local collection, kept in
+ * extra/file-index.json.
+ *
+ * For each file it remembers size and modification time together with
+ * everything derived from the content: the SHA-1 listed in tree-data.js, the
+ * SHA-1 torrent pieces and the SHA-256 verification pieces (see
+ * {@link PieceHashes}). A rescan only stats the tree; files whose size or
+ * time changed are read once to compute all three, in parallel on the
+ * {@link CollectionHasher} pool, the rest come from the index.
+ */
+public class CollectionIndex {
+    private static final String TAG = "CollectionIndex";
+
+    public static final int TORRENT_PIECE_LENGTH = 256 * 1024;
+    private static final String INDEX_FILE = "extra/file-index.json";
+    private static final int VERSION = 1;
+
+    private static final Map<String, CollectionIndex> instances = new HashMap<>();
+
+    private final File collectionRoot;
+    private final File indexFile;
+    private final CollectionHasher hasher;
+    private Map<String, Entry> entries;
+
+    /**
+     * One file of the collection.
+     */
+    public static class Entry {
+        public String path;
+        public long size;
+        public long modified;
+        public String sha1;
+        // SHA-1 per TORRENT_PIECE_LENGTH, the last piece zero-padded to full length
+        public List<String> torrentPieces;
+        // SHA-1 of the last piece without padding, for the final file of a torrent
+        public String torrentTail;
+    }
+
+    // Stored form
+    private static class Stored {
+        int version;
+        List<Entry> files;
+    }
+
+    CollectionIndex(File collectionRoot) {
+        this(collectionRoot, CollectionHasher.getShared());
+    }
+
+    CollectionIndex(File collectionRoot, CollectionHasher hasher) {
+        this.collectionRoot = collectionRoot;
+        this.indexFile = new File(collectionRoot, INDEX_FILE);
+        this.hasher = hasher;
+    }
+
+    public static synchronized CollectionIndex forCollection(File collectionRoot) {
+        String key = collectionRoot.getAbsolutePath();
+        CollectionIndex index = instances.get(key);
+        if (index == null) {
+            index = new CollectionIndex(collectionRoot);
+            instances.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Bring the index up to date with the collection folder, hashing only
+     * new and changed files. Blocks while hashing, call from a background
+     * thread for large collections.
+     *
+     * @return All files, sorted by path
+     */
+    public synchronized List<Entry> refresh() {
+        load();
+        Map<String, File> present = new TreeMap<>();
+        collectFiles(collectionRoot, "", present);
+
+        boolean changed = entries.keySet().retainAll(present.keySet());
+        List<String> paths = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (Map.Entry<String, File> item : present.entrySet()) {
+            Entry entry = entries.get(item.getKey());
+            File file = item.getValue();
+            if (entry == null || entry.size != file.length() || entry.modified != file.lastModified()) {
+                paths.add(item.getKey());
+                files.add(file);
+            }
+        }
+
+        // New and changed files are hashed together, in parallel
+        List<CollectionHasher.FileHashes> results = hasher.hashAll(files);
+        int hashed = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            Entry updated = toEntry(paths.get(i), results.get(i));
+            if (updated != null) {
+                entries.put(paths.get(i), updated);
+                hashed++;
+            } else {
+                entries.remove(paths.get(i));
+            }
+            changed = true;
+        }
+
+        if (changed) {
+            save();
+            Log.i(TAG, "Indexed " + collectionRoot.getName() + ": " + entries.size() + " files, " +
+                    hashed + " hashed");
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Entry of one file, hashed now if the index doesn't have it or it changed.
+     *
+     * @return The entry, or null if the file can't be read
+     */
+    public synchronized Entry get(String relativePath) {
+        load();
+        File file = new File(collectionRoot, relativePath);
+        if (!file.isFile()) {
+            return null;
+        }
+        Entry entry = entries.get(relativePath);
+        if (entry != null && entry.size == file.length() && entry.modified == file.lastModified()) {
+            return entry;
+        }
+        entry = hash(file, relativePath);
+        if (entry != null) {
+            entries.put(relativePath, entry);
+            save();
+        }
+        return entry;
+    }
+
+    /**
+     * SHA-1 of a file for tree-data.js, or "" if it can't be read.
+     */
+    public String getSha1(String relativePath) {
+        Entry entry = get(relativePath);
+        return entry != null ? entry.sha1 : "";
+    }
+
+    /**
+     * Hash a file: SHA-1, torrent pieces and verification pieces (saved
+     * through PieceHashes).
+     */
+    private Entry hash(File file, String relativePath) {
+        try {
+            return toEntry(relativePath, hasher.hash(file));
+        } catch (IOException e) {
+            Log.e(TAG, "Error hashing " + relativePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Entry toEntry(String relativePath, CollectionHasher.FileHashes hashes) {
+        if (hashes == null) {
+            return null;
+        }
+        Entry entry = new Entry();
+        entry.path = relativePath;
+        entry.size = hashes.size;
+        entry.modified = hashes.modified;
+        entry.sha1 = hashes.sha1;
+        entry.torrentPieces = hashes.torrentPieces;
+        entry.torrentTail = hashes.torrentTail;
+
+        PieceHashes pieces = new PieceHashes();
+        pieces.path = relativePath;
+        pieces.size = hashes.size;
+        pieces.modified = hashes.modified;
+        pieces.pieceSize = PieceHashes.PIECE_SIZE;
+        pieces.algorithm = PieceHashes.ALGORITHM;
+        pieces.pieces = hashes.pieces;
+        PieceHashes.store(collectionRoot, pieces);
+        return entry;
+    }
+
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<>();
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (FileReader reader = new FileReader(indexFile)) {
+            Stored stored = new Gson().fromJson(reader, Stored.class);
+            if (stored == null || stored.version != VERSION || stored.files == null) {
+                return;
+            }
+            for (Entry entry : stored.files) {
+                if (entry != null && entry.path != null && entry.sha1 != null && entry.torrentPieces != null) {
+                    entries.put(entry.path, entry);
+                }
+            }
+        } catch (Exception e) {
+            // Rebuilt by the next refresh
+            Log.w(TAG, "Ignoring unreadable index " + indexFile.getAbsolutePath() + ": " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        File folder = indexFile.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Log.e(TAG, "Cannot create folder: " + folder.getAbsolutePath());
+            return;
+        }
+        Stored stored = new Stored();
+        stored.version = VERSION;
+        stored.files = new ArrayList<>(entries.values());
+
+        // Write next to the final name and rename, a crash leaves the old index
+        File temporary = new File(folder, indexFile.getName() + ".tmp");
+        try (FileWriter writer = new FileWriter(temporary)) {
+            new Gson().toJson(stored, writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving index: " + e.getMessage());
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(indexFile)) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Same files as the collection scan: everything except extra/ and the metadata files.
+     */
+    private static void collectFiles(File folder, String currentPath, Map<String, File> files) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if ("collection.js".equals(name) || "extra".equals(name) ||
+                "manifest".equals(name) || "data.js".equals(name)) {
+                continue;
+            }
+            String path = currentPath.isEmpty() ? name : currentPath + "/" + name;
+            if (child.isDirectory()) {
+                collectFiles(child, path, files);
+            } else {
+                files.put(path, child);
+            }
+        }
+    }
+}
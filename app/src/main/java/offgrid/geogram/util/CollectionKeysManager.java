@@ -17,7 +17,7 @@ import java.util.Map;
  */
 public class CollectionKeysManager {
 
-    private static final String CONFIG_FILE = "collection_keys_config.json";
+    static final String CONFIG_FILE = "collection_keys_config.json";
 
     /**
      * Stores a collection's npub/nsec pair
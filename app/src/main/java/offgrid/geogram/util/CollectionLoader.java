@@ -53,7 +53,7 @@ public class CollectionLoader {
         return collections;
     }
 
-    private static Collection loadCollectionFromFolder(Context context, File folder) {
+    static Collection loadCollectionFromFolder(Context context, File folder) {
         File collectionJs = new File(folder, "collection.js");
 
         if (!collectionJs.exists()) {
@@ -255,92 +255,10 @@ public class CollectionLoader {
     }
 
     private static void generateTreeDataJs(Collection collection, File collectionFolder) {
-        try {
-            // Ensure extra/ folder exists
-            File extraDir = new File(collectionFolder, "extra");
-            if (!extraDir.exists()) {
-                extraDir.mkdirs();
-            }
-
-            // Generate tree-data.js content
-            StringBuilder sb = new StringBuilder();
-            sb.append("window.TREE_DATA = [\n");
-
-            List<CollectionFile> files = collection.getFiles();
-            for (int i = 0; i < files.size(); i++) {
-                CollectionFile file = files.get(i);
-                sb.append("  {\n");
-                sb.append("    \"path\": \"").append(escapeJson(file.getPath())).append("\",\n");
-                sb.append("    \"type\": \"").append(file.isDirectory() ? "directory" : "file").append("\"");
-
-                if (!file.isDirectory()) {
-                    sb.append(",\n");
-                    sb.append("    \"size\": ").append(file.getSize()).append(",\n");
-                    sb.append("    \"hashes\": {\n");
-                    sb.append("      \"sha1\": \"").append(calculateSHA1(new File(collectionFolder, file.getPath()))).append("\"\n");
-                    sb.append("    }");
-
-                    if (file.getMimeType() != null) {
-                        sb.append(",\n");
-                        sb.append("    \"metadata\": {\n");
-                        sb.append("      \"mime_type\": \"").append(escapeJson(file.getMimeType())).append("\"\n");
-                        sb.append("    }");
-                    }
-                }
-
-                sb.append("\n  }");
-                if (i < files.size() - 1) {
-                    sb.append(",");
-                }
-                sb.append("\n");
-            }
-
-            sb.append("];\n");
-
-            // Write to extra/tree-data.js
-            File treeDataJs = new File(extraDir, "tree-data.js");
-            try (java.io.FileWriter writer = new java.io.FileWriter(treeDataJs)) {
-                writer.write(sb.toString());
-            }
-
-            android.util.Log.i("CollectionLoader", "Successfully generated tree-data.js with " + files.size() + " entries");
-
-        } catch (Exception e) {
-            android.util.Log.e("CollectionLoader", "Error generating tree-data.js: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    private static String calculateSHA1(File file) {
-        try {
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-1");
-            try (java.io.FileInputStream fis = new java.io.FileInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    digest.update(buffer, 0, bytesRead);
-                }
-            }
-            byte[] hashBytes = digest.digest();
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "";
+        if (TreeData.write(collection, collectionFolder)) {
+            android.util.Log.i("CollectionLoader", "Successfully generated tree-data.js with " + collection.getFiles().size() + " entries");
+        } else {
+            android.util.Log.e("CollectionLoader", "Error generating tree-data.js for " + collectionFolder.getName());
         }
     }
-
-    private static String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t");
-    }
 }
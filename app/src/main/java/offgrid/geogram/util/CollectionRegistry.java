@@ -0,0 +1,282 @@
+package offgrid.geogram.util;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import offgrid.geogram.models.Collection;
+
+/**
+ * In-memory index of the collections in app storage, by npub.
+ *
+ * Parsing collection.js, security.json and tree-data.js is done once per
+ * collection and repeated only when one of those files (or the collection
+ * folder itself) changes. A FileObserver on the collections directory picks
+ * up collections being added or removed; changes inside a collection are
+ * caught by comparing modification times on access, which costs a few stat
+ * calls instead of a full parse.
+ *
+ * Callers receive copies, so the UI can modify them (rescans, new files)
+ * while the HTTP server reads the same collection.
+ */
+public class CollectionRegistry {
+    private static final String TAG = "CollectionRegistry";
+
+    private static CollectionRegistry instance;
+
+    private final Context context;
+    private final File collectionsDir;
+    private final File keysFile;
+
+    // Loaded collections by folder name and by npub
+    private final Map<String, Entry> byFolder = new HashMap<>();
+    private final Map<String, Entry> byId = new HashMap<>();
+
+    private boolean listed = false;
+    private long listedModified = -1;
+    private FileObserver observer;
+
+    private static class Entry {
+        final File folder;
+        final Collection collection;
+        final long signature;
+        // Built on the first folder listing, dropped with the entry when the collection changes
+        DirectoryListing listing;
+
+        Entry(File folder, Collection collection, long signature) {
+            this.folder = folder;
+            this.collection = collection;
+            this.signature = signature;
+        }
+    }
+
+    CollectionRegistry(Context context) {
+        this.context = context.getApplicationContext();
+        this.collectionsDir = new File(this.context.getFilesDir(), "collections");
+        this.keysFile = new File(this.context.getFilesDir(), CollectionKeysManager.CONFIG_FILE);
+    }
+
+    public static synchronized CollectionRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new CollectionRegistry(context);
+        }
+        return instance;
+    }
+
+    /**
+     * All collections in app storage.
+     */
+    public synchronized List<Collection> getCollections() {
+        refreshList();
+        List<Collection> collections = new ArrayList<>();
+        for (String folderName : new ArrayList<>(byFolder.keySet())) {
+            Entry entry = validate(byFolder.get(folderName));
+            if (entry != null) {
+                collections.add(copyOf(entry.collection));
+            }
+        }
+        return collections;
+    }
+
+    /**
+     * The collection with this npub, or null when there is none.
+     */
+    public synchronized Collection getCollection(String npub) {
+        Entry entry = find(npub);
+        return entry != null ? copyOf(entry.collection) : null;
+    }
+
+    /**
+     * Folder listing of the collection with this npub, built once and kept
+     * until the collection changes on disk.
+     *
+     * @return The listing, or null when there is no such collection
+     */
+    public synchronized DirectoryListing getListing(String npub) {
+        Entry entry = find(npub);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.listing == null) {
+            entry.listing = new DirectoryListing(entry.collection);
+        }
+        return entry.listing;
+    }
+
+    /**
+     * The current entry for an npub, reloaded if its files changed.
+     */
+    private Entry find(String npub) {
+        if (npub == null) {
+            return null;
+        }
+        refreshList();
+        Entry entry = byId.get(npub);
+        if (entry == null) {
+            // It may be a folder whose collection.js was still being written
+            for (Entry failed : new ArrayList<>(byFolder.values())) {
+                if (failed.collection == null) {
+                    validate(failed);
+                }
+            }
+            entry = byId.get(npub);
+        }
+        if (entry == null) {
+            return null;
+        }
+        entry = validate(entry);
+        // The npub itself may have changed in collection.js
+        if (entry == null || !npub.equals(entry.collection.getId())) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Forget everything; the next access reloads all collections.
+     */
+    public synchronized void invalidateAll() {
+        byFolder.clear();
+        byId.clear();
+        listed = false;
+    }
+
+    /**
+     * Re-list the collections directory when folders were added or removed.
+     */
+    private void refreshList() {
+        startObserver();
+        long modified = collectionsDir.lastModified();
+        if (listed && modified == listedModified) {
+            return;
+        }
+        listed = true;
+        listedModified = modified;
+
+        File[] folders = collectionsDir.listFiles();
+        Map<String, File> present = new HashMap<>();
+        if (folders != null) {
+            for (File folder : folders) {
+                if (folder.isDirectory()) {
+                    present.put(folder.getName(), folder);
+                }
+            }
+        }
+
+        for (String folderName : new ArrayList<>(byFolder.keySet())) {
+            if (!present.containsKey(folderName)) {
+                remove(byFolder.get(folderName));
+            }
+        }
+        for (File folder : present.values()) {
+            Entry entry = byFolder.get(folder.getName());
+            if (entry == null) {
+                load(folder);
+            }
+        }
+        Log.d(TAG, "Indexed " + byId.size() + " collections");
+    }
+
+    /**
+     * Reload the entry if its files changed since it was parsed.
+     *
+     * @return The current entry, or null if the collection can no longer be loaded
+     */
+    private Entry validate(Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        if (entry.signature == signature(entry.folder)) {
+            return entry.collection != null ? entry : null;
+        }
+        remove(entry);
+        return load(entry.folder);
+    }
+
+    private Entry load(File folder) {
+        Collection collection = CollectionLoader.loadCollectionFromFolder(context, folder);
+        // Taken after loading, which may have generated tree-data.js
+        long signature = signature(folder);
+        if (collection == null) {
+            // Remember the failure too, so broken folders aren't parsed on every request
+            Entry failed = new Entry(folder, null, signature);
+            byFolder.put(folder.getName(), failed);
+            return null;
+        }
+        Entry entry = new Entry(folder, collection, signature);
+        byFolder.put(folder.getName(), entry);
+        byId.put(collection.getId(), entry);
+        ThumbnailCache.getInstance().prefetch(collection);
+        PieceHashes.publish(collection);
+        return entry;
+    }
+
+    private void remove(Entry entry) {
+        byFolder.remove(entry.folder.getName());
+        if (entry.collection != null && byId.get(entry.collection.getId()) == entry) {
+            byId.remove(entry.collection.getId());
+        }
+    }
+
+    /**
+     * Modification times and sizes of everything a loaded collection depends on.
+     */
+    private long signature(File folder) {
+        long signature = 17;
+        File[] sources = {
+                folder,
+                new File(folder, "collection.js"),
+                new File(folder, "extra/security.json"),
+                new File(folder, "extra/tree-data.js"),
+                keysFile
+        };
+        for (File source : sources) {
+            signature = signature * 31 + source.lastModified();
+            signature = signature * 31 + source.length();
+        }
+        return signature;
+    }
+
+    private void startObserver() {
+        if (observer != null || !collectionsDir.isDirectory()) {
+            return;
+        }
+        int mask = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+                | FileObserver.MOVED_TO | FileObserver.DELETE_SELF;
+        observer = new FileObserver(collectionsDir, mask) {
+            @Override
+            public void onEvent(int event, String path) {
+                synchronized (CollectionRegistry.this) {
+                    // Directory times have coarse resolution, don't rely on them alone
+                    listed = false;
+                    if ((event & FileObserver.DELETE_SELF) != 0) {
+                        stopWatching();
+                        observer = null;
+                    }
+                }
+            }
+        };
+        observer.startWatching();
+    }
+
+    private Collection copyOf(Collection source) {
+        Collection copy = new Collection(source.getId(), source.getTitle(), source.getDescription());
+        copy.setThumbnailPath(source.getThumbnailPath());
+        copy.setTotalSize(source.getTotalSize());
+        copy.setFilesCount(source.getFilesCount());
+        copy.setUpdated(source.getUpdated());
+        copy.setStoragePath(source.getStoragePath());
+        copy.setOwned(source.isOwned());
+        copy.setSecurity(source.getSecurity());
+        copy.setFiles(new ArrayList<>(source.getFiles()));
+        // Favorites are toggled in preferences without touching any file
+        copy.setFavorite(CollectionPreferences.isFavorite(context, source.getId()));
+        return copy;
+    }
+}
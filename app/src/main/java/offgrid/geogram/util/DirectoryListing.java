@@ -0,0 +1,189 @@
+package offgrid.geogram.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import offgrid.geogram.models.Collection;
+import offgrid.geogram.models.CollectionFile;
+
+/**
+ * Folder by folder view of a collection's files, for listing one folder a
+ * page at a time.
+ *
+ * CollectionRegistry builds one per loaded collection and keeps it with
+ * the collection's entry, so it is rebuilt only when the collection changes
+ * on disk (see CollectionRegistry.getListing). Each folder is sorted the
+ * way the browser shows it, folders first and then by name ignoring case.
+ * A page ends with a cursor naming its last item, so the next page starts
+ * right after it even if items were added meanwhile.
+ */
+public class DirectoryListing {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
+    private static final Comparator<Item> ORDER = (a, b) -> {
+        if (a.directory != b.directory) {
+            return a.directory ? -1 : 1;
+        }
+        int result = a.name.compareToIgnoreCase(b.name);
+        return result != 0 ? result : a.name.compareTo(b.name);
+    };
+
+    private final Map<String, List<Item>> folders = new HashMap<>();
+
+    /**
+     * One entry of a folder. Folders carry the total size of everything
+     * below them and their number of direct children.
+     */
+    public static class Item {
+        public final String path;
+        public final String name;
+        public final boolean directory;
+        public long size;
+        public int items;
+        public String mimeType;
+
+        Item(String path, String name, boolean directory) {
+            this.path = path;
+            this.name = name;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * A page of a folder.
+     */
+    public static class Page {
+        public final List<Item> items;
+        // Null on the last page
+        public final String nextCursor;
+        public final int total;
+
+        Page(List<Item> items, String nextCursor, int total) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+            this.total = total;
+        }
+    }
+
+    DirectoryListing(Collection collection) {
+        Map<String, Item> directories = new HashMap<>();
+        folders.put("", new ArrayList<>());
+        for (CollectionFile file : collection.getFiles()) {
+            String path = trimSlashes(file.getPath());
+            if (path.isEmpty()) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                addDirectory(path, directories);
+                continue;
+            }
+            Item item = new Item(path, nameOf(path), false);
+            item.size = file.getSize();
+            item.mimeType = file.getMimeType();
+            addDirectory(parentOf(path), directories);
+            folders.get(parentOf(path)).add(item);
+
+            // Every folder above counts the bytes
+            for (String parent = parentOf(path); !parent.isEmpty(); parent = parentOf(parent)) {
+                directories.get(parent).size += item.size;
+            }
+        }
+        for (Item directory : directories.values()) {
+            directory.items = folders.get(directory.path).size();
+        }
+        for (List<Item> items : folders.values()) {
+            Collections.sort(items, ORDER);
+        }
+    }
+
+    /**
+     * List a page of a folder.
+     *
+     * @param path Folder path, "" for the collection root
+     * @param cursor Cursor of the previous page, null for the first one
+     * @param limit Maximum number of items
+     * @return The page, empty for an unknown folder, or null if the cursor is invalid
+     */
+    public Page list(String path, String cursor, int limit) {
+        List<Item> items = folders.get(trimSlashes(path));
+        if (items == null) {
+            return new Page(new ArrayList<>(), null, 0);
+        }
+        int start = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            Item after = fromCursor(cursor);
+            if (after == null) {
+                return null;
+            }
+            // First item sorted after the cursor
+            int low = 0;
+            int high = items.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ORDER.compare(items.get(middle), after) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            start = low;
+        }
+        int end = (int) Math.min(items.size(), (long) start + Math.max(1, limit));
+        String next = end < items.size() ? toCursor(items.get(end - 1)) : null;
+        return new Page(new ArrayList<>(items.subList(start, end)), next, items.size());
+    }
+
+    /**
+     * Add a folder and the folders above it, once.
+     */
+    private void addDirectory(String path, Map<String, Item> directories) {
+        if (path.isEmpty() || directories.containsKey(path)) {
+            return;
+        }
+        Item item = new Item(path, nameOf(path), true);
+        directories.put(path, item);
+        folders.put(path, new ArrayList<>());
+        String parent = parentOf(path);
+        addDirectory(parent, directories);
+        folders.get(parent).add(item);
+    }
+
+    private static String toCursor(Item item) {
+        return (item.directory ? "d:" : "f:") + item.name;
+    }
+
+    private static Item fromCursor(String cursor) {
+        if (cursor.length() < 2 || cursor.charAt(1) != ':' ||
+                (cursor.charAt(0) != 'd' && cursor.charAt(0) != 'f')) {
+            return null;
+        }
+        String name = cursor.substring(2);
+        return new Item(name, name, cursor.charAt(0) == 'd');
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash == -1 ? "" : path.substring(0, slash);
+    }
+
+    private static String trimSlashes(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+}
@@ -0,0 +1,306 @@
+package offgrid.geogram.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import offgrid.geogram.models.Collection;
+
+/**
+ * SHA-256 hash list of a collection file, one hash per PIECE_SIZE bytes.
+ *
+ * Downloaders fetch it before the file and check every piece as soon as its
+ * chunks are in, so a chunk damaged on a BLE or relay link costs one piece
+ * instead of the whole transfer.
+ *
+ * Lists are kept as JSON in the collection's extra/hashes/ folder, named
+ * after the file path. {@link CollectionIndex} writes them while hashing new
+ * and changed files, which happens in the background after a collection is
+ * scanned (one low-priority worker) and on demand for the HTTP API.
+ */
+public class PieceHashes {
+    private static final String TAG = "PieceHashes";
+
+    public static final int PIECE_SIZE = 64 * 1024;
+    public static final String ALGORITHM = "SHA-256";
+    private static final String HASH_FOLDER = "extra/hashes";
+    private static final int PUBLISH_QUEUE_SIZE = 64;
+
+    private static final ExecutorService publisher = newPublisher();
+    // Collections with a refresh queued, so rescans don't pile up
+    private static final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    // Serialized as JSON
+    public String path;
+    public long size;
+    public long modified;
+    public int pieceSize;
+    public String algorithm;
+    public List<String> pieces;
+
+    // Decoded from pieces on first use
+    private transient byte[][] digests;
+
+    /**
+     * Hash a file.
+     *
+     * @param relativePath Path of the file inside its collection
+     */
+    public static PieceHashes compute(File file, String relativePath) throws IOException {
+        MessageDigest digest = newDigest();
+        PieceHashes hashes = new PieceHashes();
+        hashes.path = relativePath;
+        hashes.size = file.length();
+        hashes.modified = file.lastModified();
+        hashes.pieceSize = PIECE_SIZE;
+        hashes.algorithm = ALGORITHM;
+        hashes.pieces = new ArrayList<>();
+
+        byte[] buffer = new byte[PIECE_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            while (true) {
+                int filled = readFully(in, buffer);
+                if (filled == 0) {
+                    break;
+                }
+                digest.update(buffer, 0, filled);
+                hashes.pieces.add(toHex(digest.digest()));
+                if (filled < buffer.length) {
+                    break;
+                }
+            }
+        }
+        if (file.length() != hashes.size || file.lastModified() != hashes.modified) {
+            throw new IOException("File changed while hashing: " + relativePath);
+        }
+        return hashes;
+    }
+
+    /**
+     * Get the hash list of a collection file, computing and saving it if the
+     * saved one is missing or outdated. Blocks while hashing.
+     *
+     * @return The hash list, or null if the file can't be read
+     */
+    public static PieceHashes forFile(File collectionRoot, String relativePath) {
+        File file = new File(collectionRoot, relativePath);
+        if (!file.isFile()) {
+            return null;
+        }
+        File saved = new File(new File(collectionRoot, HASH_FOLDER), nameFor(relativePath));
+        if (saved.isFile()) {
+            PieceHashes hashes = JsonUtils.parseJson(saved, PieceHashes.class);
+            if (hashes != null && relativePath.equals(hashes.path) && hashes.modified == file.lastModified()
+                    && hashes.isValidFor(file.length())) {
+                return hashes;
+            }
+        }
+
+        // Hashed along with the rest of the index entry, which saves the list
+        if (CollectionIndex.forCollection(collectionRoot).get(relativePath) != null && saved.isFile()) {
+            PieceHashes hashes = JsonUtils.parseJson(saved, PieceHashes.class);
+            if (hashes != null && hashes.isValidFor(file.length())) {
+                return hashes;
+            }
+        }
+        try {
+            PieceHashes hashes = compute(file, relativePath);
+            save(hashes, saved);
+            return hashes;
+        } catch (IOException e) {
+            Log.e(TAG, "Error hashing " + relativePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Save a list computed elsewhere, see CollectionIndex.
+     */
+    static void store(File collectionRoot, PieceHashes hashes) {
+        save(hashes, new File(new File(collectionRoot, HASH_FOLDER), nameFor(hashes.path)));
+    }
+
+    /**
+     * Queue a background refresh of a local collection's index, which
+     * hashes the files that are new or changed since the last one.
+     */
+    public static void publish(Collection collection) {
+        if (collection == null || collection.getStoragePath() == null) {
+            return;
+        }
+        File collectionRoot = new File(collection.getStoragePath());
+        String key = collectionRoot.getAbsolutePath();
+        if (!queued.add(key)) {
+            return;
+        }
+        try {
+            publisher.execute(() -> {
+                queued.remove(key);
+                CollectionIndex.forCollection(collectionRoot).refresh();
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full, files are hashed when requested
+            queued.remove(key);
+        }
+    }
+
+    public static PieceHashes fromJson(String json) {
+        try {
+            return JsonUtils.parseJson(json, PieceHashes.class);
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid piece hashes: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public String toJson() {
+        return JsonUtils.convertToJsonText(this);
+    }
+
+    /**
+     * Check that this list is complete and describes a file of this size.
+     */
+    public boolean isValidFor(long fileSize) {
+        if (!ALGORITHM.equals(algorithm) || pieceSize <= 0 || pieces == null || size != fileSize) {
+            return false;
+        }
+        long expected = (fileSize + pieceSize - 1) / pieceSize;
+        if (pieces.size() != expected) {
+            return false;
+        }
+        for (String piece : pieces) {
+            if (piece == null || !piece.matches("[0-9a-f]{64}")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getPieceCount() {
+        return pieces.size();
+    }
+
+    /**
+     * Byte length of a piece, the last one may be shorter.
+     */
+    public int getPieceLength(int piece) {
+        long start = (long) piece * pieceSize;
+        return (int) Math.min(pieceSize, size - start);
+    }
+
+    /**
+     * Check the bytes of a piece against its hash.
+     */
+    public boolean matches(int piece, byte[] data, int offset, int length) {
+        if (piece < 0 || piece >= pieces.size()) {
+            return false;
+        }
+        if (digests == null) {
+            byte[][] decoded = new byte[pieces.size()][];
+            for (int i = 0; i < decoded.length; i++) {
+                decoded[i] = fromHex(pieces.get(i));
+            }
+            digests = decoded;
+        }
+        MessageDigest digest = newDigest();
+        digest.update(data, offset, length);
+        return MessageDigest.isEqual(digests[piece], digest.digest());
+    }
+
+    private static void save(PieceHashes hashes, File target) {
+        File folder = target.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Log.e(TAG, "Cannot create hash folder: " + folder.getAbsolutePath());
+            return;
+        }
+        // Write next to the final name and rename, readers never see half a file
+        File temporary = new File(folder, target.getName() + ".tmp");
+        try (FileWriter writer = new FileWriter(temporary)) {
+            writer.write(hashes.toJson());
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving hashes for " + hashes.path + ": " + e.getMessage());
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(target)) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * File name of the saved list: SHA-1 of the file path.
+     */
+    static String nameFor(String relativePath) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return toHex(sha1.digest(relativePath.getBytes(StandardCharsets.UTF_8))) + ".json";
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(relativePath.hashCode()) + ".json";
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int filled = 0;
+        while (filled < buffer.length) {
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read == -1) {
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static ExecutorService newPublisher() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(PUBLISH_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "PieceHashes");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
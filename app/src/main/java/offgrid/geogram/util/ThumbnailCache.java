@@ -0,0 +1,397 @@
+package offgrid.geogram.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import offgrid.geogram.models.Collection;
+import offgrid.geogram.models.CollectionFile;
+
+/**
+ * On-disk cache of image thumbnails, kept in each collection's
+ * extra/thumbnails/ folder.
+ *
+ * A thumbnail is named after a hash of the image path, size and modification
+ * time, so an edited image gets a new thumbnail and the old one simply ages
+ * out. Each folder is trimmed to MAX_CACHE_BYTES, least recently used first
+ * (reads refresh the file's modification time, at most once an hour).
+ *
+ * Thumbnails are made on demand by the HTTP API and the file list, and ahead
+ * of time by a single low-priority worker with a bounded queue when a
+ * collection is scanned. The file list's requests also wait in a bounded
+ * queue: when it is full the oldest request is cancelled, as its row has
+ * most likely scrolled off screen, and rows cancel their own request when
+ * they are reused.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+
+    public static final int THUMBNAIL_SIZE = 200;
+    private static final int JPEG_QUALITY = 85;
+    private static final long MAX_CACHE_BYTES = 32L * 1024 * 1024;
+    static final int LOADER_QUEUE_SIZE = 64;
+    private static final int PREFETCH_QUEUE_SIZE = 512;
+    private static final String CACHE_FOLDER = "extra/thumbnails";
+    private static final long TOUCH_INTERVAL_MS = 60 * 60 * 1000;
+
+    private static ThumbnailCache instance;
+
+    // Thumbnails requested for display, the oldest request is dropped when the queue is full
+    private final ExecutorService loader = newExecutor("ThumbnailLoader", 2, LOADER_QUEUE_SIZE,
+            Thread.NORM_PRIORITY, ThumbnailCache::dropOldest);
+    // Pre-generation after a scan, new tasks are dropped when the queue is full
+    private final ExecutorService prefetcher = newExecutor("ThumbnailPrefetch", 1, PREFETCH_QUEUE_SIZE,
+            Thread.MIN_PRIORITY, new ThreadPoolExecutor.AbortPolicy());
+    private long maxCacheBytes = MAX_CACHE_BYTES;
+
+    // Keys being generated, so concurrent requests don't decode the same image twice
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Approximate bytes used per cache folder, read from disk on first use
+    private final Map<String, Long> cacheSizes = new ConcurrentHashMap<>();
+
+    public interface Callback {
+        void onThumbnail(Bitmap thumbnail);
+    }
+
+    private ThumbnailCache() {
+    }
+
+    public static synchronized ThumbnailCache getInstance() {
+        if (instance == null) {
+            instance = new ThumbnailCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Check if a file name is an image we can make a thumbnail for.
+     */
+    public static boolean isImage(String fileName) {
+        String lowerName = fileName.toLowerCase();
+        return lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") ||
+               lowerName.endsWith(".png") || lowerName.endsWith(".gif") ||
+               lowerName.endsWith(".webp") || lowerName.endsWith(".bmp");
+    }
+
+    /**
+     * Get the JPEG thumbnail of an image, generating it if needed.
+     * Blocks while generating, call from a background thread.
+     *
+     * @param collectionRoot Collection folder
+     * @param relativePath Image path inside the collection
+     * @return The thumbnail file, or null if the image can't be decoded
+     */
+    public File getThumbnail(File collectionRoot, String relativePath) {
+        File image = new File(collectionRoot, relativePath);
+        if (!image.isFile()) {
+            return null;
+        }
+        String key = keyFor(relativePath, image);
+        File thumbnail = new File(new File(collectionRoot, CACHE_FOLDER), key + ".jpg");
+        if (thumbnail.isFile()) {
+            // Refresh for the LRU order, at most hourly to spare the flash
+            long now = System.currentTimeMillis();
+            if (now - thumbnail.lastModified() > TOUCH_INTERVAL_MS) {
+                thumbnail.setLastModified(now);
+            }
+            return thumbnail;
+        }
+        return generate(image, thumbnail, key) ? thumbnail : null;
+    }
+
+    /**
+     * Check if the thumbnail of an image is already generated, without
+     * generating it.
+     */
+    public boolean isCached(File collectionRoot, String relativePath) {
+        File image = new File(collectionRoot, relativePath);
+        if (!image.isFile()) {
+            return false;
+        }
+        String key = keyFor(relativePath, image);
+        return new File(new File(collectionRoot, CACHE_FOLDER), key + ".jpg").isFile();
+    }
+
+    /**
+     * Load a thumbnail on a background thread.
+     * The callback runs on the loader thread with null on failure. It is not
+     * called when the request is cancelled, or dropped because newer requests
+     * filled the queue.
+     *
+     * @return The request, to pass to {@link #cancel} when no longer wanted
+     */
+    public Future<?> load(File collectionRoot, String relativePath, Callback callback) {
+        return loader.submit(() -> {
+            Bitmap bitmap = null;
+            try {
+                File thumbnail = getThumbnail(collectionRoot, relativePath);
+                if (thumbnail != null) {
+                    bitmap = BitmapFactory.decodeFile(thumbnail.getAbsolutePath());
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading thumbnail for " + relativePath + ": " + e.getMessage());
+            }
+            callback.onThumbnail(bitmap);
+        });
+    }
+
+    /**
+     * Run a task on the thumbnail loader threads (e.g. fetching a remote thumbnail).
+     * Like {@link #load}, the task is dropped if newer requests fill the queue.
+     *
+     * @return The request, to pass to {@link #cancel} when no longer wanted
+     */
+    public Future<?> execute(Runnable task) {
+        return loader.submit(task);
+    }
+
+    /**
+     * Cancel a request from {@link #load} or {@link #execute} that hasn't
+     * started yet, freeing its place in the queue. A running one is left to finish.
+     */
+    public void cancel(Future<?> request) {
+        if (request == null) {
+            return;
+        }
+        request.cancel(false);
+        if (request instanceof Runnable) {
+            ((ThreadPoolExecutor) loader).remove((Runnable) request);
+        }
+    }
+
+    /**
+     * Queue thumbnails for the images of a local collection, in the
+     * background at low priority. Images that already have one are only
+     * checked. Once PREFETCH_QUEUE_SIZE are waiting, the remaining images are
+     * left out and get their thumbnail when first requested.
+     */
+    public void prefetch(Collection collection) {
+        if (collection == null || collection.getStoragePath() == null) {
+            return;
+        }
+        File collectionRoot = new File(collection.getStoragePath());
+        List<CollectionFile> files = collection.getFiles();
+        int queued = 0;
+        for (CollectionFile file : files) {
+            if (file.isDirectory() || !isImage(file.getName())) {
+                continue;
+            }
+            String path = file.getPath();
+            try {
+                prefetcher.execute(() -> getThumbnail(collectionRoot, path));
+                queued++;
+            } catch (RejectedExecutionException e) {
+                // Queue full, the rest is generated when requested
+                break;
+            }
+        }
+        if (queued > 0) {
+            Log.d(TAG, "Queued " + queued + " thumbnails for " + collection.getTitle());
+        }
+    }
+
+    private boolean generate(File image, File thumbnail, String key) {
+        if (!pending.add(key)) {
+            // Someone else is generating it, wait for them
+            synchronized (pending) {
+                while (pending.contains(key)) {
+                    try {
+                        pending.wait(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+            return thumbnail.isFile();
+        }
+        try {
+            Bitmap bitmap = decodeSampled(image, THUMBNAIL_SIZE);
+            if (bitmap == null) {
+                Log.w(TAG, "Failed to decode image: " + image.getName());
+                return false;
+            }
+
+            File folder = thumbnail.getParentFile();
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                Log.e(TAG, "Cannot create thumbnail folder: " + folder.getAbsolutePath());
+                bitmap.recycle();
+                return false;
+            }
+            // Write next to the final name and rename, readers never see half a file
+            File temporary = new File(folder, key + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temporary)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                bitmap.recycle();
+            }
+            if (!temporary.renameTo(thumbnail)) {
+                temporary.delete();
+                return false;
+            }
+            addToCache(folder, thumbnail.length());
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error generating thumbnail for " + image.getName() + ": " + e.getMessage());
+            return false;
+        } finally {
+            pending.remove(key);
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Decode an image at the smallest power-of-two scale that still covers the target size.
+     */
+    static Bitmap decodeSampled(File image, int targetSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(image.getAbsolutePath(), options);
+
+        int width = options.outWidth;
+        int height = options.outHeight;
+        int inSampleSize = 1;
+
+        if (height > targetSize || width > targetSize) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+            while ((halfHeight / inSampleSize) >= targetSize && (halfWidth / inSampleSize) >= targetSize) {
+                inSampleSize *= 2;
+            }
+        }
+
+        options.inSampleSize = inSampleSize;
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(image.getAbsolutePath(), options);
+    }
+
+    /**
+     * Account for a new thumbnail and drop the least recently used ones
+     * once the folder is over its limit.
+     */
+    private void addToCache(File folder, long bytes) {
+        String key = folder.getAbsolutePath();
+        long size;
+        if (cacheSizes.containsKey(key)) {
+            size = cacheSizes.merge(key, bytes, Long::sum);
+        } else {
+            // First write since start, the folder already holds the new file
+            size = folderSize(folder);
+            cacheSizes.put(key, size);
+        }
+        if (size <= maxCacheBytes) {
+            return;
+        }
+        synchronized (this) {
+            File[] thumbnails = folder.listFiles((dir, name) -> name.endsWith(".jpg"));
+            if (thumbnails == null) {
+                return;
+            }
+            Arrays.sort(thumbnails, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            long total = 0;
+            for (File thumbnail : thumbnails) {
+                total += thumbnail.length();
+            }
+            // Trim to 90% so we don't trim again on the next write
+            long target = maxCacheBytes * 9 / 10;
+            int removed = 0;
+            for (File thumbnail : thumbnails) {
+                if (total <= target) {
+                    break;
+                }
+                long length = thumbnail.length();
+                if (thumbnail.delete()) {
+                    total -= length;
+                    removed++;
+                }
+            }
+            cacheSizes.put(key, total);
+            Log.d(TAG, "Trimmed " + removed + " thumbnails from " + folder.getParent());
+        }
+    }
+
+    /**
+     * Set the size at which a cache folder is trimmed (for testing).
+     */
+    void setMaxCacheBytes(long bytes) {
+        maxCacheBytes = bytes;
+        cacheSizes.clear();
+    }
+
+    private static long folderSize(File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Cache key: SHA-1 of path, size and modification time of the image.
+     */
+    static String keyFor(String relativePath, File image) {
+        String source = relativePath + "|" + image.length() + "|" + image.lastModified();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(source.hashCode());
+        }
+    }
+
+    /**
+     * Queue full: cancel the oldest waiting request to make room.
+     */
+    private static void dropOldest(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        Runnable oldest = executor.getQueue().poll();
+        if (oldest instanceof Future) {
+            ((Future<?>) oldest).cancel(false);
+        }
+        executor.execute(task);
+    }
+
+    private static ExecutorService newExecutor(String name, int threads, int queueSize, int priority,
+                                               RejectedExecutionHandler whenFull) {
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), factory, whenFull);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
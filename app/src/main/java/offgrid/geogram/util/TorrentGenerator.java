@@ -1,8 +1,13 @@
 package offgrid.geogram.util;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -15,7 +20,7 @@ import java.util.TreeMap;
  */
 public class TorrentGenerator {
 
-    private static final int PIECE_LENGTH = 256 * 1024; // 256 KB pieces
+    private static final int PIECE_LENGTH = CollectionIndex.TORRENT_PIECE_LENGTH; // 256 KB pieces
 
     public static class TorrentInfo {
         public String infoHash;
@@ -25,6 +30,11 @@ public class TorrentGenerator {
 
     /**
      * Generates a .torrent file for a collection
+     *
+     * Every file but the last is followed by a padding file up to the next piece
+     * boundary (BEP 47), so each file's pieces don't depend on its neighbours and
+     * come straight from the collection index: only new or changed files are read.
+     *
      * @param collectionRoot The root directory of the collection
      * @param outputFile The output .torrent file
      * @param trackers List of tracker URLs (optional)
@@ -35,23 +45,23 @@ public class TorrentGenerator {
             throw new IllegalArgumentException("Collection root must be a valid directory");
         }
 
-        // Collect all files (excluding extra/ folder and collection.js)
-        List<File> files = new ArrayList<>();
-        collectFiles(collectionRoot, collectionRoot, files);
+        // All files (excluding extra/ folder and collection.js), sorted by path
+        List<CollectionIndex.Entry> files = CollectionIndex.forCollection(collectionRoot).refresh();
 
         if (files.isEmpty()) {
             throw new IllegalArgumentException("No files found in collection");
         }
 
-        // Calculate total size
+        // Calculate total size, and find the last file with data (it gets no padding)
         long totalSize = 0;
-        for (File file : files) {
-            totalSize += file.length();
+        int lastWithData = -1;
+        for (int i = 0; i < files.size(); i++) {
+            totalSize += files.get(i).size;
+            if (files.get(i).size > 0) {
+                lastWithData = i;
+            }
         }
 
-        // Generate pieces
-        List<byte[]> pieces = generatePieces(files);
-
         // Build torrent dictionary
         Map<String, Object> torrent = new TreeMap<>();
 
@@ -75,150 +85,115 @@ public class TorrentGenerator {
         info.put("name", collectionRoot.getName());
         info.put("piece length", PIECE_LENGTH);
 
-        // Concatenate all piece hashes
-        byte[] piecesData = new byte[pieces.size() * 20];
-        for (int i = 0; i < pieces.size(); i++) {
-            System.arraycopy(pieces.get(i), 0, piecesData, i * 20, 20);
-        }
-        info.put("pieces", piecesData);
-
-        // Add files list
+        // Files list and concatenated piece hashes
         List<Map<String, Object>> filesList = new ArrayList<>();
-        for (File file : files) {
+        ByteArrayOutputStream piecesData = new ByteArrayOutputStream();
+        for (int i = 0; i < files.size(); i++) {
+            CollectionIndex.Entry file = files.get(i);
             Map<String, Object> fileInfo = new TreeMap<>();
-            fileInfo.put("length", file.length());
-
-            // Get path relative to collection root
-            String relativePath = collectionRoot.toPath().relativize(file.toPath()).toString();
-            String[] pathParts = relativePath.split(File.separator.equals("\\") ? "\\\\" : File.separator);
-            fileInfo.put("path", Arrays.asList(pathParts));
-
+            fileInfo.put("length", file.size);
+            fileInfo.put("path", Arrays.asList(file.path.split("/")));
             filesList.add(fileInfo);
+
+            if (file.size == 0) {
+                continue;
+            }
+            List<String> pieces = file.torrentPieces;
+            if (i == lastWithData) {
+                // Nothing follows, the last piece is hashed without padding
+                for (int p = 0; p < pieces.size() - 1; p++) {
+                    piecesData.write(fromHex(pieces.get(p)));
+                }
+                piecesData.write(fromHex(file.torrentTail));
+                continue;
+            }
+            for (String piece : pieces) {
+                piecesData.write(fromHex(piece));
+            }
+            long remainder = file.size % PIECE_LENGTH;
+            if (remainder != 0) {
+                long padding = PIECE_LENGTH - remainder;
+                Map<String, Object> padInfo = new TreeMap<>();
+                padInfo.put("attr", "p");
+                padInfo.put("length", padding);
+                padInfo.put("path", Arrays.asList(".pad", String.valueOf(padding)));
+                filesList.add(padInfo);
+            }
         }
+        info.put("pieces", piecesData.toByteArray());
         info.put("files", filesList);
 
         torrent.put("info", info);
 
-        // Encode and write torrent file
-        byte[] torrentData = bencode(torrent);
-        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-            fos.write(torrentData);
-        }
-
-        // Calculate info hash
-        byte[] infoEncoded = bencode(info);
+        // Encode straight into the file; the info dictionary also goes
+        // through SHA-1 on the way for the info hash
         MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
-        byte[] infoHashBytes = sha1.digest(infoEncoded);
-        String infoHash = bytesToHex(infoHashBytes);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), 64 * 1024)) {
+            out.write('d');
+            for (Map.Entry<String, Object> entry : torrent.entrySet()) {
+                bencode(entry.getKey(), out);
+                if ("info".equals(entry.getKey())) {
+                    bencode(entry.getValue(), new DigestOutputStream(out, sha1));
+                } else {
+                    bencode(entry.getValue(), out);
+                }
+            }
+            out.write('e');
+        }
+        String infoHash = bytesToHex(sha1.digest());
 
         TorrentInfo result = new TorrentInfo();
         result.infoHash = infoHash;
         result.totalSize = totalSize;
-        result.pieceCount = pieces.size();
+        result.pieceCount = piecesData.size() / 20;
 
         return result;
     }
 
-    private static void collectFiles(File root, File current, List<File> files) {
-        File[] children = current.listFiles();
-        if (children == null) return;
-
-        for (File child : children) {
-            // Skip extra/ folder and collection.js
-            if (child.getName().equals("extra") || child.getName().equals("collection.js")) {
-                continue;
-            }
-
-            if (child.isDirectory()) {
-                collectFiles(root, child, files);
-            } else {
-                files.add(child);
-            }
-        }
-    }
-
-    private static List<byte[]> generatePieces(List<File> files) throws Exception {
-        List<byte[]> pieces = new ArrayList<>();
-        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
-
-        byte[] buffer = new byte[PIECE_LENGTH];
-        int bufferPos = 0;
-
-        for (File file : files) {
-            try (FileInputStream fis = new FileInputStream(file)) {
-                int bytesRead;
-                byte[] readBuffer = new byte[8192];
-
-                while ((bytesRead = fis.read(readBuffer)) != -1) {
-                    int offset = 0;
-
-                    while (offset < bytesRead) {
-                        int toCopy = Math.min(bytesRead - offset, PIECE_LENGTH - bufferPos);
-                        System.arraycopy(readBuffer, offset, buffer, bufferPos, toCopy);
-                        bufferPos += toCopy;
-                        offset += toCopy;
-
-                        if (bufferPos == PIECE_LENGTH) {
-                            // Complete piece
-                            sha1.update(buffer);
-                            pieces.add(sha1.digest());
-                            sha1.reset();
-                            bufferPos = 0;
-                        }
-                    }
-                }
-            }
-        }
-
-        // Hash remaining partial piece
-        if (bufferPos > 0) {
-            sha1.update(buffer, 0, bufferPos);
-            pieces.add(sha1.digest());
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
         }
-
-        return pieces;
+        return bytes;
     }
 
     /**
-     * Bencode encoding implementation
+     * Bencode encoding implementation, written byte by byte to a stream so
+     * piece hashes are never copied through strings
      */
-    private static byte[] bencode(Object obj) throws Exception {
-        StringBuilder sb = new StringBuilder();
-        bencodeObject(obj, sb);
-        return sb.toString().getBytes("ISO-8859-1");
-    }
-
-    private static void bencodeObject(Object obj, StringBuilder sb) throws Exception {
+    private static void bencode(Object obj, OutputStream out) throws IOException {
         if (obj instanceof String) {
-            String s = (String) obj;
-            sb.append(s.length()).append(':').append(s);
+            byte[] bytes = ((String) obj).getBytes(StandardCharsets.UTF_8);
+            writeAscii(bytes.length + ":", out);
+            out.write(bytes);
         } else if (obj instanceof byte[]) {
             byte[] bytes = (byte[]) obj;
-            sb.append(bytes.length).append(':');
-            // For byte arrays, we need to preserve the raw bytes
-            // This is a simplified version - in production use a proper library
-            for (byte b : bytes) {
-                sb.append((char) (b & 0xFF));
-            }
+            writeAscii(bytes.length + ":", out);
+            out.write(bytes);
         } else if (obj instanceof Integer || obj instanceof Long) {
-            sb.append('i').append(obj).append('e');
+            writeAscii("i" + obj + "e", out);
         } else if (obj instanceof List) {
-            sb.append('l');
+            out.write('l');
             for (Object item : (List<?>) obj) {
-                bencodeObject(item, sb);
+                bencode(item, out);
             }
-            sb.append('e');
+            out.write('e');
         } else if (obj instanceof Map) {
-            sb.append('d');
+            out.write('d');
             Map<?, ?> map = (Map<?, ?>) obj;
             for (Map.Entry<?, ?> entry : map.entrySet()) {
-                bencodeObject(entry.getKey(), sb);
-                bencodeObject(entry.getValue(), sb);
+                bencode(entry.getKey(), out);
+                bencode(entry.getValue(), out);
             }
-            sb.append('e');
+            out.write('e');
         }
     }
 
+    private static void writeAscii(String text, OutputStream out) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
     private static String bytesToHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
         for (byte b : bytes) {
@@ -0,0 +1,403 @@
+package offgrid.geogram.util;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import offgrid.geogram.models.Collection;
+import offgrid.geogram.models.CollectionFile;
+
+/**
+ * The file list of a collection as published in extra/tree-data.js, with a
+ * version number so remote browsers can ask for what changed instead of
+ * downloading the whole list again.
+ *
+ * tree-data.js starts with "window.TREE_VERSION = n;" followed by the usual
+ * "window.TREE_DATA = [...]" array, sorted by path. Every time the owner
+ * writes a different list the version goes up and extra/tree-log.json
+ * records the entries changed and removed by that version, for the last
+ * MAX_VERSIONS versions. Files written before versions existed count as
+ * version 0, which has no log: browsers holding it download the list once.
+ */
+public class TreeData {
+    private static final String TAG = "TreeData";
+
+    public static final String TREE_FILE = "extra/tree-data.js";
+    private static final String LOG_FILE = "extra/tree-log.json";
+    private static final String VERSION_PREFIX = "window.TREE_VERSION = ";
+    private static final int MAX_VERSIONS = 64;
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final Object writeLock = new Object();
+
+    private long version;
+    private final Map<String, JsonObject> entries = new TreeMap<>();
+
+    // Changes of one version, as stored in the log
+    private static class Change {
+        long version;
+        String sha1;
+        List<JsonObject> changed;
+        List<String> removed;
+    }
+
+    private TreeData() {
+    }
+
+    /**
+     * Parse the content of a tree-data.js file.
+     *
+     * @return The tree, or null if the content has no TREE_DATA array
+     */
+    public static TreeData parse(String content) {
+        int start = content.indexOf('[');
+        int end = content.lastIndexOf(']');
+        if (start == -1 || end < start) {
+            return null;
+        }
+        TreeData tree = new TreeData();
+        int versionAt = content.indexOf(VERSION_PREFIX);
+        if (versionAt != -1 && versionAt < start) {
+            int versionEnd = content.indexOf(';', versionAt);
+            try {
+                tree.version = Long.parseLong(content.substring(versionAt + VERSION_PREFIX.length(), versionEnd).trim());
+            } catch (RuntimeException e) {
+                tree.version = 0;
+            }
+        }
+        try {
+            JsonArray array = JsonParser.parseString(content.substring(start, end + 1)).getAsJsonArray();
+            for (JsonElement element : array) {
+                JsonObject entry = element.getAsJsonObject();
+                if (entry.has("path")) {
+                    tree.entries.put(entry.get("path").getAsString(), entry);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Invalid tree data: " + e.getMessage());
+            return null;
+        }
+        return tree;
+    }
+
+    /**
+     * Build the tree of a local collection, with the SHA-1 of every file
+     * from its index.
+     */
+    public static TreeData fromCollection(Collection collection, CollectionIndex index) {
+        TreeData tree = new TreeData();
+        for (CollectionFile file : collection.getFiles()) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("path", file.getPath());
+            entry.addProperty("type", file.isDirectory() ? "directory" : "file");
+            if (!file.isDirectory()) {
+                entry.addProperty("size", file.getSize());
+                JsonObject hashes = new JsonObject();
+                hashes.addProperty("sha1", index.getSha1(file.getPath()));
+                entry.add("hashes", hashes);
+                if (file.getMimeType() != null) {
+                    JsonObject metadata = new JsonObject();
+                    metadata.addProperty("mime_type", file.getMimeType());
+                    entry.add("metadata", metadata);
+                }
+            }
+            tree.entries.put(file.getPath(), entry);
+        }
+        return tree;
+    }
+
+    /**
+     * Write the tree-data.js of a local collection. The version only goes
+     * up, and the change is only logged, when the list differs from the one
+     * already written.
+     *
+     * @return True if tree-data.js is up to date
+     */
+    public static boolean write(Collection collection, File collectionRoot) {
+        synchronized (writeLock) {
+            CollectionIndex index = CollectionIndex.forCollection(collectionRoot);
+            // Hashes come from the index, only new and changed files are read
+            index.refresh();
+            TreeData tree = fromCollection(collection, index);
+
+            File treeFile = new File(collectionRoot, TREE_FILE);
+            TreeData previous = treeFile.isFile() ? parse(readText(treeFile)) : null;
+            List<Change> log = previous != null && previous.version > 0 ? readLog(collectionRoot) : new ArrayList<>();
+
+            Change change = new Change();
+            change.changed = new ArrayList<>();
+            change.removed = new ArrayList<>();
+            if (previous != null) {
+                for (Map.Entry<String, JsonObject> entry : tree.entries.entrySet()) {
+                    if (!entry.getValue().equals(previous.entries.get(entry.getKey()))) {
+                        change.changed.add(entry.getValue());
+                    }
+                }
+                for (String path : previous.entries.keySet()) {
+                    if (!tree.entries.containsKey(path)) {
+                        change.removed.add(path);
+                    }
+                }
+                if (previous.version > 0 && change.changed.isEmpty() && change.removed.isEmpty()) {
+                    return true;
+                }
+                tree.version = previous.version + 1;
+            } else {
+                tree.version = 1;
+            }
+
+            byte[] content = tree.toJs().getBytes(StandardCharsets.UTF_8);
+            if (!writeAtomically(treeFile, content)) {
+                return false;
+            }
+
+            // Version 1 is the first one anybody can have, nothing to log
+            if (tree.version > 1) {
+                change.version = tree.version;
+                change.sha1 = sha1(content);
+                log.add(change);
+                while (log.size() > MAX_VERSIONS) {
+                    log.remove(0);
+                }
+                writeLog(collectionRoot, log);
+            } else {
+                new File(collectionRoot, LOG_FILE).delete();
+            }
+            Log.i(TAG, "Wrote " + collectionRoot.getName() + " tree version " + tree.version + ": " +
+                    change.changed.size() + " changed, " + change.removed.size() + " removed");
+            return true;
+        }
+    }
+
+    /**
+     * Changes of a local collection's tree since a version, for the delta
+     * endpoint. When the version is unknown the SHA-1 of the browser's copy
+     * of tree-data.js is looked up in the log instead.
+     *
+     * The answer has "version" and "sha1" of the current tree, and either
+     * "full": true when the browser should download tree-data.js, or the
+     * "changed" entries and "removed" paths to apply to its copy.
+     */
+    public static JsonObject delta(File collectionRoot, long sinceVersion, String sinceSha1) {
+        File treeFile = new File(collectionRoot, TREE_FILE);
+        byte[] content;
+        try {
+            content = Files.readAllBytes(treeFile.toPath());
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read " + treeFile.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+        TreeData current = parse(new String(content, StandardCharsets.UTF_8));
+        if (current == null) {
+            return null;
+        }
+        String currentSha1 = sha1(content);
+        List<Change> log = readLog(collectionRoot);
+
+        long base = sinceVersion;
+        if (base <= 0 && sinceSha1 != null) {
+            if (sinceSha1.equalsIgnoreCase(currentSha1)) {
+                base = current.version;
+            }
+            for (Change change : log) {
+                if (sinceSha1.equalsIgnoreCase(change.sha1)) {
+                    base = change.version;
+                }
+            }
+        }
+
+        JsonObject response = new JsonObject();
+        response.addProperty("version", current.version);
+        response.addProperty("sha1", currentSha1);
+
+        // Merge the logged versions after the base, later ones win
+        Map<String, JsonObject> changed = new LinkedHashMap<>();
+        Set<String> removed = new LinkedHashSet<>();
+        long expected = base + 1;
+        for (Change change : log) {
+            if (change.version <= base) {
+                continue;
+            }
+            if (change.version != expected) {
+                break;
+            }
+            for (JsonObject entry : change.changed) {
+                String path = entry.get("path").getAsString();
+                removed.remove(path);
+                changed.put(path, entry);
+            }
+            for (String path : change.removed) {
+                changed.remove(path);
+                removed.add(path);
+            }
+            expected++;
+        }
+
+        boolean complete = base > 0 && base <= current.version && expected == current.version + 1;
+        // A delta bigger than half the list saves little over the list itself
+        if (!complete || changed.size() + removed.size() > Math.max(16, current.entries.size() / 2)) {
+            response.addProperty("full", true);
+            return response;
+        }
+        JsonArray changedArray = new JsonArray();
+        for (JsonObject entry : changed.values()) {
+            changedArray.add(entry);
+        }
+        JsonArray removedArray = new JsonArray();
+        for (String path : removed) {
+            removedArray.add(path);
+        }
+        response.addProperty("full", false);
+        response.add("changed", changedArray);
+        response.add("removed", removedArray);
+        return response;
+    }
+
+    /**
+     * Patch this tree with a delta from the owner.
+     *
+     * @return False if the delta doesn't apply and the full list is needed
+     */
+    public boolean apply(JsonObject delta) {
+        if (!delta.has("version") || !delta.has("changed") || !delta.has("removed")
+                || (delta.has("full") && delta.get("full").getAsBoolean())) {
+            return false;
+        }
+        for (JsonElement path : delta.getAsJsonArray("removed")) {
+            entries.remove(path.getAsString());
+        }
+        for (JsonElement element : delta.getAsJsonArray("changed")) {
+            JsonObject entry = element.getAsJsonObject();
+            entries.put(entry.get("path").getAsString(), entry);
+        }
+        version = delta.get("version").getAsLong();
+        return true;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Content of tree-data.js for this tree.
+     */
+    public String toJs() {
+        JsonArray array = new JsonArray();
+        for (JsonObject entry : entries.values()) {
+            array.add(entry);
+        }
+        return VERSION_PREFIX + version + ";\n" +
+                "window.TREE_DATA = " + gson.toJson(array) + ";\n";
+    }
+
+    /**
+     * SHA-1 of content as hex, the same as the delta endpoint reports.
+     */
+    public static String sha1(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<Change> readLog(File collectionRoot) {
+        File logFile = new File(collectionRoot, LOG_FILE);
+        List<Change> log = new ArrayList<>();
+        if (!logFile.isFile()) {
+            return log;
+        }
+        try (FileReader reader = new FileReader(logFile)) {
+            Change[] changes = gson.fromJson(reader, Change[].class);
+            if (changes != null) {
+                for (Change change : changes) {
+                    if (change != null && change.changed != null && change.removed != null) {
+                        log.add(change);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Browsers behind the lost versions download the full list
+            Log.w(TAG, "Ignoring unreadable tree log: " + e.getMessage());
+            log.clear();
+        }
+        return log;
+    }
+
+    private static void writeLog(File collectionRoot, List<Change> log) {
+        File logFile = new File(collectionRoot, LOG_FILE);
+        File temporary = new File(logFile.getParentFile(), logFile.getName() + ".tmp");
+        try (FileWriter writer = new FileWriter(temporary)) {
+            gson.toJson(log, writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving tree log: " + e.getMessage());
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(logFile)) {
+            temporary.delete();
+        }
+    }
+
+    private static boolean writeAtomically(File target, byte[] content) {
+        File folder = target.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Log.e(TAG, "Cannot create folder: " + folder.getAbsolutePath());
+            return false;
+        }
+        File temporary = new File(folder, target.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            out.write(content);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing " + target.getName() + ": " + e.getMessage());
+            temporary.delete();
+            return false;
+        }
+        if (!temporary.renameTo(target)) {
+            temporary.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static String readText(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + file.getAbsolutePath() + ": " + e.getMessage());
+            return "";
+        }
+    }
+}
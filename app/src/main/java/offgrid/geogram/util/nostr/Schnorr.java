@@ -4,6 +4,8 @@ package offgrid.geogram.util.nostr;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class Schnorr {
 
@@ -18,49 +20,34 @@ public class Schnorr {
         if (msg.length != 32) {
             throw new Exception("The message must be a 32-byte array.");
         }
-        BigInteger secKey0 = NostrUtil.bigIntFromBytes(secKey);
-
-        if (!(BigInteger.ONE.compareTo(secKey0) <= 0 && secKey0.compareTo(Point.getn().subtract(BigInteger.ONE)) <= 0)) {
+        // The secret key and nonce stay in fixed-size limbs: no BigInteger and
+        // no branch on their value, the negations are masked
+        if (secKey.length != 32 || !Secp256k1.scalarIsValid(secKey)) {
             throw new Exception("The secret key must be an integer in the range 1..n-1.");
         }
-        Point P = Point.mul(Point.getG(), secKey0);
-        if (!P.hasEvenY()) {
-            secKey0 = Point.getn().subtract(secKey0);
-        }
-        int len = NostrUtil.bytesFromBigInteger(secKey0).length + P.toBytes().length + msg.length;
-        byte[] buf = new byte[len];
-        byte[] t = NostrUtil.xor(NostrUtil.bytesFromBigInteger(secKey0), Point.taggedHash("BIP0340/aux", auxRand));
+        long[] d = Secp256k1.scalarFromBytes(secKey);
+        byte[] P = Secp256k1.mulG(secKey);
+        byte[] px = Arrays.copyOfRange(P, 0, 32);
+        Secp256k1.scalarNegateIf(d, P[63] & 1);
+        byte[] t = NostrUtil.xor(Secp256k1.scalarToBytes(d), Point.taggedHash("BIP0340/aux", auxRand));
 
         if (t == null) {
             throw new RuntimeException("Unexpected error. Null array");
         }
 
-        System.arraycopy(t, 0, buf, 0, t.length);
-        System.arraycopy(P.toBytes(), 0, buf, t.length, P.toBytes().length);
-        System.arraycopy(msg, 0, buf, t.length + P.toBytes().length, msg.length);
-        BigInteger k0 = NostrUtil.bigIntFromBytes(Point.taggedHash("BIP0340/nonce", buf)).mod(Point.getn());
-        if (k0.compareTo(BigInteger.ZERO) == 0) {
+        long[] k = Secp256k1.scalarFromBytes(Point.taggedHash("BIP0340/nonce", concat(t, px, msg)));
+        if (Secp256k1.scalarIsZero(k)) {
             throw new Exception("Failure. This happens only with negligible probability.");
         }
-        Point R = Point.mul(Point.getG(), k0);
-        BigInteger k;
-        if (!R.hasEvenY()) {
-            k = Point.getn().subtract(k0);
-        } else {
-            k = k0;
-        }
-        len = R.toBytes().length + P.toBytes().length + msg.length;
-        buf = new byte[len];
-        System.arraycopy(R.toBytes(), 0, buf, 0, R.toBytes().length);
-        System.arraycopy(P.toBytes(), 0, buf, R.toBytes().length, P.toBytes().length);
-        System.arraycopy(msg, 0, buf, R.toBytes().length + P.toBytes().length, msg.length);
-        BigInteger e = NostrUtil.bigIntFromBytes(Point.taggedHash("BIP0340/challenge", buf)).mod(Point.getn());
-        BigInteger kes = k.add(e.multiply(secKey0)).mod(Point.getn());
-        len = R.toBytes().length + NostrUtil.bytesFromBigInteger(kes).length;
-        byte[] sig = new byte[len];
-        System.arraycopy(R.toBytes(), 0, sig, 0, R.toBytes().length);
-        System.arraycopy(NostrUtil.bytesFromBigInteger(kes), 0, sig, R.toBytes().length, NostrUtil.bytesFromBigInteger(kes).length);
-        if (!verify(msg, P.toBytes(), sig)) {
+        byte[] R = Secp256k1.mulG(Secp256k1.scalarToBytes(k));
+        byte[] rx = Arrays.copyOfRange(R, 0, 32);
+        Secp256k1.scalarNegateIf(k, R[63] & 1);
+        long[] e = Secp256k1.scalarFromBytes(Point.taggedHash("BIP0340/challenge", concat(rx, px, msg)));
+        byte[] sig = new byte[64];
+        System.arraycopy(rx, 0, sig, 0, 32);
+        System.arraycopy(Secp256k1.scalarToBytes(Secp256k1.scalarMulAdd(k, e, d)), 0, sig, 32, 32);
+        // Guards against faulty arithmetic leaking the key; cheap next to the multiplications
+        if (!verify(msg, px, sig)) {
             throw new Exception("The signature does not pass verification.");
         }
         return sig;
@@ -86,8 +73,7 @@ public class Schnorr {
             throw new Exception("The signature must be a 64-byte array.");
         }
 
-        Point P = Point.liftX(pubkey);
-        if (P == null) {
+        if (NostrUtil.bigIntFromBytes(pubkey).compareTo(Point.getp()) >= 0) {
             return false;
         }
         BigInteger r = NostrUtil.bigIntFromBytes(Arrays.copyOfRange(sig, 0, 32));
@@ -95,14 +81,99 @@ public class Schnorr {
         if (r.compareTo(Point.getp()) >= 0 || s.compareTo(Point.getn()) >= 0) {
             return false;
         }
-        int len = 32 + pubkey.length + msg.length;
-        byte[] buf = new byte[len];
-        System.arraycopy(sig, 0, buf, 0, 32);
-        System.arraycopy(pubkey, 0, buf, 32, pubkey.length);
-        System.arraycopy(msg, 0, buf, 32 + pubkey.length, msg.length);
-        BigInteger e = NostrUtil.bigIntFromBytes(Point.taggedHash("BIP0340/challenge", buf)).mod(Point.getn());
-        Point R = Point.add(Point.mul(Point.getG(), s), Point.mul(P, Point.getn().subtract(e)));
-        return R != null && R.hasEvenY() && R.getX().compareTo(r) == 0;
+        BigInteger e = NostrUtil.bigIntFromBytes(Point.taggedHash("BIP0340/challenge",
+                concat(Arrays.copyOfRange(sig, 0, 32), pubkey, msg))).mod(Point.getn());
+        // R = s * G - e * P; null when P is not on the curve or R is infinity
+        byte[] R = Secp256k1.mulGAdd(Arrays.copyOfRange(sig, 32, 64), pubkey, Point.getn().subtract(e));
+        return R != null && hasEvenY(R) && Arrays.equals(Arrays.copyOfRange(R, 0, 32), Arrays.copyOfRange(sig, 0, 32));
+    }
+
+    /**
+     * Verify many signatures at once (BIP-340 batch verification).
+     *
+     * Checks a single random linear combination of the verification
+     * equations: (sum a_i s_i) G = sum a_i R_i + sum a_i e_i P_i, with a_1 = 1
+     * and the other a_i random 128-bit values. Signatures of the same public
+     * key share one P term. A true result means every signature is valid,
+     * except with probability 2^-128; a false result only says at least one is
+     * not, verify them one by one to find which.
+     *
+     * @param msgs 32-byte messages
+     * @param pubkeys 32-byte x-only public keys
+     * @param sigs 64-byte signatures
+     * @return true if all signatures are valid
+     * @throws Exception when an argument has the wrong length
+     */
+    public static boolean verifyBatch(byte[][] msgs, byte[][] pubkeys, byte[][] sigs) throws Exception {
+        int count = msgs.length;
+        if (pubkeys.length != count || sigs.length != count) {
+            throw new Exception("Messages, public keys and signatures must have the same count.");
+        }
+        BigInteger n = Point.getn();
+        SecureRandom random = new SecureRandom();
+
+        BigInteger sSum = BigInteger.ZERO;
+        byte[][] points = new byte[count * 2][];
+        BigInteger[] scalars = new BigInteger[count * 2];
+        int used = 0;
+        Map<String, Integer> keySlots = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (msgs[i].length != 32) {
+                throw new Exception("The message must be a 32-byte array.");
+            }
+            if (pubkeys[i].length != 32) {
+                throw new Exception("The public key must be a 32-byte array.");
+            }
+            if (sigs[i].length != 64) {
+                throw new Exception("The signature must be a 64-byte array.");
+            }
+            if (NostrUtil.bigIntFromBytes(pubkeys[i]).compareTo(Point.getp()) >= 0) {
+                return false;
+            }
+            byte[] rx = Arrays.copyOfRange(sigs[i], 0, 32);
+            BigInteger r = NostrUtil.bigIntFromBytes(rx);
+            BigInteger s = NostrUtil.bigIntFromBytes(Arrays.copyOfRange(sigs[i], 32, 64));
+            if (r.compareTo(Point.getp()) >= 0 || s.compareTo(n) >= 0) {
+                return false;
+            }
+            BigInteger e = NostrUtil.bigIntFromBytes(Point.taggedHash("BIP0340/challenge",
+                    concat(rx, pubkeys[i], msgs[i]))).mod(n);
+
+            BigInteger a = BigInteger.ONE;
+            if (i > 0) {
+                do {
+                    a = new BigInteger(128, random);
+                } while (a.signum() == 0);
+            }
+            sSum = sSum.add(a.multiply(s)).mod(n);
+            points[used] = rx;
+            scalars[used++] = a;
+
+            String key = NostrUtil.bytesToHex(pubkeys[i]);
+            Integer slot = keySlots.get(key);
+            if (slot == null) {
+                keySlots.put(key, used);
+                points[used] = pubkeys[i];
+                scalars[used++] = a.multiply(e).mod(n);
+            } else {
+                scalars[slot] = scalars[slot].add(a.multiply(e)).mod(n);
+            }
+        }
+        // -(sum a_i s_i) G + sum a_i R_i + sum a_i e_i P_i must be infinity
+        return Secp256k1.sumIsInfinity(NostrUtil.bytesFromBigInteger(n.subtract(sSum).mod(n)),
+                Arrays.copyOf(points, used), Arrays.copyOf(scalars, used));
+    }
+
+    private static boolean hasEvenY(byte[] point) {
+        return (point[63] & 1) == 0;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b, byte[] c) {
+        byte[] buf = new byte[a.length + b.length + c.length];
+        System.arraycopy(a, 0, buf, 0, a.length);
+        System.arraycopy(b, 0, buf, a.length, b.length);
+        System.arraycopy(c, 0, buf, a.length + b.length, c.length);
+        return buf;
     }
 
     /**
@@ -134,7 +205,6 @@ public class Schnorr {
         if (!(BigInteger.ONE.compareTo(x) <= 0 && x.compareTo(Point.getn().subtract(BigInteger.ONE)) <= 0)) {
             throw new Exception("The secret key must be an integer in the range 1..n-1.");
         }
-        Point ret = Point.mul(Point.G, x);
-        return Point.bytesFromPoint(ret);
+        return Arrays.copyOfRange(Secp256k1.mulG(NostrUtil.bytesFromBigInteger(x)), 0, 32);
     }
 }
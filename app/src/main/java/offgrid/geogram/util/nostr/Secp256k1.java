@@ -0,0 +1,905 @@
+package offgrid.geogram.util.nostr;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * secp256k1 point arithmetic for the Schnorr signatures.
+ *
+ * Field elements are ten 26-bit limbs (long[10], least significant first).
+ * Products are reduced with 2^256 = 0x1000003D1 (mod p) instead of BigInteger
+ * division, and results are kept "weakly" reduced (below 2^256 + a little)
+ * until they are written out.
+ *
+ * Scalars mod n, for signing, are eight 32-bit limbs reduced the same way
+ * with 2^256 = 2^256 - n (mod n).
+ *
+ * Multiples of G come from a comb table holding j * 16^i * G for every 4-bit
+ * window i and digit j. Each window adds one entry, picked by a masked scan
+ * of its row, with the complete projective addition of Renes, Costello and
+ * Batina (2016), which has no special cases. So the same operations run for
+ * every secret scalar. Multiples of other points only ever involve public
+ * data (verification) and use a width-5 wNAF in Jacobian coordinates.
+ */
+final class Secp256k1 {
+
+    private static final long M26 = 0x3FFFFFFL;
+    private static final long M22 = 0x3FFFFFL;
+    // p in limbs
+    private static final long P0 = 0x3FFFC2FL;
+    private static final long P1 = 0x3FFFFBFL;
+
+    private static final BigInteger N = Point.getn();
+    private static final int WNAF_WIDTH = 5;
+
+    private static final long[] GX = fromBytes(NostrUtil.bytesFromBigInteger(Point.getG().getX()));
+    private static final long[] GY = fromBytes(NostrUtil.bytesFromBigInteger(Point.getG().getY()));
+
+    private Secp256k1() {
+    }
+
+    // ---- Points ----
+
+    /**
+     * Point with three coordinates. Projective (x = X/Z, y = Y/Z) in the
+     * comb, Jacobian (x = X/Z^2, y = Y/Z^3) everywhere else.
+     */
+    private static final class Point3 {
+        final long[] x = new long[10];
+        final long[] y = new long[10];
+        final long[] z = new long[10];
+        boolean infinity;
+
+        static Point3 affine(long[] x, long[] y) {
+            Point3 r = new Point3();
+            System.arraycopy(x, 0, r.x, 0, 10);
+            System.arraycopy(y, 0, r.y, 0, 10);
+            r.z[0] = 1;
+            return r;
+        }
+    }
+
+    /** Rows of j * 16^i * G as affine x and y, j = 0 being (0, 1). */
+    private static final class Comb {
+        static final int WINDOWS = 64;
+        static final long[] TABLE = build();
+
+        private static long[] build() {
+            long[] table = new long[WINDOWS * 16 * 20];
+            Point3[] row = new Point3[16];
+            long[] baseX = GX.clone();
+            long[] baseY = GY.clone();
+            for (int i = 0; i < WINDOWS; i++) {
+                row[1] = Point3.affine(baseX, baseY);
+                for (int j = 2; j < 16; j++) {
+                    row[j] = addAffine(row[j - 1], baseX, baseY);
+                }
+                // 16 * base starts the next row, normalized with this one
+                row[0] = addAffine(row[15], baseX, baseY);
+                normalizeAll(row);
+
+                for (int j = 1; j < 16; j++) {
+                    System.arraycopy(row[j].x, 0, table, ((i * 16 + j) * 2) * 10, 10);
+                    System.arraycopy(row[j].y, 0, table, ((i * 16 + j) * 2 + 1) * 10, 10);
+                }
+                table[((i * 16) * 2 + 1) * 10] = 1;
+                baseX = row[0].x.clone();
+                baseY = row[0].y.clone();
+            }
+            return table;
+        }
+    }
+
+    /**
+     * k * G in constant time.
+     *
+     * @param k 32-byte big-endian scalar, below n
+     * @return 64 bytes, affine x then y
+     */
+    static byte[] mulG(byte[] k) {
+        Point3 r = combMul(k);
+        long[] zInv = new long[10];
+        inv(zInv, r.z);
+        long[] x = new long[10];
+        long[] y = new long[10];
+        mul(x, r.x, zInv);
+        mul(y, r.y, zInv);
+        byte[] out = new byte[64];
+        toBytes(out, 0, x);
+        toBytes(out, 32, y);
+        return out;
+    }
+
+    /**
+     * s * G + k * P, where P is the point with x coordinate pubX and even y.
+     * Only for public inputs: the time taken depends on k.
+     *
+     * @return 64 bytes, affine x then y, or null if pubX is not on the curve
+     *         or the sum is the point at infinity
+     */
+    static byte[] mulGAdd(byte[] s, byte[] pubX, BigInteger k) {
+        long[] px = fromBytes(pubX);
+        long[] py = liftX(px);
+        if (py == null) {
+            return null;
+        }
+        Point3 sum = addJacobian(toJacobian(combMul(s)), wnafMul(px, py, k));
+        if (sum.infinity) {
+            return null;
+        }
+        long[] zInv = new long[10];
+        long[] zInv2 = new long[10];
+        inv(zInv, sum.z);
+        sqr(zInv2, zInv);
+        long[] x = new long[10];
+        long[] y = new long[10];
+        mul(x, sum.x, zInv2);
+        mul(y, sum.y, zInv2);
+        mul(y, y, zInv);
+        byte[] out = new byte[64];
+        toBytes(out, 0, x);
+        toBytes(out, 32, y);
+        return out;
+    }
+
+    /**
+     * Check that g * G + sum of k[i] * P[i] is the point at infinity, where
+     * P[i] is the point with x coordinate xs[i] and even y. Only for public
+     * inputs. The wNAFs of all scalars are walked together (Strauss), so the
+     * 256 doublings are shared by every point instead of paid per point, and
+     * short scalars only cost additions for their own length.
+     *
+     * @param g 32-byte big-endian scalar, below n
+     * @return false if the sum is not infinity or an x is not on the curve
+     */
+    static boolean sumIsInfinity(byte[] g, byte[][] xs, BigInteger[] k) {
+        int count = xs.length;
+        int tableSize = 1 << (WNAF_WIDTH - 2);
+
+        // Odd multiples P, 3P, ..., 15P of every point, made affine together
+        Point3[] base = new Point3[count];
+        Point3[] twice = new Point3[count];
+        for (int i = 0; i < count; i++) {
+            long[] px = fromBytes(xs[i]);
+            long[] py = liftX(px);
+            if (py == null) {
+                return false;
+            }
+            base[i] = Point3.affine(px, py);
+            twice[i] = doubleJacobian(base[i]);
+        }
+        if (count > 0) {
+            normalizeAll(twice);
+        }
+        Point3[] tables = new Point3[count * tableSize];
+        for (int i = 0; i < count; i++) {
+            tables[i * tableSize] = base[i];
+            for (int j = 1; j < tableSize; j++) {
+                tables[i * tableSize + j] = addAffine(tables[i * tableSize + j - 1], twice[i].x, twice[i].y);
+            }
+        }
+        if (count > 0) {
+            normalizeAll(tables);
+        }
+
+        int[][] digits = new int[count][];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            digits[i] = wnaf(k[i].mod(N));
+            length = Math.max(length, digits[i].length);
+        }
+        Point3 acc = new Point3();
+        acc.infinity = true;
+        long[] negY = new long[10];
+        for (int bit = length - 1; bit >= 0; bit--) {
+            acc = doubleJacobian(acc);
+            for (int i = 0; i < count; i++) {
+                if (bit >= digits[i].length || digits[i][bit] == 0) {
+                    continue;
+                }
+                int digit = digits[i][bit];
+                Point3 q = tables[i * tableSize + (Math.abs(digit) >> 1)];
+                if (digit > 0) {
+                    acc = addAffine(acc, q.x, q.y);
+                } else {
+                    neg(negY, q.y);
+                    acc = addAffine(acc, q.x, negY);
+                }
+            }
+        }
+        return addJacobian(toJacobian(combMul(g)), acc).infinity;
+    }
+
+    /** Sum of the comb rows picked by the 4-bit digits of k, in projective coordinates. */
+    private static Point3 combMul(byte[] k) {
+        long[] table = Comb.TABLE;
+        Point3 acc = new Point3();
+        acc.y[0] = 1;
+        Point3 q = new Point3();
+        for (int i = 0; i < Comb.WINDOWS; i++) {
+            int digit = ((k[31 - (i >> 1)] & 0xFF) >>> ((i & 1) << 2)) & 0xF;
+            // Read the whole row, keep the entry of the digit
+            for (int l = 0; l < 10; l++) {
+                q.x[l] = 0;
+                q.y[l] = 0;
+            }
+            for (int j = 0; j < 16; j++) {
+                long mask = -(long) (((j ^ digit) - 1) >>> 31);
+                int offset = (i * 16 + j) * 20;
+                for (int l = 0; l < 10; l++) {
+                    q.x[l] |= table[offset + l] & mask;
+                    q.y[l] |= table[offset + 10 + l] & mask;
+                }
+            }
+            // Digit 0 is the point at infinity, (0 : 1 : 0)
+            q.z[0] = (digit | -digit) >>> 31;
+            acc = addComplete(acc, q);
+        }
+        return acc;
+    }
+
+    /** Complete addition for a = 0, projective coordinates (RCB 2016, algorithm 7). */
+    private static Point3 addComplete(Point3 p, Point3 q) {
+        long[] t0 = new long[10], t1 = new long[10], t2 = new long[10];
+        long[] t3 = new long[10], t4 = new long[10];
+        Point3 r = new Point3();
+        long[] x3 = r.x, y3 = r.y, z3 = r.z;
+
+        mul(t0, p.x, q.x);
+        mul(t1, p.y, q.y);
+        mul(t2, p.z, q.z);
+        add(t3, p.x, p.y);
+        add(t4, q.x, q.y);
+        mul(t3, t3, t4);
+        add(t4, t0, t1);
+        sub(t3, t3, t4);
+        add(t4, p.y, p.z);
+        add(x3, q.y, q.z);
+        mul(t4, t4, x3);
+        add(x3, t1, t2);
+        sub(t4, t4, x3);
+        add(x3, p.x, p.z);
+        add(y3, q.x, q.z);
+        mul(x3, x3, y3);
+        add(y3, t0, t2);
+        sub(y3, x3, y3);
+        add(x3, t0, t0);
+        add(t0, x3, t0);
+        mulInt(t2, t2, 21);
+        add(z3, t1, t2);
+        sub(t1, t1, t2);
+        mulInt(y3, y3, 21);
+        mul(x3, t4, y3);
+        mul(t2, t3, t1);
+        sub(x3, t2, x3);
+        mul(y3, y3, t0);
+        mul(t1, t1, z3);
+        add(y3, t1, y3);
+        mul(t0, t0, t3);
+        mul(z3, z3, t4);
+        add(z3, z3, t0);
+        return r;
+    }
+
+    /** Projective to Jacobian: (XZ, YZ^2, Z). */
+    private static Point3 toJacobian(Point3 p) {
+        Point3 r = new Point3();
+        if (isZero(p.z)) {
+            r.infinity = true;
+            return r;
+        }
+        long[] zz = new long[10];
+        sqr(zz, p.z);
+        mul(r.x, p.x, p.z);
+        mul(r.y, p.y, zz);
+        System.arraycopy(p.z, 0, r.z, 0, 10);
+        return r;
+    }
+
+    /** k * P with a width-5 wNAF; P affine, result Jacobian. */
+    private static Point3 wnafMul(long[] px, long[] py, BigInteger k) {
+        // Odd multiples P, 3P, ..., 15P, made affine with one inversion
+        int count = 1 << (WNAF_WIDTH - 2);
+        Point3[] odd = new Point3[count];
+        odd[0] = Point3.affine(px, py);
+        Point3 twice = doubleJacobian(odd[0]);
+        Point3[] toAffine = {twice};
+        normalizeAll(toAffine);
+        for (int i = 1; i < count; i++) {
+            odd[i] = addAffine(odd[i - 1], twice.x, twice.y);
+        }
+        normalizeAll(odd);
+
+        int[] digits = wnaf(k.mod(N));
+        Point3 acc = new Point3();
+        acc.infinity = true;
+        long[] negY = new long[10];
+        for (int i = digits.length - 1; i >= 0; i--) {
+            acc = doubleJacobian(acc);
+            int digit = digits[i];
+            if (digit > 0) {
+                Point3 q = odd[digit >> 1];
+                acc = addAffine(acc, q.x, q.y);
+            } else if (digit < 0) {
+                Point3 q = odd[(-digit) >> 1];
+                neg(negY, q.y);
+                acc = addAffine(acc, q.x, negY);
+            }
+        }
+        return acc;
+    }
+
+    private static int[] wnaf(BigInteger k) {
+        int[] digits = new int[k.bitLength() + 1];
+        int window = 1 << WNAF_WIDTH;
+        int i = 0;
+        while (k.signum() > 0) {
+            if (k.testBit(0)) {
+                int digit = k.intValue() & (window - 1);
+                if (digit >= window / 2) {
+                    digit -= window;
+                }
+                digits[i] = digit;
+                k = k.subtract(BigInteger.valueOf(digit));
+            }
+            k = k.shiftRight(1);
+            i++;
+        }
+        return digits;
+    }
+
+    /** Jacobian doubling for a = 0 (dbl-2009-l). */
+    private static Point3 doubleJacobian(Point3 p) {
+        Point3 r = new Point3();
+        if (p.infinity) {
+            r.infinity = true;
+            return r;
+        }
+        long[] a = new long[10], b = new long[10], c = new long[10];
+        long[] d = new long[10], e = new long[10], f = new long[10];
+        sqr(a, p.x);
+        sqr(b, p.y);
+        sqr(c, b);
+        add(d, p.x, b);
+        sqr(d, d);
+        sub(d, d, a);
+        sub(d, d, c);
+        mulInt(d, d, 2);
+        mulInt(e, a, 3);
+        sqr(f, e);
+        // X3 = F - 2D
+        mulInt(r.x, d, 2);
+        sub(r.x, f, r.x);
+        // Y3 = E(D - X3) - 8C
+        sub(r.y, d, r.x);
+        mul(r.y, e, r.y);
+        mulInt(c, c, 8);
+        sub(r.y, r.y, c);
+        // Z3 = 2YZ
+        mul(r.z, p.y, p.z);
+        mulInt(r.z, r.z, 2);
+        return r;
+    }
+
+    /** Jacobian plus affine point (madd-2007-bl). */
+    private static Point3 addAffine(Point3 p, long[] qx, long[] qy) {
+        if (p.infinity) {
+            return Point3.affine(qx, qy);
+        }
+        long[] z1z1 = new long[10], u2 = new long[10], s2 = new long[10];
+        long[] h = new long[10], rr = new long[10];
+        sqr(z1z1, p.z);
+        mul(u2, qx, z1z1);
+        mul(s2, qy, p.z);
+        mul(s2, s2, z1z1);
+        sub(h, u2, p.x);
+        sub(rr, s2, p.y);
+        mulInt(rr, rr, 2);
+        if (isZero(h)) {
+            if (isZero(rr)) {
+                return doubleJacobian(p);
+            }
+            Point3 r = new Point3();
+            r.infinity = true;
+            return r;
+        }
+        long[] hh = new long[10], i = new long[10], j = new long[10], v = new long[10];
+        sqr(hh, h);
+        mulInt(i, hh, 4);
+        mul(j, h, i);
+        mul(v, p.x, i);
+
+        Point3 r = new Point3();
+        // X3 = r^2 - J - 2V
+        sqr(r.x, rr);
+        sub(r.x, r.x, j);
+        sub(r.x, r.x, v);
+        sub(r.x, r.x, v);
+        // Y3 = r(V - X3) - 2 Y1 J
+        sub(r.y, v, r.x);
+        mul(r.y, rr, r.y);
+        mul(j, p.y, j);
+        mulInt(j, j, 2);
+        sub(r.y, r.y, j);
+        // Z3 = (Z1 + H)^2 - Z1Z1 - HH
+        add(r.z, p.z, h);
+        sqr(r.z, r.z);
+        sub(r.z, r.z, z1z1);
+        sub(r.z, r.z, hh);
+        return r;
+    }
+
+    /** Jacobian plus Jacobian (add-2007-bl). */
+    private static Point3 addJacobian(Point3 p, Point3 q) {
+        if (p.infinity) {
+            return q;
+        }
+        if (q.infinity) {
+            return p;
+        }
+        long[] z1z1 = new long[10], z2z2 = new long[10];
+        long[] u1 = new long[10], u2 = new long[10], s1 = new long[10], s2 = new long[10];
+        long[] h = new long[10], rr = new long[10];
+        sqr(z1z1, p.z);
+        sqr(z2z2, q.z);
+        mul(u1, p.x, z2z2);
+        mul(u2, q.x, z1z1);
+        mul(s1, p.y, q.z);
+        mul(s1, s1, z2z2);
+        mul(s2, q.y, p.z);
+        mul(s2, s2, z1z1);
+        sub(h, u2, u1);
+        sub(rr, s2, s1);
+        mulInt(rr, rr, 2);
+        if (isZero(h)) {
+            if (isZero(rr)) {
+                return doubleJacobian(p);
+            }
+            Point3 r = new Point3();
+            r.infinity = true;
+            return r;
+        }
+        long[] i = new long[10], j = new long[10], v = new long[10];
+        mulInt(i, h, 2);
+        sqr(i, i);
+        mul(j, h, i);
+        mul(v, u1, i);
+
+        Point3 r = new Point3();
+        sqr(r.x, rr);
+        sub(r.x, r.x, j);
+        sub(r.x, r.x, v);
+        sub(r.x, r.x, v);
+        sub(r.y, v, r.x);
+        mul(r.y, rr, r.y);
+        mul(s1, s1, j);
+        mulInt(s1, s1, 2);
+        sub(r.y, r.y, s1);
+        add(r.z, p.z, q.z);
+        sqr(r.z, r.z);
+        sub(r.z, r.z, z1z1);
+        sub(r.z, r.z, z2z2);
+        mul(r.z, r.z, h);
+        return r;
+    }
+
+    /** Make Jacobian points affine (Z = 1) with a single inversion. */
+    private static void normalizeAll(Point3[] points) {
+        int n = points.length;
+        long[][] prefix = new long[n][];
+        long[] acc = new long[10];
+        acc[0] = 1;
+        for (int i = 0; i < n; i++) {
+            prefix[i] = acc.clone();
+            mul(acc, acc, points[i].z);
+        }
+        long[] accInv = new long[10];
+        inv(accInv, acc);
+        long[] zInv = new long[10], zInv2 = new long[10];
+        for (int i = n - 1; i >= 0; i--) {
+            Point3 p = points[i];
+            mul(zInv, accInv, prefix[i]);
+            mul(accInv, accInv, p.z);
+            sqr(zInv2, zInv);
+            mul(p.x, p.x, zInv2);
+            mul(p.y, p.y, zInv2);
+            mul(p.y, p.y, zInv);
+            for (int l = 0; l < 10; l++) {
+                p.z[l] = 0;
+            }
+            p.z[0] = 1;
+            normalize(p.x);
+            normalize(p.y);
+        }
+    }
+
+    /** The y with even parity for x, or null if x is not on the curve. */
+    private static long[] liftX(long[] x) {
+        long[] y2 = new long[10];
+        sqr(y2, x);
+        mul(y2, y2, x);
+        long[] seven = new long[10];
+        seven[0] = 7;
+        add(y2, y2, seven);
+        long[] y = new long[10];
+        sqrt(y, y2);
+        long[] check = new long[10];
+        sqr(check, y);
+        if (!equal(check, y2)) {
+            return null;
+        }
+        normalize(y);
+        if ((y[0] & 1) != 0) {
+            neg(y, y);
+            normalize(y);
+        }
+        return y;
+    }
+
+    // ---- Field arithmetic mod p ----
+
+    static long[] fromBytes(byte[] b) {
+        long[] r = new long[10];
+        long acc = 0;
+        int bits = 0;
+        int limb = 0;
+        for (int i = 31; i >= 0; i--) {
+            acc |= (long) (b[i] & 0xFF) << bits;
+            bits += 8;
+            if (bits >= 26 && limb < 9) {
+                r[limb++] = acc & M26;
+                acc >>>= 26;
+                bits -= 26;
+            }
+        }
+        r[9] = acc;
+        return r;
+    }
+
+    static void toBytes(byte[] out, int offset, long[] a) {
+        long[] t = a.clone();
+        normalize(t);
+        long acc = 0;
+        int bits = 0;
+        int limb = 0;
+        for (int i = 31; i >= 0; i--) {
+            if (bits < 8) {
+                acc |= t[limb] << bits;
+                bits += limb == 9 ? 22 : 26;
+                limb++;
+            }
+            out[offset + i] = (byte) acc;
+            acc >>>= 8;
+            bits -= 8;
+        }
+    }
+
+    private static void mul(long[] r, long[] a, long[] b) {
+        long[] t = new long[20];
+        for (int i = 0; i < 10; i++) {
+            long ai = a[i];
+            for (int j = 0; j < 10; j++) {
+                t[i + j] += ai * b[j];
+            }
+        }
+        // Carry the product into 26-bit limbs
+        for (int k = 0; k < 19; k++) {
+            t[k + 1] += t[k] >>> 26;
+            t[k] &= M26;
+        }
+        // Fold limbs 10..19 down: 2^260 = 0x400 * 2^26 + 0x3D10 (mod p)
+        long over = 0;
+        for (int k = 0; k < 10; k++) {
+            long h = t[k + 10];
+            t[k] += h * 0x3D10L;
+            if (k < 9) {
+                t[k + 1] += h * 0x400L;
+            } else {
+                over = h * 0x400L;
+            }
+        }
+        t[0] += over * 0x3D10L;
+        t[1] += over * 0x400L;
+        System.arraycopy(t, 0, r, 0, 10);
+        carry(r);
+    }
+
+    private static void sqr(long[] r, long[] a) {
+        mul(r, a, a);
+    }
+
+    private static void add(long[] r, long[] a, long[] b) {
+        for (int i = 0; i < 10; i++) {
+            r[i] = a[i] + b[i];
+        }
+        carry(r);
+    }
+
+    /** r = 4p - a, limb by limb so no limb goes negative. */
+    private static void neg(long[] r, long[] a) {
+        r[0] = P0 * 4 - a[0];
+        r[1] = P1 * 4 - a[1];
+        for (int i = 2; i < 9; i++) {
+            r[i] = M26 * 4 - a[i];
+        }
+        r[9] = M22 * 4 - a[9];
+        carry(r);
+    }
+
+    private static void sub(long[] r, long[] a, long[] b) {
+        long[] t = new long[10];
+        neg(t, b);
+        add(r, a, t);
+    }
+
+    private static void mulInt(long[] r, long[] a, int k) {
+        for (int i = 0; i < 10; i++) {
+            r[i] = a[i] * k;
+        }
+        carry(r);
+    }
+
+    /**
+     * Bring limbs back to 26 bits (22 for the top one), folding what is
+     * above 2^256 into the bottom. The value stays below 2^256 + 2^234.
+     */
+    private static void carry(long[] r) {
+        for (int k = 0; k < 9; k++) {
+            r[k + 1] += r[k] >>> 26;
+            r[k] &= M26;
+        }
+        long top = r[9] >>> 22;
+        r[9] &= M22;
+        r[0] += top * 0x3D1L;
+        r[1] += top * 0x40L;
+        for (int k = 0; k < 9; k++) {
+            r[k + 1] += r[k] >>> 26;
+            r[k] &= M26;
+        }
+    }
+
+    /** Fully reduce below p, without branches. */
+    private static void normalize(long[] r) {
+        carry(r);
+        // At most 2^256 + a little: fold the top bit once more
+        long top = r[9] >>> 22;
+        r[9] &= M22;
+        r[0] += top * 0x3D1L;
+        r[1] += top * 0x40L;
+        for (int k = 0; k < 9; k++) {
+            r[k + 1] += r[k] >>> 26;
+            r[k] &= M26;
+        }
+        // Below 2^256 < 2p: subtract p once if r >= p
+        long high = r[2] & r[3] & r[4] & r[5] & r[6] & r[7] & r[8];
+        long highIsMax = isZeroMask((high ^ M26) | (r[9] ^ M22));
+        long low = (r[1] << 26) | r[0];
+        long lowAtLeast = ((low - ((P1 << 26) | P0)) >>> 63) ^ 1;
+        long subtract = highIsMax & lowAtLeast;
+        r[0] += subtract * 0x3D1L;
+        r[1] += subtract * 0x40L;
+        for (int k = 0; k < 9; k++) {
+            r[k + 1] += r[k] >>> 26;
+            r[k] &= M26;
+        }
+        r[9] &= M22;
+    }
+
+    /** 1 if x is 0, else 0 (x below 2^62). */
+    private static long isZeroMask(long x) {
+        return ((x - 1) >>> 63);
+    }
+
+    private static boolean isZero(long[] a) {
+        long[] t = a.clone();
+        normalize(t);
+        long bits = 0;
+        for (long limb : t) {
+            bits |= limb;
+        }
+        return bits == 0;
+    }
+
+    private static boolean equal(long[] a, long[] b) {
+        long[] t = new long[10];
+        sub(t, a, b);
+        return isZero(t);
+    }
+
+    private static void sqrN(long[] r, long[] a, int n) {
+        sqr(r, a);
+        for (int i = 1; i < n; i++) {
+            sqr(r, r);
+        }
+    }
+
+    /** a^(2^223 - 1), the common start of the inversion and square root chains. */
+    private static void pow223(long[] x223, long[] x22, long[] x2, long[] a) {
+        long[] x3 = new long[10], x6 = new long[10], x9 = new long[10], x11 = new long[10];
+        long[] x44 = new long[10], x88 = new long[10], x176 = new long[10], x220 = new long[10];
+        sqr(x2, a);
+        mul(x2, x2, a);
+        sqr(x3, x2);
+        mul(x3, x3, a);
+        sqrN(x6, x3, 3);
+        mul(x6, x6, x3);
+        sqrN(x9, x6, 3);
+        mul(x9, x9, x3);
+        sqrN(x11, x9, 2);
+        mul(x11, x11, x2);
+        sqrN(x22, x11, 11);
+        mul(x22, x22, x11);
+        sqrN(x44, x22, 22);
+        mul(x44, x44, x22);
+        sqrN(x88, x44, 44);
+        mul(x88, x88, x44);
+        sqrN(x176, x88, 88);
+        mul(x176, x176, x88);
+        sqrN(x220, x176, 44);
+        mul(x220, x220, x44);
+        sqrN(x223, x220, 3);
+        mul(x223, x223, x3);
+    }
+
+    /** r = a^(p - 2) = 1/a. */
+    private static void inv(long[] r, long[] a) {
+        long[] x223 = new long[10], x22 = new long[10], x2 = new long[10];
+        pow223(x223, x22, x2, a);
+        long[] t = new long[10];
+        sqrN(t, x223, 23);
+        mul(t, t, x22);
+        sqrN(t, t, 5);
+        mul(t, t, a);
+        sqrN(t, t, 3);
+        mul(t, t, x2);
+        sqrN(t, t, 2);
+        mul(r, t, a);
+    }
+
+    /** r = a^((p + 1) / 4), a square root of a when there is one. */
+    private static void sqrt(long[] r, long[] a) {
+        long[] x223 = new long[10], x22 = new long[10], x2 = new long[10];
+        pow223(x223, x22, x2, a);
+        long[] t = new long[10];
+        sqrN(t, x223, 23);
+        mul(t, t, x22);
+        sqrN(t, t, 6);
+        mul(t, t, x2);
+        sqrN(r, t, 2);
+    }
+
+    // ---- Scalar arithmetic mod n ----
+    // Scalars are eight 32-bit limbs (long[8], least significant first). Secret
+    // scalars only go through these, with the same operations for every value.
+
+    private static final long M32 = 0xFFFFFFFFL;
+    private static final long[] N_LIMBS = {
+            0xD0364141L, 0xBFD25E8CL, 0xAF48A03BL, 0xBAAEDCE6L,
+            0xFFFFFFFEL, 0xFFFFFFFFL, 0xFFFFFFFFL, 0xFFFFFFFFL};
+    // 2^256 - n, to fold the bits above 2^256 back in
+    private static final long[] N_FOLD = {0x2FC9BEBFL, 0x402DA173L, 0x50B75FC4L, 0x45512319L, 1L};
+
+    /** True if the 32 big-endian bytes are a scalar in 1..n-1. */
+    static boolean scalarIsValid(byte[] b) {
+        long[] a = scalarLimbs(b);
+        long borrow = 0;
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            long d = a[i] - N_LIMBS[i] - borrow;
+            borrow = d >>> 63;
+            bits |= a[i];
+        }
+        // Subtracting n borrows when a is below it
+        return (borrow & ((bits | -bits) >>> 63)) == 1;
+    }
+
+    /** 32 big-endian bytes mod n. Any 32 bytes are below 2n, one subtraction is enough. */
+    static long[] scalarFromBytes(byte[] b) {
+        long[] a = scalarLimbs(b);
+        scalarReduce(a, 0);
+        return a;
+    }
+
+    static byte[] scalarToBytes(long[] a) {
+        byte[] out = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            int o = 28 - 4 * i;
+            out[o] = (byte) (a[i] >>> 24);
+            out[o + 1] = (byte) (a[i] >>> 16);
+            out[o + 2] = (byte) (a[i] >>> 8);
+            out[o + 3] = (byte) a[i];
+        }
+        return out;
+    }
+
+    static boolean scalarIsZero(long[] a) {
+        long bits = 0;
+        for (long limb : a) {
+            bits |= limb;
+        }
+        return bits == 0;
+    }
+
+    /** a = n - a when negate is 1, unchanged when it is 0. a must not be 0. */
+    static void scalarNegateIf(long[] a, int negate) {
+        long mask = -(long) negate;
+        long borrow = 0;
+        for (int i = 0; i < 8; i++) {
+            long d = N_LIMBS[i] - a[i] - borrow;
+            borrow = d >>> 63;
+            a[i] = (d & M32 & mask) | (a[i] & ~mask);
+        }
+    }
+
+    /** (k + e * d) mod n. */
+    static long[] scalarMulAdd(long[] k, long[] e, long[] d) {
+        // Below 2^512
+        long[] t = new long[16];
+        System.arraycopy(k, 0, t, 0, 8);
+        for (int i = 0; i < 8; i++) {
+            mulAddLimbs(t, i, e[i], d, 8);
+        }
+        // Fold the high half with 2^256 = 2^256 - n (mod n): below 2^386, then
+        // 2^260, then 2^256 + 2^133, which one subtraction brings below n
+        long[] r = fold(t, 13);
+        r = fold(r, 10);
+        r = fold(r, 9);
+        long[] out = Arrays.copyOf(r, 8);
+        scalarReduce(out, r[8]);
+        return out;
+    }
+
+    private static long[] scalarLimbs(byte[] b) {
+        long[] a = new long[8];
+        for (int i = 0; i < 8; i++) {
+            int o = 28 - 4 * i;
+            a[i] = ((b[o] & 0xFFL) << 24) | ((b[o + 1] & 0xFFL) << 16) | ((b[o + 2] & 0xFFL) << 8) | (b[o + 3] & 0xFFL);
+        }
+        return a;
+    }
+
+    /** Low 8 limbs of x plus the rest times 2^256 - n, in a result of the given length. */
+    private static long[] fold(long[] x, int length) {
+        long[] r = new long[length];
+        System.arraycopy(x, 0, r, 0, 8);
+        for (int i = 8; i < x.length; i++) {
+            mulAddLimbs(r, i - 8, x[i], N_FOLD, N_FOLD.length);
+        }
+        return r;
+    }
+
+    /** r += x * y[0..length-1] at limb offset, carrying to the end of r. */
+    private static void mulAddLimbs(long[] r, int offset, long x, long[] y, int length) {
+        long carry = 0;
+        for (int j = 0; j < length; j++) {
+            // Both below 2^32: the product fits 64 bits, read unsigned
+            long product = x * y[j];
+            long sum = r[offset + j] + (product & M32) + carry;
+            r[offset + j] = sum & M32;
+            carry = (sum >>> 32) + (product >>> 32);
+        }
+        for (int j = offset + length; j < r.length; j++) {
+            long sum = r[j] + carry;
+            r[j] = sum & M32;
+            carry = sum >>> 32;
+        }
+    }
+
+    /**
+     * Subtract n from a + carry * 2^256 when that is at least n, without
+     * branches. The value must be below 2n.
+     */
+    private static void scalarReduce(long[] a, long carry) {
+        long[] t = new long[8];
+        long borrow = 0;
+        for (int i = 0; i < 8; i++) {
+            long d = a[i] - N_LIMBS[i] - borrow;
+            t[i] = d & M32;
+            borrow = d >>> 63;
+        }
+        long keep = -((borrow ^ 1) | carry);
+        for (int i = 0; i < 8; i++) {
+            a[i] = (t[i] & keep) | (a[i] & ~keep);
+        }
+    }
+}
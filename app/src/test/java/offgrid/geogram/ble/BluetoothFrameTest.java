@@ -0,0 +1,127 @@
+package offgrid.geogram.ble;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for binary GATT framing.
+ *
+ * Tests verify that:
+ * 1. Frames round-trip through encode/decode
+ * 2. Messages reassemble from frames in any order
+ * 3. Messages are not limited to 99 parcels
+ * 4. Malformed frames are rejected
+ */
+public class BluetoothFrameTest {
+
+    @Test
+    public void testHeaderRoundTrip() {
+        BluetoothFrame header = BluetoothFrame.header("AB", 300, "X1ADK0", "ANY", "KPBA");
+
+        BluetoothFrame decoded = BluetoothFrame.decode(header.encode());
+
+        assertNotNull(decoded);
+        assertTrue(decoded.isHeader());
+        assertEquals("AB", decoded.getMessageId());
+        assertEquals(0, decoded.getSequence());
+        assertEquals(300, decoded.getParcelCount());
+        assertEquals("X1ADK0", decoded.getSender());
+        assertEquals("ANY", decoded.getDestination());
+        assertEquals("KPBA", decoded.getChecksum());
+    }
+
+    @Test
+    public void testDataRoundTrip() {
+        byte[] data = "Hello binary world".getBytes(StandardCharsets.UTF_8);
+        BluetoothFrame frame = BluetoothFrame.data("CD", 200, data, 6, 6);
+
+        byte[] encoded = frame.encode();
+        BluetoothFrame decoded = BluetoothFrame.decode(encoded);
+
+        assertNotNull(decoded);
+        assertFalse(decoded.isHeader());
+        assertEquals(200, decoded.getSequence());
+        assertEquals("CD200", decoded.getParcelKey());
+        assertEquals(">CD200", decoded.getAckKey());
+        byte[] payload = new byte[decoded.getPayload().remaining()];
+        decoded.getPayload().get(payload);
+        assertEquals("binary", new String(payload, StandardCharsets.UTF_8));
+
+        // 4 fixed bytes + 2-byte varint for sequence 200 + 4-byte CRC
+        assertTrue(decoded.hasCrc());
+        assertEquals(6 + 6 + 4, encoded.length);
+    }
+
+    @Test
+    public void testMessageReassemblesFromShuffledFrames() {
+        String text = "Ünïcödé payload that spans several frames so multi-byte characters get split.";
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY", text, false);
+
+        List<byte[]> frames = original.toFrames(16);
+        Collections.reverse(frames);
+
+        BluetoothMessage received = new BluetoothMessage();
+        for (byte[] frame : frames) {
+            assertTrue(BluetoothFrame.isFrame(frame));
+            received.addFrame(BluetoothFrame.decode(frame));
+        }
+
+        assertTrue("Message should complete", received.isMessageCompleted());
+        assertEquals(text, received.getMessage());
+        assertEquals("X1ADK0", received.getIdFromSender());
+        assertEquals("ANY", received.getIdDestination());
+    }
+
+    @Test
+    public void testMoreThan99Frames() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("parcel-").append(i).append(';');
+        }
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY", text.toString(), false);
+
+        List<byte[]> frames = original.toFrames(BluetoothFrame.MIN_FRAME_SIZE);
+        assertTrue("Should need more than 99 frames", frames.size() > 100);
+
+        BluetoothMessage received = new BluetoothMessage();
+        for (byte[] frame : frames) {
+            received.addFrame(BluetoothFrame.decode(frame));
+        }
+        assertTrue(received.isMessageCompleted());
+        assertEquals(text.toString(), received.getMessage());
+    }
+
+    @Test
+    public void testIncompleteMessageNotCompleted() {
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY",
+                "A message long enough to need a few frames at this size.", false);
+        List<byte[]> frames = original.toFrames(BluetoothFrame.MIN_FRAME_SIZE);
+        assertTrue(frames.size() > 2);
+
+        BluetoothMessage received = new BluetoothMessage();
+        for (int i = 0; i < frames.size() - 1; i++) {
+            received.addFrame(BluetoothFrame.decode(frames.get(i)));
+        }
+        assertFalse(received.isMessageCompleted());
+    }
+
+    @Test
+    public void testTextParcelsAreNotFrames() {
+        assertFalse(BluetoothFrame.isFrame(">AB01:hello".getBytes(StandardCharsets.UTF_8)));
+        assertNull(BluetoothFrame.decode(">AB00:X1ADK0:ANY:KPBA".getBytes(StandardCharsets.UTF_8)));
+        assertNull(BluetoothFrame.decode(null));
+    }
+
+    @Test
+    public void testTruncatedFrameRejected() {
+        byte[] encoded = BluetoothFrame.header("AB", 3, "X1ADK0", "ANY", "KPBA").encode();
+        byte[] truncated = new byte[encoded.length - 6];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        assertNull(BluetoothFrame.decode(truncated));
+    }
+}
@@ -0,0 +1,53 @@
+package offgrid.geogram.ble;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Cost of CRC32C against the old 4-letter checksum on 4 KB messages. Only
+ * runs with -Pbenchmarks; the numbers are in the assertion message.
+ */
+public class BluetoothMessageIntegrityBenchmark {
+
+    private static final String TEXT =
+            "The quick brown fox jumps over the lazy dog while the relay keeps on forwarding parcels";
+
+    /**
+     * The CRC may cost more than the checksum, but must stay cheap next to
+     * the BLE link: a byte takes at least 10 us even at 100 KB/s, the CRC
+     * gets a hundredth of that.
+     */
+    @Test
+    public void benchmarkChecksumVsCrc32c() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 4096) {
+            builder.append(TEXT);
+        }
+        String data = builder.substring(0, 4096);
+        int rounds = 2000;
+        BluetoothMessage message = new BluetoothMessage();
+
+        // warm up
+        for (int i = 0; i < rounds; i++) {
+            assertEquals(4, message.calculateChecksum(data).length());
+            assertEquals(8, BluetoothMessage.calculateCrc32c(data).length());
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            message.calculateChecksum(data);
+        }
+        long checksumNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            BluetoothMessage.calculateCrc32c(data);
+        }
+        long crcNanos = System.nanoTime() - start;
+
+        double bytes = (double) rounds * data.length();
+        String result = String.format("checksum %.3f ns/byte, crc32c %.3f ns/byte",
+                checksumNanos / bytes, crcNanos / bytes);
+        assertTrue(result, crcNanos / bytes < 100);
+    }
+}
@@ -0,0 +1,291 @@
+package offgrid.geogram.ble;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for the CRC32C integrity mode of BLE messages.
+ *
+ * Tests verify that:
+ * 1. Corruption the 4-letter checksum misses is caught by the CRC
+ * 2. Only the corrupted parcel is dropped and requested again
+ * 3. Headers without the integrity field still work (older senders)
+ * 4. Corrupted binary frames are rejected
+ * 5. The header stays within one parcel, with only the message CRC for long messages
+ * 6. The parcel CRCs of long messages travel in CRC list parcels
+ */
+public class BluetoothMessageIntegrityTest {
+
+    private static final String TEXT =
+            "The quick brown fox jumps over the lazy dog while the relay keeps on forwarding parcels";
+
+    @Test
+    public void testSwappedCharactersMissedByChecksumCaughtByCrc() {
+        String swapped = "The quick brown fox jumps over the lazy dgo while the relay keeps on forwarding parcels";
+
+        BluetoothMessage message = new BluetoothMessage();
+        assertEquals("Additive checksum cannot see the swap",
+                message.calculateChecksum(TEXT), message.calculateChecksum(swapped));
+        assertNotEquals(BluetoothMessage.calculateCrc32c(TEXT), BluetoothMessage.calculateCrc32c(swapped));
+    }
+
+    @Test
+    public void testCrc32cKnownValues() {
+        // Check values from RFC 3720 (iSCSI), appendix B.4
+        assertEquals("E3069283", BluetoothMessage.calculateCrc32c("123456789"));
+        assertEquals(0x8A9136AA, Crc32c.compute(new byte[32]));
+        byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte) 0xFF);
+        assertEquals(0x62A8AB43, Crc32c.compute(ones));
+        byte[] framed = {9, '1', '2', '3', '4', '5', '6', '7', '8', '9', 9};
+        assertEquals(0xE3069283, BluetoothFrame.crc32c(framed, 1, 9));
+    }
+
+    @Test
+    public void testHeaderFitsInOneParcel() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 600) {
+            builder.append(TEXT);
+        }
+        String text = builder.toString();
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "X1ABCD", text, false);
+        String[] parcels = original.getMessageParcels();
+        int parcelLength = parcels[1].length();
+
+        // too many parcels for their CRCs, the message CRC is still sent
+        String header = parcels[0];
+        assertTrue(header, header.length() <= parcelLength);
+        assertTrue(header, header.endsWith(":K" + (parcels.length - 1) + "." + original.getMessageCrc()));
+
+        BluetoothMessage received = new BluetoothMessage();
+        received.addMessageParcel(header);
+        assertEquals(parcels.length - 1, received.getExpectedParcels());
+        assertEquals(original.getMessageCrc(), received.getMessageCrc());
+        for (int i = 1; i < parcels.length; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+        assertTrue(received.isMessageCompleted());
+        assertEquals(text, received.getMessage());
+    }
+
+    @Test
+    public void testCrcListsLetOnlyTheCorruptedParcelBeRequested() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 600) {
+            builder.append(TEXT);
+        }
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "X1ABCD", builder.toString(), false);
+        String[] parcels = original.getMessageParcels();
+        assertTrue(parcels.length > 10);
+
+        // the lists fit in a parcel and have no ':' so older receivers ignore them
+        List<String> crcLists = original.getParcelCrcLists();
+        assertFalse(crcLists.isEmpty());
+        for (String list : crcLists) {
+            assertTrue(list, list.length() <= parcels[1].length());
+            assertFalse(list, list.contains(":"));
+            assertTrue(list, BluetoothMessage.isParcelCrcList(list));
+        }
+        List<String> sent = original.getParcelsToSend();
+        assertEquals(parcels.length + crcLists.size(), sent.size());
+        assertEquals(crcLists, sent.subList(1, 1 + crcLists.size()));
+
+        // swap two characters inside parcel 7, the 4-letter checksum can't see it
+        String good = parcels[7];
+        char[] chars = good.toCharArray();
+        char c = chars[6];
+        chars[6] = chars[7];
+        chars[7] = c;
+        String corrupted = new String(chars);
+
+        BluetoothMessage received = new BluetoothMessage();
+        for (String parcel : sent) {
+            received.addMessageParcel(parcel.equals(good) ? corrupted : parcel);
+        }
+
+        assertFalse(received.isMessageCompleted());
+        String parcelId = good.substring(0, 4);
+        assertEquals(Collections.singletonList(parcelId), received.takeRejectedParcels());
+        assertEquals(Collections.singletonList(parcelId), received.getMissingParcels());
+        assertEquals(ValidCommands.PARCEL_REPEAT_SET + " " + parcelId + " 1", received.getMissingParcelsBitmap());
+
+        received.addMessageParcel(good);
+        assertTrue(received.isMessageCompleted());
+        assertEquals(builder.toString(), received.getMessage());
+    }
+
+    @Test
+    public void testCrcListAfterDataDropsCorruptedParcel() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 600) {
+            builder.append(TEXT);
+        }
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "X1ABCD", builder.toString(), false);
+        String[] parcels = original.getMessageParcels();
+        String good = parcels[12];
+        String corrupted = good.substring(0, good.length() - 1) + "#";
+
+        // a corrupted CRC list is ignored
+        String list = original.getParcelCrcLists().get(1);
+        BluetoothMessage received = new BluetoothMessage();
+        received.addMessageParcel(list.substring(0, list.length() - 1) + (list.endsWith("0") ? "1" : "0"));
+        received.addMessageParcel(parcels[0]);
+        for (int i = 1; i < 12; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+        received.addMessageParcel(corrupted);
+        assertTrue(received.takeRejectedParcels().isEmpty());
+
+        // the list covering parcel 12 arrives late and still catches it
+        received.addMessageParcel(list);
+        assertEquals(Collections.singletonList(good.substring(0, 4)), received.takeRejectedParcels());
+        for (int i = 13; i < parcels.length; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+        assertFalse(received.isMessageCompleted());
+        assertEquals(Collections.singletonList(good.substring(0, 4)), received.getMissingParcels());
+
+        received.addMessageParcel(good);
+        assertTrue(received.isMessageCompleted());
+        assertEquals(builder.toString(), received.getMessage());
+    }
+
+    @Test
+    public void testCrcOnlyHeaderRequestsAllParcelsOnMismatch() {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 600) {
+            builder.append(TEXT);
+        }
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "X1ABCD", builder.toString(), false);
+        String[] parcels = original.getMessageParcels();
+
+        // swap two characters inside parcel 2, the 4-letter checksum can't see it
+        String good = parcels[2];
+        char[] chars = good.toCharArray();
+        char c = chars[6];
+        chars[6] = chars[7];
+        chars[7] = c;
+
+        // the CRC lists were lost, so no parcel can be checked on its own
+        BluetoothMessage received = new BluetoothMessage();
+        for (int i = 0; i < parcels.length; i++) {
+            received.addMessageParcel(i == 2 ? new String(chars) : parcels[i]);
+        }
+
+        assertFalse(received.isMessageCompleted());
+        // the header is kept, every data parcel is asked for again
+        ArrayList<String> rejected = received.takeRejectedParcels();
+        assertEquals(parcels.length - 1, rejected.size());
+        assertEquals(rejected, received.getMissingParcels());
+
+        for (int i = 1; i < parcels.length; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+        assertTrue(received.isMessageCompleted());
+        assertEquals(builder.toString(), received.getMessage());
+    }
+
+    @Test
+    public void testCorruptedParcelIsDroppedAndRequestedAgain() {
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY", TEXT, false);
+        String[] parcels = original.getMessageParcels();
+        assertTrue(parcels.length > 2);
+
+        // swap two characters inside parcel 1
+        String good = parcels[1];
+        char[] chars = good.toCharArray();
+        char c = chars[6];
+        chars[6] = chars[7];
+        chars[7] = c;
+        String corrupted = new String(chars);
+
+        BluetoothMessage received = new BluetoothMessage();
+        received.addMessageParcel(parcels[0]);
+        received.addMessageParcel(corrupted);
+        for (int i = 2; i < parcels.length; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+
+        assertFalse("Corrupted message must not complete", received.isMessageCompleted());
+        String parcelId = good.substring(0, 4);
+        assertEquals(parcelId, received.getFirstMissingParcel());
+        ArrayList<String> rejected = received.takeRejectedParcels();
+        assertEquals(1, rejected.size());
+        assertEquals(parcelId, rejected.get(0));
+        assertTrue(received.takeRejectedParcels().isEmpty());
+
+        // the repeated parcel completes the message
+        received.addMessageParcel(good);
+        assertTrue(received.isMessageCompleted());
+        assertEquals(TEXT, received.getMessage());
+    }
+
+    @Test
+    public void testCorruptedParcelBeforeHeaderIsDropped() {
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY", TEXT, false);
+        String[] parcels = original.getMessageParcels();
+        String last = parcels[parcels.length - 1];
+        String corrupted = last.substring(0, last.length() - 1) + "#";
+
+        BluetoothMessage received = new BluetoothMessage();
+        for (int i = 1; i < parcels.length - 1; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+        received.addMessageParcel(corrupted);
+        received.addMessageParcel(parcels[0]);
+
+        assertFalse(received.isMessageCompleted());
+        assertTrue(received.getMissingParcels().contains(last.substring(0, 4)));
+
+        received.addMessageParcel(last);
+        assertTrue(received.isMessageCompleted());
+        assertEquals(TEXT, received.getMessage());
+    }
+
+    @Test
+    public void testMissingTrailingParcelDetectedFromHeader() {
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY", TEXT, false);
+        String[] parcels = original.getMessageParcels();
+
+        BluetoothMessage received = new BluetoothMessage();
+        for (int i = 0; i < parcels.length - 1; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+
+        assertFalse(received.isMessageCompleted());
+        assertEquals(parcels[parcels.length - 1].substring(0, 4), received.getFirstMissingParcel());
+    }
+
+    @Test
+    public void testLegacyHeaderStillCompletes() {
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY", TEXT, false);
+        String[] parcels = original.getMessageParcels();
+        // drop the integrity field, as an older sender would
+        String header = parcels[0].substring(0, parcels[0].lastIndexOf(':'));
+
+        BluetoothMessage received = new BluetoothMessage();
+        received.addMessageParcel(header);
+        for (int i = 1; i < parcels.length; i++) {
+            received.addMessageParcel(parcels[i]);
+        }
+
+        assertTrue(received.isMessageCompleted());
+        assertEquals(TEXT, received.getMessage());
+    }
+
+    @Test
+    public void testCorruptedFrameRejected() {
+        BluetoothMessage original = new BluetoothMessage("X1ADK0", "ANY", TEXT, false);
+        List<byte[]> frames = original.toFrames(BluetoothFrame.MIN_FRAME_SIZE);
+
+        byte[] frame = frames.get(1).clone();
+        frame[frame.length - 6] ^= 0x01;
+        assertNull(BluetoothFrame.decode(frame));
+        assertNotNull(BluetoothFrame.decode(frames.get(1)));
+    }
+}
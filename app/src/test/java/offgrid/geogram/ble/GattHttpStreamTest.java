@@ -0,0 +1,202 @@
+package offgrid.geogram.ble;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Unit tests for the streamed GATT HTTP response body.
+ *
+ * Tests verify that:
+ * 1. Chunks are read in order even when they arrive shuffled
+ * 2. Chunks outside the window are refused (backpressure)
+ * 3. Every consumed chunk is reported so the sender can move on
+ * 4. Errors and closing before the end are passed on
+ * 5. Chunks that overtake the status line are kept and decoded once it arrives
+ * 6. A gzipped body is read back still compressed
+ */
+public class GattHttpStreamTest {
+
+    private final List<Integer> consumed = new ArrayList<>();
+    private final List<Boolean> closed = new ArrayList<>();
+
+    private final GattHttpStream.FlowListener listener = new GattHttpStream.FlowListener() {
+        @Override
+        public void onChunkConsumed(String requestId, int sequence) {
+            consumed.add(sequence);
+        }
+
+        @Override
+        public void onClosed(String requestId, boolean complete) {
+            closed.add(complete);
+        }
+    };
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readAll(GattHttpStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int count;
+        while ((count = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testShuffledChunksReadInOrder() throws IOException {
+        GattHttpStream stream = new GattHttpStream("req1", 4, 1000, listener);
+        assertTrue(stream.offer(2, bytes("!!")));
+        assertTrue(stream.offer(0, bytes("Hello ")));
+        assertTrue(stream.offer(1, bytes("world")));
+        stream.finish(3);
+
+        assertEquals("Hello world!!", readAll(stream));
+        assertEquals(List.of(0, 1, 2), consumed);
+
+        stream.close();
+        assertEquals(List.of(true), closed);
+    }
+
+    @Test
+    public void testWindowRefusesChunksTooFarAhead() throws IOException {
+        GattHttpStream stream = new GattHttpStream("req2", 2, 1000, listener);
+        assertTrue(stream.offer(0, bytes("a")));
+        assertTrue(stream.offer(1, bytes("b")));
+        assertFalse("Outside the window", stream.offer(2, bytes("c")));
+        assertFalse("Duplicate", stream.offer(1, bytes("b")));
+        assertEquals(2, stream.getBufferedChunks());
+
+        // Reading the first chunk opens the window by one
+        assertEquals('a', stream.read());
+        assertTrue(stream.offer(2, bytes("c")));
+        assertFalse("Already consumed", stream.offer(0, bytes("a")));
+    }
+
+    @Test
+    public void testReaderWaitsForLateChunk() throws Exception {
+        GattHttpStream stream = new GattHttpStream("req3", 4, 2000, listener);
+        stream.offer(0, bytes("first "));
+
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            stream.offer(1, bytes("second"));
+            stream.finish(2);
+        });
+        producer.start();
+
+        assertEquals("first second", readAll(stream));
+        producer.join();
+    }
+
+    @Test
+    public void testReadTimesOutWithoutData() throws IOException {
+        GattHttpStream stream = new GattHttpStream("req4", 4, 50, listener);
+        try {
+            stream.read();
+            fail("Expected a read timeout");
+        } catch (InterruptedIOException e) {
+            assertTrue(consumed.isEmpty());
+        }
+    }
+
+    @Test
+    public void testFailureAfterBufferedData() throws IOException {
+        GattHttpStream stream = new GattHttpStream("req5", 4, 1000, listener);
+        stream.offer(0, bytes("partial"));
+        stream.fail(new IOException("connection lost"));
+
+        byte[] buffer = new byte[16];
+        assertEquals(7, stream.read(buffer));
+        try {
+            stream.read(buffer);
+            fail("Expected the transfer error");
+        } catch (IOException e) {
+            assertEquals("connection lost", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCloseBeforeEndIsIncomplete() {
+        GattHttpStream stream = new GattHttpStream("req6", 4, 1000, listener);
+        stream.offer(0, bytes("data"));
+        stream.close();
+        stream.close();
+
+        assertEquals(List.of(false), closed);
+        assertFalse(stream.offer(1, bytes("more")));
+    }
+
+    @Test
+    public void testChunksBeforeHeaderAreDecodedWithItsEncoding() throws IOException {
+        GattHttpStream stream = new GattHttpStream("req7", 4, 1000, listener);
+        assertTrue(stream.offerEncoded(1, "d29ybGQ="));
+        assertTrue(stream.offerEncoded(0, "SGVsbG8g"));
+        assertFalse("Duplicate", stream.offerEncoded(1, "d29ybGQ="));
+        assertFalse("Outside the window", stream.offerEncoded(4, "IQ=="));
+        assertEquals(0, stream.getBufferedChunks());
+
+        stream.setHeader(200, "base64");
+        assertEquals(2, stream.getBufferedChunks());
+        assertTrue(stream.offerEncoded(2, "IQ=="));
+        stream.finish(3);
+        assertEquals("Hello world!", readAll(stream));
+    }
+
+    @Test
+    public void testTextChunkBeforeHeader() throws IOException {
+        GattHttpStream stream = new GattHttpStream("req8", 4, 1000, listener);
+        assertTrue(stream.offerEncoded(0, "caf\u00e9 "));
+        stream.setHeader(404, "text");
+        assertTrue(stream.offerEncoded(1, "not found"));
+        stream.finish(2);
+
+        assertEquals(404, stream.getStatusCode());
+        assertEquals("caf\u00e9 not found", readAll(stream));
+    }
+
+    @Test
+    public void testGzipBodyStaysCompressed() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(bytes("{\"cursor\":\"42\",\"complete\":true}\n"));
+        }
+        byte[] body = compressed.toByteArray();
+        int half = body.length / 2;
+        GattHttpStream stream = new GattHttpStream("req9", 4, 1000, listener);
+        assertTrue(stream.offerEncoded(0, Base64.getEncoder().encodeToString(java.util.Arrays.copyOf(body, half))));
+        stream.setHeader(200, "gzip");
+        assertTrue(stream.isGzipped());
+        assertTrue(stream.offerEncoded(1, Base64.getEncoder().encodeToString(
+                java.util.Arrays.copyOfRange(body, half, body.length))));
+        stream.finish(2);
+
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(stream)) {
+            byte[] buffer = new byte[64];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                unzipped.write(buffer, 0, count);
+            }
+        }
+        assertEquals("{\"cursor\":\"42\",\"complete\":true}\n",
+                new String(unzipped.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(List.of(0, 1), consumed);
+    }
+}
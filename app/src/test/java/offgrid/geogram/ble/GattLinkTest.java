@@ -0,0 +1,135 @@
+package offgrid.geogram.ble;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the per-connection GATT send pipeline.
+ *
+ * Tests verify that:
+ * 1. Parcels of the same priority are sent in the order they were queued
+ * 2. A link never has more than MAX_IN_FLIGHT acknowledged writes waiting
+ * 3. Writes without response stop once the credits run out and resume on CRD:n
+ * 4. Backoff after a failure on one MAC doesn't delay another
+ * 5. The server gives credits back once half the window was used
+ */
+public class GattLinkTest {
+
+    private static final int MAX_BYTES = 512;
+
+    private long now = 10_000;
+
+    private PendingAck write(GattLink link) {
+        assertEquals("Link should be able to write now", 0, link.delayBeforeWrite(now));
+        PendingAck pendingAck = link.startWrite(now, MAX_BYTES);
+        assertNotNull(pendingAck);
+        link.onWriteSucceeded();
+        // Past the pacing of legacy links
+        now += GattLink.MIN_WRITE_INTERVAL_MS;
+        return pendingAck;
+    }
+
+    @Test
+    public void testSamePriorityIsSentInOrder() {
+        GattLink link = new GattLink("AA:AA:AA:AA:AA:01", null);
+        link.offer(new QueuedMessage(">AB01:first", "X1ABCD", 1));
+        link.offer(new QueuedMessage(">AB02:second", "X1ABCD", 1));
+        link.offer(new QueuedMessage(">CD00:urgent", "X1ABCD", 0));
+        link.offer(new QueuedMessage(">AB03:third", "X1ABCD", 1));
+
+        assertEquals(">CD00:urgent", write(link).message.parcel);
+        link.onAck(">CD00");
+        assertEquals(">AB01:first", write(link).message.parcel);
+        link.onAck(">AB01");
+        assertEquals(">AB02:second", write(link).message.parcel);
+        link.onAck(">AB02");
+        assertEquals(">AB03:third", write(link).message.parcel);
+    }
+
+    @Test
+    public void testInFlightIsCapped() {
+        GattLink link = new GattLink("AA:AA:AA:AA:AA:01", null);
+        for (int i = 0; i < GattLink.MAX_IN_FLIGHT + 2; i++) {
+            link.offer(new QueuedMessage(String.format(">AB%02d:text", i), "X1ABCD", 1));
+        }
+
+        for (int i = 0; i < GattLink.MAX_IN_FLIGHT; i++) {
+            PendingAck pendingAck = write(link);
+            assertFalse(pendingAck.noResponse);
+        }
+        assertEquals(GattLink.MAX_IN_FLIGHT, link.inFlight.size());
+        assertEquals("No more writes until an ACK", GattLink.BLOCKED, link.delayBeforeWrite(now));
+
+        assertTrue(link.onAck(">AB00"));
+        assertEquals(">AB04:text", write(link).message.parcel);
+        assertEquals(GattLink.BLOCKED, link.delayBeforeWrite(now));
+    }
+
+    @Test
+    public void testWritesStopWithoutCreditsAndResumeOnGrant() {
+        GattLink link = new GattLink("AA:AA:AA:AA:AA:01", null);
+        link.grantCredits(GattLink.CREDIT_WINDOW);
+        for (int i = 0; i < GattLink.CREDIT_WINDOW + 2; i++) {
+            link.offer(new QueuedMessage(String.format(">AB%02d:text", i), "X1ABCD", 1));
+        }
+
+        // A full window goes out at once, without response and without pacing
+        for (int i = 0; i < GattLink.CREDIT_WINDOW; i++) {
+            assertTrue(write(link).noResponse);
+        }
+        assertEquals(0, link.credits);
+        assertEquals("Out of credits, no more writes", GattLink.BLOCKED, link.delayBeforeWrite(now));
+
+        link.grantCredits(GattLink.CREDIT_WINDOW / 2);
+        PendingAck resumed = write(link);
+        assertTrue(resumed.noResponse);
+        assertEquals(">AB08:text", resumed.message.parcel);
+        assertEquals(GattLink.CREDIT_WINDOW / 2 - 1, link.credits);
+    }
+
+    @Test
+    public void testGrantNeverExceedsWindow() {
+        GattLink link = new GattLink("AA:AA:AA:AA:AA:01", null);
+        link.grantCredits(GattLink.CREDIT_WINDOW);
+        link.grantCredits(GattLink.CREDIT_WINDOW / 2);
+        assertEquals(GattLink.CREDIT_WINDOW, link.credits);
+    }
+
+    @Test
+    public void testBackoffDoesNotDelayOtherLinks() {
+        GattLink failing = new GattLink("AA:AA:AA:AA:AA:01", null);
+        GattLink healthy = new GattLink("AA:AA:AA:AA:AA:02", null);
+        failing.offer(new QueuedMessage(">AB00:text", "X1ABCD", 1));
+        healthy.offer(new QueuedMessage(">AB00:text", "X1ABCD", 1));
+
+        PendingAck failed = failing.startWrite(now, MAX_BYTES);
+        failing.onWriteFailed(failed, now);
+        assertEquals(1, failing.queue.size());
+        assertEquals(GattLink.BASE_BACKOFF_MS * 2, failing.delayBeforeWrite(now));
+
+        assertEquals("Other link isn't held back", 0, healthy.delayBeforeWrite(now));
+        assertNotNull(healthy.startWrite(now, MAX_BYTES));
+
+        now += GattLink.BASE_BACKOFF_MS * 2;
+        assertEquals(0, failing.delayBeforeWrite(now));
+    }
+
+    @Test
+    public void testServerReturnsCreditsAtHalfWindow() {
+        CreditLedger ledger = new CreditLedger();
+        ledger.open("AA:AA:AA:AA:AA:01");
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 1; i < GattLink.CREDIT_WINDOW / 2; i++) {
+                assertEquals(0, ledger.received("AA:AA:AA:AA:AA:01", false));
+            }
+            assertEquals(GattLink.CREDIT_WINDOW / 2, ledger.received("AA:AA:AA:AA:AA:01", false));
+        }
+
+        // Writes with response use no credit, unknown peers never agreed on credits
+        assertEquals(0, ledger.received("AA:AA:AA:AA:AA:01", true));
+        for (int i = 0; i < GattLink.CREDIT_WINDOW; i++) {
+            assertEquals(0, ledger.received("AA:AA:AA:AA:AA:02", false));
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 /**
  * Unit tests for NACK (Negative Acknowledgment) functionality in BLE message transmission.
@@ -14,6 +15,8 @@ import java.util.ArrayList;
  * 2. NACK requests would be sent for missing parcels
  * 3. Message assembly handles gaps correctly
  * 4. Duplicate NACK requests are avoided
+ * 5. Selective repeat bitmaps encode the missing parcels of a message
+ * 6. Selective repeat bitmaps recover lost parcels in fewer round trips
  */
 public class NackFunctionalityTest {
 
@@ -230,4 +233,106 @@ public class NackFunctionalityTest {
         assertTrue("Should contain AF3", missing.contains("AF3"));
         assertTrue("Should contain AF4", missing.contains("AF4"));
     }
+
+    /**
+     * Test that a selective repeat bitmap lists every missing parcel.
+     *
+     * Scenario: Parcels 02, 03 and 05 of a message are lost
+     * Expected: one /rs request that decodes back to 2, 3 and 5
+     */
+    @Test
+    public void testMissingParcelsBitmapRoundTrip() {
+        BluetoothMessage original = new BluetoothMessage("SENDER", "DEST", longText(), false);
+        String[] parcels = original.getMessageParcels();
+        for (int i = 0; i < parcels.length; i++) {
+            if (i != 2 && i != 3 && i != 5) {
+                message.addMessageParcel(parcels[i]);
+            }
+        }
+
+        String request = message.getMissingParcelsBitmap();
+
+        assertNotNull(request);
+        assertTrue("Should fit in an advertisement", request.length() <= 23);
+        assertTrue(ValidCommands.isValidRequest(request));
+        ArrayList<Integer> requested = BluetoothMessage.parseMissingParcelsBitmap(request);
+        assertNotNull(requested);
+        assertEquals(3, requested.size());
+        assertTrue(requested.contains(2));
+        assertTrue(requested.contains(3));
+        assertTrue(requested.contains(5));
+    }
+
+    /**
+     * Test that malformed bitmaps are rejected.
+     */
+    @Test
+    public void testMalformedBitmapRejected() {
+        assertNull(BluetoothMessage.parseMissingParcelsBitmap("/rs AB03"));
+        assertNull(BluetoothMessage.parseMissingParcelsBitmap("/rs ABxx 1F"));
+        assertNull(BluetoothMessage.parseMissingParcelsBitmap("/rs AB03 ZZ"));
+    }
+
+    /**
+     * Measure round trips to complete a message under simulated loss.
+     *
+     * Scenario: 30% of parcels (including repeats) are lost on the way
+     * Expected: asking with one bitmap per round trip needs fewer round
+     * trips than asking for the first missing parcel each time
+     */
+    @Test
+    public void testSelectiveRepeatRoundTripsUnderLoss() {
+        int singleTotal = 0;
+        int bitmapTotal = 0;
+        for (long seed = 1; seed <= 20; seed++) {
+            singleTotal += roundTripsToComplete(false, seed, 0.3);
+            bitmapTotal += roundTripsToComplete(true, seed, 0.3);
+        }
+
+        assertTrue("Selective repeat should need fewer round trips over 20 runs: one by one="
+                + singleTotal + ", selective repeat=" + bitmapTotal, bitmapTotal < singleTotal);
+    }
+
+    private int roundTripsToComplete(boolean useBitmap, long seed, double loss) {
+        Random random = new Random(seed);
+        BluetoothMessage original = new BluetoothMessage("SENDER", "DEST", longText(), false);
+        String[] parcels = original.getMessageParcels();
+        BluetoothMessage received = new BluetoothMessage();
+
+        // first transmission, always deliver one parcel so the receiver knows the message
+        received.addMessageParcel(parcels[1]);
+        for (int i = 0; i < parcels.length; i++) {
+            if (random.nextDouble() >= loss) {
+                received.addMessageParcel(parcels[i]);
+            }
+        }
+
+        int roundTrips = 0;
+        while (!received.isMessageCompleted()) {
+            assertTrue("Message should complete", roundTrips < 200);
+            roundTrips++;
+            ArrayList<Integer> requested = new ArrayList<>();
+            if (useBitmap) {
+                requested = BluetoothMessage.parseMissingParcelsBitmap(received.getMissingParcelsBitmap());
+            } else {
+                requested.add(Integer.parseInt(received.getFirstMissingParcel().substring(2)));
+            }
+            // the sender replays everything asked for in one burst
+            for (int index : requested) {
+                if (index < parcels.length && random.nextDouble() >= loss) {
+                    received.addMessageParcel(parcels[index]);
+                }
+            }
+        }
+        assertEquals(original.getMessage(), received.getMessage());
+        return roundTrips;
+    }
+
+    private String longText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            text.append("Parcel text number ").append(i).append(" with some padding. ");
+        }
+        return text.toString();
+    }
 }
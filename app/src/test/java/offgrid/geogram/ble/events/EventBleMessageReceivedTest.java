@@ -0,0 +1,241 @@
+package offgrid.geogram.ble.events;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import offgrid.geogram.ble.BluetoothMessage;
+import offgrid.geogram.ble.ValidCommands;
+import offgrid.geogram.core.Central;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the missing parcel requests of EventBleMessageReceived.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EventBleMessageReceivedTest {
+
+    private static final long THROTTLE_MS = 3000;
+    private static final double LOSS = 0.3;
+
+    /**
+     * The receiving handler, with the sender and the clock played by the test.
+     * Requests and parcels go over a link that loses some of them, and
+     * scheduled checks run when the clock reaches them.
+     */
+    private static class Link extends EventBleMessageReceived {
+        final String[] parcels;
+        final boolean senderUnderstandsBitmap;
+        final Random random;
+        final double loss;
+        final List<String> requests = new ArrayList<>();
+        final List<Long> dueTimes = new ArrayList<>();
+        final List<Runnable> tasks = new ArrayList<>();
+        int requestsSent = 0;
+        long now = 0;
+
+        Link(String[] parcels, boolean senderUnderstandsBitmap, long seed, double loss) {
+            super("test");
+            this.parcels = parcels;
+            this.senderUnderstandsBitmap = senderUnderstandsBitmap;
+            this.random = new Random(seed);
+            this.loss = loss;
+        }
+
+        @Override
+        protected void sendRequest(String request) {
+            requestsSent++;
+            if (random.nextDouble() >= loss) {
+                requests.add(request);
+            }
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        protected void schedule(Runnable task, long delayMs) {
+            dueTimes.add(now + delayMs);
+            tasks.add(task);
+        }
+
+        /**
+         * Move the clock forward, running the checks that fall due.
+         */
+        void advance(long ms) {
+            now += ms;
+            for (int i = 0; i < tasks.size(); i++) {
+                if (dueTimes.get(i) <= now) {
+                    Runnable task = tasks.remove(i);
+                    dueTimes.remove(i);
+                    i--;
+                    task.run();
+                }
+            }
+        }
+
+        void deliver(String parcel) {
+            if (random.nextDouble() >= loss) {
+                action(">" + parcel);
+            }
+        }
+
+        /**
+         * The sender replays what was asked since the last call.
+         */
+        void answerRequests() {
+            List<String> received = new ArrayList<>(requests);
+            requests.clear();
+            for (String request : received) {
+                List<Integer> indexes = new ArrayList<>();
+                if (request.startsWith(ValidCommands.PARCEL_REPEAT_SET + " ")) {
+                    if (!senderUnderstandsBitmap) {
+                        continue;
+                    }
+                    indexes = BluetoothMessage.parseMissingParcelsBitmap(request);
+                } else {
+                    indexes.add(Integer.parseInt(request.substring(request.length() - 2)));
+                }
+                for (int index : indexes) {
+                    if (index < parcels.length) {
+                        deliver(parcels[index]);
+                    }
+                }
+            }
+        }
+
+        BluetoothMessage received() {
+            return messages.get(parcels[0].substring(0, 2));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Central.debugForLocalTests = true;
+    }
+
+    @Test
+    public void testLostRepeatIsRequestedAgain() {
+        String[] parcels = new BluetoothMessage("SENDER", "DEST", longText(), false).getMessageParcels();
+        Link link = new Link(parcels, true, 1, 0);
+        for (int i = 0; i < parcels.length; i++) {
+            if (i != 3) {
+                link.action(">" + parcels[i]);
+            }
+        }
+        // the sender gets time to finish before anything is asked
+        assertTrue(link.requests.isEmpty());
+
+        // nothing else arrives, the scheduled check asks
+        link.advance(THROTTLE_MS);
+        assertEquals(1, link.requests.size());
+        assertTrue(link.requests.get(0).startsWith(ValidCommands.PARCEL_REPEAT_SET + " "));
+
+        // the answer is lost; nothing more is asked until the throttle period is over
+        link.requests.clear();
+        link.action(">" + parcels[1]);
+        link.advance(THROTTLE_MS / 2);
+        assertTrue(link.requests.isEmpty());
+
+        link.advance(THROTTLE_MS / 2);
+        // nothing came back from the bitmap, so the sender may predate it
+        assertEquals(1, link.requests.size());
+        assertEquals("/repeat " + parcels[3].substring(0, 4), link.requests.get(0));
+
+        link.answerRequests();
+        assertTrue(link.received().isMessageCompleted());
+        assertEquals(longText(), link.received().getMessage());
+    }
+
+    @Test
+    public void testLostLastParcelIsRequested() {
+        String[] parcels = new BluetoothMessage("SENDER", "DEST", longText(), false).getMessageParcels();
+        Link link = new Link(parcels, true, 1, 0);
+        for (int i = 0; i < parcels.length - 1; i++) {
+            link.action(">" + parcels[i]);
+        }
+        // the last parcel is lost and nothing else comes from the sender
+        assertFalse(link.received().isMessageCompleted());
+        assertTrue(link.requests.isEmpty());
+
+        link.advance(THROTTLE_MS);
+        assertEquals(1, link.requests.size());
+        link.answerRequests();
+        assertTrue(link.received().isMessageCompleted());
+        assertEquals(longText(), link.received().getMessage());
+
+        // nothing is asked once the message is complete
+        link.advance(THROTTLE_MS);
+        link.advance(THROTTLE_MS);
+        assertEquals(1, link.requestsSent);
+    }
+
+    @Test
+    public void testGivesUpOnSilentSender() {
+        String[] parcels = new BluetoothMessage("SENDER", "DEST", longText(), false).getMessageParcels();
+        Link link = new Link(parcels, true, 1, 1.0);
+        link.action(">" + parcels[0]);
+        link.action(">" + parcels[1]);
+        for (int i = 0; i < 100; i++) {
+            link.advance(THROTTLE_MS);
+        }
+        int sent = link.requestsSent;
+        assertTrue("Requests sent: " + sent, sent > 0);
+        assertTrue("Checks left: " + link.tasks.size(), link.tasks.isEmpty());
+    }
+
+    /**
+     * Scenario: 30% of parcels, repeats and requests are lost on the way
+     * Expected: every message completes, and senders that understand the
+     * bitmap need fewer requests than those that only understand /repeat
+     */
+    @Test
+    public void testMessagesCompleteUnderLoss() {
+        int bitmapRequests = 0;
+        int repeatRequests = 0;
+        for (long seed = 1; seed <= 20; seed++) {
+            bitmapRequests += requestsToComplete(true, seed);
+            repeatRequests += requestsToComplete(false, seed);
+        }
+        assertTrue("Bitmaps should need fewer requests: " + bitmapRequests + " vs " + repeatRequests,
+                bitmapRequests < repeatRequests);
+    }
+
+    private int requestsToComplete(boolean senderUnderstandsBitmap, long seed) {
+        String[] parcels = new BluetoothMessage("SENDER", "DEST", longText(), false).getMessageParcels();
+        Link link = new Link(parcels, senderUnderstandsBitmap, seed, LOSS);
+
+        // first transmission, always deliver one parcel so the receiver knows the message
+        link.action(">" + parcels[1]);
+        for (String parcel : parcels) {
+            link.deliver(parcel);
+        }
+
+        int rounds = 0;
+        while (!link.received().isMessageCompleted()) {
+            assertTrue("Message should complete", rounds < 100);
+            rounds++;
+            link.answerRequests();
+            // nothing else is heard from the sender, the scheduled check asks again
+            link.advance(THROTTLE_MS);
+        }
+        assertEquals(longText(), link.received().getMessage());
+        return link.requestsSent;
+    }
+
+    private String longText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            text.append("Parcel text number ").append(i).append(" with some padding. ");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,218 @@
+package offgrid.geogram.core;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for LogQuery and LogIndex.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LogQueryTest {
+
+    private File logDir;
+
+    @Before
+    public void setUp() throws Exception {
+        Central.debugForLocalTests = true;
+        logDir = Files.createTempDirectory("logquery").toFile();
+        Log.setLogFile(new File(logDir, "app_debug.log"));
+    }
+
+    @After
+    public void tearDown() {
+        Log.setMaxLogSize(5 * 1024 * 1024);
+    }
+
+    @Test
+    public void testTagQueryPagesWithCursor() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            Log.d(i % 10 == 0 ? "Rare" : "Common", "line " + i + " padding to fill the index blocks");
+        }
+
+        LogQuery query = new LogQuery(0, Long.MAX_VALUE, "Rare", Log.VERBOSE);
+        List<String> messages = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        LogQuery.Page page;
+        do {
+            page = query.run(cursor, 120);
+            for (Log.Entry entry : page.entries) {
+                assertEquals("Rare", entry.tag);
+                messages.add(entry.message);
+            }
+            cursor = page.cursor;
+            pages++;
+        } while (!page.complete);
+
+        assertEquals(300, messages.size());
+        assertTrue(messages.get(0).startsWith("line 0 "));
+        assertTrue(messages.get(299).startsWith("line 2990 "));
+        assertEquals(3, pages);
+
+        // Nothing new since the last cursor, until more is logged
+        assertTrue(query.run(cursor, 10).entries.isEmpty());
+        Log.d("Rare", "after");
+        page = query.run(cursor, 10);
+        assertEquals(1, page.entries.size());
+        assertEquals("after", page.entries.get(0).message);
+    }
+
+    @Test
+    public void testNdjsonPagesEndWithCursor() throws Exception {
+        for (int i = 0; i < 250; i++) {
+            Log.i("Paged", "line " + i);
+        }
+
+        // Page with nothing but the body, as a client behind the GATT proxy does
+        LogQuery query = new LogQuery(0, Long.MAX_VALUE, "Paged", Log.VERBOSE);
+        List<String> messages = new ArrayList<>();
+        String cursor = null;
+        boolean complete;
+        int pages = 0;
+        do {
+            StringWriter body = new StringWriter();
+            query.run(cursor, 100).writeNdjson(body);
+            String[] lines = body.toString().split("\n");
+            for (int i = 0; i < lines.length - 1; i++) {
+                JsonObject line = JsonParser.parseString(lines[i]).getAsJsonObject();
+                assertEquals("Paged", line.get("tag").getAsString());
+                assertEquals("I", line.get("level").getAsString());
+                messages.add(line.get("message").getAsString());
+            }
+            JsonObject trailer = JsonParser.parseString(lines[lines.length - 1]).getAsJsonObject();
+            assertFalse(trailer.has("message"));
+            cursor = trailer.get("cursor").getAsString();
+            complete = trailer.get("complete").getAsBoolean();
+            pages++;
+        } while (!complete);
+
+        assertEquals(250, messages.size());
+        assertEquals("line 0", messages.get(0));
+        assertEquals("line 249", messages.get(249));
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void testIndexSkipsBlocksWithoutTheTag() throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 2000; i++) {
+            Log.i("Noise", "noise line " + i + " with some padding to fill up the blocks");
+        }
+        Log.e("Needle", "found");
+        for (int i = 0; i < 2000; i++) {
+            Log.i("Noise", "noise line " + i + " with some padding to fill up the blocks");
+        }
+
+        LogQuery.Page all = new LogQuery(0, Long.MAX_VALUE, null, Log.VERBOSE).run(null, LogQuery.MAX_PAGE_SIZE);
+        LogQuery.Page needle = new LogQuery(start, Long.MAX_VALUE, "Needle", Log.VERBOSE).run(null, 10);
+        LogQuery.Page errors = new LogQuery(start, Long.MAX_VALUE, null, Log.ERROR).run(null, 10);
+
+        assertEquals(1, needle.entries.size());
+        assertEquals(Log.ERROR, needle.entries.get(0).level);
+        assertEquals(1, needle.blocksRead);
+        assertEquals("found", errors.entries.get(0).message);
+        assertEquals(1, errors.blocksRead);
+        assertTrue(all.blocksRead > 5);
+    }
+
+    @Test
+    public void testTimeRange() throws Exception {
+        Log.w("Time", "before");
+        Thread.sleep(20);
+        long middle = System.currentTimeMillis();
+        Thread.sleep(20);
+        Log.w("Time", "after");
+
+        LogQuery.Page before = new LogQuery(0, middle, "Time", Log.VERBOSE).run(null, 10);
+        LogQuery.Page after = new LogQuery(middle, Long.MAX_VALUE, "Time", Log.VERBOSE).run(null, 10);
+
+        assertEquals(1, before.entries.size());
+        assertEquals("before", before.entries.get(0).message);
+        assertTrue(before.complete);
+        assertEquals(1, after.entries.size());
+        assertEquals("after", after.entries.get(0).message);
+    }
+
+    @Test
+    public void testExistingFilesAreIndexed() throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        String day = String.format("%02d-%02d", calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+        File dir = Files.createTempDirectory("logquery").toFile();
+        String old = "=== Log trimmed from 5120 KB to 1024 KB ===\n"
+                + day + " 00:00:01.000 I [Boot] starting\n"
+                + day + " 00:00:02.000 E [Crash] failed\n"
+                + "java.lang.IllegalStateException: boom\n"
+                + "\tat offgrid.geogram.Example.run(Example.java:1)\n";
+        Files.write(new File(dir, "app_debug.log.old").toPath(), old.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "app_debug.log").toPath(),
+                (day + " 00:00:03.000 W [Boot] restarted\n").getBytes(StandardCharsets.UTF_8));
+        Log.setLogFile(new File(dir, "app_debug.log"));
+        for (int i = 0; i < 5; i++) {
+            Log.i("Boot", "new line " + i);
+        }
+
+        List<Log.Entry> boot = new LogQuery(0, Long.MAX_VALUE, "Boot", Log.VERBOSE).run(null, 100).entries;
+        assertEquals(7, boot.size());
+        assertEquals("starting", boot.get(0).message);
+        assertEquals("restarted", boot.get(1).message);
+        assertEquals(Log.WARN, boot.get(1).level);
+        assertEquals("new line 4", boot.get(6).message);
+
+        List<Log.Entry> crash = new LogQuery(0, Long.MAX_VALUE, "Crash", Log.ERROR).run(null, 10).entries;
+        assertEquals(1, crash.size());
+        assertEquals("failed\njava.lang.IllegalStateException: boom\n\tat offgrid.geogram.Example.run(Example.java:1)",
+                crash.get(0).message);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 2);
+        calendar.set(Calendar.MILLISECOND, 0);
+        assertEquals(calendar.getTimeInMillis(), crash.get(0).time);
+    }
+
+    @Test
+    public void testQuerySpansRotatedFile() throws Exception {
+        Log.setMaxLogSize(2048);
+        for (int i = 0; i < 150; i++) {
+            Log.i("Rotate", "rot " + i);
+        }
+
+        List<Log.Entry> entries = new LogQuery(0, Long.MAX_VALUE, "Rotate", Log.VERBOSE).run(null, 1000).entries;
+        assertTrue(new File(logDir, "app_debug.log.old").exists());
+        // Older lines may be gone with a previous rotation, the rest is in order
+        assertTrue(entries.size() >= 50);
+        int first = 150 - entries.size();
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals("rot " + (first + i), entries.get(i).message);
+        }
+    }
+
+    @Test
+    public void testInvalidCursorAndLevel() throws Exception {
+        try {
+            new LogQuery(0, Long.MAX_VALUE, null, Log.VERBOSE).run("not-a-cursor", 10);
+            fail("Cursor should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("not-a-cursor"));
+        }
+        assertEquals(Log.WARN, LogQuery.parseLevel("W"));
+        assertEquals(Log.WARN, LogQuery.parseLevel("warning"));
+        assertEquals(Log.VERBOSE, LogQuery.parseLevel(null));
+        assertEquals(-1, LogQuery.parseLevel("loud"));
+    }
+}
@@ -0,0 +1,185 @@
+package offgrid.geogram.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for Log.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LogTest {
+
+    private File logDir;
+
+    @Before
+    public void setUp() throws Exception {
+        Central.debugForLocalTests = true;
+        Log.clear();
+        logDir = Files.createTempDirectory("logtest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        Log.setMinLevel(Log.VERBOSE);
+        Log.clearTagLevels();
+        Log.setMaxLogSize(5 * 1024 * 1024);
+    }
+
+    @Test
+    public void testRingKeepsMostRecentEntriesInOrder() {
+        for (int i = 0; i < 6000; i++) {
+            Log.d("Ring", "line " + i);
+        }
+
+        List<Log.Entry> entries = Log.getEntries(Integer.MAX_VALUE);
+        assertEquals(5000, entries.size());
+        assertEquals("line 1000", entries.get(0).message);
+        assertEquals("line 5999", entries.get(4999).message);
+
+        List<Log.Entry> recent = Log.getEntries(3);
+        assertEquals(3, recent.size());
+        assertEquals("line 5997", recent.get(0).message);
+        assertTrue(recent.get(2).toString().endsWith(" [Ring] line 5999"));
+
+        Log.clear();
+        assertTrue(Log.getEntries(10).isEmpty());
+    }
+
+    @Test
+    public void testFilteredLinesAreNotFormatted() {
+        int[] formatted = new int[1];
+        Object expensive = new Object() {
+            @Override
+            public String toString() {
+                formatted[0]++;
+                return "expensive";
+            }
+        };
+
+        Log.setMinLevel(Log.INFO);
+        Log.setTagLevel("Chatty", Log.ERROR);
+        Log.d("Quiet", "value %s", expensive);
+        Log.w("Chatty", "value %s", expensive);
+        assertEquals(0, formatted[0]);
+        assertTrue(Log.getEntries(10).isEmpty());
+
+        Log.i("Quiet", "value %s", expensive);
+        Log.e("Chatty", "value %s", expensive);
+        assertEquals(2, formatted[0]);
+        List<Log.Entry> entries = Log.getEntries(10);
+        assertEquals(2, entries.size());
+        assertEquals(Log.ERROR, entries.get(1).level);
+        assertEquals("value expensive", entries.get(1).message);
+    }
+
+    @Test
+    public void testEntryMatchingIgnoresCase() {
+        Log.i("Relay", "Message ABC123 stored");
+        Log.Entry entry = Log.getEntries(1).get(0);
+        assertTrue(entry.matches("abc123"));
+        assertTrue(entry.matches("RELAY"));
+        assertTrue(entry.matches(""));
+        assertFalse(entry.matches("xyz"));
+    }
+
+    @Test
+    public void testFileIsWrittenInBatchesAndRotated() throws Exception {
+        File file = new File(logDir, "app_debug.log");
+        Log.setLogFile(file);
+        Log.setMaxLogSize(4096);
+
+        for (int i = 0; i < 200; i++) {
+            Log.w("File", "line " + i);
+        }
+        Log.flush();
+
+        File old = new File(logDir, "app_debug.log.old");
+        assertTrue(old.exists());
+        assertTrue(file.length() <= 4096);
+
+        String content = new String(Files.readAllBytes(old.toPath()), StandardCharsets.UTF_8)
+                + new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        String[] lines = content.trim().split("\n");
+        String last = lines[lines.length - 1];
+        assertTrue(last, last.matches("\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} W \\[File\\] line 199"));
+    }
+
+    @Test
+    public void testErrorIsWrittenAtOnce() throws Exception {
+        File file = new File(logDir, "app_debug.log");
+        Log.setLogFile(file);
+        Log.w("File", "about to fail");
+        Log.e("File", "failed");
+
+        // No flush(): the error woke the writer, well before its 500 ms interval
+        String content = "";
+        long deadline = System.currentTimeMillis() + 250;
+        while (!content.endsWith("E [File] failed\n") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            content = file.exists() ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) : "";
+        }
+        assertTrue(content, content.contains("W [File] about to fail\n"));
+        assertTrue(content, content.endsWith("E [File] failed\n"));
+    }
+
+    @Test
+    public void testUncaughtExceptionIsLoggedAndPassedOn() throws Exception {
+        File file = new File(logDir, "app_debug.log");
+        Log.setLogFile(file);
+        Thread.UncaughtExceptionHandler original = Thread.getDefaultUncaughtExceptionHandler();
+        List<Throwable> passedOn = new ArrayList<>();
+        try {
+            Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> passedOn.add(throwable));
+            Log.installCrashHandler();
+            Log.installCrashHandler();
+
+            Log.d("Crash", "last line before the crash");
+            Thread crashed = new Thread(() -> { }, "Worker");
+            IllegalStateException crash = new IllegalStateException("boom");
+            Thread.getDefaultUncaughtExceptionHandler().uncaughtException(crashed, crash);
+
+            assertEquals(1, passedOn.size());
+            assertSame(crash, passedOn.get(0));
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            assertTrue(content, content.contains("D [Crash] last line before the crash\n"));
+            assertTrue(content, content.contains("E [Log] Uncaught exception in thread Worker"));
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(original);
+        }
+    }
+
+    @Test
+    public void testConcurrentLoggingKeepsNewestEntries() throws Exception {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    Log.d("Thread" + id, "line " + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every slot holds the newest entry for it, nothing older slipped back in
+        List<Log.Entry> entries = Log.getEntries(Integer.MAX_VALUE);
+        assertEquals(5000, entries.size());
+        for (int i = 1; i < entries.size(); i++) {
+            assertEquals(entries.get(i - 1).sequence + 1, entries.get(i).sequence);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package offgrid.geogram.database;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import offgrid.geogram.apps.chat.ChatMessage;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DatabaseMessages, on an in-memory Room database.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseMessagesTest {
+
+    private Context context;
+    private DatabaseMessages.MessagesDb db;
+    private DatabaseMessages messages;
+    private File legacyFile;
+    private File importedFile;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        db = Room.inMemoryDatabaseBuilder(context, DatabaseMessages.MessagesDb.class)
+                .allowMainThreadQueries()
+                .build();
+        messages = new DatabaseMessages();
+        legacyFile = new File(context.getFilesDir(), "messages.json");
+        importedFile = new File(context.getFilesDir(), "messages.json.imported");
+        legacyFile.delete();
+        importedFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        messages.shutdown();
+        db.close();
+        legacyFile.delete();
+        importedFile.delete();
+    }
+
+    @Test
+    public void testLegacyFileIsImportedAndRenamed() throws Exception {
+        JSONArray legacy = new JSONArray();
+        legacy.put(legacyJson("ALICE", "BOB", "Hello", 1000, false));
+        legacy.put(legacyJson("ALICE", "BOB", "Are you there?", 2000, true));
+        legacy.put(legacyJson("ALICE", "BOB", "Hello", 3000, false)); // duplicate
+        Files.write(legacyFile.toPath(), legacy.toString().getBytes(StandardCharsets.UTF_8));
+
+        messages.init(context, db);
+
+        assertEquals(2, messages.size());
+        assertEquals(2, db.messageDao().count());
+        assertFalse(legacyFile.exists());
+        assertTrue(importedFile.exists());
+        assertEquals(1, messages.getUnreadCount());
+        assertEquals(2, rowsByMessage().size());
+
+        // Next start reads the table, nothing is imported again
+        DatabaseMessages restarted = new DatabaseMessages();
+        restarted.init(context, db);
+        assertEquals(2, restarted.size());
+        assertEquals(1, restarted.getUnreadCount());
+        restarted.shutdown();
+    }
+
+    @Test
+    public void testOnlyQueuedChangesAreWritten() throws Exception {
+        messages.init(context, db);
+        ChatMessage first = message("ALICE", "BOB", "First", 1000, false);
+        ChatMessage second = message("ALICE", "BOB", "Second", 2000, false);
+        assertTrue(messages.add(first));
+        assertTrue(messages.add(second));
+        assertFalse(messages.add(message("ALICE", "BOB", "First", 5000, false)));
+        messages.flushAndWait();
+        assertEquals(2, db.messageDao().count());
+
+        // Only the message passed to update() is written again
+        first.read = true;
+        second.delivered = true;
+        messages.update(first);
+        messages.flushAndWait();
+
+        Map<String, DatabaseMessages.MessageRow> rows = rowsByMessage();
+        assertTrue(rows.get("First").read);
+        assertFalse(rows.get("Second").delivered);
+
+        // Messages that aren't stored are ignored
+        messages.update(message("ALICE", "BOB", "Unknown", 3000, false));
+        messages.flushAndWait();
+        assertEquals(2, db.messageDao().count());
+    }
+
+    @Test
+    public void testTrimmedMessagesAreDeleted() throws Exception {
+        messages.init(context, db);
+        messages.add(message("ALICE", "BOB", "Oldest", 1000, false));
+        messages.flushAndWait();
+        assertEquals(1, db.messageDao().count());
+
+        List<ChatMessage> batch = new ArrayList<>();
+        for (int i = 0; i < DatabaseMessages.MAX_MESSAGES; i++) {
+            batch.add(message("ALICE", "BOB", "Message " + i, 2000 + i, true));
+        }
+        assertEquals(DatabaseMessages.MAX_MESSAGES, messages.addAll(batch));
+        messages.flushAndWait();
+
+        assertEquals(DatabaseMessages.MAX_MESSAGES, messages.size());
+        assertEquals(DatabaseMessages.MAX_MESSAGES, db.messageDao().count());
+        assertFalse(rowsByMessage().containsKey("Oldest"));
+        assertEquals(0, messages.getUnreadCount());
+    }
+
+    @Test
+    public void testTrimmedAndAddedAgainIsKept() throws Exception {
+        messages.init(context, db);
+        messages.add(message("ALICE", "BOB", "Returning", 1000, true));
+        messages.flushAndWait();
+
+        List<ChatMessage> batch = new ArrayList<>();
+        for (int i = 0; i < DatabaseMessages.MAX_MESSAGES; i++) {
+            batch.add(message("ALICE", "BOB", "Message " + i, 2000 + i, true));
+        }
+        messages.addAll(batch);
+        // Trimmed above, and back as the newest message before any flush
+        assertTrue(messages.add(message("ALICE", "BOB", "Returning", 2000 + DatabaseMessages.MAX_MESSAGES, true)));
+        messages.flushAndWait();
+
+        Map<String, DatabaseMessages.MessageRow> rows = rowsByMessage();
+        assertEquals(DatabaseMessages.MAX_MESSAGES, messages.size());
+        assertEquals(DatabaseMessages.MAX_MESSAGES, db.messageDao().count());
+        assertEquals(2000 + DatabaseMessages.MAX_MESSAGES, rows.get("Returning").timestamp);
+        assertFalse(rows.containsKey("Message 0"));
+    }
+
+    @Test
+    public void testUnreadCountersPerConversation() throws Exception {
+        messages.init(context, db);
+        ChatMessage direct = message("ALICE", "ME", "Hi", 1000, false);
+        messages.add(direct);
+        messages.add(message("ALICE", "group-hikers", "Trail is open", 2000, false));
+        messages.add(message("CAROL", "hikers", "On my way", 3000, false));
+        ChatMessage mine = message("ME", "hikers", "See you there", 4000, false);
+        mine.isWrittenByMe = true;
+        messages.add(mine);
+
+        assertEquals(3, messages.getUnreadCount());
+        DatabaseMessages.ConversationStats hikers = messages.getConversationStats("hikers");
+        assertEquals(3, hikers.totalMessages);
+        assertEquals(2, hikers.unreadCount);
+        assertEquals("See you there", hikers.lastMessage.getMessage());
+        assertEquals(2, messages.getConversationStats("ALICE").unreadCount);
+
+        messages.markConversationAsRead("group-hikers");
+        assertEquals(1, messages.getUnreadCount());
+        assertEquals(0, messages.getConversationStats("hikers").unreadCount);
+        assertEquals(1, messages.getConversationStats("ALICE").unreadCount);
+
+        // Read elsewhere, then queued with update()
+        direct.read = true;
+        messages.update(direct);
+        assertEquals(0, messages.getUnreadCount());
+        assertEquals(0, messages.getConversationStats("ALICE").unreadCount);
+
+        messages.flushAndWait();
+        for (DatabaseMessages.MessageRow row : rowsByMessage().values()) {
+            assertTrue(row.message, row.read || row.isWrittenByMe);
+        }
+    }
+
+    @Test
+    public void testUnreadCountNeedsInit() {
+        try {
+            messages.getUnreadCount();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // init() was never called
+        }
+    }
+
+    private Map<String, DatabaseMessages.MessageRow> rowsByMessage() {
+        Map<String, DatabaseMessages.MessageRow> rows = new HashMap<>();
+        for (DatabaseMessages.MessageRow row : db.messageDao().newest(DatabaseMessages.MAX_MESSAGES + 1)) {
+            rows.put(row.message, row);
+        }
+        return rows;
+    }
+
+    private static ChatMessage message(String author, String destination, String text, long timestamp, boolean read) {
+        ChatMessage message = new ChatMessage(author, text);
+        message.destinationId = destination;
+        message.timestamp = timestamp;
+        message.read = read;
+        return message;
+    }
+
+    private static JSONObject legacyJson(String author, String destination, String text, long timestamp,
+                                         boolean read) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("authorId", author);
+        json.put("destinationId", destination);
+        json.put("message", text);
+        json.put("timestamp", timestamp);
+        json.put("read", read);
+        json.put("isWrittenByMe", false);
+        return json;
+    }
+}
@@ -0,0 +1,145 @@
+package offgrid.geogram.events;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for EventBus and the EventControl layer on top of it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EventBusTest {
+
+    private static final EventBus.Topic<Integer> NUMBERS = new EventBus.Topic<>("numbers");
+
+    private final EventBus bus = EventBus.getInstance();
+
+    @After
+    public void tearDown() {
+        bus.clear();
+    }
+
+    @Test
+    public void testIoSubscriberRunsOffPostingThreadInOrder() throws Exception {
+        int count = 500;
+        List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(count);
+        bus.subscribe(NUMBERS, "ordered", EventBus.Dispatch.IO, number -> {
+            received.add(number);
+            threads.add(Thread.currentThread());
+            done.countDown();
+        });
+
+        for (int i = 0; i < count; i++) {
+            bus.post(NUMBERS, i);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertFalse(threads.contains(Thread.currentThread()));
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.valueOf(i), received.get(i));
+        }
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotBlockPoster() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(3);
+        bus.subscribe(NUMBERS, "slow", EventBus.Dispatch.IO, number -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        bus.subscribe(NUMBERS, "fast", EventBus.Dispatch.COMPUTATION, number -> fastDone.countDown());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            bus.post(NUMBERS, i);
+        }
+        assertTrue("post should return at once", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertTrue("fast subscriber should not wait for the slow one", fastDone.await(5, TimeUnit.SECONDS));
+
+        EventBus.SubscriberStats slow = statsOf("slow");
+        assertTrue("slow subscriber has events queued", slow.queueDepth >= 2);
+        assertTrue(slow.maxQueueDepth >= slow.queueDepth);
+        release.countDown();
+    }
+
+    @Test
+    public void testDuplicateIdsAndUnsubscribe() {
+        List<Integer> received = new ArrayList<>();
+        assertTrue(bus.subscribe(NUMBERS, "same", EventBus.Dispatch.POSTING, received::add));
+        assertFalse(bus.subscribe(NUMBERS, "same", EventBus.Dispatch.POSTING, received::add));
+
+        bus.post(NUMBERS, 1);
+        assertEquals(1, received.size());
+
+        assertTrue(bus.unsubscribe(NUMBERS, "same"));
+        assertFalse(bus.unsubscribe(NUMBERS, "same"));
+        bus.post(NUMBERS, 2);
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void testFailingSubscriberIsIsolated() {
+        List<Integer> received = new ArrayList<>();
+        bus.subscribe(NUMBERS, "broken", EventBus.Dispatch.POSTING, number -> {
+            throw new IllegalStateException("boom");
+        });
+        bus.subscribe(NUMBERS, "working", EventBus.Dispatch.POSTING, received::add);
+
+        bus.post(NUMBERS, 7);
+
+        assertEquals(Collections.singletonList(7), received);
+        EventBus.SubscriberStats broken = statsOf("broken");
+        assertEquals(1, broken.delivered);
+        assertEquals(1, broken.failed);
+    }
+
+    @Test
+    public void testEventControlActionsStillRunOnPostingThread() {
+        List<Object[]> received = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        EventAction action = new EventAction("legacy") {
+            @Override
+            public void action(Object... data) {
+                received.add(data);
+                threads.add(Thread.currentThread());
+            }
+        };
+        EventControl.addEvent(EventType.BLE_BROADCAST_SENT, action);
+        EventControl.addEvent(EventType.BLE_BROADCAST_SENT, action);
+
+        EventControl.startEvent(EventType.BLE_BROADCAST_SENT, "hello", 42);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(new Object[] {"hello", 42}, received.get(0));
+        assertSame(Thread.currentThread(), threads.get(0));
+
+        EventControl.removeEvent(EventType.BLE_BROADCAST_SENT, "legacy");
+        EventControl.startEvent(EventType.BLE_BROADCAST_SENT, "again");
+        assertEquals(1, received.size());
+    }
+
+    private EventBus.SubscriberStats statsOf(String id) {
+        for (EventBus.SubscriberStats stats : bus.getStats()) {
+            if (stats.id.equals(id)) {
+                return stats;
+            }
+        }
+        fail("No stats for " + id);
+        return null;
+    }
+}
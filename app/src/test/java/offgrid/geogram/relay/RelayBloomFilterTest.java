@@ -0,0 +1,94 @@
+package offgrid.geogram.relay;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for RelayBloomFilter.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RelayBloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        List<String> ids = createIds("msg", 500);
+        RelayBloomFilter filter = RelayBloomFilter.of(ids, 2048, 1234);
+
+        for (String id : ids) {
+            assertTrue("Added ID must always match: " + id, filter.mightContain(id));
+        }
+        assertEquals(500, filter.getCount());
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        RelayBloomFilter filter = RelayBloomFilter.of(createIds("have", 1000), 4096, 99);
+
+        int falsePositives = 0;
+        for (String id : createIds("other", 10000)) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+
+        // Sized for ~1%, allow some slack
+        assertTrue("False positive rate too high: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void testEncodeDecode_RoundTrip() {
+        List<String> ids = createIds("msg", 50);
+        RelayBloomFilter original = RelayBloomFilter.of(ids, 2048, 7);
+
+        RelayBloomFilter decoded = RelayBloomFilter.decode(original.encode());
+
+        assertNotNull("Filter should decode", decoded);
+        assertEquals(original.getCount(), decoded.getCount());
+        assertEquals(original.getNumHashes(), decoded.getNumHashes());
+        assertEquals(original.getSizeBytes(), decoded.getSizeBytes());
+        for (String id : ids) {
+            assertTrue(decoded.mightContain(id));
+        }
+    }
+
+    @Test
+    public void testSizeCappedByMaxBytes() {
+        RelayBloomFilter filter = RelayBloomFilter.of(createIds("msg", 10000), 2048, 1);
+
+        assertEquals(2048, filter.getSizeBytes());
+        // Must still fit in a single BLE message (99 parcels of 40 chars)
+        assertTrue(filter.encode().length() < 99 * 40);
+    }
+
+    @Test
+    public void testEncodedMuchSmallerThanIdList() {
+        List<String> ids = createIds("0123456789abcdef0123456789abcdef0123456789abcdef0123456789ab", 50);
+        String idList = String.join(",", ids);
+
+        String encoded = RelayBloomFilter.of(ids, 2048, 5).encode();
+
+        assertTrue("Filter should be smaller than the ID list", encoded.length() * 4 < idList.length());
+    }
+
+    @Test
+    public void testDecode_Invalid() {
+        assertNull(RelayBloomFilter.decode(null));
+        assertNull(RelayBloomFilter.decode(""));
+        assertNull(RelayBloomFilter.decode("not base64 !!"));
+        assertNull(RelayBloomFilter.fromBytes(new byte[]{9, 9, 9}));
+    }
+
+    private List<String> createIds(String prefix, int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(prefix + String.format("%04d", i));
+        }
+        return ids;
+    }
+}
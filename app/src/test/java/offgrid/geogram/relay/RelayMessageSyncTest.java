@@ -29,6 +29,7 @@ public class RelayMessageSyncTest {
         // Enable relay
         settings.setRelayEnabled(true);
         settings.setAcceptedMessageTypes("everything");
+        settings.setAcceptUnsignedEnabled(true);
 
         // Clear storage
         storage.clearFolder("inbox");
@@ -362,6 +363,55 @@ public class RelayMessageSyncTest {
                 sync.getPendingRequestCount(sender) <= 5);
     }
 
+    @Test
+    public void testPipeline_QueuesBeyondWindow() {
+        String sender = "REMOTE-PIPE01";
+        sync.handleIncomingMessage(createBleMessage(sender, "INV:" + createIdList("pipe", 20)));
+
+        int outstanding = sync.getPendingRequestCount(sender);
+        int queued = sync.getQueuedRequestCount(sender);
+
+        assertTrue("Should have outstanding requests", outstanding > 0);
+        assertEquals("Every missing message is either requested or queued", 20, outstanding + queued);
+    }
+
+    @Test
+    public void testPipeline_RefillsWindowOnMessage() {
+        String sender = "REMOTE-PIPE02";
+        sync.handleIncomingMessage(createBleMessage(sender, "INV:" + createIdList("refill", 20)));
+
+        int outstandingBefore = sync.getPendingRequestCount(sender);
+        int queuedBefore = sync.getQueuedRequestCount(sender);
+        String answered = sync.getPendingRequests(sender).iterator().next();
+
+        // Answer one request
+        RelayMessage msg = createTestMessage(answered);
+        sync.handleIncomingMessage(createBleMessage(sender, "MSG:" + msg.toMarkdown()));
+
+        assertFalse("Answered request should no longer be pending",
+                sync.getPendingRequests(sender).contains(answered));
+        assertTrue("Window should be refilled from the queue",
+                sync.getQueuedRequestCount(sender) < queuedBefore);
+        assertTrue("Outstanding requests should not drop",
+                sync.getPendingRequestCount(sender) >= outstandingBefore);
+    }
+
+    @Test
+    public void testPipeline_StatsTrackThroughput() {
+        String sender = "REMOTE-PIPE03";
+        sync.handleIncomingMessage(createBleMessage(sender, "INV:" + createIdList("stats", 3)));
+
+        for (String id : sync.getPendingRequests(sender)) {
+            sync.handleIncomingMessage(createBleMessage(sender, "MSG:" + createTestMessage(id).toMarkdown()));
+        }
+
+        RelayMessageSync.SyncStats stats = sync.getStats();
+        assertEquals("Should report one session", 1, stats.sessions.size());
+        assertEquals(3, stats.sessions.get(0).messagesReceived);
+        assertTrue("Should count received bytes", stats.totalBytesReceived > 0);
+        assertEquals("Nothing left to drain", 0, stats.totalQueuedRequests + stats.totalPendingRequests);
+    }
+
     @Test
     public void testMessageTransfer_UpdatesMetadata() {
         // Create test message
@@ -437,6 +487,145 @@ public class RelayMessageSyncTest {
         return message;
     }
 
+    @Test
+    public void testVersionAnnouncement_RecordsPeerVersion() {
+        String sender = "REMOTE-VER01";
+        assertEquals("Unknown peers are legacy", 1, sync.getPeerVersion(sender));
+
+        sync.handleIncomingMessage(createBleMessage(sender, "VER:2"));
+
+        assertEquals("Peer should be recorded as version 2", 2, sync.getPeerVersion(sender));
+    }
+
+    @Test
+    public void testBloomSummary_MarksPeerAndIgnoresGarbage() {
+        String sender = "REMOTE-BLM01";
+
+        sync.handleIncomingMessage(createBleMessage(sender, "BLM:@@garbage@@"));
+        assertEquals("Invalid filter should not upgrade peer", 1, sync.getPeerVersion(sender));
+
+        java.util.List<String> have = new java.util.ArrayList<>();
+        have.add("msg001");
+        String filter = RelayBloomFilter.of(have, 2048, 3).encode();
+        sync.handleIncomingMessage(createBleMessage(sender, "BLM:" + filter));
+
+        assertEquals("Valid filter implies version 2", 2, sync.getPeerVersion(sender));
+        assertTrue("Should create session for peer", sync.getActiveSessions().containsKey(sender));
+    }
+
+    @Test
+    public void testBulkStream_AcksEachEntry() throws Exception {
+        String sender = "REMOTE-BULK01";
+        com.google.gson.Gson gson = new com.google.gson.Gson();
+
+        StringBuilder body = new StringBuilder("{\"remoteDeviceId\":\"" + sender + "\",\"version\":3}\n");
+        for (String id : new String[]{"bulk001", "bulk002", "bulk001"}) {
+            com.google.gson.JsonObject entry = new com.google.gson.JsonObject();
+            entry.addProperty("id", id);
+            entry.addProperty("markdown", createTestMessage(id).toMarkdown());
+            body.append(gson.toJson(entry)).append("\n");
+        }
+        body.append("{\"id\":\"bulk003\",\"markdown\":\"not a relay message\"}\n");
+
+        java.io.ByteArrayOutputStream acks = new java.io.ByteArrayOutputStream();
+        int processed = sync.handleWiFiRelayMessageStream(
+                new java.io.ByteArrayInputStream(body.toString().getBytes("UTF-8")), acks);
+
+        assertEquals("Should process every entry", 4, processed);
+        String[] lines = acks.toString("UTF-8").trim().split("\n");
+        assertEquals("One ack per entry plus summary", 5, lines.length);
+        assertTrue(lines[0].contains("\"stored\""));
+        assertTrue(lines[1].contains("\"stored\""));
+        assertTrue(lines[2].contains("\"duplicate\""));
+        assertTrue(lines[3].contains("\"invalid\""));
+        assertTrue(lines[4].contains("\"done\":true"));
+
+        assertEquals("Both messages stored in inbox", 2, storage.getMessageCount("inbox"));
+        assertEquals("Header version should be recorded", 3, sync.getPeerVersion(sender));
+    }
+
+    @Test
+    public void testBulkStream_RejectsBadSignatures() throws Exception {
+        String sender = "REMOTE-BULK02";
+        com.google.gson.Gson gson = new com.google.gson.Gson();
+        byte[] key = offgrid.geogram.util.nostr.Schnorr.generatePrivateKey();
+
+        RelayMessage signed = createTestMessage("sig001");
+        assertTrue(signed.sign(key));
+        RelayMessage tampered = createTestMessage("sig002");
+        assertTrue(tampered.sign(key));
+        tampered.setContent("Altered on the way");
+        RelayMessage unsigned = createTestMessage("sig003");
+
+        StringBuilder body = new StringBuilder("{\"remoteDeviceId\":\"" + sender + "\",\"version\":3}\n");
+        for (RelayMessage message : new RelayMessage[]{signed, tampered, unsigned}) {
+            com.google.gson.JsonObject entry = new com.google.gson.JsonObject();
+            entry.addProperty("id", message.getId());
+            entry.addProperty("markdown", message.toMarkdown());
+            body.append(gson.toJson(entry)).append("\n");
+        }
+
+        java.io.ByteArrayOutputStream acks = new java.io.ByteArrayOutputStream();
+        sync.handleWiFiRelayMessageStream(
+                new java.io.ByteArrayInputStream(body.toString().getBytes("UTF-8")), acks);
+
+        String[] lines = acks.toString("UTF-8").trim().split("\n");
+        assertTrue("Signed message should be stored", lines[0].contains("\"stored\""));
+        assertTrue("Tampered message should be invalid", lines[1].contains("\"invalid\""));
+        assertTrue("Unsigned message should be stored", lines[2].contains("\"stored\""));
+        assertFalse("Tampered message not stored", storage.hasMessage("sig002"));
+    }
+
+    @Test
+    public void testHandleRelayMessage_UnsignedKeptButUnverified() {
+        String sender = "REMOTE-K5ABC";
+        RelayMessage signed = createTestMessage("sig010");
+        assertTrue(signed.sign(offgrid.geogram.util.nostr.Schnorr.generatePrivateKey()));
+        RelayMessage unsigned = createTestMessage("sig011");
+
+        sync.handleIncomingMessage(createBleMessage(sender, "MSG:" + signed.toMarkdown()));
+        sync.handleIncomingMessage(createBleMessage(sender, "MSG:" + unsigned.toMarkdown()));
+
+        RelayMessage storedSigned = storage.getMessage("sig010", "inbox");
+        RelayMessage storedUnsigned = storage.getMessage("sig011", "inbox");
+        assertNotNull("Signed message should be stored", storedSigned);
+        assertNotNull("Unsigned message should be kept for local delivery", storedUnsigned);
+        assertFalse("Signed message is verified", storedSigned.isUnverified());
+        assertTrue("Unsigned message is marked unverified", storedUnsigned.isUnverified());
+    }
+
+    @Test
+    public void testHandleRelayMessage_UnsignedRejectedWhenDisabled() {
+        settings.setAcceptUnsignedEnabled(false);
+        RelayMessage unsigned = createTestMessage("sig012");
+
+        sync.handleIncomingMessage(createBleMessage("REMOTE-K5ABC", "MSG:" + unsigned.toMarkdown()));
+
+        assertFalse("Unsigned message should be rejected", storage.hasMessage("sig012"));
+    }
+
+    @Test
+    public void testHandleRequest_DoesNotRelayUnverified() {
+        RelayMessage message = createTestMessage("sig013");
+        message.setUnverified(true);
+        storage.saveMessage(message, "outbox");
+        assertTrue("Flag survives storage", storage.getMessage("sig013", "outbox").isUnverified());
+
+        sync.handleIncomingMessage(createBleMessage("REMOTE-K5ABC", "REQ:sig013"));
+
+        assertNotNull("Unverified message stays in outbox", storage.getMessage("sig013", "outbox"));
+        assertNull("Unverified message is not sent", storage.getMessage("sig013", "sent"));
+    }
+
+    private String createIdList(String prefix, int count) {
+        StringBuilder ids = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            if (i > 1) ids.append(",");
+            ids.append(prefix).append(String.format("%03d", i));
+        }
+        return ids.toString();
+    }
+
     private BluetoothMessage createBleMessage(String sender, String content) {
         BluetoothMessage bleMsg = new BluetoothMessage();
         bleMsg.setId("XX");
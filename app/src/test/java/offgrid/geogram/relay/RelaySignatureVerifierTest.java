@@ -0,0 +1,210 @@
+package offgrid.geogram.relay;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import offgrid.geogram.util.nostr.Bech32;
+import offgrid.geogram.util.nostr.Bech32Prefix;
+import offgrid.geogram.util.nostr.NostrUtil;
+import offgrid.geogram.util.nostr.Schnorr;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for RelaySignatureVerifier.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RelaySignatureVerifierTest {
+
+    private RelaySignatureVerifier verifier;
+    private byte[] aliceKey;
+    private byte[] bobKey;
+
+    @Before
+    public void setUp() {
+        verifier = new RelaySignatureVerifier();
+        aliceKey = Schnorr.generatePrivateKey();
+        bobKey = Schnorr.generatePrivateKey();
+    }
+
+    @Test
+    public void testSignatureSurvivesMarkdown() {
+        RelayMessage message = createMessage("sig001", "Multi-line\nmessage body  ");
+        message.setSubject("Hello");
+        assertTrue(message.sign(aliceKey));
+        assertTrue(message.getFromNpub().startsWith("npub1"));
+
+        RelayMessage received = RelayMessage.parseMarkdown(message.toMarkdown());
+        assertNotNull(received);
+        assertEquals(RelaySignatureVerifier.Result.VALID, verifier.verify(received));
+    }
+
+    @Test
+    public void testSignWithNsecFromSettings() throws Exception {
+        String nsec = Bech32.toBech32(Bech32Prefix.NSEC, aliceKey);
+        RelayMessage bech32 = createMessage("sig005", "Signed with the nsec");
+        assertTrue(bech32.sign(nsec));
+        assertEquals(RelaySignatureVerifier.Result.VALID, verifier.verify(bech32));
+
+        RelayMessage hex = createMessage("sig006", "Signed with the hex key");
+        assertTrue(hex.sign(NostrUtil.bytesToHex(aliceKey)));
+        assertEquals(bech32.getFromNpub(), hex.getFromNpub());
+
+        RelayMessage none = createMessage("sig007", "No key configured");
+        assertFalse(none.sign((String) null));
+        assertFalse(none.sign("nsec1invalid"));
+        assertEquals(RelaySignatureVerifier.Result.UNSIGNED, verifier.verify(none));
+    }
+
+    @Test
+    public void testUnsignedAndForgedMessages() {
+        assertEquals(RelaySignatureVerifier.Result.UNSIGNED,
+                verifier.verify(createMessage("sig002", "No signature")));
+
+        RelayMessage forged = createMessage("sig003", "Original");
+        assertTrue(forged.sign(aliceKey));
+        forged.setToCallsign("MALLORY-K1XXX");
+        assertEquals(RelaySignatureVerifier.Result.INVALID, verifier.verify(forged));
+
+        RelayMessage noNpub = createMessage("sig004", "Signature without key");
+        noNpub.setSignature("ab");
+        assertEquals(RelaySignatureVerifier.Result.INVALID, verifier.verify(noNpub));
+    }
+
+    @Test
+    public void testBatchFindsBadMessage() {
+        List<RelayMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            RelayMessage message = createMessage("batch" + i, "Message " + i);
+            assertTrue(message.sign(i % 2 == 0 ? aliceKey : bobKey));
+            messages.add(message);
+        }
+        RelaySignatureVerifier.Result[] results = verifier.verify(messages);
+        for (RelaySignatureVerifier.Result result : results) {
+            assertEquals(RelaySignatureVerifier.Result.VALID, result);
+        }
+
+        messages.get(7).setContent("Changed");
+        messages.add(createMessage("batch10", "Unsigned"));
+        results = new RelaySignatureVerifier().verify(messages);
+        for (int i = 0; i < messages.size(); i++) {
+            RelaySignatureVerifier.Result expected = i == 7 ? RelaySignatureVerifier.Result.INVALID
+                    : i == 10 ? RelaySignatureVerifier.Result.UNSIGNED : RelaySignatureVerifier.Result.VALID;
+            assertEquals("Message " + i, expected, results[i]);
+        }
+    }
+
+    @Test
+    public void testCacheIsPerMessageId() {
+        RelayMessage message = createMessage("sig005", "Relayed twice");
+        assertTrue(message.sign(aliceKey));
+        assertEquals(RelaySignatureVerifier.Result.VALID, verifier.verify(message));
+        assertEquals(RelaySignatureVerifier.Result.VALID, verifier.verify(message));
+        assertEquals(1, verifier.getCacheSize());
+
+        // Same ID, different content: checked again, not taken from the cache
+        message.setContent("Altered copy");
+        assertEquals(RelaySignatureVerifier.Result.INVALID, verifier.verify(message));
+        assertEquals(1, verifier.getCacheSize());
+    }
+
+    @Test
+    public void testEveryFieldIsSigned() {
+        RelayMessage message = createMessage("sig006", "See the attached map");
+        message.setThreadId("thread-42");
+        message.setInReplyTo("sig001");
+        message.setPriority("urgent");
+        message.setTtl(3600);
+        message.setToNpub(signedNpub(bobKey));
+        RelayAttachment attachment = new RelayAttachment();
+        attachment.setMimeType("image/png");
+        attachment.setFilename("map.png");
+        attachment.setData(new byte[]{1, 2, 3, 4});
+        attachment.setSize(4);
+        attachment.calculateChecksum();
+        message.addAttachment(attachment);
+        assertTrue(message.sign(aliceKey));
+        String markdown = message.toMarkdown();
+        assertEquals(RelaySignatureVerifier.Result.VALID, verifier.verify(RelayMessage.parseMarkdown(markdown)));
+
+        List<RelayMessage> tampered = new ArrayList<>();
+        RelayMessage swapped = RelayMessage.parseMarkdown(markdown);
+        swapped.getAttachments().get(0).setData(new byte[]{9, 9, 9, 9});
+        swapped.getAttachments().get(0).calculateChecksum();
+        tampered.add(swapped);
+        RelayMessage renamed = RelayMessage.parseMarkdown(markdown);
+        renamed.getAttachments().get(0).setFilename("invoice.exe");
+        tampered.add(renamed);
+        RelayMessage longer = RelayMessage.parseMarkdown(markdown);
+        longer.setTtl(30 * 86400);
+        tampered.add(longer);
+        RelayMessage lowered = RelayMessage.parseMarkdown(markdown);
+        lowered.setPriority("low");
+        tampered.add(lowered);
+        RelayMessage redirected = RelayMessage.parseMarkdown(markdown);
+        redirected.setToNpub(signedNpub(aliceKey));
+        tampered.add(redirected);
+        RelayMessage moved = RelayMessage.parseMarkdown(markdown);
+        moved.setThreadId("thread-43");
+        tampered.add(moved);
+        RelayMessage unthreaded = RelayMessage.parseMarkdown(markdown);
+        unthreaded.setInReplyTo(null);
+        tampered.add(unthreaded);
+        RelayMessage stripped = RelayMessage.parseMarkdown(markdown);
+        stripped.getAttachments().clear();
+        tampered.add(stripped);
+
+        RelaySignatureVerifier.Result[] results = new RelaySignatureVerifier().verify(tampered);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals("Tampered copy " + i, RelaySignatureVerifier.Result.INVALID, results[i]);
+        }
+    }
+
+    @Test
+    public void testRedatedMessageFailsVerification() {
+        RelayMessage message = createMessage("sig030", "Dated message");
+        message.setTimestamp(1762785000L);
+        assertTrue(message.sign(aliceKey));
+        String markdown = message.toMarkdown();
+        assertTrue(markdown.contains("--> created-at: 1762785000\n"));
+
+        // The created-at line wins over the header's local time
+        RelayMessage received = RelayMessage.parseMarkdown(markdown);
+        assertEquals(1762785000L, received.getTimestamp());
+        assertEquals(RelaySignatureVerifier.Result.VALID, verifier.verify(received));
+
+        // A relay moving the date forward to extend the TTL breaks the signature
+        RelayMessage redated = RelayMessage.parseMarkdown(
+                markdown.replace("--> created-at: 1762785000", "--> created-at: 1763389800"));
+        assertEquals(1763389800L, redated.getTimestamp());
+        assertEquals(RelaySignatureVerifier.Result.INVALID, new RelaySignatureVerifier().verify(redated));
+
+        // Dropping the line leaves the header's local time, which isn't what was signed either
+        RelayMessage undated = RelayMessage.parseMarkdown(
+                markdown.replace("--> created-at: 1762785000\n", "")
+                        .replaceFirst("^> \\d{4}-\\d{2}-\\d{2}", "> 2030-01-01"));
+        assertEquals(RelaySignatureVerifier.Result.INVALID, new RelaySignatureVerifier().verify(undated));
+    }
+
+    private static String signedNpub(byte[] privateKey) {
+        RelayMessage message = new RelayMessage();
+        message.setId("npub");
+        assertTrue(message.sign(privateKey));
+        return message.getFromNpub();
+    }
+
+    private RelayMessage createMessage(String id, String content) {
+        RelayMessage message = new RelayMessage();
+        message.setId(id);
+        message.setFromCallsign("ALICE-K5XYZ");
+        message.setToCallsign("BOB-W6ABC");
+        message.setContent(content);
+        message.setTimestamp(System.currentTimeMillis() / 1000);
+        return message;
+    }
+}
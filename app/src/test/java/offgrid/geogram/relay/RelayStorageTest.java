@@ -238,6 +238,14 @@ public class RelayStorageTest {
         boolean moved = storage.moveMessage("msg019", "inbox", "sent");
 
         assertTrue("Message should be moved", moved);
+
+        // The index entry is carried over: neither folder reconciles or re-parses the file
+        RelayIndex index = RelayIndex.getInstance(storage.getRelayDir());
+        int parsedBefore = index.getParsedFiles();
+        assertNull("Entry should leave inbox", index.get("inbox", "msg019"));
+        assertNotNull("Entry should be in sent", index.get("sent", "msg019"));
+        assertEquals("Move should not re-parse the message", parsedBefore, index.getParsedFiles());
+
         assertNull("Message should not be in inbox", storage.getMessage("msg019", "inbox"));
         assertNotNull("Message should be in sent", storage.getMessage("msg019", "sent"));
     }
@@ -503,6 +511,55 @@ public class RelayStorageTest {
         assertEquals("Content for outbox", loaded2.getContent());
     }
 
+    @Test
+    public void testListValidMessages_SkipsUnparsable() throws Exception {
+        storage.saveMessage(createTestMessage("valid100"), "outbox");
+
+        // Write a file behind the storage's back that is not valid markdown
+        File broken = new File(storage.getOutboxDir(), "broken100.md");
+        try (java.io.FileWriter writer = new java.io.FileWriter(broken)) {
+            writer.write("not a relay message");
+        }
+        storage.getOutboxDir().setLastModified(0); // Force index reconcile
+
+        List<String> all = storage.listMessages("outbox");
+        List<String> valid = storage.listValidMessages("outbox");
+
+        assertTrue("Unparsable file should still be listed", all.contains("broken100"));
+        assertTrue("Valid message should be listed", valid.contains("valid100"));
+        assertFalse("Unparsable message should not be valid", valid.contains("broken100"));
+    }
+
+    @Test
+    public void testGetMessageInfo_FromIndex() {
+        RelayMessage message = createTestMessage("info001");
+        message.setPriority("urgent");
+        message.setTtl(3600);
+        storage.saveMessage(message, "inbox");
+
+        RelayIndex.Entry info = storage.getMessageInfo("info001", "inbox");
+
+        assertNotNull("Index entry should exist", info);
+        assertEquals("urgent", info.priority);
+        assertEquals(3600, info.ttl);
+        assertEquals(message.getTimestamp(), info.timestamp);
+        assertTrue("Entry should be valid", info.valid);
+        assertEquals(new File(storage.getInboxDir(), "info001.md").length(), info.size);
+    }
+
+    @Test
+    public void testHasMessage_TracksMoveAndDelete() {
+        storage.saveMessage(createTestMessage("has001"), "outbox");
+        assertTrue("Should have message after save", storage.hasMessage("has001"));
+
+        storage.moveMessage("has001", "outbox", "sent");
+        assertNull("Index should not list it in outbox", storage.getMessageInfo("has001", "outbox"));
+        assertNotNull("Index should list it in sent", storage.getMessageInfo("has001", "sent"));
+
+        storage.deleteMessage("has001", "sent");
+        assertFalse("Should not have message after delete", storage.hasMessage("has001"));
+    }
+
     // Helper method to create test messages
 
     private RelayMessage createTestMessage(String id) {
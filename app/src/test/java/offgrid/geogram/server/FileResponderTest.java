@@ -0,0 +1,151 @@
+package offgrid.geogram.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for streaming collection files over HTTP.
+ *
+ * Tests verify that:
+ * 1. Closed, open-ended, suffix and multiple ranges are parsed
+ * 2. Unsatisfiable and malformed ranges are told apart
+ * 3. ETag and If-Modified-Since validators work
+ * 4. Ranges and multipart bodies are written with the announced length
+ */
+public class FileResponderTest {
+
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        file = File.createTempFile("responder", ".bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testParseSingleRanges() {
+        List<FileResponder.ByteRange> closed = FileResponder.parseRange("bytes=0-99", 1000);
+        assertEquals(1, closed.size());
+        assertEquals(0, closed.get(0).start);
+        assertEquals(99, closed.get(0).end);
+
+        List<FileResponder.ByteRange> open = FileResponder.parseRange("bytes=900-", 1000);
+        assertEquals(900, open.get(0).start);
+        assertEquals(999, open.get(0).end);
+
+        List<FileResponder.ByteRange> suffix = FileResponder.parseRange("bytes=-50", 1000);
+        assertEquals(950, suffix.get(0).start);
+        assertEquals(50, suffix.get(0).length());
+
+        // GATT query parameter form, end clamped to the file
+        List<FileResponder.ByteRange> query = FileResponder.parseRange("500-5000", 1000);
+        assertEquals(999, query.get(0).end);
+        assertEquals("bytes 500-999/1000", query.get(0).contentRange(1000));
+    }
+
+    @Test
+    public void testParseMultipleRanges() {
+        List<FileResponder.ByteRange> ranges = FileResponder.parseRange("bytes=0-9, 20-29, 2000-", 1000);
+        assertEquals("Range past the end is skipped", 2, ranges.size());
+        assertEquals(20, ranges.get(1).start);
+    }
+
+    @Test
+    public void testUnsatisfiableAndMalformedRanges() {
+        assertTrue(FileResponder.parseRange("bytes=1000-", 1000).isEmpty());
+        assertTrue(FileResponder.parseRange("bytes=-0", 1000).isEmpty());
+
+        assertNull(FileResponder.parseRange("bytes=abc", 1000));
+        assertNull(FileResponder.parseRange("bytes=50-10", 1000));
+        assertNull(FileResponder.parseRange("bytes=x-10", 1000));
+        assertNull(FileResponder.parseRange(null, 1000));
+
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= FileResponder.MAX_RANGES; i++) {
+            many.append(',').append(i).append('-').append(i);
+        }
+        assertNull("Too many ranges", FileResponder.parseRange(many.toString(), 1000));
+    }
+
+    @Test
+    public void testConditionalRequests() {
+        String etag = FileResponder.etag(file);
+        long lastModified = file.lastModified();
+
+        assertTrue(FileResponder.isNotModified(etag, -1, etag, lastModified));
+        assertTrue(FileResponder.isNotModified("\"other\", W/" + etag, -1, etag, lastModified));
+        assertTrue(FileResponder.isNotModified("*", -1, etag, lastModified));
+        assertFalse(FileResponder.isNotModified("\"other\"", -1, etag, lastModified));
+
+        assertTrue(FileResponder.isNotModified(null, lastModified, etag, lastModified));
+        assertFalse(FileResponder.isNotModified(null, lastModified - 5000, etag, lastModified));
+        assertFalse(FileResponder.isNotModified(null, -1, etag, lastModified));
+
+        // ETag takes precedence over the date
+        assertFalse(FileResponder.isNotModified("\"other\"", lastModified, etag, lastModified));
+
+        assertTrue(FileResponder.isRangeCurrent(null, etag, lastModified));
+        assertTrue(FileResponder.isRangeCurrent(etag, etag, lastModified));
+        assertFalse(FileResponder.isRangeCurrent("\"stale\"", etag, lastModified));
+    }
+
+    @Test
+    public void testAcceptEncoding() {
+        assertTrue(FileResponder.acceptsGzip(null));
+        assertTrue(FileResponder.acceptsGzip("gzip, deflate"));
+        assertTrue(FileResponder.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(FileResponder.acceptsGzip("*"));
+        assertFalse(FileResponder.acceptsGzip(""));
+        assertFalse(FileResponder.acceptsGzip("identity"));
+        assertFalse(FileResponder.acceptsGzip("gzip;q=0"));
+        assertFalse(FileResponder.acceptsGzip("gzip; q=0.000, identity"));
+        assertFalse(FileResponder.acceptsGzip("*;q=0"));
+        assertFalse(FileResponder.acceptsGzip("gzip;q=0, *"));
+        assertFalse(FileResponder.acceptsGzip("gzip;q=high"));
+    }
+
+    @Test
+    public void testCopyRange() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileResponder.copy(file, 100, 50, out);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 150), out.toByteArray());
+    }
+
+    @Test
+    public void testMultipartBody() throws IOException {
+        List<FileResponder.ByteRange> ranges = FileResponder.parseRange("bytes=0-3,996-", 1000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileResponder.writeMultipart(file, ranges, "SEP", "application/octet-stream", out);
+
+        byte[] body = out.toByteArray();
+        assertEquals(FileResponder.multipartLength(ranges, "SEP", "application/octet-stream", 1000), body.length);
+
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        assertTrue(text.startsWith("\r\n--SEP\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes 0-3/1000\r\n\r\n"));
+        assertTrue(text.contains("Content-Range: bytes 996-999/1000"));
+        assertTrue(text.endsWith("\r\n--SEP--\r\n"));
+    }
+}
@@ -0,0 +1,286 @@
+package offgrid.geogram.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ChunkDownloadEngine, with in-memory sources.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChunkDownloadEngineTest {
+
+    private static final int CHUNK_SIZE = 100;
+
+    private File downloadDir;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        downloadDir = Files.createTempDirectory("chunks").toFile();
+        content = new byte[CHUNK_SIZE * 10 + 37];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = downloadDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        downloadDir.delete();
+    }
+
+    @Test
+    public void testDownloadsFromSeveralSources() throws IOException {
+        FakeSource first = new FakeSource("first", 4, 0);
+        FakeSource second = new FakeSource("second", 4, 0);
+        ChunkDownloadManager.ChunkDownload download = newDownload("several.bin");
+
+        assertTrue(new ChunkDownloadEngine(download, Arrays.asList(first, second), null).run(10000));
+
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+        // Both took part; the end game may have fetched the last chunks twice
+        assertTrue(first.served.get() > 0);
+        assertTrue(second.served.get() > 0);
+        assertTrue(first.served.get() + second.served.get() >= download.getTotalChunks());
+    }
+
+    @Test
+    public void testSourceMissingChunksIsWorkedAround() throws IOException {
+        FakeSource partial = new FakeSource("partial", 4, 0);
+        partial.missing.addAll(Arrays.asList(3, 4, 5));
+        FakeSource full = new FakeSource("full", 1, 20);
+        ChunkDownloadManager.ChunkDownload download = newDownload("partial.bin");
+
+        assertTrue(new ChunkDownloadEngine(download, Arrays.asList(partial, full), null).run(10000));
+
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+        for (int chunk : Arrays.asList(3, 4, 5)) {
+            assertFalse(partial.delivered.contains(chunk));
+        }
+    }
+
+    @Test
+    public void testPartialHolderIsNotDropped() throws IOException {
+        // More missing chunks in a row than MAX_SOURCE_FAILURES, all answered
+        FakeSource partial = new FakeSource("partial", 4, 0);
+        partial.missing.addAll(Arrays.asList(0, 1, 2, 3, 4, 5, 6));
+        FakeSource full = new FakeSource("full", 1, 50);
+        ChunkDownloadManager.ChunkDownload download = newDownload("holder.bin");
+
+        assertTrue(new ChunkDownloadEngine(download, Arrays.asList(partial, full), null).run(10000));
+
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+        assertFalse("partial should still deliver the chunks it has", partial.delivered.isEmpty());
+    }
+
+    @Test
+    public void testRareChunksComeFirst() throws IOException {
+        // "full" holds its first chunk until "partial" has reported chunk 5 missing
+        // and moved on, so common chunks are still pending when "full" picks again
+        FakeSource partial = new FakeSource("partial", 1, 0);
+        partial.missing.add(5);
+        FakeSource full = new FakeSource("full", 1, 0);
+        full.holdFirst = new CountDownLatch(1);
+        partial.releaseAfterMissing = full.holdFirst;
+        ChunkDownloadManager.ChunkDownload download = newDownload("rare.bin");
+
+        assertTrue(new ChunkDownloadEngine(download, Arrays.asList(partial, full), null).run(10000));
+
+        // Only "full" has chunk 5, so it gets it next instead of a common chunk
+        assertEquals(Integer.valueOf(5), full.requested.get(1));
+        assertEquals(1, partial.requested.stream().filter(chunk -> chunk == 5).count());
+    }
+
+    @Test
+    public void testFailingSourceIsDropped() throws IOException {
+        FakeSource broken = new FakeSource("broken", 4, 0);
+        broken.failAll = true;
+        FakeSource working = new FakeSource("working", 2, 0);
+        ChunkDownloadManager.ChunkDownload download = newDownload("broken.bin");
+
+        List<String> progress = new ArrayList<>();
+        ChunkDownloadEngine engine = new ChunkDownloadEngine(download, Arrays.asList(broken, working),
+                (chunk, source) -> {
+                    synchronized (progress) {
+                        progress.add(source);
+                    }
+                });
+        assertTrue(engine.run(30000));
+
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+        assertEquals(download.getTotalChunks(), progress.size());
+        assertFalse(progress.contains("broken"));
+    }
+
+    @Test
+    public void testStopsWhenNoSourceIsLeft() {
+        FakeSource broken = new FakeSource("broken", 2, 0);
+        broken.failAll = true;
+        ChunkDownloadManager.ChunkDownload download = newDownload("none.bin");
+
+        assertFalse(new ChunkDownloadEngine(download, Arrays.asList(broken), null).run(60000));
+        assertFalse(download.isComplete());
+    }
+
+    @Test
+    public void testSourceWithoutTheFileIsDropped() throws IOException {
+        FakeSource empty = new FakeSource("empty", 4, 0);
+        empty.noFile = true;
+        FakeSource full = new FakeSource("full", 1, 10);
+        ChunkDownloadManager.ChunkDownload download = newDownload("nofile.bin");
+
+        assertTrue(new ChunkDownloadEngine(download, Arrays.asList(empty, full), null).run(10000));
+
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+        // One 404 is enough, no other chunk is asked from it
+        assertEquals(1, empty.requested.size());
+        assertEquals(download.getTotalChunks(), full.served.get());
+    }
+
+    @Test
+    public void testStopsWhenOnlySourceHasNoFile() {
+        FakeSource empty = new FakeSource("empty", 2, 0);
+        empty.noFile = true;
+        ChunkDownloadManager.ChunkDownload download = newDownload("gone.bin");
+
+        long started = System.currentTimeMillis();
+        assertFalse(new ChunkDownloadEngine(download, Arrays.asList(empty), null).run(60000));
+        // Given up right away instead of after MAX_SOURCE_FAILURES backoffs
+        assertTrue(System.currentTimeMillis() - started < 5000);
+        assertEquals(1, empty.requested.size());
+    }
+
+    @Test
+    public void testSlowChunkIsDuplicatedAtTheEnd() throws IOException {
+        // "stuck" hangs on its first request, the end game must fetch it elsewhere
+        FakeSource stuck = new FakeSource("stuck", 1, 0);
+        stuck.hangOnFirst = true;
+        FakeSource fast = new FakeSource("fast", 2, 0);
+        ChunkDownloadManager.ChunkDownload download = newDownload("endgame.bin");
+
+        assertTrue(new ChunkDownloadEngine(download, Arrays.asList(stuck, fast), null).run(10000));
+
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+        assertEquals(download.getTotalChunks(), fast.served.get());
+    }
+
+    @Test
+    public void testWrongLengthIsRejected() throws IOException {
+        FakeSource truncating = new FakeSource("truncating", 2, 0);
+        truncating.truncate = true;
+        FakeSource good = new FakeSource("good", 1, 10);
+        ChunkDownloadManager.ChunkDownload download = newDownload("length.bin");
+
+        assertTrue(new ChunkDownloadEngine(download, Arrays.asList(truncating, good), null).run(30000));
+
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+    }
+
+    private ChunkDownloadManager.ChunkDownload newDownload(String fileName) {
+        return new ChunkDownloadManager.ChunkDownload(fileName, fileName, content.length, downloadDir, CHUNK_SIZE);
+    }
+
+    private class FakeSource implements ChunkDownloadEngine.ChunkSource {
+        final String name;
+        final int maxWindow;
+        final long delayMs;
+        final Set<Integer> missing = new HashSet<>();
+        final List<Integer> requested = new ArrayList<>();
+        final Set<Integer> delivered = new HashSet<>();
+        final AtomicInteger served = new AtomicInteger();
+        volatile boolean failAll = false;
+        volatile boolean noFile = false;
+        volatile boolean hangOnFirst = false;
+        volatile boolean truncate = false;
+        // The first request waits for this latch
+        volatile CountDownLatch holdFirst;
+        // Counted down by the first request after a missing chunk was reported
+        volatile CountDownLatch releaseAfterMissing;
+        boolean reportedMissing = false;
+
+        FakeSource(String name, int maxWindow, long delayMs) {
+            this.name = name;
+            this.maxWindow = maxWindow;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getMaxWindow() {
+            return maxWindow;
+        }
+
+        @Override
+        public byte[] fetchChunk(long startByte, long endByte) throws IOException {
+            int chunk = (int) (startByte / CHUNK_SIZE);
+            boolean first;
+            synchronized (this) {
+                first = requested.isEmpty();
+                requested.add(chunk);
+                if (reportedMissing && releaseAfterMissing != null) {
+                    releaseAfterMissing.countDown();
+                }
+            }
+            if (failAll) {
+                throw new IOException("Connection refused");
+            }
+            if (noFile) {
+                throw new ChunkDownloadEngine.FileUnavailableException("HTTP 404");
+            }
+            if (missing.contains(chunk)) {
+                synchronized (this) {
+                    reportedMissing = true;
+                }
+                throw new ChunkDownloadEngine.ChunkUnavailableException("HTTP 416");
+            }
+            try {
+                if (holdFirst != null && first && !holdFirst.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("Not released");
+                }
+                if (hangOnFirst && first) {
+                    Thread.sleep(60000);
+                }
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            int length = (int) (endByte - startByte + 1);
+            if (truncate) {
+                length--;
+            }
+            synchronized (this) {
+                delivered.add(chunk);
+            }
+            served.incrementAndGet();
+            return Arrays.copyOfRange(content, (int) startByte, (int) startByte + length);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package offgrid.geogram.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ChunkManifest and resuming a ChunkDownload.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChunkManifestTest {
+
+    private static final int CHUNK_SIZE = 100;
+    private static final int TOTAL_CHUNKS = 10000;
+    private static final long TOTAL_SIZE = (long) CHUNK_SIZE * TOTAL_CHUNKS - 40;
+
+    private File dir;
+    private File manifestFile;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("manifest").toFile();
+        manifestFile = new File(dir, "acme.zip.manifest");
+        journalFile = new File(dir, "acme.zip.journal");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testCommittedChunksSurviveReload() throws IOException {
+        ChunkManifest manifest = newManifest();
+        manifest.load();
+        for (int chunk : new int[]{0, 1, 2, 7, 9999}) {
+            manifest.markComplete(chunk);
+        }
+        manifest.commit();
+        // Marked but never committed, as after a crash
+        manifest.markComplete(5);
+
+        ChunkManifest reloaded = newManifest();
+        reloaded.load();
+        assertEquals(5, reloaded.getCompletedCount());
+        assertTrue(reloaded.isComplete(7));
+        assertTrue(reloaded.isComplete(9999));
+        assertFalse(reloaded.isComplete(5));
+        assertEquals(3, reloaded.nextMissing(0));
+    }
+
+    @Test
+    public void testTornJournalRecordIsDropped() throws IOException {
+        ChunkManifest manifest = newManifest();
+        manifest.load();
+        manifest.markComplete(3);
+        manifest.commit();
+        long validLength = journalFile.length();
+
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(new byte[]{0, 0, 0, 4, 0, 0});
+        }
+
+        ChunkManifest reloaded = newManifest();
+        reloaded.load();
+        assertEquals(1, reloaded.getCompletedCount());
+        assertEquals(validLength, journalFile.length());
+
+        // New records go after the valid ones
+        reloaded.markComplete(4);
+        reloaded.commit();
+        ChunkManifest again = newManifest();
+        again.load();
+        assertTrue(again.isComplete(4));
+    }
+
+    @Test
+    public void testClearedChunksStayClearedAfterReload() throws IOException {
+        ChunkManifest manifest = newManifest();
+        manifest.load();
+        for (int chunk = 0; chunk < 8; chunk++) {
+            manifest.markComplete(chunk);
+        }
+        manifest.commit();
+        // A corrupt piece: 2-5 are cleared, then 3 arrives again
+        for (int chunk = 2; chunk <= 5; chunk++) {
+            manifest.clearComplete(chunk);
+        }
+        manifest.markComplete(3);
+        manifest.commit();
+
+        ChunkManifest reloaded = newManifest();
+        reloaded.load();
+        assertEquals(5, reloaded.getCompletedCount());
+        assertFalse(reloaded.isComplete(2));
+        assertTrue(reloaded.isComplete(3));
+        assertFalse(reloaded.isComplete(5));
+        assertEquals(2, reloaded.nextMissing(0));
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws IOException {
+        ChunkManifest manifest = newManifest();
+        manifest.load();
+        // Every other chunk, so each one is its own journal record
+        for (int chunk = 0; chunk < 2 * ChunkManifest.COMPACT_AFTER + 2; chunk += 2) {
+            manifest.markComplete(chunk);
+            manifest.commit();
+        }
+        assertTrue(manifestFile.exists());
+        assertTrue(journalFile.length() < 1024);
+
+        ChunkManifest reloaded = newManifest();
+        reloaded.load();
+        assertEquals(ChunkManifest.COMPACT_AFTER + 1, reloaded.getCompletedCount());
+        assertTrue(reloaded.isComplete(2 * ChunkManifest.COMPACT_AFTER));
+        assertFalse(reloaded.isComplete(1));
+    }
+
+    @Test
+    public void testTextManifestIsMigrated() throws IOException {
+        try (FileWriter writer = new FileWriter(manifestFile)) {
+            writer.write("filename=acme.zip\n");
+            writer.write("totalSize=" + TOTAL_SIZE + "\n");
+            writer.write("chunkSize=" + CHUNK_SIZE + "\n");
+            writer.write("totalChunks=" + TOTAL_CHUNKS + "\n");
+            writer.write("chunk0=complete,0-99\n");
+            writer.write("chunk1=pending,100-199\n");
+            writer.write("chunk2=complete,200-299\n");
+        }
+
+        ChunkManifest manifest = newManifest();
+        manifest.load();
+        assertEquals(2, manifest.getCompletedCount());
+        assertTrue(manifest.isComplete(2));
+
+        // Rewritten in the binary format
+        assertFalse(new String(Files.readAllBytes(manifestFile.toPath())).startsWith("filename="));
+        ChunkManifest reloaded = newManifest();
+        reloaded.load();
+        assertEquals(2, reloaded.getCompletedCount());
+    }
+
+    @Test
+    public void testOtherFileVersionIsIgnored() throws IOException {
+        ChunkManifest manifest = newManifest();
+        manifest.load();
+        manifest.markComplete(1);
+        manifest.close();
+
+        ChunkManifest resized = new ChunkManifest(manifestFile, journalFile, TOTAL_SIZE + 1, CHUNK_SIZE, TOTAL_CHUNKS);
+        resized.load();
+        assertEquals(0, resized.getCompletedCount());
+    }
+
+    @Test
+    public void testDownloadResumes() throws IOException {
+        ChunkDownloadManager.ChunkDownload download =
+                new ChunkDownloadManager.ChunkDownload("acme", "acme.zip", 350, dir, CHUNK_SIZE);
+        assertTrue(download.writeChunk(0, chunk(0, 100)));
+        assertTrue(download.writeChunk(2, chunk(2, 100)));
+        assertEquals(1, download.getNextChunkToDownload());
+        download.close();
+
+        ChunkDownloadManager.ChunkDownload resumed =
+                new ChunkDownloadManager.ChunkDownload("acme", "acme.zip", 350, dir, CHUNK_SIZE);
+        assertEquals(2, resumed.getCompletedChunks());
+        assertEquals(1, resumed.getNextChunkToDownload());
+        assertTrue(resumed.writeChunk(1, chunk(1, 100)));
+        assertEquals(3, resumed.getNextChunkToDownload());
+        assertTrue(resumed.writeChunk(3, chunk(3, 50)));
+
+        assertTrue(resumed.isCompleted());
+        assertFalse(resumed.getManifestFile().exists());
+        assertFalse(resumed.getJournalFile().exists());
+        byte[] content = Files.readAllBytes(resumed.getFinalFile().toPath());
+        assertEquals(350, content.length);
+        for (int i = 0; i < content.length; i++) {
+            assertEquals((byte) (i / CHUNK_SIZE + 1), content[i]);
+        }
+    }
+
+    private ChunkManifest newManifest() {
+        return new ChunkManifest(manifestFile, journalFile, TOTAL_SIZE, CHUNK_SIZE, TOTAL_CHUNKS);
+    }
+
+    private static byte[] chunk(int index, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) (index + 1));
+        return data;
+    }
+}
@@ -0,0 +1,158 @@
+package offgrid.geogram.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks of CollectionHasher with one thread against every core, and of
+ * torrent generation against the serial generator it replaced. Only runs
+ * with -Pbenchmarks, timings don't belong in the unit test suite.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CollectionHasherBenchmark {
+
+    private static final int PIECE = CollectionIndex.TORRENT_PIECE_LENGTH;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("hasher").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    /**
+     * Whole torrent generation, hashing every file: the serial path against
+     * the CollectionHasher pipeline. Both must give the same info hash.
+     */
+    @Test
+    public void benchmarkAgainstSerialGenerator() throws Exception {
+        File root = new File(dir, "collection");
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(write("collection/large" + i + ".bin", 8 * PIECE + i * 1000, i + 1));
+        }
+        for (int i = 0; i < 200; i++) {
+            files.add(write("collection/docs/small" + i + ".txt", 5000 + i * 37, i + 7));
+        }
+        File torrent = new File(dir, "collection.torrent");
+
+        String expected = SerialTorrentGenerator.generateTorrent(root, torrent).infoHash;
+        assertEquals(expected, TorrentGenerator.generateTorrent(root, torrent, null).infoHash);
+
+        // Touch the files before every run so the index hashes them all again
+        long[] modified = {files.get(0).lastModified()};
+        Operation touch = () -> {
+            modified[0] += 1000;
+            for (File file : files) {
+                file.setLastModified(modified[0]);
+            }
+        };
+        double serialMs = measure(touch, () -> SerialTorrentGenerator.generateTorrent(root, torrent));
+        double pipelineMs = measure(touch, () -> TorrentGenerator.generateTorrent(root, torrent, null));
+        String result = String.format("%d files, serial generator %.1f ms/op, pipeline on %d cores %.1f ms/op",
+                files.size(), serialMs, Runtime.getRuntime().availableProcessors(), pipelineMs);
+        assertTrue(result, pipelineMs <= serialMs * 1.2);
+    }
+
+    /**
+     * Synthetic collection of a few large files and many small ones. The
+     * average time per run after warm-up must not get worse with more threads.
+     */
+    @Test
+    public void benchmarkAgainstSingleThread() throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(write("large" + i + ".bin", 8 * PIECE + i * 1000, i + 1));
+        }
+        for (int i = 0; i < 200; i++) {
+            files.add(write("small" + i + ".txt", 5000 + i * 37, i + 7));
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        CollectionHasher serial = new CollectionHasher(1);
+        CollectionHasher parallel = new CollectionHasher(cores);
+        List<CollectionHasher.FileHashes> expected = serial.hashAll(files);
+        List<CollectionHasher.FileHashes> actual = parallel.hashAll(files);
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(expected.get(i).sha1, actual.get(i).sha1);
+            assertEquals(expected.get(i).torrentPieces, actual.get(i).torrentPieces);
+            assertEquals(expected.get(i).pieces, actual.get(i).pieces);
+        }
+
+        double serialMs = measure(serial, files);
+        double parallelMs = measure(parallel, files);
+        String result = String.format("%d files, 1 thread %.1f ms/op, %d threads %.1f ms/op",
+                files.size(), serialMs, cores, parallelMs);
+        assertTrue(result, parallelMs <= serialMs * 1.2);
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static double measure(Operation prepare, Operation operation) throws Exception {
+        long total = 0;
+        for (int i = 0; i < 7; i++) {
+            prepare.run();
+            long start = System.nanoTime();
+            operation.run();
+            // The first two runs are warm-up
+            if (i >= 2) {
+                total += System.nanoTime() - start;
+            }
+        }
+        return total / 1e6 / 5;
+    }
+
+    private static double measure(CollectionHasher hasher, List<File> files) {
+        for (int i = 0; i < 2; i++) {
+            hasher.hashAll(files);
+        }
+        int runs = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            hasher.hashAll(files);
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+
+    private File write(String name, int length, int seed) throws IOException {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * seed + i / 251);
+        }
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
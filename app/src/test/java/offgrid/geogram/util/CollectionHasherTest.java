@@ -0,0 +1,183 @@
+package offgrid.geogram.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the parallel hashing of CollectionHasher.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CollectionHasherTest {
+
+    private static final int PIECE = CollectionIndex.TORRENT_PIECE_LENGTH;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("hasher").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursive(dir);
+    }
+
+    @Test
+    public void testSameHashesAsSerialReading() throws Exception {
+        // Several windows, and a short last piece
+        File file = write("big.bin", 11 * PIECE + 12345, 3);
+        byte[] content = Files.readAllBytes(file.toPath());
+        CollectionHasher.FileHashes hashes = new CollectionHasher(4).hash(file);
+
+        assertEquals(content.length, hashes.size);
+        assertEquals(sha1(content), hashes.sha1);
+        assertEquals(PieceHashes.compute(file, "big.bin").pieces, hashes.pieces);
+        assertEquals(12, hashes.torrentPieces.size());
+        for (int piece = 0; piece < 11; piece++) {
+            byte[] data = Arrays.copyOfRange(content, piece * PIECE, (piece + 1) * PIECE);
+            assertEquals(sha1(data), hashes.torrentPieces.get(piece));
+        }
+        byte[] tail = Arrays.copyOfRange(content, 11 * PIECE, content.length);
+        assertEquals(sha1(Arrays.copyOf(tail, PIECE)), hashes.torrentPieces.get(11));
+        assertEquals(sha1(tail), hashes.torrentTail);
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        File file = write("empty.bin", 0, 1);
+        CollectionHasher.FileHashes hashes = new CollectionHasher(2).hash(file);
+
+        assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", hashes.sha1);
+        assertTrue(hashes.torrentPieces.isEmpty());
+        assertTrue(hashes.pieces.isEmpty());
+        assertNull(hashes.torrentTail);
+    }
+
+    @Test
+    public void testMissingFileGivesNull() throws IOException {
+        File file = write("small.bin", 100, 1);
+        List<CollectionHasher.FileHashes> results = new CollectionHasher(2).hashAll(
+                Arrays.asList(file, new File(dir, "missing.bin")));
+
+        assertEquals(2, results.size());
+        assertNotNull(results.get(0));
+        assertNull(results.get(1));
+    }
+
+    /**
+     * The torrent pieces must be those the serial generator produced before
+     * files were hashed in parallel. Its pieces ran across file boundaries;
+     * with every file but the last a whole number of pieces long, the padded
+     * layout is byte for byte the same.
+     */
+    @Test
+    public void testSameTorrentPiecesAsSerialGenerator() throws Exception {
+        File root = new File(dir, "collection");
+        new File(root, "media").mkdirs();
+        List<File> files = new ArrayList<>();
+        files.add(write("collection/a.bin", 3 * PIECE, 2));
+        files.add(write("collection/media/b.bin", 2 * PIECE, 5));
+        files.add(write("collection/notes.txt", 12345, 9));
+
+        TorrentGenerator.TorrentInfo info = TorrentGenerator.generateTorrent(root,
+                new File(dir, "collection.torrent"), null);
+
+        byte[] expected = serialPieces(files);
+        byte[] torrent = Files.readAllBytes(new File(dir, "collection.torrent").toPath());
+        assertArrayEquals(expected, piecesOf(torrent));
+        assertEquals(expected.length / 20, info.pieceCount);
+    }
+
+    /**
+     * Piece hashes as the serial TorrentGenerator computed them: the files
+     * read one after the other into a single stream of pieces.
+     */
+    private static byte[] serialPieces(List<File> files) throws Exception {
+        ByteArrayOutputStream pieces = new ByteArrayOutputStream();
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        byte[] buffer = new byte[PIECE];
+        int bufferPos = 0;
+        for (File file : files) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                byte[] readBuffer = new byte[8192];
+                int bytesRead;
+                while ((bytesRead = in.read(readBuffer)) != -1) {
+                    int offset = 0;
+                    while (offset < bytesRead) {
+                        int toCopy = Math.min(bytesRead - offset, PIECE - bufferPos);
+                        System.arraycopy(readBuffer, offset, buffer, bufferPos, toCopy);
+                        bufferPos += toCopy;
+                        offset += toCopy;
+                        if (bufferPos == PIECE) {
+                            pieces.write(sha1.digest(buffer));
+                            bufferPos = 0;
+                        }
+                    }
+                }
+            }
+        }
+        if (bufferPos > 0) {
+            sha1.update(buffer, 0, bufferPos);
+            pieces.write(sha1.digest());
+        }
+        return pieces.toByteArray();
+    }
+
+    /**
+     * The value of the "pieces" key of a bencoded torrent.
+     */
+    private static byte[] piecesOf(byte[] torrent) throws IOException {
+        String text = new String(torrent, "ISO-8859-1");
+        int start = text.indexOf("6:pieces") + "6:pieces".length();
+        int colon = text.indexOf(':', start);
+        int length = Integer.parseInt(text.substring(start, colon));
+        return Arrays.copyOfRange(torrent, colon + 1, colon + 1 + length);
+    }
+
+    private static String sha1(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    private File write(String name, int length, int seed) throws IOException {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * seed + i / 251);
+        }
+        File file = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,51 @@
+package offgrid.geogram.util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for CollectionHolders.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CollectionHoldersTest {
+
+    @Test
+    public void testOtherHoldersAreReturned() {
+        CollectionHolders holders = new CollectionHolders();
+        holders.record("npub1a", "X1AAAA", "192.168.1.10", 1000);
+        holders.record("npub1a", "X1BBBB", null, 1000);
+        holders.record("npub1b", "X1CCCC", null, 1000);
+
+        List<CollectionHolders.Holder> result = holders.getHolders("npub1a", "X1AAAA", 2000);
+
+        assertEquals(1, result.size());
+        assertEquals("X1BBBB", result.get(0).deviceId);
+        assertNull(result.get(0).remoteIp);
+        assertTrue(holders.getHolders("npub1z", null, 2000).isEmpty());
+    }
+
+    @Test
+    public void testLatestAddressIsKept() {
+        CollectionHolders holders = new CollectionHolders();
+        holders.record("npub1a", "X1BBBB", null, 1000);
+        holders.record("npub1a", "X1BBBB", "192.168.1.20", 2000);
+
+        List<CollectionHolders.Holder> result = holders.getHolders("npub1a", null, 3000);
+
+        assertEquals(1, result.size());
+        assertEquals("192.168.1.20", result.get(0).remoteIp);
+    }
+
+    @Test
+    public void testStaleHoldersExpire() {
+        CollectionHolders holders = new CollectionHolders();
+        holders.record("npub1a", "X1BBBB", null, 1000);
+
+        assertTrue(holders.getHolders("npub1a", null, 1000 + CollectionHolders.HOLDER_TTL_MS + 1).isEmpty());
+    }
+}
@@ -0,0 +1,153 @@
+package offgrid.geogram.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for CollectionIndex and the torrents built from it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CollectionIndexTest {
+
+    private static final int PIECE = CollectionIndex.TORRENT_PIECE_LENGTH;
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("index").toFile();
+        new File(root, "docs").mkdirs();
+        new File(root, "extra").mkdirs();
+        write("docs/big.bin", content(PIECE + 1000, 3));
+        write("small.txt", content(100, 5));
+        write("collection.js", content(10, 1));
+        write("extra/tree-data.js", content(10, 1));
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursive(root);
+    }
+
+    @Test
+    public void testRefreshListsCollectionFiles() throws Exception {
+        List<CollectionIndex.Entry> entries = new CollectionIndex(root).refresh();
+
+        assertEquals(2, entries.size());
+        assertEquals("docs/big.bin", entries.get(0).path);
+        assertEquals("small.txt", entries.get(1).path);
+        assertEquals(sha1(content(100, 5)), entries.get(1).sha1);
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreHashedAgain() throws IOException {
+        CollectionIndex index = new CollectionIndex(root);
+        List<CollectionIndex.Entry> first = index.refresh();
+
+        File small = write("small.txt", content(120, 6));
+        small.setLastModified(small.lastModified() + 2000);
+        List<CollectionIndex.Entry> second = index.refresh();
+
+        assertSame(first.get(0), second.get(0));
+        assertNotSame(first.get(1), second.get(1));
+        assertEquals(120, second.get(1).size);
+
+        new File(root, "small.txt").delete();
+        List<CollectionIndex.Entry> third = index.refresh();
+        assertEquals(1, third.size());
+        assertNull(index.get("small.txt"));
+    }
+
+    @Test
+    public void testTorrentPiecesArePadded() throws Exception {
+        byte[] big = content(PIECE + 1000, 3);
+        CollectionIndex.Entry entry = new CollectionIndex(root).get("docs/big.bin");
+
+        assertEquals(2, entry.torrentPieces.size());
+        assertEquals(sha1(Arrays.copyOf(big, PIECE)), entry.torrentPieces.get(0));
+        byte[] tail = Arrays.copyOfRange(big, PIECE, big.length);
+        assertEquals(sha1(Arrays.copyOf(tail, PIECE)), entry.torrentPieces.get(1));
+        assertEquals(sha1(tail), entry.torrentTail);
+        assertEquals(sha1(big), entry.sha1);
+    }
+
+    @Test
+    public void testVerificationPiecesAreSaved() throws IOException {
+        new CollectionIndex(root).refresh();
+
+        File saved = new File(root, "extra/hashes/" + PieceHashes.nameFor("docs/big.bin"));
+        assertTrue(saved.isFile());
+    }
+
+    @Test
+    public void testTorrentStartsEveryFileOnAPiece() throws Exception {
+        TorrentGenerator.TorrentInfo info = TorrentGenerator.generateTorrent(root,
+                new File(root, "extra/collection.torrent"), null);
+
+        // Two pieces for the big file, one for the small one
+        assertEquals(3, info.pieceCount);
+        assertEquals(PIECE + 1000 + 100, info.totalSize);
+    }
+
+    @Test
+    public void testInfoHashMatchesWrittenInfo() throws Exception {
+        File output = new File(root, "extra/collection.torrent");
+        TorrentGenerator.TorrentInfo info = TorrentGenerator.generateTorrent(root, output,
+                Arrays.asList("udp://tracker.example:1337"));
+
+        // The info dictionary is the last value of the torrent
+        byte[] torrent = Files.readAllBytes(output.toPath());
+        String text = new String(torrent, "ISO-8859-1");
+        int start = text.indexOf("4:infod") + "4:info".length();
+        byte[] encodedInfo = Arrays.copyOfRange(torrent, start, torrent.length - 1);
+        assertEquals(sha1(encodedInfo), info.infoHash);
+        assertTrue(text.contains("8:announce26:udp://tracker.example:1337"));
+    }
+
+    private File write(String path, byte[] data) throws IOException {
+        File file = new File(root, path);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] content(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * seed + i / 251);
+        }
+        return data;
+    }
+
+    private static String sha1(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    private void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
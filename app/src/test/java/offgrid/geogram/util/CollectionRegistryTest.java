@@ -0,0 +1,147 @@
+package offgrid.geogram.util;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import offgrid.geogram.models.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for CollectionRegistry.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CollectionRegistryTest {
+
+    private Context context;
+    private File collectionsDir;
+    private CollectionRegistry registry;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        collectionsDir = new File(context.getFilesDir(), "collections");
+        deleteRecursive(collectionsDir);
+        collectionsDir.mkdirs();
+        registry = new CollectionRegistry(context);
+    }
+
+    @Test
+    public void testLookupByNpub() throws IOException {
+        writeCollection("books", "npub1books", "Books");
+        writeCollection("music", "npub1music", "Music");
+
+        assertEquals(2, registry.getCollections().size());
+        Collection books = registry.getCollection("npub1books");
+        assertNotNull(books);
+        assertEquals("Books", books.getTitle());
+        assertNull(registry.getCollection("npub1unknown"));
+    }
+
+    @Test
+    public void testChangedMetadataIsReloaded() throws IOException {
+        File folder = writeCollection("books", "npub1books", "Books");
+        assertEquals("Books", registry.getCollection("npub1books").getTitle());
+
+        File collectionJs = writeCollection("books", "npub1books", "Old Books");
+        collectionJs.setLastModified(collectionJs.lastModified() + 2000);
+
+        assertEquals("Old Books", registry.getCollection("npub1books").getTitle());
+        assertEquals(folder.getAbsolutePath(), registry.getCollection("npub1books").getStoragePath());
+    }
+
+    @Test
+    public void testAddedAndRemovedFolders() throws IOException {
+        writeCollection("books", "npub1books", "Books");
+        assertEquals(1, registry.getCollections().size());
+
+        writeCollection("maps", "npub1maps", "Maps");
+        collectionsDir.setLastModified(collectionsDir.lastModified() + 2000);
+        assertNotNull(registry.getCollection("npub1maps"));
+
+        deleteRecursive(new File(collectionsDir, "books"));
+        collectionsDir.setLastModified(collectionsDir.lastModified() + 2000);
+        assertNull(registry.getCollection("npub1books"));
+        assertEquals(1, registry.getCollections().size());
+    }
+
+    @Test
+    public void testCallersGetCopies() throws IOException {
+        writeCollection("books", "npub1books", "Books");
+
+        Collection first = registry.getCollection("npub1books");
+        first.setTitle("Changed by the UI");
+        first.getFiles().clear();
+
+        Collection second = registry.getCollection("npub1books");
+        assertEquals("Books", second.getTitle());
+        assertEquals(1, second.getFiles().size());
+    }
+
+    @Test
+    public void testListingKeptUntilCollectionChanges() throws IOException {
+        writeCollection("books", "npub1books", "Books");
+
+        // Each lookup hands out a new copy, the listing is still built once
+        assertNotSame(registry.getCollection("npub1books"), registry.getCollection("npub1books"));
+        DirectoryListing first = registry.getListing("npub1books");
+        assertSame(first, registry.getListing("npub1books"));
+        assertEquals("readme.txt", first.list("", null, 10).items.get(0).name);
+
+        File collectionJs = writeCollection("books", "npub1books", "Old Books");
+        collectionJs.setLastModified(collectionJs.lastModified() + 2000);
+        assertEquals("Old Books", registry.getCollection("npub1books").getTitle());
+        assertNotSame(first, registry.getListing("npub1books"));
+        assertNull(registry.getListing("npub1unknown"));
+    }
+
+    @Test
+    public void testFavoriteReadOnEveryAccess() throws IOException {
+        writeCollection("books", "npub1books", "Books");
+        assertFalse(registry.getCollection("npub1books").isFavorite());
+
+        CollectionPreferences.setFavorite(context, "npub1books", true);
+
+        assertTrue(registry.getCollection("npub1books").isFavorite());
+        CollectionPreferences.setFavorite(context, "npub1books", false);
+    }
+
+    private File writeCollection(String folderName, String npub, String title) throws IOException {
+        File folder = new File(collectionsDir, folderName);
+        new File(folder, "extra").mkdirs();
+
+        File collectionJs = new File(folder, "collection.js");
+        try (FileWriter writer = new FileWriter(collectionJs)) {
+            writer.write("window.COLLECTION_DATA = {\n"
+                    + "  \"collection\": {\"id\": \"" + npub + "\", \"title\": \"" + title + "\","
+                    + " \"description\": \"\", \"updated\": \"2025-01-01\"}\n"
+                    + "};\n");
+        }
+        try (FileWriter writer = new FileWriter(new File(folder, "extra/tree-data.js"))) {
+            writer.write("window.TREE_DATA = [\n"
+                    + "  {\"path\": \"readme.txt\", \"name\": \"readme.txt\", \"type\": \"file\", \"size\": 12}\n"
+                    + "];\n");
+        }
+        return collectionJs;
+    }
+
+    private void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,96 @@
+package offgrid.geogram.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import offgrid.geogram.models.Collection;
+import offgrid.geogram.models.CollectionFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for paged folder listings.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DirectoryListingTest {
+
+    private Collection collection;
+
+    @Before
+    public void setUp() {
+        collection = new Collection("id", "Listing", "");
+        addFile("b.txt", 10);
+        addFile("A.txt", 20);
+        addFile("photos/2024/one.jpg", 100);
+        addFile("photos/2024/two.jpg", 200);
+        addFile("photos/cover.png", 50);
+        collection.addFile(new CollectionFile("empty", "empty", CollectionFile.FileType.DIRECTORY));
+    }
+
+    @Test
+    public void testFoldersFirstThenByName() {
+        DirectoryListing.Page page = new DirectoryListing(collection).list("", null, 50);
+
+        assertEquals(4, page.total);
+        assertEquals("empty", page.items.get(0).name);
+        assertEquals("photos", page.items.get(1).name);
+        assertEquals("A.txt", page.items.get(2).name);
+        assertEquals("b.txt", page.items.get(3).name);
+        assertNull(page.nextCursor);
+    }
+
+    @Test
+    public void testImpliedFoldersCarrySizeAndCount() {
+        DirectoryListing listing = new DirectoryListing(collection);
+        DirectoryListing.Item photos = listing.list("", null, 50).items.get(1);
+
+        assertTrue(photos.directory);
+        assertEquals(350, photos.size);
+        assertEquals(2, photos.items);
+
+        DirectoryListing.Page year = listing.list("/photos/2024/", null, 50);
+        assertEquals(2, year.total);
+        assertEquals("photos/2024/one.jpg", year.items.get(0).path);
+    }
+
+    @Test
+    public void testCursorContinuesAfterLastItem() {
+        DirectoryListing listing = new DirectoryListing(collection);
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            DirectoryListing.Page page = listing.list("", cursor, 3);
+            for (DirectoryListing.Item item : page.items) {
+                names.add(item.name);
+            }
+            cursor = page.nextCursor;
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(2, pages);
+        assertEquals(4, names.size());
+        assertEquals("b.txt", names.get(3));
+    }
+
+    @Test
+    public void testUnknownFolderAndBadCursor() {
+        DirectoryListing listing = new DirectoryListing(collection);
+
+        assertEquals(0, listing.list("missing", null, 50).total);
+        assertNull(listing.list("", "x:name", 50));
+        assertNull(listing.list("", "d", 50));
+    }
+
+    private void addFile(String path, long size) {
+        CollectionFile file = new CollectionFile(path, path.substring(path.lastIndexOf('/') + 1),
+                CollectionFile.FileType.FILE);
+        file.setSize(size);
+        collection.addFile(file);
+    }
+}
@@ -0,0 +1,165 @@
+package offgrid.geogram.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PieceHashes and verified chunk downloads.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PieceHashesTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private File dir;
+    private byte[] content;
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("pieces").toFile();
+        // Three full pieces and a short one
+        content = new byte[PieceHashes.PIECE_SIZE * 3 + 1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7 + i / 251);
+        }
+        new File(dir, "collection/docs").mkdirs();
+        source = new File(dir, "collection/docs/big.bin");
+        try (FileOutputStream out = new FileOutputStream(source)) {
+            out.write(content);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursive(dir);
+    }
+
+    @Test
+    public void testComputeAndMatch() throws IOException {
+        PieceHashes hashes = PieceHashes.compute(source, "docs/big.bin");
+
+        assertEquals(4, hashes.getPieceCount());
+        assertTrue(hashes.isValidFor(content.length));
+        assertFalse(hashes.isValidFor(content.length + 1));
+        assertEquals(1000, hashes.getPieceLength(3));
+        assertTrue(hashes.matches(1, content, PieceHashes.PIECE_SIZE, PieceHashes.PIECE_SIZE));
+        assertFalse(hashes.matches(1, content, 0, PieceHashes.PIECE_SIZE));
+    }
+
+    @Test
+    public void testSavedListIsReused() throws IOException {
+        File collectionRoot = new File(dir, "collection");
+        PieceHashes first = PieceHashes.forFile(collectionRoot, "docs/big.bin");
+        assertNotNull(first);
+        File saved = new File(collectionRoot, "extra/hashes/" + PieceHashes.nameFor("docs/big.bin"));
+        assertTrue(saved.isFile());
+
+        PieceHashes second = PieceHashes.forFile(collectionRoot, "docs/big.bin");
+        assertEquals(first.pieces, second.pieces);
+
+        // A changed file gets new hashes
+        content[10]++;
+        try (FileOutputStream out = new FileOutputStream(source)) {
+            out.write(content);
+        }
+        source.setLastModified(source.lastModified() + 2000);
+        PieceHashes third = PieceHashes.forFile(collectionRoot, "docs/big.bin");
+        assertNotEquals(first.pieces.get(0), third.pieces.get(0));
+        assertEquals(first.pieces.get(1), third.pieces.get(1));
+    }
+
+    @Test
+    public void testCorruptPieceIsFetchedAgain() throws IOException {
+        ChunkDownloadManager.ChunkDownload download = newDownload();
+        assertTrue(download.setPieceHashes(PieceHashes.compute(source, "docs/big.bin")));
+
+        int chunksPerPiece = PieceHashes.PIECE_SIZE / CHUNK_SIZE;
+        for (int chunk = 0; chunk < download.getTotalChunks(); chunk++) {
+            byte[] data = chunk(chunk);
+            if (chunk == chunksPerPiece + 3) {
+                // Damaged on the way, in the second piece
+                data[100] ^= 0x40;
+            }
+            boolean lastOfSecondPiece = chunk == 2 * chunksPerPiece - 1;
+            assertEquals(!lastOfSecondPiece, download.writeChunk(chunk, data));
+        }
+
+        // Only the second piece is missing again
+        assertEquals(1, download.getCorruptPieces());
+        assertEquals(download.getTotalChunks() - chunksPerPiece, download.getCompletedChunks());
+        assertEquals(chunksPerPiece, download.getNextChunkToDownload());
+        assertFalse(download.isCompleted());
+
+        for (int chunk = chunksPerPiece; chunk < 2 * chunksPerPiece; chunk++) {
+            assertTrue(download.writeChunk(chunk, chunk(chunk)));
+        }
+        assertTrue(download.isCompleted());
+        assertArrayEquals(content, Files.readAllBytes(download.getFinalFile().toPath()));
+    }
+
+    @Test
+    public void testPiecesFromEarlierSessionAreCheckedAtTheEnd() throws IOException {
+        ChunkDownloadManager.ChunkDownload download = newDownload();
+        for (int chunk = 0; chunk < download.getTotalChunks() - 1; chunk++) {
+            byte[] data = chunk(chunk);
+            if (chunk == 2) {
+                data[0] ^= 0x01;
+            }
+            assertTrue(download.writeChunk(chunk, data));
+        }
+        download.close();
+
+        // Resumed, this time with hashes: the first piece was corrupt all along
+        ChunkDownloadManager.ChunkDownload resumed = newDownload();
+        assertTrue(resumed.setPieceHashes(PieceHashes.compute(source, "docs/big.bin")));
+        int last = resumed.getTotalChunks() - 1;
+        assertFalse(resumed.writeChunk(last, chunk(last)));
+        assertEquals(0, resumed.getNextChunkToDownload());
+
+        int chunksPerPiece = PieceHashes.PIECE_SIZE / CHUNK_SIZE;
+        for (int chunk = 0; chunk < chunksPerPiece; chunk++) {
+            assertTrue(resumed.writeChunk(chunk, chunk(chunk)));
+        }
+        assertTrue(resumed.isCompleted());
+        assertArrayEquals(content, Files.readAllBytes(resumed.getFinalFile().toPath()));
+    }
+
+    @Test
+    public void testHashesForAnotherSizeAreRejected() throws IOException {
+        ChunkDownloadManager.ChunkDownload download = new ChunkDownloadManager.ChunkDownload(
+                "other", "other.bin", content.length - 1, new File(dir, "download"), CHUNK_SIZE);
+        assertFalse(download.setPieceHashes(PieceHashes.compute(source, "docs/big.bin")));
+    }
+
+    private ChunkDownloadManager.ChunkDownload newDownload() {
+        return new ChunkDownloadManager.ChunkDownload("big", "big.bin", content.length,
+                new File(dir, "download"), CHUNK_SIZE);
+    }
+
+    private byte[] chunk(int index) {
+        int start = index * CHUNK_SIZE;
+        return Arrays.copyOfRange(content, start, Math.min(start + CHUNK_SIZE, content.length));
+    }
+
+    private void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,240 @@
+package offgrid.geogram.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The torrent generation as it was before CollectionHasher, kept as a
+ * reference for the benchmark: every file read and hashed one after the
+ * other on the calling thread, then the torrent bencoded into a string, and
+ * the info dictionary bencoded a second time for the info hash.
+ */
+class SerialTorrentGenerator {
+
+    private static final int PIECE_LENGTH = CollectionIndex.TORRENT_PIECE_LENGTH;
+
+    private static class FileEntry {
+        String path;
+        long size;
+        String sha1;
+        List<String> torrentPieces = new ArrayList<>();
+        String torrentTail;
+    }
+
+    static TorrentGenerator.TorrentInfo generateTorrent(File collectionRoot, File outputFile) throws Exception {
+        Map<String, File> present = new TreeMap<>();
+        collectFiles(collectionRoot, "", present);
+        List<FileEntry> files = new ArrayList<>();
+        for (Map.Entry<String, File> item : present.entrySet()) {
+            files.add(hash(collectionRoot, item.getValue(), item.getKey()));
+        }
+
+        long totalSize = 0;
+        int lastWithData = -1;
+        for (int i = 0; i < files.size(); i++) {
+            totalSize += files.get(i).size;
+            if (files.get(i).size > 0) {
+                lastWithData = i;
+            }
+        }
+
+        Map<String, Object> torrent = new TreeMap<>();
+        torrent.put("created by", "Geogram");
+        torrent.put("creation date", System.currentTimeMillis() / 1000);
+
+        Map<String, Object> info = new TreeMap<>();
+        info.put("name", collectionRoot.getName());
+        info.put("piece length", PIECE_LENGTH);
+
+        List<Map<String, Object>> filesList = new ArrayList<>();
+        ByteArrayOutputStream piecesData = new ByteArrayOutputStream();
+        for (int i = 0; i < files.size(); i++) {
+            FileEntry file = files.get(i);
+            Map<String, Object> fileInfo = new TreeMap<>();
+            fileInfo.put("length", file.size);
+            fileInfo.put("path", Arrays.asList(file.path.split("/")));
+            filesList.add(fileInfo);
+
+            if (file.size == 0) {
+                continue;
+            }
+            List<String> pieces = file.torrentPieces;
+            if (i == lastWithData) {
+                for (int p = 0; p < pieces.size() - 1; p++) {
+                    piecesData.write(fromHex(pieces.get(p)));
+                }
+                piecesData.write(fromHex(file.torrentTail));
+                continue;
+            }
+            for (String piece : pieces) {
+                piecesData.write(fromHex(piece));
+            }
+            long remainder = file.size % PIECE_LENGTH;
+            if (remainder != 0) {
+                long padding = PIECE_LENGTH - remainder;
+                Map<String, Object> padInfo = new TreeMap<>();
+                padInfo.put("attr", "p");
+                padInfo.put("length", padding);
+                padInfo.put("path", Arrays.asList(".pad", String.valueOf(padding)));
+                filesList.add(padInfo);
+            }
+        }
+        info.put("pieces", piecesData.toByteArray());
+        info.put("files", filesList);
+        torrent.put("info", info);
+
+        byte[] torrentData = bencode(torrent);
+        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
+            fos.write(torrentData);
+        }
+        byte[] infoHash = MessageDigest.getInstance("SHA-1").digest(bencode(info));
+
+        TorrentGenerator.TorrentInfo result = new TorrentGenerator.TorrentInfo();
+        result.infoHash = toHex(infoHash);
+        result.totalSize = totalSize;
+        result.pieceCount = piecesData.size() / 20;
+        return result;
+    }
+
+    /**
+     * Read a file once for its SHA-1, torrent pieces and verification pieces,
+     * as CollectionIndex did.
+     */
+    private static FileEntry hash(File collectionRoot, File file, String relativePath) throws Exception {
+        FileEntry entry = new FileEntry();
+        entry.path = relativePath;
+        entry.size = file.length();
+
+        PieceHashes pieces = new PieceHashes();
+        pieces.path = relativePath;
+        pieces.size = entry.size;
+        pieces.modified = file.lastModified();
+        pieces.pieceSize = PieceHashes.PIECE_SIZE;
+        pieces.algorithm = PieceHashes.ALGORITHM;
+        pieces.pieces = new ArrayList<>();
+
+        MessageDigest whole = MessageDigest.getInstance("SHA-1");
+        MessageDigest torrentPiece = MessageDigest.getInstance("SHA-1");
+        MessageDigest verifyPiece = MessageDigest.getInstance(PieceHashes.ALGORITHM);
+        byte[] buffer = new byte[PIECE_LENGTH];
+        try (InputStream in = new FileInputStream(file)) {
+            while (true) {
+                int filled = readFully(in, buffer);
+                if (filled == 0) {
+                    break;
+                }
+                whole.update(buffer, 0, filled);
+                for (int offset = 0; offset < filled; offset += PieceHashes.PIECE_SIZE) {
+                    verifyPiece.update(buffer, offset, Math.min(PieceHashes.PIECE_SIZE, filled - offset));
+                    pieces.pieces.add(toHex(verifyPiece.digest()));
+                }
+                torrentPiece.update(buffer, 0, filled);
+                if (filled < buffer.length) {
+                    MessageDigest padded = (MessageDigest) torrentPiece.clone();
+                    entry.torrentTail = toHex(torrentPiece.digest());
+                    padded.update(new byte[buffer.length - filled]);
+                    entry.torrentPieces.add(toHex(padded.digest()));
+                    break;
+                }
+                String hash = toHex(torrentPiece.digest());
+                entry.torrentPieces.add(hash);
+                entry.torrentTail = hash;
+            }
+        }
+        entry.sha1 = toHex(whole.digest());
+        PieceHashes.store(collectionRoot, pieces);
+        return entry;
+    }
+
+    private static void collectFiles(File folder, String currentPath, Map<String, File> files) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if ("collection.js".equals(name) || "extra".equals(name) ||
+                "manifest".equals(name) || "data.js".equals(name)) {
+                continue;
+            }
+            String path = currentPath.isEmpty() ? name : currentPath + "/" + name;
+            if (child.isDirectory()) {
+                collectFiles(child, path, files);
+            } else {
+                files.put(path, child);
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int filled = 0;
+        while (filled < buffer.length) {
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read == -1) {
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
+
+    private static byte[] bencode(Object obj) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        bencodeObject(obj, sb);
+        return sb.toString().getBytes("ISO-8859-1");
+    }
+
+    private static void bencodeObject(Object obj, StringBuilder sb) {
+        if (obj instanceof String) {
+            String s = (String) obj;
+            sb.append(s.length()).append(':').append(s);
+        } else if (obj instanceof byte[]) {
+            byte[] bytes = (byte[]) obj;
+            sb.append(bytes.length).append(':');
+            for (byte b : bytes) {
+                sb.append((char) (b & 0xFF));
+            }
+        } else if (obj instanceof Integer || obj instanceof Long) {
+            sb.append('i').append(obj).append('e');
+        } else if (obj instanceof List) {
+            sb.append('l');
+            for (Object item : (List<?>) obj) {
+                bencodeObject(item, sb);
+            }
+            sb.append('e');
+        } else if (obj instanceof Map) {
+            sb.append('d');
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                bencodeObject(entry.getKey(), sb);
+                bencodeObject(entry.getValue(), sb);
+            }
+            sb.append('e');
+        }
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+}
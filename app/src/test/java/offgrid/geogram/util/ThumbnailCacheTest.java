@@ -0,0 +1,172 @@
+package offgrid.geogram.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ThumbnailCache.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class ThumbnailCacheTest {
+
+    private ThumbnailCache cache;
+    private File collectionRoot;
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        cache = ThumbnailCache.getInstance();
+        collectionRoot = Files.createTempDirectory("thumbnails").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        cache.setMaxCacheBytes(32L * 1024 * 1024);
+    }
+
+    @Test
+    public void testThumbnailIsGeneratedOnceThenServedFromCache() throws IOException {
+        writeImage("photos/beach.png", 800, 600);
+        assertFalse(cache.isCached(collectionRoot, "photos/beach.png"));
+
+        File thumbnail = cache.getThumbnail(collectionRoot, "photos/beach.png");
+        assertNotNull(thumbnail);
+        assertTrue(cache.isCached(collectionRoot, "photos/beach.png"));
+        long generatedAt = System.currentTimeMillis() - 1000;
+        assertTrue(thumbnail.setLastModified(generatedAt));
+
+        File again = cache.getThumbnail(collectionRoot, "photos/beach.png");
+        assertEquals(thumbnail, again);
+        assertEquals("Not generated again", generatedAt / 1000, again.lastModified() / 1000);
+
+        // An edited image gets a new thumbnail
+        writeImage("photos/beach.png", 640, 480);
+        assertFalse(cache.isCached(collectionRoot, "photos/beach.png"));
+        assertNotEquals(thumbnail, cache.getThumbnail(collectionRoot, "photos/beach.png"));
+        assertNull(cache.getThumbnail(collectionRoot, "photos/missing.png"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedThumbnailsAreTrimmed() throws IOException {
+        File folder = new File(collectionRoot, "extra/thumbnails");
+        assertTrue(folder.mkdirs());
+        long now = System.currentTimeMillis();
+        File oldest = writeFiller(folder, "oldest.jpg", now - 3 * 3600_000L);
+        File older = writeFiller(folder, "older.jpg", now - 2 * 3600_000L);
+        File recent = writeFiller(folder, "recent.jpg", now - 3600_000L);
+
+        // The new thumbnail pushes the folder over the limit
+        cache.setMaxCacheBytes(30_000);
+        writeImage("photo.png", 400, 300);
+        File thumbnail = cache.getThumbnail(collectionRoot, "photo.png");
+
+        assertNotNull(thumbnail);
+        assertTrue(thumbnail.isFile());
+        assertFalse(oldest.exists());
+        assertTrue(older.exists());
+        assertTrue(recent.exists());
+    }
+
+    @Test
+    public void testCancelledRequestDoesNotRun() throws Exception {
+        blockLoaderThreads();
+        writeImage("photo.png", 400, 300);
+
+        AtomicBoolean cancelledRan = new AtomicBoolean();
+        Future<?> cancelled = cache.load(collectionRoot, "photo.png", bitmap -> cancelledRan.set(true));
+        CountDownLatch loaded = new CountDownLatch(1);
+        List<Bitmap> result = new ArrayList<>();
+        cache.load(collectionRoot, "photo.png", bitmap -> {
+            result.add(bitmap);
+            loaded.countDown();
+        });
+        cache.cancel(cancelled);
+        gate.countDown();
+
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertFalse(cancelledRan.get());
+        assertNotNull(result.get(0));
+        assertTrue(result.get(0).getWidth() <= 400);
+    }
+
+    @Test
+    public void testFullQueueDropsOldestRequest() throws Exception {
+        blockLoaderThreads();
+
+        int count = ThumbnailCache.LOADER_QUEUE_SIZE + 1;
+        CountDownLatch done = new CountDownLatch(count - 1);
+        boolean[] ran = new boolean[count];
+        List<Future<?>> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            requests.add(cache.execute(() -> {
+                ran[index] = true;
+                done.countDown();
+            }));
+        }
+        gate.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(requests.get(0).isCancelled());
+        assertFalse(ran[0]);
+        assertTrue(ran[count - 1]);
+    }
+
+    /**
+     * Keep both loader threads busy until the gate opens, so requests wait in the queue.
+     */
+    private void blockLoaderThreads() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            cache.execute(() -> {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    private void writeImage(String relativePath, int width, int height) throws IOException {
+        File file = new File(collectionRoot, relativePath);
+        file.getParentFile().mkdirs();
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.rgb(width % 256, 120, 200));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+    }
+
+    private File writeFiller(File folder, String name, long lastModified) throws IOException {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), new byte[10_000]);
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
@@ -0,0 +1,182 @@
+package offgrid.geogram.util;
+
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import offgrid.geogram.models.Collection;
+import offgrid.geogram.models.CollectionFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for versioned tree data and deltas.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TreeDataTest {
+
+    private File root;
+    private File treeFile;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("tree").toFile();
+        treeFile = new File(root, TreeData.TREE_FILE);
+        new File(root, "docs").mkdirs();
+        write("docs/a.txt", "first");
+        write("b.txt", "second");
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursive(root);
+    }
+
+    @Test
+    public void testVersionOnlyChangesWithTheList() throws IOException {
+        assertTrue(TreeData.write(scan(), root));
+        TreeData first = readTree();
+        assertEquals(1, first.getVersion());
+        assertEquals(3, first.size());
+
+        assertTrue(TreeData.write(scan(), root));
+        assertEquals(1, readTree().getVersion());
+
+        write("c.txt", "third");
+        assertTrue(TreeData.write(scan(), root));
+        assertEquals(2, readTree().getVersion());
+    }
+
+    @Test
+    public void testDeltaPatchesOldCopy() throws IOException {
+        TreeData.write(scan(), root);
+        String versionOne = read(treeFile);
+
+        write("c.txt", "third");
+        TreeData.write(scan(), root);
+        write("b.txt", "second, longer");
+        new File(root, "docs/a.txt").delete();
+        TreeData.write(scan(), root);
+
+        JsonObject delta = TreeData.delta(root, 1, null);
+        assertFalse(delta.get("full").getAsBoolean());
+        assertEquals(3, delta.get("version").getAsLong());
+        assertEquals(2, delta.getAsJsonArray("changed").size());
+        assertEquals(1, delta.getAsJsonArray("removed").size());
+        assertEquals("docs/a.txt", delta.getAsJsonArray("removed").get(0).getAsString());
+
+        // The patched copy is the owner's file, byte for byte
+        TreeData copy = TreeData.parse(versionOne);
+        assertTrue(copy.apply(delta));
+        assertEquals(3, copy.getVersion());
+        assertEquals(read(treeFile), copy.toJs());
+        assertEquals(delta.get("sha1").getAsString(),
+                TreeData.sha1(copy.toJs().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testCurrentVersionGetsEmptyDelta() throws IOException {
+        TreeData.write(scan(), root);
+        write("c.txt", "third");
+        TreeData.write(scan(), root);
+
+        JsonObject delta = TreeData.delta(root, 2, null);
+        assertFalse(delta.get("full").getAsBoolean());
+        assertEquals(0, delta.getAsJsonArray("changed").size());
+        assertEquals(0, delta.getAsJsonArray("removed").size());
+    }
+
+    @Test
+    public void testBaseFoundByHash() throws IOException {
+        TreeData.write(scan(), root);
+        write("c.txt", "third");
+        TreeData.write(scan(), root);
+        String sha1 = TreeData.sha1(Files.readAllBytes(treeFile.toPath()));
+        write("d.txt", "fourth");
+        TreeData.write(scan(), root);
+
+        JsonObject delta = TreeData.delta(root, 0, sha1);
+        assertFalse(delta.get("full").getAsBoolean());
+        assertEquals(1, delta.getAsJsonArray("changed").size());
+    }
+
+    @Test
+    public void testUnknownVersionGetsFullList() throws IOException {
+        TreeData.write(scan(), root);
+        write("c.txt", "third");
+        TreeData.write(scan(), root);
+
+        assertTrue(TreeData.delta(root, 0, null).get("full").getAsBoolean());
+        assertTrue(TreeData.delta(root, 7, null).get("full").getAsBoolean());
+        TreeData copy = TreeData.parse(read(treeFile));
+        assertFalse(copy.apply(TreeData.delta(root, 7, null)));
+    }
+
+    @Test
+    public void testLegacyFileIsVersionZero() {
+        TreeData legacy = TreeData.parse("window.TREE_DATA = [\n  {\"path\": \"a\", \"type\": \"file\"}\n];\n");
+        assertEquals(0, legacy.getVersion());
+        assertEquals(1, legacy.size());
+    }
+
+    private Collection scan() {
+        Collection collection = new Collection("id", "Tree", "");
+        collection.setStoragePath(root.getAbsolutePath());
+        scanFolder(collection, root, "");
+        return collection;
+    }
+
+    private void scanFolder(Collection collection, File folder, String currentPath) {
+        for (File file : folder.listFiles()) {
+            if ("extra".equals(file.getName())) {
+                continue;
+            }
+            String path = currentPath.isEmpty() ? file.getName() : currentPath + "/" + file.getName();
+            if (file.isDirectory()) {
+                collection.addFile(new CollectionFile(path, file.getName(), CollectionFile.FileType.DIRECTORY));
+                scanFolder(collection, file, path);
+            } else {
+                CollectionFile entry = new CollectionFile(path, file.getName(), CollectionFile.FileType.FILE);
+                entry.setSize(file.length());
+                collection.addFile(entry);
+            }
+        }
+    }
+
+    private TreeData readTree() throws IOException {
+        return TreeData.parse(read(treeFile));
+    }
+
+    private String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(root, path);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        // Rewrites within a second still count as changed
+        file.setLastModified(System.currentTimeMillis() + 2000);
+    }
+
+    private void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
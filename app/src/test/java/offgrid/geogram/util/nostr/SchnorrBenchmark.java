@@ -0,0 +1,79 @@
+package offgrid.geogram.util.nostr;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks of the limb arithmetic against the BigInteger reference and of
+ * batch verification. Only run with -Pbenchmarks; the numbers are in the
+ * assertion messages.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SchnorrBenchmark {
+
+    private static final String SEC_KEY = "B7E151628AED2A6ABF7158809CF4F3C762E7160F38B4DA56A784D9045190CFEF";
+    private static final String MSG = "243F6A8885A308D313198A2E03707344A4093822299F31D0082EFA98EC4E6C89";
+
+    @Test
+    public void benchmarkBatchVerification() throws Exception {
+        int count = 64;
+        byte[][] msgs = new byte[count][];
+        byte[][] pubs = new byte[count][];
+        byte[][] sigs = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            byte[] key = Schnorr.generatePrivateKey();
+            msgs[i] = NostrUtil.sha256(("message " + i).getBytes());
+            pubs[i] = Schnorr.genPubKey(key);
+            sigs[i] = Schnorr.sign(msgs[i], key, NostrUtil.createRandomByteArray(32));
+        }
+        double singleMs = measure(() -> {
+            for (int i = 0; i < count; i++) {
+                assertTrue(Schnorr.verify(msgs[i], pubs[i], sigs[i]));
+            }
+        });
+        double batchMs = measure(() -> assertTrue(Schnorr.verifyBatch(msgs, pubs, sigs)));
+        String result = String.format("%d signatures one by one %.2f ms, as a batch %.2f ms",
+                count, singleMs, batchMs);
+        assertTrue(result, batchMs < singleMs);
+    }
+
+    @Test
+    public void benchmarkAgainstReference() throws Exception {
+        byte[] secKey = NostrUtil.hexToBytes(SEC_KEY);
+        byte[] msg = NostrUtil.hexToBytes(MSG);
+        byte[] aux = new byte[32];
+        BigInteger k = NostrUtil.bigIntFromBytes(secKey);
+
+        double referenceMs = measure(() -> Point.mul(Point.getG(), k));
+        double combMs = measure(() -> Secp256k1.mulG(secKey));
+        double signMs = measure(() -> Schnorr.sign(msg, secKey, aux));
+        byte[] sig = Schnorr.sign(msg, secKey, aux);
+        byte[] pubKey = Schnorr.genPubKey(secKey);
+        double verifyMs = measure(() -> assertTrue(Schnorr.verify(msg, pubKey, sig)));
+        String result = String.format("k*G reference %.2f ms, comb %.3f ms; sign %.3f ms, verify %.3f ms",
+                referenceMs, combMs, signMs, verifyMs);
+        assertTrue(result, combMs < referenceMs);
+        assertTrue(result, signMs < referenceMs);
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static double measure(Operation operation) throws Exception {
+        for (int i = 0; i < 20; i++) {
+            operation.run();
+        }
+        int runs = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+}
@@ -0,0 +1,263 @@
+package offgrid.geogram.util.nostr;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BIP-340 test vectors, a cross-check against the plain BigInteger
+ * arithmetic of Point, and batch verification.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SchnorrTest {
+
+    private static final String MSG = "243F6A8885A308D313198A2E03707344A4093822299F31D0082EFA98EC4E6C89";
+    private static final String PUB = "DFF1D77F2A671C5F36183726DB2341BE58FEAE1DA2DECED843240F7B502BA659";
+
+    // secret key, public key, aux rand, message, signature
+    private static final String[][] SIGNING = {
+        {"0000000000000000000000000000000000000000000000000000000000000003",
+         "F9308A019258C31049344F85F89D5229B531C845836F99B08601F113BCE036F9",
+         "0000000000000000000000000000000000000000000000000000000000000000",
+         "0000000000000000000000000000000000000000000000000000000000000000",
+         "E907831F80848D1069A5371B402410364BDF1C5F8307B0084C55F1CE2DCA8215"
+                 + "25F66A4A85EA8B71E482A74F382D2CE5EBEEE8FDB2172F477DF4900D310536C0"},
+        {"B7E151628AED2A6ABF7158809CF4F3C762E7160F38B4DA56A784D9045190CFEF",
+         PUB,
+         "0000000000000000000000000000000000000000000000000000000000000001",
+         MSG,
+         "6896BD60EEAE296DB48A229FF71DFE071BDE413E6D43F917DC8DCF8C78DE3341"
+                 + "8906D11AC976ABCCB20B091292BFF4EA897EFCB639EA871CFA95F6DE339E4B0A"},
+        {"C90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74020BBEA63B14E5C9",
+         "DD308AFEC5777E13121FA72B9CC1B7CC0139715309B086C960E18FD969774EB8",
+         "C87AA53824B4D7AE2EB035A2B5BBBCCC080E76CDC6D1692C4B0B62D798E6D906",
+         "7E2D58D8B3BCDF1ABADEC7829054F90DDA9805AAB56C77333024B9D0A508B75C",
+         "5831AAEED7B44BB74E5EAB94BA9D4294C49BCF2A60728D8B4C200F50DD313C1B"
+                 + "AB745879A5AD954A72C45A91C3A51D3C7ADEA98D82F8481E0E1E03674A6F3FB7"},
+        {"0B432B2677937381AEF05BB02A66ECD012773062CF3FA2549E44F58ED2401710",
+         "25D1DFF95105F5253C4022F628A996AD3A0D95FBF21D468A1B33F8C160D8F517",
+         "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF",
+         "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF",
+         "7EB0509757E246F19449885651611CB965ECC1A187DD51B64FDA1EDC9637D5EC"
+                 + "97582B9CB13DB3933705B32BA982AF5AF25FD78881EBB32771FC5922EFC66EA3"},
+    };
+
+    // public key, message, signature, expected result
+    private static final String[][] VERIFYING = {
+        {"D69C3509BB99E412E68B0FE8544E72837DFA30746D8BE2AA65975F29D22DC7B9",
+         "4DF3C3F68FCC83B27E9D42C90431A72499F17875C81A599B566C9889B9696703",
+         "00000000000000000000003B78CE563F89A0ED9414F5AA28AD0D96D6795F9C63"
+                 + "76AFB1548AF603B3EB45C9F8207DEE1060CB71C04E80F593060B07D28308D7F4", "true"},
+        // public key not on the curve
+        {"EEFDEA4CDB677750A420FEE807EACF21EB9898AE79B9768766E4FAA04A2D4A34", MSG,
+         "6CFF5C3BA86C69EA4B7376F31A9BCB4F74C1976089B2D9963DA2E5543E177769"
+                 + "69E89B4C5564D00349106B8497785DD7D1D713A8AE82B32FA79D5F7FC407D39B", "false"},
+        // R has odd y
+        {PUB, MSG,
+         "FFF97BD5755EEEA420453A14355235D382F6472F8568A18B2F057A1460297556"
+                 + "3CC27944640AC607CD107AE10923D9EF7A73C643E166BE5EBEAFA34B1AC553E2", "false"},
+        // negated message
+        {PUB, MSG,
+         "1FA62E331EDBC21C394792D2AB1100A7B432B013DF3F6FF4F99FCB33E0E1515F"
+                 + "28890B3EDB6E7189B630448B515CE4F8622A954CFE545735AAEA5134FCCDB2BD", "false"},
+        // negated s
+        {PUB, MSG,
+         "6CFF5C3BA86C69EA4B7376F31A9BCB4F74C1976089B2D9963DA2E5543E177769"
+                 + "961764B3AA9B2FFCB6EF947B6887A226E8D7C93E00C5ED0C1834FF0D0C2E6DA6", "false"},
+        // s * G - e * P is infinity
+        {PUB, MSG,
+         "0000000000000000000000000000000000000000000000000000000000000000"
+                 + "123DDA8328AF9C23A94C1FEECFD123BA4FB73476F0D594DCB65C6425BD186051", "false"},
+        {PUB, MSG,
+         "0000000000000000000000000000000000000000000000000000000000000001"
+                 + "7615FBAF5AE28864013C099742DEADB4DBA87F11AC6754F93780D5A1837CF197", "false"},
+        // r is not an x coordinate on the curve
+        {PUB, MSG,
+         "4A298DACAE57395A15D0795DDBFD1DCB564DA82B0F269BC70A74F8220429BA1D"
+                 + "69E89B4C5564D00349106B8497785DD7D1D713A8AE82B32FA79D5F7FC407D39B", "false"},
+        // r is the field size
+        {PUB, MSG,
+         "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC2F"
+                 + "69E89B4C5564D00349106B8497785DD7D1D713A8AE82B32FA79D5F7FC407D39B", "false"},
+        // s is the curve order
+        {PUB, MSG,
+         "6CFF5C3BA86C69EA4B7376F31A9BCB4F74C1976089B2D9963DA2E5543E177769"
+                 + "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", "false"},
+        // public key is not a field element
+        {"FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC30", MSG,
+         "6CFF5C3BA86C69EA4B7376F31A9BCB4F74C1976089B2D9963DA2E5543E177769"
+                 + "69E89B4C5564D00349106B8497785DD7D1D713A8AE82B32FA79D5F7FC407D39B", "false"},
+    };
+
+    @Test
+    public void testSigningVectors() throws Exception {
+        for (String[] vector : SIGNING) {
+            byte[] secKey = hex(vector[0]);
+            assertEquals(vector[1], NostrUtil.bytesToHex(Schnorr.genPubKey(secKey)).toUpperCase());
+            byte[] sig = Schnorr.sign(hex(vector[3]), secKey, hex(vector[2]));
+            assertEquals(vector[4], NostrUtil.bytesToHex(sig).toUpperCase());
+            assertTrue(Schnorr.verify(hex(vector[3]), hex(vector[1]), sig));
+        }
+    }
+
+    @Test
+    public void testVerificationVectors() throws Exception {
+        for (String[] vector : VERIFYING) {
+            assertEquals(vector[2], Boolean.parseBoolean(vector[3]),
+                    Schnorr.verify(hex(vector[1]), hex(vector[0]), hex(vector[2])));
+        }
+    }
+
+    @Test
+    public void testMatchesReferenceArithmetic() {
+        Random random = new Random(42);
+        BigInteger n = Point.getn();
+        BigInteger[] scalars = {
+            BigInteger.ONE, BigInteger.valueOf(2), BigInteger.valueOf(16), BigInteger.valueOf(255),
+            n.subtract(BigInteger.ONE), n.subtract(BigInteger.valueOf(2)),
+        };
+        for (int i = 0; i < scalars.length + 20; i++) {
+            BigInteger k = i < scalars.length ? scalars[i] : new BigInteger(256, random).mod(n);
+            Point expected = Point.mul(Point.getG(), k);
+            byte[] actual = Secp256k1.mulG(NostrUtil.bytesFromBigInteger(k));
+            assertArrayEquals(NostrUtil.bytesFromBigInteger(expected.getX()), Arrays.copyOfRange(actual, 0, 32));
+            assertArrayEquals(NostrUtil.bytesFromBigInteger(expected.getY()), Arrays.copyOfRange(actual, 32, 64));
+        }
+    }
+
+    @Test
+    public void testSumOfMultiplesMatchesReference() {
+        Random random = new Random(7);
+        BigInteger n = Point.getn();
+        for (int i = 0; i < 10; i++) {
+            BigInteger s = new BigInteger(256, random).mod(n);
+            BigInteger k = new BigInteger(256, random).mod(n);
+            Point pub = Point.liftX(Point.mul(Point.getG(), new BigInteger(256, random).mod(n)).toBytes());
+
+            Point expected = Point.add(Point.mul(Point.getG(), s), Point.mul(pub, k));
+            byte[] actual = Secp256k1.mulGAdd(NostrUtil.bytesFromBigInteger(s), pub.toBytes(), k);
+            assertArrayEquals(NostrUtil.bytesFromBigInteger(expected.getX()), Arrays.copyOfRange(actual, 0, 32));
+            assertArrayEquals(NostrUtil.bytesFromBigInteger(expected.getY()), Arrays.copyOfRange(actual, 32, 64));
+        }
+    }
+
+    @Test
+    public void testTamperedSignatureFails() throws Exception {
+        byte[] secKey = Schnorr.generatePrivateKey();
+        byte[] pubKey = Schnorr.genPubKey(secKey);
+        byte[] msg = NostrUtil.sha256("hello".getBytes());
+        byte[] sig = Schnorr.sign(msg, secKey, NostrUtil.createRandomByteArray(32));
+
+        assertTrue(Schnorr.verify(msg, pubKey, sig));
+        for (int i : new int[] {0, 31, 32, 63}) {
+            byte[] bad = sig.clone();
+            bad[i] ^= 1;
+            assertFalse(Schnorr.verify(msg, pubKey, bad));
+        }
+    }
+
+    @Test
+    public void testBatchVerification() throws Exception {
+        int count = 12;
+        byte[][] keys = {Schnorr.generatePrivateKey(), Schnorr.generatePrivateKey(), Schnorr.generatePrivateKey()};
+        byte[][] msgs = new byte[count][];
+        byte[][] pubs = new byte[count][];
+        byte[][] sigs = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            byte[] key = keys[i % keys.length];
+            msgs[i] = NostrUtil.sha256(("message " + i).getBytes());
+            pubs[i] = Schnorr.genPubKey(key);
+            sigs[i] = Schnorr.sign(msgs[i], key, NostrUtil.createRandomByteArray(32));
+        }
+        assertTrue(Schnorr.verifyBatch(msgs, pubs, sigs));
+        assertTrue(Schnorr.verifyBatch(new byte[0][], new byte[0][], new byte[0][]));
+
+        // The vectors that verify on their own also verify as a batch
+        byte[][] vectorMsgs = new byte[SIGNING.length + 1][];
+        byte[][] vectorPubs = new byte[SIGNING.length + 1][];
+        byte[][] vectorSigs = new byte[SIGNING.length + 1][];
+        for (int i = 0; i < SIGNING.length; i++) {
+            vectorMsgs[i] = hex(SIGNING[i][3]);
+            vectorPubs[i] = hex(SIGNING[i][1]);
+            vectorSigs[i] = hex(SIGNING[i][4]);
+        }
+        vectorMsgs[SIGNING.length] = hex(VERIFYING[0][1]);
+        vectorPubs[SIGNING.length] = hex(VERIFYING[0][0]);
+        vectorSigs[SIGNING.length] = hex(VERIFYING[0][2]);
+        assertTrue(Schnorr.verifyBatch(vectorMsgs, vectorPubs, vectorSigs));
+
+        // Any single invalid signature fails the batch
+        for (int v = 1; v < VERIFYING.length; v++) {
+            byte[][] badMsgs = msgs.clone();
+            byte[][] badPubs = pubs.clone();
+            byte[][] badSigs = sigs.clone();
+            badMsgs[5] = hex(VERIFYING[v][1]);
+            badPubs[5] = hex(VERIFYING[v][0]);
+            badSigs[5] = hex(VERIFYING[v][2]);
+            assertFalse(VERIFYING[v][2], Schnorr.verifyBatch(badMsgs, badPubs, badSigs));
+        }
+        byte[][] swapped = sigs.clone();
+        swapped[0] = sigs[3];
+        swapped[3] = sigs[0];
+        assertFalse(Schnorr.verifyBatch(msgs, pubs, swapped));
+    }
+
+    @Test
+    public void testScalarArithmeticMatchesBigInteger() {
+        Random random = new Random(11);
+        BigInteger n = Point.getn();
+        BigInteger max = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+        BigInteger[] edges = {BigInteger.ONE, n.subtract(BigInteger.ONE), n, n.add(BigInteger.ONE), max};
+        for (int i = 0; i < edges.length + 200; i++) {
+            BigInteger a = i < edges.length ? edges[i] : new BigInteger(256, random);
+            BigInteger b = new BigInteger(256, random);
+            BigInteger c = i % 2 == 0 ? n.subtract(BigInteger.ONE) : new BigInteger(256, random);
+            long[] la = Secp256k1.scalarFromBytes(NostrUtil.bytesFromBigInteger(a));
+            long[] lb = Secp256k1.scalarFromBytes(NostrUtil.bytesFromBigInteger(b));
+            long[] lc = Secp256k1.scalarFromBytes(NostrUtil.bytesFromBigInteger(c));
+            assertArrayEquals(NostrUtil.bytesFromBigInteger(a.mod(n)), Secp256k1.scalarToBytes(la));
+
+            BigInteger sum = a.add(b.multiply(c)).mod(n);
+            assertArrayEquals(NostrUtil.bytesFromBigInteger(sum),
+                    Secp256k1.scalarToBytes(Secp256k1.scalarMulAdd(la, lb, lc)));
+
+            if (a.mod(n).signum() != 0) {
+                long[] negated = la.clone();
+                Secp256k1.scalarNegateIf(negated, 1);
+                assertArrayEquals(NostrUtil.bytesFromBigInteger(n.subtract(a.mod(n))),
+                        Secp256k1.scalarToBytes(negated));
+                Secp256k1.scalarNegateIf(negated, 0);
+                assertArrayEquals(NostrUtil.bytesFromBigInteger(n.subtract(a.mod(n))),
+                        Secp256k1.scalarToBytes(negated));
+            }
+        }
+        assertTrue(Secp256k1.scalarIsValid(NostrUtil.bytesFromBigInteger(n.subtract(BigInteger.ONE))));
+        assertFalse(Secp256k1.scalarIsValid(new byte[32]));
+        assertFalse(Secp256k1.scalarIsValid(NostrUtil.bytesFromBigInteger(n)));
+        assertFalse(Secp256k1.scalarIsValid(NostrUtil.bytesFromBigInteger(max)));
+    }
+
+    @Test
+    public void testInvalidSecretKeyIsRejected() throws Exception {
+        byte[] msg = hex(MSG);
+        byte[][] keys = {new byte[32], NostrUtil.bytesFromBigInteger(Point.getn()), new byte[31]};
+        for (byte[] key : keys) {
+            try {
+                Schnorr.sign(msg, key, new byte[32]);
+                fail("Expected an exception for " + NostrUtil.bytesToHex(key));
+            } catch (Exception expected) {
+                // out of range
+            }
+        }
+    }
+
+    private static byte[] hex(String s) {
+        return NostrUtil.hexToBytes(s);
+    }
+}